@@ -0,0 +1,139 @@
+/**
+ * Ptolemy3D - a Java-based 3D Viewer for GeoWeb applications.
+ * Copyright (C) 2008 Mark W. Korver
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ptolemy3d.tile.jp2;
+
+import java.io.IOException;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * <code>EntropyDecoder.decode</code>, one code-block per operation.<BR>
+ * Each call decodes the next code-block of the tile, all the code-blocks of all the resolutions
+ * in turn, so the sample time percentiles show the spread between code-blocks. The code-block
+ * size is the one of the tile: 64x64 for most tiles, 32x32 and 16x16 for <code>earth-cb32</code>
+ * and <code>earth-cb16</code>.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EntropyDecoderBenchmark
+{
+	/** Input of a code-block decoding */
+	private static class CodeBlock
+	{
+		final int orient;
+		final byte[] data;
+		final int start, len;
+		final int npasses;
+		final int msbSk;
+		final int w, h;
+
+		CodeBlock(int orient, byte[] data, int start, int len, int npasses, int msbSk, int w, int h)
+		{
+			this.orient = orient;
+			this.data = data;
+			this.start = start;
+			this.len = len;
+			this.npasses = npasses;
+			this.msbSk = msbSk;
+			this.w = w;
+			this.h = h;
+		}
+	}
+
+	@Param({"default", "earth", "earth-2bpp", "earth-cb32", "earth-cb16"})
+	public String tile;
+
+	private EntropyDecoder entropyDec;
+	private CodeBlock[] codeBlocks;
+	private int next = 0;
+
+	@Setup
+	public void setUp() throws IOException
+	{
+		final Jp2Corpus.Tile jp2 = new Jp2Corpus.Tile(tile);
+		final byte[][] data = jp2.cutResolutions();
+
+		final Vector<CodeBlock> blocks = new Vector<CodeBlock>();
+		for (int res = 0; res < data.length; res++) {
+			Subband node = jp2.head.treeRoot;
+			while (node.resLvl != res) {
+				node = node.subb_LL;
+			}
+			for (int c = 0; c < jp2.head.nComp; c++) {
+				if (res == 0) {
+					addCodeBlocks(blocks, jp2.block, node, c, data[res]);
+				}
+				else {
+					addCodeBlocks(blocks, jp2.block, node.subb_LH, c, data[res]);
+					addCodeBlocks(blocks, jp2.block, node.subb_HL, c, data[res]);
+					addCodeBlocks(blocks, jp2.block, node.subb_HH, c, data[res]);
+				}
+			}
+		}
+		codeBlocks = blocks.toArray(new CodeBlock[blocks.size()]);
+
+		entropyDec = new EntropyDecoder();
+		entropyDec.init(jp2.head);
+	}
+
+	/** Add the code-blocks of a subband, with the geometry computed by <code>Jp2Decoder</code>. */
+	private static void addCodeBlocks(Vector<CodeBlock> blocks, Jp2Block block, Subband sb, int c, byte[] data)
+	{
+		final int t = 0, r = sb.resLvl, s = sb.sbandIdx;
+		final CodeBlockTable codeBlocks = block.codeBlocks;
+		final CodeBlockTable.Layout layout = codeBlocks.layout;
+		final int numY = layout.getNumY(c, r, s);
+		final int numX = layout.getNumX(c, r, s);
+		final int cn = (sb.ulcx + sb.nomCBlkW) / sb.nomCBlkW - 1;
+		final int cm = (sb.ulcy + sb.nomCBlkH) / sb.nomCBlkH - 1;
+
+		for (int m = 0; m < numY; m++) {
+			final int buly = (m == 0) ? sb.uly : (cm + m) * sb.nomCBlkH - sb.ulcy + sb.uly;
+			final int blkh = (m < numY - 1) ? (cm + m + 1) * sb.nomCBlkH - sb.ulcy + sb.uly - buly : sb.uly + sb.h - buly;
+			for (int n = 0; n < numX; n++) {
+				final int cb = layout.getCodeBlock(t, c, r, s, m, n);
+				if (codeBlocks.isIncluded(cb)) {
+					final int bulx = (n == 0) ? sb.ulx : (cn + n) * sb.nomCBlkW - sb.ulcx + sb.ulx;
+					final int blkw = (n < numX - 1) ? (cn + n + 1) * sb.nomCBlkW - sb.ulcx + sb.ulx - bulx : sb.ulx + sb.w - bulx;
+					blocks.add(new CodeBlock(sb.gOrient, data, codeBlocks.getOffset(cb, t) - block.progPackStart[t][r], codeBlocks.getLength(cb, t),
+							codeBlocks.getTotalTruncationPoints(cb), codeBlocks.getMsbSkipped(cb), blkw, blkh));
+				}
+			}
+		}
+	}
+
+	@Benchmark
+	public int[] decode()
+	{
+		final CodeBlock cb = codeBlocks[next];
+		if (++next == codeBlocks.length) {
+			next = 0;
+		}
+		return entropyDec.decode(cb.orient, cb.data, cb.start, cb.len, cb.npasses, cb.msbSk, cb.w, cb.h);
+	}
+}
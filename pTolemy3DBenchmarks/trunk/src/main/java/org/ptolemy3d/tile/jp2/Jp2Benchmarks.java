@@ -0,0 +1,61 @@
+/**
+ * Ptolemy3D - a Java-based 3D Viewer for GeoWeb applications.
+ * Copyright (C) 2008 Mark W. Korver
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ptolemy3d.tile.jp2;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the jp2 decoding benchmarks.<BR>
+ * Takes the JMH command line options, with these defaults:<BR>
+ * - the GC profiler, which reports the allocation rate (<code>gc.alloc.rate.norm</code> is the
+ * number of bytes allocated per operation),<BR>
+ * - results written in <code>jmh-result.json</code>, to compare runs and gate regressions.<BR>
+ * Throughput and sample time (with its percentiles) are measured by all the benchmarks.<BR>
+ * <BR>
+ * Examples:<BR>
+ * <code>java -jar target/benchmarks.jar</code><BR>
+ * <code>java -jar target/benchmarks.jar TileDecodeBenchmark -p tile=earth -rff before.json</code>
+ */
+public class Jp2Benchmarks
+{
+	public static void main(String[] args) throws Exception
+	{
+		final CommandLineOptions cmd = new CommandLineOptions(args);
+		if (cmd.shouldHelp() || cmd.shouldList() || cmd.shouldListProfilers() || cmd.shouldListResultFormats()) {
+			org.openjdk.jmh.Main.main(args);
+			return;
+		}
+
+		final ChainedOptionsBuilder options = new OptionsBuilder().parent(cmd);
+		if (cmd.getProfilers().isEmpty()) {
+			options.addProfiler(GCProfiler.class);
+		}
+		if (!cmd.getResultFormat().hasValue()) {
+			options.resultFormat(ResultFormatType.JSON);
+		}
+		if (!cmd.getResult().hasValue()) {
+			options.result("jmh-result.json");
+		}
+		new Runner(options.build()).run();
+	}
+}
@@ -0,0 +1,137 @@
+/**
+ * Ptolemy3D - a Java-based 3D Viewer for GeoWeb applications.
+ * Copyright (C) 2008 Mark W. Korver
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ptolemy3d.tile.jp2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Sample tiles of the benchmarks, in <code>src/main/resources/jp2</code>.<BR>
+ * All are 1024x1024 RGB tiles with 3 decomposition levels, 1 layer, the 5x3 reversible filter
+ * and the packet headers packed in the tile header, like the tiles served to the viewer:<BR>
+ * - <code>default</code>: the tile of the ptconsole sample layer, 64x64 code-blocks, 0.8 bpp.<BR>
+ * - <code>earth</code>: the PtolemyJS level 2 example imagery, 64x64 code-blocks, 0.8 bpp.<BR>
+ * - <code>earth-2bpp</code>: same imagery at 2 bpp, more coding passes per code-block.<BR>
+ * - <code>earth-cb32</code>, <code>earth-cb16</code>: same imagery with 32x32 and 16x16 code-blocks.<BR>
+ * <BR>
+ * The earth tiles have been encoded with JJ2000 5.1:<BR>
+ * <code>JJ2KEncoder -i earth.ppm -o earth.jp2 -rate 0.8 -Alayers 0.8 -Wlev 3 -Ffilters w5x3
+ * -Qtype reversible -pph_tile on -file_format off [-Cblksiz 32 32]</code>
+ */
+class Jp2Corpus
+{
+	/** A parsed tile */
+	static class Tile
+	{
+		final byte[] file;
+		final Jp2Head head;
+		final Jp2Block block;
+
+		Tile(String name) throws IOException
+		{
+			file = read(name);
+			/* The whole file is given as header data: the packet headers of the bigger tiles
+			 * do not fit in Communicator.HEADERMAXLEN, and would be fetched again by the viewer */
+			head = new Jp2Head(file);
+			block = new Jp2Block();
+			head.setTileHeader(block, file);
+		}
+
+		final int getNumResolutions()
+		{
+			return head.COD_reslvls + 1;
+		}
+
+		/** @return data of the resolutions, as fetched by the tile loader */
+		final byte[][] cutResolutions()
+		{
+			final byte[][] data = new byte[getNumResolutions()][];
+			for (int res = 0; res < data.length; res++) {
+				data[res] = block.cutResolution(file, 0, res);
+			}
+			return data;
+		}
+
+		/** @return an array to decode the tile data */
+		final short[][] newTargetData()
+		{
+			return new short[head.nComp][head.getImageW() * head.getImageH()];
+		}
+
+		/** @return arrays for the image data of each resolution */
+		final byte[][] newImageData()
+		{
+			final byte[][] imgData = new byte[getNumResolutions()][];
+			for (int res = 0; res < imgData.length; res++) {
+				final int size = head.subbandLL_w(res);
+				imgData[res] = new byte[size * size * head.nComp];
+			}
+			return imgData;
+		}
+
+		/**
+		 * Decode the resolutions <code>0</code> to <code>lastRes</code>, the way the tile loader does:
+		 * each resolution is converted to image data, which is the low-pass subband of the next one.
+		 */
+		final void decode(Jp2Decoder decoder, short[][] targetData, byte[][] data, byte[][] imgData, int lastRes)
+		{
+			for (int res = 0; res <= lastRes; res++) {
+				final int size = head.subbandLL_w(res);
+				decoder.getNextResolution(block, 0, targetData, res, data[res]);
+				head.setImageData(imgData[res], targetData, size);
+				if (res < lastRes) {
+					prepareNextResolution(targetData, imgData[res], res + 1);
+				}
+			}
+		}
+
+		/** Set up <code>targetData</code> to decode <code>res</code>, from the image data of the previous resolution. */
+		final void prepareNextResolution(short[][] targetData, byte[] prevImgData, int res)
+		{
+			final int size = head.subbandLL_w(res);
+			final int prevSize = head.subbandLL_w(res - 1);
+			for (int c = 0; c < targetData.length; c++) {
+				Arrays.fill(targetData[c], 0, size * size, (short) 0);
+			}
+			head.prepareImageData(targetData, prevImgData, size, prevSize);
+		}
+	}
+
+	/** @return content of the tile <code>name</code> */
+	static byte[] read(String name) throws IOException
+	{
+		final InputStream is = Jp2Corpus.class.getResourceAsStream("/jp2/" + name + ".jp2");
+		if (is == null) {
+			throw new IOException("No tile " + name + " in the corpus");
+		}
+		try {
+			final ByteArrayOutputStream os = new ByteArrayOutputStream(256 * 1024);
+			final byte[] buffer = new byte[8192];
+			int read;
+			while ((read = is.read(buffer)) != -1) {
+				os.write(buffer, 0, read);
+			}
+			return os.toByteArray();
+		}
+		finally {
+			is.close();
+		}
+	}
+}
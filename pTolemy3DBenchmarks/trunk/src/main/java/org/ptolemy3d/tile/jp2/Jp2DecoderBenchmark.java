@@ -0,0 +1,96 @@
+/**
+ * Ptolemy3D - a Java-based 3D Viewer for GeoWeb applications.
+ * Copyright (C) 2008 Mark W. Korver
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ptolemy3d.tile.jp2;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * <code>Jp2Decoder.getNextResolution</code>, for each resolution: entropy decoding of the
+ * code-blocks, dequantization and wavelet synthesis.<BR>
+ * The decoder and its arrays are reused, like by the decoder threads of the tile loader, so the
+ * allocation rate is the one of the decoding itself. The low-pass subband, decoded during the
+ * setup, is restored before each call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class Jp2DecoderBenchmark
+{
+	@Param({"default", "earth", "earth-2bpp", "earth-cb32", "earth-cb16"})
+	public String tile;
+
+	@Param({"0", "1", "2", "3"})
+	public int res;
+
+	private Jp2Corpus.Tile jp2;
+	private Jp2Decoder decoder;
+	private byte[][] data;
+	private short[][] targetData;
+	/** Content of <code>targetData</code> before decoding <code>res</code> */
+	private short[][] initialData;
+
+	@Setup
+	public void setUp() throws IOException
+	{
+		jp2 = new Jp2Corpus.Tile(tile);
+		if (res >= jp2.getNumResolutions()) {
+			throw new IllegalArgumentException("Tile " + tile + " has " + jp2.getNumResolutions() + " resolutions");
+		}
+		decoder = new Jp2Decoder(jp2.head);
+		data = jp2.cutResolutions();
+		targetData = jp2.newTargetData();
+
+		if (res > 0) {
+			final byte[][] imgData = jp2.newImageData();
+			jp2.decode(decoder, targetData, data, imgData, res - 1);
+			jp2.prepareNextResolution(targetData, imgData[res - 1], res);
+		}
+		final int size = jp2.head.subbandLL_w(res);
+		initialData = new short[targetData.length][];
+		for (int c = 0; c < targetData.length; c++) {
+			initialData[c] = new short[size * size];
+			System.arraycopy(targetData[c], 0, initialData[c], 0, size * size);
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void restore()
+	{
+		for (int c = 0; c < targetData.length; c++) {
+			System.arraycopy(initialData[c], 0, targetData[c], 0, initialData[c].length);
+		}
+	}
+
+	@Benchmark
+	public short[][] getNextResolution()
+	{
+		decoder.getNextResolution(jp2.block, 0, targetData, res, data[res]);
+		return targetData;
+	}
+}
@@ -0,0 +1,67 @@
+/**
+ * Ptolemy3D - a Java-based 3D Viewer for GeoWeb applications.
+ * Copyright (C) 2008 Mark W. Korver
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ptolemy3d.tile.jp2;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Jp2 header parsing: the main header, once per layer, and the tile header with its packet
+ * headers, once per tile.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class Jp2HeadBenchmark
+{
+	@Param({"default", "earth", "earth-2bpp", "earth-cb32", "earth-cb16"})
+	public String tile;
+
+	private byte[] file;
+	private Jp2Head head;
+
+	@Setup
+	public void setUp() throws IOException
+	{
+		file = Jp2Corpus.read(tile);
+		head = new Jp2Head(file);
+	}
+
+	@Benchmark
+	public Jp2Head mainHeader()
+	{
+		return new Jp2Head(file);
+	}
+
+	@Benchmark
+	public Jp2Block tileHeader()
+	{
+		final Jp2Block block = new Jp2Block();
+		head.setTileHeader(block, file);
+		return block;
+	}
+}
@@ -0,0 +1,135 @@
+/**
+ * Ptolemy3D - a Java-based 3D Viewer for GeoWeb applications.
+ * Copyright (C) 2008 Mark W. Korver
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ptolemy3d.tile.jp2;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import jj2000.j2k.codestream.HeaderInfo;
+import jj2000.j2k.codestream.reader.BitstreamReaderAgent;
+import jj2000.j2k.codestream.reader.HeaderDecoder;
+import jj2000.j2k.decoder.Decoder;
+import jj2000.j2k.decoder.DecoderSpecs;
+import jj2000.j2k.entropy.decoder.EntropyDecoder;
+import jj2000.j2k.image.DataBlkInt;
+import jj2000.j2k.image.ImgDataConverter;
+import jj2000.j2k.image.invcomptransf.InvCompTransf;
+import jj2000.j2k.quantization.dequantizer.Dequantizer;
+import jj2000.j2k.roi.ROIDeScaler;
+import jj2000.j2k.util.ISRandomAccessIO;
+import jj2000.j2k.util.ParameterList;
+import jj2000.j2k.wavelet.synthesis.InverseWT;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Full tile decoding, from the jp2 file to the pixels of the highest resolution.<BR>
+ * - <code>fastDecoder</code>: the viewer decoder, the tile header is parsed and all the
+ * resolutions are decoded and converted to image data, like by the tile loader. The main
+ * header, parsed once per layer, and the decoder arrays are reused.<BR>
+ * - <code>jj2000Decoder</code>: the JJ2000 decoder, used by the tools. It decodes the highest
+ * resolution only, from the main header.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TileDecodeBenchmark
+{
+	@Param({"default", "earth", "earth-2bpp", "earth-cb32", "earth-cb16"})
+	public String tile;
+
+	private Jp2Corpus.Tile jp2;
+	private Jp2Decoder decoder;
+	private short[][] targetData;
+	private byte[][] imgData;
+	private ParameterList defaultParams;
+
+	@Setup
+	public void setUp() throws IOException
+	{
+		jp2 = new Jp2Corpus.Tile(tile);
+		decoder = new Jp2Decoder(jp2.head);
+		targetData = jp2.newTargetData();
+		imgData = jp2.newImageData();
+
+		defaultParams = new ParameterList();
+		for (String[] param : Decoder.getAllParameters()) {
+			final String value = param[param.length - 1];
+			if (value != null) {
+				defaultParams.put(param[0], value);
+			}
+		}
+		defaultParams.put("nocolorspace", "on");
+	}
+
+	@Benchmark
+	public byte[] fastDecoder()
+	{
+		final Jp2Block block = new Jp2Block();
+		jp2.head.setTileHeader(block, jp2.file);
+
+		final int lastRes = jp2.getNumResolutions() - 1;
+		final byte[][] data = new byte[lastRes + 1][];
+		for (int res = 0; res <= lastRes; res++) {
+			data[res] = block.cutResolution(jp2.file, 0, res);
+		}
+		jp2.decode(decoder, targetData, data, imgData, lastRes);
+		return imgData[lastRes];
+	}
+
+	@Benchmark
+	public int[][] jj2000Decoder() throws IOException
+	{
+		final ParameterList pl = new ParameterList(defaultParams);
+		final ISRandomAccessIO in = new ISRandomAccessIO(new ByteArrayInputStream(jp2.file), jp2.file.length, 1, jp2.file.length);
+
+		final HeaderInfo hi = new HeaderInfo();
+		final HeaderDecoder hd = new HeaderDecoder(in, pl, hi);
+		final DecoderSpecs decSpec = hd.getDecoderSpecs();
+		final int numComps = hd.getNumComps();
+		final int[] depth = new int[numComps];
+		for (int c = 0; c < numComps; c++) {
+			depth[c] = hd.getOriginalBitDepth(c);
+		}
+
+		final BitstreamReaderAgent breader = BitstreamReaderAgent.createInstance(in, hd, pl, decSpec, false, hi);
+		final EntropyDecoder entdec = hd.createEntropyDecoder(breader, pl);
+		final ROIDeScaler roids = hd.createROIDeScaler(entdec, pl, decSpec);
+		final Dequantizer deq = hd.createDequantizer(roids, depth, decSpec);
+		final InverseWT invWT = InverseWT.createInstance(deq, decSpec);
+		invWT.setImgResLevel(breader.getImgRes());
+		final ImgDataConverter converter = new ImgDataConverter(invWT, 0);
+		final InvCompTransf decodedImage = new InvCompTransf(converter, decSpec, depth, pl);
+
+		decodedImage.setTile(0, 0);
+		final int[][] pixels = new int[numComps][];
+		for (int c = 0; c < numComps; c++) {
+			final DataBlkInt blk = new DataBlkInt(0, 0, decodedImage.getTileCompWidth(0, c), decodedImage.getTileCompHeight(0, c));
+			pixels[c] = ((DataBlkInt) decodedImage.getInternCompData(blk, c)).getDataInt();
+		}
+		return pixels;
+	}
+}
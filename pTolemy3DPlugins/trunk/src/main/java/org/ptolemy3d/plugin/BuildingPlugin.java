@@ -29,6 +29,7 @@ import org.ptolemy3d.io.Communicator;
 import org.ptolemy3d.math.Math3D;
 import org.ptolemy3d.scene.Landscape;
 import org.ptolemy3d.scene.Plugin;
+import org.ptolemy3d.scene.TerrainListener;
 import org.ptolemy3d.tile.Jp2Tile;
 import org.ptolemy3d.tile.Level;
 import org.ptolemy3d.util.ByteReader;
@@ -39,7 +40,7 @@ import org.ptolemy3d.plugin.util.VectorNode;
 import org.ptolemy3d.view.Camera;
 import org.ptolemy3d.view.LatLonAlt;
 
-public class BuildingPlugin implements Plugin
+public class BuildingPlugin implements Plugin, TerrainListener
 {
 	/** ptolemy Instance */
 	private Ptolemy3D ptolemy;
@@ -62,6 +63,9 @@ public class BuildingPlugin implements Plugin
 	private boolean[] isFixed;
 	private VectorNode[][][][] bu_shape;
 	private double[][] ctds; // centroids
+	private int[][] bu_bounds; // min longitude, min latitude, max longitude, max latitude
+	/** Ground height under each polygon centroid, by building, null when not queried yet */
+	private double[][][] bu_ground;
 	private int[] bu_dwid = null;
 	private int[] tex_w = null;
 	private int[] tex_h = null;
@@ -207,7 +211,7 @@ public class BuildingPlugin implements Plugin
 	}
 
 	// called when motion stops.
-	public void motionStop(GL gl)
+	public synchronized void motionStop(GL gl)
 	{
 		final Camera camera = ptolemy.camera;
 		if ((camera.getVerticalAltitudeMeters() >= DISP_MAXZ) || (camera.getVerticalAltitudeMeters() < DISP_MINZ) || (!STATUS)) {
@@ -321,6 +325,8 @@ public class BuildingPlugin implements Plugin
 				}
 			}
 			isFixed[fix_id] = true;
+			// polygons split by tile: their centroids moved
+			bu_ground[fix_id] = null;
 		}
 		else
 		{
@@ -356,6 +362,8 @@ public class BuildingPlugin implements Plugin
 
 		double drcheck = DisplayRadius;
 
+		final double[][][] bu_ground = getGroundHeights(landscape, latLonAlt);
+
 		for (i = 0; i < numBldgs; i++)
 		{
 			//FIXME || true !!!
@@ -393,7 +401,7 @@ public class BuildingPlugin implements Plugin
 						}
 
 						VectorNode.getCentroid(bu_shape[i][j][k], outpoints);
-						gfloor = landscape.groundHeight(outpoints[0], outpoints[1], 0);
+						gfloor = bu_ground[i][j][k];
 						builfloor = gfloor;
 
 						roofht = bu_z[i] + ((ht_ref_type == 1) ? gfloor : 0);
@@ -573,6 +581,7 @@ public class BuildingPlugin implements Plugin
 			double[] bu_z = new double[numBldgs];   // height of building
 			VectorNode[][][][] bu_shape = new VectorNode[numBldgs][][][];
 			double[][] ctds = new double[numBldgs][2];
+			int[][] bu_bounds = new int[numBldgs][];
 			boolean[] isFixed = new boolean[numBldgs];
 			int[] bu_dwid = null, tex_w = null, tex_h = null;
 			if (data[cur[0]++] == 1)
@@ -597,6 +606,7 @@ public class BuildingPlugin implements Plugin
 			{
 				isFirstPoint = true;
 				ctds[i][0] = ctds[i][1] = 0;
+				bu_bounds[i] = new int[] { Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE };
 				tlen = cwx = cwz = 0;
 				// id
 				bu_ids[i] = ByteReader.readInt(data, cur);
@@ -634,6 +644,10 @@ public class BuildingPlugin implements Plugin
 							}
 							prev_x = bu_shape[i][j][k][m].rp[0];
 							prev_z = bu_shape[i][j][k][m].rp[1];
+							bu_bounds[i][0] = Math.min(bu_bounds[i][0], prev_x);
+							bu_bounds[i][1] = Math.min(bu_bounds[i][1], prev_z);
+							bu_bounds[i][2] = Math.max(bu_bounds[i][2], prev_x);
+							bu_bounds[i][3] = Math.max(bu_bounds[i][3], prev_z);
 						}
 					}
 				}
@@ -656,16 +670,19 @@ public class BuildingPlugin implements Plugin
 			}
 
 			// if drawing wait to transfer data
-
-			this.numBldgs = numBldgs;
-			this.bu_ids = bu_ids;
-			this.bu_z = bu_z;
-			this.bu_shape = bu_shape;
-			this.ctds = ctds;
-			this.isFixed = isFixed;
-			this.bu_dwid = bu_dwid;
-			this.tex_w = tex_w;
-			this.tex_h = tex_h;
+			synchronized (this) {
+				this.numBldgs = numBldgs;
+				this.bu_ids = bu_ids;
+				this.bu_z = bu_z;
+				this.bu_shape = bu_shape;
+				this.ctds = ctds;
+				this.bu_bounds = bu_bounds;
+				this.bu_ground = new double[numBldgs][][];
+				this.isFixed = isFixed;
+				this.bu_dwid = bu_dwid;
+				this.tex_w = tex_w;
+				this.tex_h = tex_h;
+			}
 		}
 	}
 
@@ -773,7 +790,85 @@ public class BuildingPlugin implements Plugin
 		return false;
 	}
 
-	public void reloadData()
+	public synchronized void reloadData()
 	{
+		// Terrain enabled or disabled: all the ground heights changed
+		if (bu_ground != null) {
+			Arrays.fill(bu_ground, null);
+		}
+	}
+
+	/**
+	 * Ground height under the polygon centroids of the buildings in the display radius.<BR>
+	 * Only the buildings not known yet, or whose terrain changed, are queried, in one batch.
+	 * @return heights by building, multi-polygon and polygon
+	 */
+	private double[][][] getGroundHeights(Landscape landscape, LatLonAlt latLonAlt)
+	{
+		final double[][][] bu_ground = this.bu_ground;
+
+		int numPending = 0;
+		for (int i = 0; i < numBldgs; i++) {
+			if ((bu_ground[i] == null) && isInDisplayRadius(i, latLonAlt)) {
+				for (int j = 0; j < bu_shape[i].length; j++) {
+					numPending += bu_shape[i][j].length;
+				}
+			}
+		}
+		if (numPending == 0) {
+			return bu_ground;
+		}
+
+		final double[] lons = new double[numPending];
+		final double[] lats = new double[numPending];
+		for (int i = 0, n = 0; i < numBldgs; i++) {
+			if ((bu_ground[i] == null) && isInDisplayRadius(i, latLonAlt)) {
+				for (int j = 0; j < bu_shape[i].length; j++) {
+					for (int k = 0; k < bu_shape[i][j].length; k++, n++) {
+						VectorNode.getCentroid(bu_shape[i][j][k], outpoints);
+						lons[n] = outpoints[0];
+						lats[n] = outpoints[1];
+					}
+				}
+			}
+		}
+		final double[] heights = new double[numPending];
+		landscape.groundHeights(lons, lats, heights, 0);
+
+		for (int i = 0, n = 0; i < numBldgs; i++) {
+			if ((bu_ground[i] == null) && isInDisplayRadius(i, latLonAlt)) {
+				final double[][] ground = new double[bu_shape[i].length][];
+				for (int j = 0; j < ground.length; j++) {
+					ground[j] = new double[bu_shape[i][j].length];
+					System.arraycopy(heights, n, ground[j], 0, ground[j].length);
+					n += ground[j].length;
+				}
+				bu_ground[i] = ground;
+			}
+		}
+		return bu_ground;
+	}
+
+	private boolean isInDisplayRadius(int i, LatLonAlt latLonAlt)
+	{
+		return Math3D.distance3D(latLonAlt.getLongitudeDD(), ctds[i][0], latLonAlt.getAltitudeDD(), bu_z[i], latLonAlt.getLatitudeDD(), ctds[i][1]) < DisplayRadius;
+	}
+
+	/** Query again the ground height of the buildings crossing the area. */
+	public synchronized void terrainChanged(int level, int minLon, int minLat, int maxLon, int maxLat)
+	{
+		final double[][][] bu_ground = this.bu_ground;
+		final int[][] bu_bounds = this.bu_bounds;
+		if ((bu_ground == null) || (bu_bounds == null)) {
+			return;
+		}
+
+		final int n = Math.min(bu_ground.length, bu_bounds.length);
+		for (int i = 0; i < n; i++) {
+			final int[] b = bu_bounds[i];
+			if ((b[0] <= maxLon) && (b[2] >= minLon) && (b[1] <= maxLat) && (b[3] >= minLat)) {
+				bu_ground[i] = null;
+			}
+		}
 	}
 }
\ No newline at end of file
@@ -44,12 +44,13 @@ import org.ptolemy3d.plugin.util.XsltPOI;
 import org.ptolemy3d.scene.Landscape;
 import org.ptolemy3d.scene.Plugin;
 import org.ptolemy3d.scene.Sky;
+import org.ptolemy3d.scene.TerrainListener;
 import org.ptolemy3d.util.ByteReader;
 import org.ptolemy3d.util.PngDecoder;
 import org.ptolemy3d.view.Camera;
 import org.ptolemy3d.view.LatLonAlt;
 
-public class POILabelPlugin implements Plugin
+public class POILabelPlugin implements Plugin, TerrainListener
 {
 	/** ptolemy Instance */
 	private Ptolemy3D ptolemy;
@@ -107,6 +108,11 @@ public class POILabelPlugin implements Plugin
 	private byte[] distToSel;
 	private Hashtable<String,String> hl_list;
     private double[][] feature_real_coord; // [index][x,y]
+    /** Ground height under the features, kept until the terrain of their area changes */
+    private double[] feature_ground = null;
+    private boolean[] feature_groundSet = null;
+    /** Features of the ground heights */
+    private double[][] feature_groundCoord = null;
     private double[][] obj_end;
     private String LAYER = "";
     private String enc_layer = "";
@@ -475,6 +481,8 @@ public class POILabelPlugin implements Plugin
 
     		float texw;
 
+    		final double[] grounds = getFeatureGroundHeights(landscape);
+
     		for (int i = 0; i < numFeatures; i++)
     		{
     			if (feature_text_ix[i] != -1)
@@ -487,7 +495,7 @@ public class POILabelPlugin implements Plugin
 
     				gl.glPushMatrix();
 
-    				ty = landscape.groundHeight(feature_real_coord[i][0], feature_real_coord[i][1], 0) + (raise * unit.coordSystemRatio);
+    				ty = grounds[i] + (raise * unit.coordSystemRatio);
 
     				px = obj_end[i][0] * (EARTH_RADIUS + ty);
     				py = obj_end[i][1] * (EARTH_RADIUS + ty);
@@ -702,6 +710,65 @@ public class POILabelPlugin implements Plugin
     	}
     }
 
+    /**
+     * Ground height under the features with a label.<BR>
+     * Only the heights not known yet, or whose terrain changed, are queried, in one batch.
+     * @return heights by feature index, 0 for the features without label
+     */
+    private synchronized double[] getFeatureGroundHeights(Landscape landscape)
+    {
+    	if ((feature_ground == null) || (feature_groundCoord != feature_real_coord) || (feature_ground.length < numFeatures)) {
+    		feature_ground = new double[numFeatures];
+    		feature_groundSet = new boolean[numFeatures];
+    		feature_groundCoord = feature_real_coord;
+    	}
+
+    	int numPending = 0;
+    	for (int i = 0; i < numFeatures; i++) {
+    		if ((feature_text_ix[i] != -1) && !feature_groundSet[i]) {
+    			numPending++;
+    		}
+    	}
+    	if (numPending == 0) {
+    		return feature_ground;
+    	}
+
+    	final double[] lons = new double[numPending];
+    	final double[] lats = new double[numPending];
+    	for (int i = 0, k = 0; i < numFeatures; i++) {
+    		if ((feature_text_ix[i] != -1) && !feature_groundSet[i]) {
+    			lons[k] = feature_real_coord[i][0];
+    			lats[k] = feature_real_coord[i][1];
+    			k++;
+    		}
+    	}
+    	final double[] heights = new double[numPending];
+    	landscape.groundHeights(lons, lats, heights, 0);
+
+    	for (int i = 0, k = 0; i < numFeatures; i++) {
+    		if ((feature_text_ix[i] != -1) && !feature_groundSet[i]) {
+    			feature_ground[i] = heights[k++];
+    			feature_groundSet[i] = true;
+    		}
+    	}
+    	return feature_ground;
+    }
+
+    /** Query again the ground height of the features inside the area. */
+    public synchronized void terrainChanged(int level, int minLon, int minLat, int maxLon, int maxLat)
+    {
+    	if (feature_groundCoord == null) {
+    		return;
+    	}
+    	final int n = Math.min(feature_groundSet.length, feature_groundCoord.length);
+    	for (int i = 0; i < n; i++) {
+    		final double lon = feature_groundCoord[i][0], lat = feature_groundCoord[i][1];
+    		if ((lon >= minLon) && (lon <= maxLon) && (lat >= minLat) && (lat <= maxLat)) {
+    			feature_groundSet[i] = false;
+    		}
+    	}
+    }
+
     public boolean pick(double[] intpt, double[][] ray)
     {
     	final Landscape landscape = ptolemy.scene.landscape;
@@ -735,6 +802,8 @@ public class POILabelPlugin implements Plugin
     		double ht, pixw, scale;
     		int raise = 50;
 
+    		final double[] grounds = getFeatureGroundHeights(landscape);
+
     		for (int i = 0; i < numFeatures; i++)
     		{
 
@@ -746,7 +815,7 @@ public class POILabelPlugin implements Plugin
     			{
     				continue;
     			}
-    			ht = landscape.groundHeight(feature_real_coord[i][0], feature_real_coord[i][1], 0) + (raise * unit.coordSystemRatio);
+    			ht = grounds[i] + (raise * unit.coordSystemRatio);
 
     			tx = obj_end[i][0] * (EARTH_RADIUS + ht);
     			ty = obj_end[i][1] * (EARTH_RADIUS + ht);
@@ -1770,5 +1839,7 @@ public class POILabelPlugin implements Plugin
 
     public void reloadData()
     {
+    	// Terrain enabled or disabled: all the ground heights changed
+    	feature_groundCoord = null;
     }
 }
\ No newline at end of file
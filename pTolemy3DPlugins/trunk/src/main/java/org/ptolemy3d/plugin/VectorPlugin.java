@@ -32,6 +32,7 @@ import org.ptolemy3d.io.Communicator;
 import org.ptolemy3d.math.Math3D;
 import org.ptolemy3d.scene.Landscape;
 import org.ptolemy3d.scene.Plugin;
+import org.ptolemy3d.scene.TerrainListener;
 import org.ptolemy3d.util.ByteReader;
 import org.ptolemy3d.plugin.util.GMLDoc;
 import org.ptolemy3d.plugin.util.VectorClass;
@@ -40,7 +41,7 @@ import org.ptolemy3d.plugin.util.XsltVector;
 import org.ptolemy3d.view.Camera;
 import org.ptolemy3d.view.LatLonAlt;
 
-public class VectorPlugin implements Plugin
+public class VectorPlugin implements Plugin, TerrainListener
 {
 	/** ptolemy Instance */
 	private Ptolemy3D ptolemy;
@@ -83,6 +84,8 @@ public class VectorPlugin implements Plugin
 	private int[] vec_ids;  // id in database
 	private boolean[][] isFixed;
 	private VectorNode[][][][] shape;
+	/** Bounds of the shapes: min longitude, min latitude, max longitude, max latitude */
+	private int[][] bounds;
 	private double[][] ctds; // centroids
 	Vector<Integer> hatchedLists = null;
 	Vector<Integer> selectedShapes = null;
@@ -632,6 +635,7 @@ public class VectorPlugin implements Plugin
 			boolean[][] isFixed = new boolean[numgeoms][START_INTP_LVL];
 			double[][] ctds = new double[numgeoms][2];
 			VectorNode[][][][] shape = new VectorNode[numgeoms][][][];
+			int[][] bounds = new int[numgeoms][];
 			
 			selected_id = -1;
 			int i,j,k,m,numpts,numobj,numrings;
@@ -703,6 +707,7 @@ public class VectorPlugin implements Plugin
 					ctds[i][0] = (float)(cwx / tlen);
 					ctds[i][1] = (float)(cwz / tlen);
 				}
+				bounds[i] = getBounds(shape[i]);
 			
 				
 				TextLabel = xsltOutput.getLabel(i);
@@ -742,6 +747,7 @@ public class VectorPlugin implements Plugin
 			this.vec_ids = vec_ids;
 			this.isFixed = isFixed;
 			this.ctds = ctds;
+			this.bounds = bounds;
 			this.shape = shape;
 		}
 	}
@@ -802,6 +808,7 @@ public class VectorPlugin implements Plugin
 			boolean[][] isFixed = new boolean[numgeoms][START_INTP_LVL];
 			double[][] ctds = new double[numgeoms][2];
 			VectorNode[][][][] shape = new VectorNode[numgeoms][][][];
+			int[][] bounds = new int[numgeoms][];
 
 			selected_id = -1;
 
@@ -879,6 +886,7 @@ public class VectorPlugin implements Plugin
 					ctds[i][0] = (float) (cwx / tlen);
 					ctds[i][1] = (float) (cwz / tlen);
 				}
+				bounds[i] = getBounds(shape[i]);
 				if (TextLabel != null)
 				{
 					// label
@@ -933,6 +941,7 @@ public class VectorPlugin implements Plugin
 			this.vec_ids = vec_ids;
 			this.isFixed = isFixed;
 			this.ctds = ctds;
+			this.bounds = bounds;
 			this.shape = shape;
 
 		}
@@ -1135,6 +1144,49 @@ public class VectorPlugin implements Plugin
 		forceDataLoad = true;
 	}
 
+	/** Clamp again the geometries crossing the area, when the camera stops. */
+	public void terrainChanged(int level, int minLon, int minLat, int maxLon, int maxLat)
+	{
+		final boolean[][] isFixed = this.isFixed;
+		final int[][] bounds = this.bounds;
+		if ((isFixed == null) || (bounds == null)) {
+			return;
+		}
+
+		final int n = Math.min(isFixed.length, bounds.length);
+		for (int i = 0; i < n; i++) {
+			final int[] b = bounds[i];
+			if ((b != null) && (b[0] <= maxLon) && (b[2] >= minLon) && (b[1] <= maxLat) && (b[3] >= minLat)) {
+				Arrays.fill(isFixed[i], false);
+			}
+		}
+	}
+
+	/** @return bounds of a shape: min longitude, min latitude, max longitude, max latitude */
+	private static int[] getBounds(VectorNode[][][] geom)
+	{
+		int minx = Integer.MAX_VALUE, minz = Integer.MAX_VALUE;
+		int maxx = Integer.MIN_VALUE, maxz = Integer.MIN_VALUE;
+		for (int j = 0; j < geom.length; j++) {
+			if (geom[j] == null) {
+				continue;
+			}
+			for (int k = 0; k < geom[j].length; k++) {
+				if (geom[j][k] == null) {
+					continue;
+				}
+				for (int m = 0; m < geom[j][k].length; m++) {
+					final int[] rp = geom[j][k][m].rp;
+					minx = Math.min(minx, rp[0]);
+					maxx = Math.max(maxx, rp[0]);
+					minz = Math.min(minz, rp[1]);
+					maxz = Math.max(maxz, rp[1]);
+				}
+			}
+		}
+		return new int[] { minx, minz, maxx, maxz };
+	}
+
 	private void drawHatchedPoly(int a1, int a2, int a3, VectorClass vc)
 	{
 		final Landscape landscape = ptolemy.scene.landscape;
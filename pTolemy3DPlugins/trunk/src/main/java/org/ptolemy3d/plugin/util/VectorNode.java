@@ -145,11 +145,21 @@ public class VectorNode
 		final Landscape landscape = Ptolemy3D.ptolemy.scene.landscape;
 		final Ptolemy3DUnit unit = Ptolemy3D.ptolemy.unit;
 
+		// Ground height of all the points in one batch
+		final double[] lons = new double[ipts.length];
+		final double[] lats = new double[ipts.length];
 		double[] pt = new double[3];
 		for (int i = 0; i < ipts.length; i++) {
 			Vector3d.normalize(ipts[i]);
 			Math3D.setMapCoord(ipts[i], pt);
-			double ty = landscape.groundHeight(pt[1] * unit.DD, pt[0] * unit.DD, 0) + vectorRaise;
+			lons[i] = pt[1] * unit.DD;
+			lats[i] = pt[0] * unit.DD;
+		}
+		final double[] heights = new double[ipts.length];
+		landscape.groundHeights(lons, lats, heights, 0);
+
+		for (int i = 0; i < ipts.length; i++) {
+			double ty = heights[i] + vectorRaise;
 			ipts[i][0] *= EARTH_RADIUS + ty;
 			ipts[i][1] *= EARTH_RADIUS + ty;
 			ipts[i][2] *= EARTH_RADIUS + ty;
@@ -42,7 +42,7 @@ import org.apache.commons.cli.ParseException;
  * <p>Given an input directory with .hdr and .dat files it generates .bdm files
  * ready for ptolemy3d viewer.</p>
  * <p>Parameters are: <br/>
- * DemCutter [input dir] [startx] [starty] [tile width] [cell width] [area] [output dir] [mult factor] [hdr extension] [dat extension] [isBinary] [outputType] [inside sig] [wall sig]
+ * DemCutter [input dir] [startx] [starty] [tile width] [cell width] [area] [output dir] [mult factor] [hdr extension] [dat extension] [isBinary] [outputType] [inside sig | step] [wall sig]
  * </p>
  *
  * <ul>
@@ -61,8 +61,9 @@ import org.apache.commons.cli.ParseException;
  * <li>hdr extension: a string containing the extension for header files that contains ascii header GRIDFLOAT information.</li>
  * <li>dat extension: a string containing the extension for data files with the ESRI GRIDFLOAT Binary Grid information. Used named as *.dat.</li>
  * <li>isBinary: 1-means binary, 0-means not binary. Specifies if the input files are in binay format. </li>
- * <li>outputType: 1-means TIN, 0-means BDM. Specifies the output file type.</li>
+ * <li>outputType: 1-means TIN, 0-means BDM, 2-means CDM (compressed BDM, see {@link DemEncoder}). Specifies the output file type.</li>
  * <li>inside sig: optional and only applied for TIN output files. Meters value to trim data on inside of dem.</li>
+ * <li>step: optional and only applied for CDM output files. Quantization step of the heights in meters, 1 (default) keeps the BDM heights.</li>
  * <li>wall sig: optional and only applied for TIN output files. Meters value to trim data on edges of dem.</li>
  * </ul>
  *
@@ -89,11 +90,13 @@ public class DemCutter {
     private static final String INDEX_FILENAME = "indexheaders.idx";
     private static final int BDM_OUTPUT = 0;
     private static final int TIN_OUTPUT = 1;
+    private static final int CDM_OUTPUT = 2;
     private static final String BINARY_FILE = "1";
     private static final String DEFAULT_HEADER_EXTENSION = ".hdr";
     private static final String DEFAULT_DATA_EXTENSION = ".asc";
     private static final String TIN_EXTENSION = ".tin";
     private static final String BDM_EXTENSION = ".bdm";
+    private static final String CDM_EXTENSION = ".cdm";
     // Attributes
     private String headerFile = DEFAULT_HEADER_EXTENSION;
     private String dataFile = DEFAULT_DATA_EXTENSION;
@@ -110,6 +113,7 @@ public class DemCutter {
     private String outputDir;
     private double insideSig = 0.3;
     private double wallSig = 0.3;
+    private int quantizationStep = 1;
 
     /**
      * Parse arguments and create DemCutter instance.
@@ -204,7 +208,7 @@ public class DemCutter {
         /////////////////////////////
 
         if (args.length < 12) {
-            System.out.println("usage : DemCutter [dem file directory] [startx] [starty] [tile w] [cell width] [area] [outdir] [mult] [hdr] [dat] [isBinary] [outputType] [inside sig] [wall sig]");
+            System.out.println("usage : DemCutter [dem file directory] [startx] [starty] [tile w] [cell width] [area] [outdir] [mult] [hdr] [dat] [isBinary] [outputType] [inside sig | step] [wall sig]");
             System.exit(1);
         }
 
@@ -251,8 +255,22 @@ public class DemCutter {
         if ((outputType == TIN_OUTPUT) && (args.length > 13)) {
             wallSig = Double.parseDouble(args[13]);
         }
+        if ((outputType == CDM_OUTPUT) && (args.length > 12)) {
+            quantizationStep = Integer.parseInt(args[12]);
+        }
 
-        String fsuffix = (outputType == BDM_OUTPUT) ? BDM_EXTENSION : TIN_EXTENSION;
+        String fsuffix;
+        switch (outputType) {
+            case TIN_OUTPUT:
+                fsuffix = TIN_EXTENSION;
+                break;
+            case CDM_OUTPUT:
+                fsuffix = CDM_EXTENSION;
+                break;
+            default:
+                fsuffix = BDM_EXTENSION;
+                break;
+        }
 
         int nCellsX = tileWidth / cellWidth + 1;
         int nCellsY = tileWidth / cellWidth + 1;
@@ -309,6 +327,9 @@ public class DemCutter {
                         fout.writeShort((short) dem[i]);
                     }
                     break;
+                case CDM_OUTPUT:
+                    fout.write(DemEncoder.encode(dem, quantizationStep));
+                    break;
                 case TIN_OUTPUT:
                     DemConvertor demconv = new DemConvertor(dem, tileWidth, minX, maxY);
                     demconv.verbose = true;
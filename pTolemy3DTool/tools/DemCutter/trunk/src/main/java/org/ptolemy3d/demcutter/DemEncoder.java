@@ -0,0 +1,118 @@
+/**
+ * Ptolemy3D - a Java-based 3D Viewer for GeoWeb applications.
+ * Copyright (C) 2008 Mark W. Korver
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ptolemy3d.demcutter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * <p>Encoder of the compressed DEM tiles (.cdm), the compact version of the .bdm files.</p>
+ * <p>Big-endian header:</p>
+ * <ul>
+ * <li>magic: 'C' 'D' 'M' and the version, 1.</li>
+ * <li>int: number of rows of the square grid.</li>
+ * <li>short: minimum and maximum height.</li>
+ * <li>short: quantization step, heights are <tt>min + value * step</tt>.</li>
+ * </ul>
+ * <p>Then a deflate stream of the grid values row by row, each one as the zig-zag varint of its
+ * difference with the planar prediction of its left, upper and upper left neighbours. On smooth
+ * terrain most differences fit in a single byte that deflate compresses well.</p>
+ * <p>With a step of 1 the heights are the same as in the .bdm file.</p>
+ */
+public class DemEncoder {
+
+    private static final int MAGIC = ('C' << 24) | ('D' << 16) | ('M' << 8) | 1;
+
+    /**
+     * Encode a square DEM.
+     *
+     * @param dem heights, row by row, truncated to shorts as in the .bdm files
+     * @param step quantization step in meters, 1 for no loss
+     * @return the compressed DEM
+     * @throws IOException
+     */
+    public static byte[] encode(float[] dem, int step) throws IOException {
+        if ((step <= 0) || (step > Short.MAX_VALUE)) {
+            throw new IllegalArgumentException("Invalid quantization step: " + step);
+        }
+        int numRows = (int) Math.sqrt(dem.length);
+
+        int min = Short.MAX_VALUE;
+        int max = Short.MIN_VALUE;
+        for (int i = 0; i < dem.length; i++) {
+            short h = (short) dem[i];
+            min = Math.min(min, h);
+            max = Math.max(max, h);
+        }
+        if (min > max) {
+            min = max = 0;
+        }
+
+        // Quantized values, rounded down when min + value * step would overflow a short
+        int maxValue = (Short.MAX_VALUE - min) / step;
+        int[] values = new int[numRows * numRows];
+        int maxQuantized = 0;
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Math.min(Math.round((float) ((short) dem[i] - min) / step), maxValue);
+            maxQuantized = Math.max(maxQuantized, values[i]);
+        }
+        max = min + maxQuantized * step;
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream(values.length);
+        DataOutputStream header = new DataOutputStream(bout);
+        header.writeInt(MAGIC);
+        header.writeInt(numRows);
+        header.writeShort(min);
+        header.writeShort(max);
+        header.writeShort(step);
+        header.flush();
+
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        DeflaterOutputStream out = new DeflaterOutputStream(bout, deflater, 4096);
+        byte[] varint = new byte[5];
+        for (int i = 0, v = 0; i < numRows; i++) {
+            for (int j = 0; j < numRows; j++, v++) {
+                int prediction;
+                if (i == 0) {
+                    prediction = (j == 0) ? 0 : values[v - 1];
+                } else if (j == 0) {
+                    prediction = values[v - numRows];
+                } else {
+                    prediction = values[v - 1] + values[v - numRows] - values[v - numRows - 1];
+                }
+                int residual = values[v] - prediction;
+                int zigzag = (residual << 1) ^ (residual >> 31);
+
+                int len = 0;
+                while ((zigzag & ~0x7F) != 0) {
+                    varint[len++] = (byte) ((zigzag & 0x7F) | 0x80);
+                    zigzag >>>= 7;
+                }
+                varint[len++] = (byte) zigzag;
+                out.write(varint, 0, len);
+            }
+        }
+        out.finish();
+        deflater.end();
+
+        return bout.toByteArray();
+    }
+}
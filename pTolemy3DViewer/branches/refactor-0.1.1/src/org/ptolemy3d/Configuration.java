@@ -87,6 +87,8 @@ public class Configuration {
 		public final static String TileColor = "TileColor";
 		public final static String BackgroundColor = "BackgroundColor";
 		public final static String FlightFrameDelay = "FlightFrameDelay";
+		public final static String DiskCacheSize = "DiskCacheSize";
+		public final static String TextureCacheSize = "TextureCacheSize";
 	}
 
 	// Logger instance.
@@ -107,6 +109,10 @@ public class Configuration {
 	public boolean useTIN = false;
 	public String backgroundImageUrl = null;
 	public boolean follorDEM = true;
+	/** Size of the cache of the downloaded files, in MB */
+	public int diskCacheSize = 512;
+	/** Size of the cache of the decoded textures, in MB */
+	public int textureCacheSize = 512;
 
 	/**
 	 * Constructs a new Configuration taken values from the applet's parameters.
@@ -305,6 +311,14 @@ public class Configuration {
 			if (maxalt != -1) {
 				CameraMovement.MAXIMUM_ALTITUDE = maxalt;
 			}
+			int cacheSize = getOptionalParameterInt(Optional.DiskCacheSize, docelem);
+			if (cacheSize != -1) {
+				diskCacheSize = cacheSize;
+			}
+			cacheSize = getOptionalParameterInt(Optional.TextureCacheSize, docelem);
+			if (cacheSize != -1) {
+				textureCacheSize = cacheSize;
+			}
 
 			// Background image
 			backgroundImageUrl = getOptionalParameter(
@@ -17,6 +17,7 @@
  */
 package org.ptolemy3d;
 
+import java.io.File;
 import java.util.logging.Logger;
 
 import netscape.javascript.JSObject;
@@ -100,6 +101,7 @@ public final class Ptolemy3D {
 	private static MapDataManager mapDataManager = null;
 	private static DataFinder dataFinder = null;
 	private static FileSystemCache cache = null;
+	private static FileSystemCache textureCache = null;
 
 	public Ptolemy3D() {
 	}
@@ -115,7 +117,11 @@ public final class Ptolemy3D {
 		dataFinder = new DataFinder(configuration.getServer(),
 				configuration.servers);
 		mapDataManager = new MapDataManager();
-		cache = new FileSystemCache();
+		final File cacheRoot = new File(System.getProperty("user.home"), ".ptolemy");
+		cache = new FileSystemCache(new File(cacheRoot, "files"),
+				(long)configuration.diskCacheSize << 20);
+		textureCache = new FileSystemCache(new File(cacheRoot, "textures"),
+				(long)configuration.textureCacheSize << 20);
 	}
 
 	/**
@@ -170,6 +176,12 @@ public final class Ptolemy3D {
 	 */
 	public static void shutDown() {
 		stop();
+		if (cache != null) {
+			cache.close();
+		}
+		if (textureCache != null) {
+			textureCache.close();
+		}
 
 		// TODO - Test if necessary.
 		// // Stop and shutDown all the 3D
@@ -243,6 +255,11 @@ public final class Ptolemy3D {
 		return cache;
 	}
 
+	/** @return cache of the decoded textures */
+	public static FileSystemCache getTextureCache() {
+		return textureCache;
+	}
+
 	public static Ptolemy3DJavascript getJavascript() {
 		return javascript;
 	}
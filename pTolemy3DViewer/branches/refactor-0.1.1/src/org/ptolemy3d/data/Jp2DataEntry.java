@@ -17,6 +17,7 @@
  */
 package org.ptolemy3d.data;
 
+import java.io.File;
 import java.lang.ref.SoftReference;
 import java.net.URL;
 import org.ptolemy3d.Ptolemy3D;
@@ -66,6 +67,15 @@ class Jp2DataEntry extends MapDataEntry {
 		return decoderSoftRef.get();
 	}
 
+	/** @return length and modification date of the downloaded jp2, identify the wavelets decoded from it */
+	private static long[] getSourceStamp(Stream stream) {
+		final File file = stream.createFile();
+		if (file == null) {
+			return new long[] { -1, -1 };
+		}
+		return new long[] { file.length(), file.lastModified() };
+	}
+
 	@Override
 	public boolean decode() {
 		if(!isJustDownloaded()) {
@@ -77,29 +87,39 @@ class Jp2DataEntry extends MapDataEntry {
 		if((numWavelets >= 0) && (nextResolution >= numWavelets)) {
 			return true;
 		}
-		final Decoder decoder = getOrCreateDecoder(stream);
+		final long[] source = getSourceStamp(stream);
 		
+		// Highest resolution already decoded
 		Texture texture = null;
-//		for(int res = 4; res >= nextResolution; res--) {
-//			texture = readWavelet(stream, res);
-//			if(texture != null) {
-//				nextResolution = res;
-//				break;
-//			}
-//		}
+		for(int res = NUM_DECODERUNIT - 1; res >= nextResolution; res--) {
+			texture = WaveletCache.read(mapData.key, res, source[0], source[1]);
+			if(texture != null) {
+				IO.printfParser("Wavelet from cache: %s@%d\n", mapData.key, (res + 1));
+				nextResolution = res;
+				break;
+			}
+		}
 		if(texture == null) {
+			final Decoder decoder = getOrCreateDecoder(stream);
+			if(nextResolution >= numWavelets) {
+				// All the wavelets came from the cache
+				decoderSoftRef = null;
+				return true;
+			}
 			IO.printfParser("Parse wavelet: %s@%d/%d\n", mapData.key, (nextResolution + 1), numWavelets);
 			long start = System.currentTimeMillis();
 			texture = decoder.parseWavelet(nextResolution);
 			long duration = (System.currentTimeMillis() - start);
 			decodedAccumulatedTime += duration;
 			IO.printlnParser("extract: wavelet "+nextResolution+" in "+duration+" ms ["+decodedAccumulatedTime+"]");
+			if(texture != null) {
+				WaveletCache.write(mapData.key, nextResolution, source[0], source[1], texture);
+			}
 		}
 		boolean decoded = (texture != null);
 		if(decoded) {
 			mapData.newTexture = texture;
 			mapData.mapResolution = nextResolution;
-//			writeWavelet(stream, texture, nextResolution);
 		}
 		else {
 			//Invalidate cache
@@ -113,122 +133,6 @@ class Jp2DataEntry extends MapDataEntry {
 		return decoded;
 	}
 	
-	/* Convert jp2 to another format in the cache */
-//	private boolean save = false;
-//	private boolean saveInTga = false;
-//	private boolean saveUseGZ = false;
-//	private Texture readWavelet(Stream stream, int resolution) {
-//		if (!save || resolution < 3) {
-//			return null;
-//		}
-//		
-//		try {
-//			final String ext = getWaveletUncompressedExt();
-//			final File texFile = new File(stream.createFile() + ext);
-//			
-//			long start = System.currentTimeMillis();
-//			
-//			InputStream fis = new BufferedInputStream(new FileInputStream(texFile));
-//			if (saveUseGZ) {
-//				fis = new GZIPInputStream(fis);
-//			}
-//			
-//			Texture texture = null;
-//			if (saveInTga) {
-//				org.ptolemy3d.tga.Tga tga = new org.ptolemy3d.tga.Tga();
-//				texture = tga.read(fis);
-//			}
-//			/*else if (saveInDds) {
-//				org.ptolemy3d.dds.Dds dds = new org.ptolemy3d.dds.Dds();
-//				texture = dds.read(fis);
-//			}*/
-//			else {
-//				DataInputStream is = new DataInputStream(fis);
-//				int width = is.readInt();
-//				int height = is.readInt();
-//				int length = is.readInt();
-//				byte[] pixels = new byte[length];
-//				int offset = 0;
-//				while(length > 0) {
-//					int read = is.read(pixels, offset, length);
-//					if(read > 0) {
-//						length -= read;
-//						offset += read;
-//					}
-//					else if(read == -1) {
-//						break;
-//					}
-//				}
-//				texture = new Texture(pixels, width, height);
-//			}
-//			fis.close();
-//			
-//			long duration = (System.currentTimeMillis() - start);
-//			System.out.println("read: "+texFile.getName()+" in "+duration+" ms");
-//			
-//			return texture;
-//		} catch (Throwable e) {
-//			return null;
-//		}
-//	}
-//	private void writeWavelet(Stream stream, Texture texture, int resolution) {
-//		final String ext = getWaveletUncompressedExt();
-//		File dest = new File(stream.createFile() + ext);
-//		if (!save || (resolution < 3) || dest.exists()) {
-//			return;
-//		}
-//		
-//		try {
-//			long start = System.currentTimeMillis();
-//			
-//			final File texFile = File.createTempFile("tex-dump", ext);
-//			OutputStream fos = new BufferedOutputStream(new FileOutputStream(texFile));
-//			if (saveUseGZ) {
-//				fos = new GZIPOutputStream(fos);
-//			}
-//			
-//			if (saveInTga) {
-//				org.ptolemy3d.tga.Tga tga = new org.ptolemy3d.tga.Tga(texture);
-//				tga.write(fos);
-//			}
-//			/*else if (saveInDds) {
-//				org.ptolemy3d.dds.Dds dds = new org.ptolemy3d.dds.Dds(texture);
-//				dds.write(fos);
-//			}*/
-//			else {
-//				DataOutputStream os = new DataOutputStream(fos);
-//				os.writeInt(texture.width);
-//				os.writeInt(texture.height);
-//				os.writeInt(texture.pixels.length);
-//				os.write(texture.pixels, 0, texture.pixels.length);
-//			}
-//			fos.close();
-//			
-//			long duration = (System.currentTimeMillis() - start);
-//			System.out.println("write: "+dest.getName()+" in "+duration+" ms");
-//			
-//			texFile.renameTo(dest);
-//		} catch (IOException e) {
-//			e.printStackTrace();
-//		}
-//	}
-//	private String getWaveletUncompressedExt() {
-//		String ext;
-//		if (saveInTga) {
-//			ext = ".tga";
-//		}
-//		/*else if (saveInDds) {
-//			ext = ".dds";
-//		}*/
-//		else {
-//			ext = ".tex";
-//		}
-//		if (saveUseGZ) {
-//			ext += ".gz";
-//		}
-//		return ext;
-//	}
-
 	@Override
 	public int getNextDecoderUnit() {
 		final int next = mapData.mapResolution + 1;
@@ -21,6 +21,7 @@ package org.ptolemy3d.data;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 import javax.imageio.ImageIO;
 import javax.media.opengl.GL;
@@ -37,16 +38,37 @@ public class Texture {
 	public final int height;
 	/** Map data (pixels) */
 	public byte[] pixels;
+	/** Map data (pixels) in a memory mapped file, when not in <code>pixels</code> */
+	private ByteBuffer mapped;
 	
 	public Texture(byte[] pixels, int width, int height) {
 		this.pixels = pixels;
 		this.width = width;
 		this.height = height;
 	}
+	public Texture(ByteBuffer mapped, int width, int height) {
+		this.mapped = mapped;
+		this.width = width;
+		this.height = height;
+	}
+	
+	/** @return true if the pixels have not been freed */
+	public boolean hasData() {
+		return (pixels != null) || (mapped != null);
+	}
+	
+	/** @return the pixels to upload, null if freed */
+	public ByteBuffer getPixelBuffer() {
+		if (mapped != null) {
+			return mapped.duplicate();
+		}
+		return (pixels == null) ? null : ByteBuffer.wrap(pixels);
+	}
 	
 	/** @return the number of color channels */
 	public int getNumChannels() {
-		return pixels.length / (width * height);
+		final int length = (mapped != null) ? mapped.capacity() : pixels.length;
+		return length / (width * height);
 	}
 	
 	/** @return OpenGL format */
@@ -64,6 +86,7 @@ public class Texture {
 	/** Free texture data (pixels array) - <B>Do not free the OpenGL texture.</B> */
 	public void freeData() {
 		pixels = null;
+		mapped = null;
 	}
 	
 	public final static Texture load(InputStream is) {
@@ -18,7 +18,6 @@
 
 package org.ptolemy3d.data;
 
-import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -132,7 +131,7 @@ public class TextureManager {
 		return texID.getID();
 	}
 	private final int loadTexture(GL gl, Texture texture, boolean clamp) {
-		if(texture.pixels == null) {
+		if(!texture.hasData()) {
 			return -1;
 		}
 
@@ -158,14 +157,14 @@ public class TextureManager {
 		gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER, GL.GL_LINEAR);
 		gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MIN_FILTER, GL.GL_NEAREST);
 
-		gl.glTexImage2D(GL.GL_TEXTURE_2D, 0, texture.getFormat(), texture.width, texture.height, 0, texture.getFormat(), GL.GL_UNSIGNED_BYTE, ByteBuffer.wrap(texture.pixels));
+		gl.glTexImage2D(GL.GL_TEXTURE_2D, 0, texture.getFormat(), texture.width, texture.height, 0, texture.getFormat(), GL.GL_UNSIGNED_BYTE, texture.getPixelBuffer());
 		
 		return texID;
 	}
 	private final void update(GL gl, int textureId, Texture texture) {
 		assert(gl.glIsTexture(textureId));
 		gl.glBindTexture(GL.GL_TEXTURE_2D, textureId);
-		gl.glTexImage2D(GL.GL_TEXTURE_2D, 0, texture.getFormat(), texture.width, texture.height, 0, texture.getFormat(), GL.GL_UNSIGNED_BYTE, ByteBuffer.wrap(texture.pixels));
+		gl.glTexImage2D(GL.GL_TEXTURE_2D, 0, texture.getFormat(), texture.width, texture.height, 0, texture.getFormat(), GL.GL_UNSIGNED_BYTE, texture.getPixelBuffer());
 	}
 
 	/** */
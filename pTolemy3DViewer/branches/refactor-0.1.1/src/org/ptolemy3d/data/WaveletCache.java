@@ -0,0 +1,150 @@
+/**
+ * Ptolemy3D - a Java-based 3D Viewer for GeoWeb applications.
+ * Copyright (C) 2008 Mark W. Korver
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ptolemy3d.data;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.ptolemy3d.Ptolemy3D;
+import org.ptolemy3d.debug.IO;
+import org.ptolemy3d.globe.MapDataKey;
+import org.ptolemy3d.io.FileSystemCache;
+
+/**
+ * Decoded wavelets, stored in the texture cache so a map decoded once is not decoded again.<BR>
+ * <BR>
+ * A wavelet is stored raw, in a file memory mapped when read:<BR>
+ * magic, width, height, pixels length, jp2 file length and modification date (longs), pixels.<BR>
+ * The pixels are uploaded from the mapping, without a copy on the heap. The jp2 file length and
+ * date detect wavelets of a map that has been downloaded again, the CRC32 of the texture cache
+ * detects corrupted files.
+ */
+class WaveletCache {
+	private final static int MAGIC = 0x50545702;	//PTW, version 2
+	private final static int HEADER_SIZE = 4 * 4 + 2 * 8;
+
+	private static String getPath(MapDataKey key, int resolution) {
+		return key.layer + "/" + key.lon + "_" + key.lat + "." + resolution + ".tex";
+	}
+
+	/**
+	 * @param sourceLength length of the jp2 file
+	 * @param sourceModified modification date of the jp2 file
+	 * @return the wavelet, null if not in the cache or not valid
+	 */
+	public static Texture read(MapDataKey key, int resolution, long sourceLength, long sourceModified) {
+		final FileSystemCache cache = Ptolemy3D.getTextureCache();
+		if (cache == null) {
+			return null;
+		}
+		final URI uri = cache.getFromCache(getPath(key, resolution));
+		if (uri == null) {
+			return null;
+		}
+
+		final File file = new File(uri);
+		try {
+			final FileInputStream fis = new FileInputStream(file);
+			try {
+				final FileChannel channel = fis.getChannel();
+				if (channel.size() < HEADER_SIZE) {
+					throw new IOException("Truncated wavelet");
+				}
+				final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				final int magic = buffer.getInt();
+				final int width = buffer.getInt();
+				final int height = buffer.getInt();
+				final int length = buffer.getInt();
+				final long source = buffer.getLong();
+				final long modified = buffer.getLong();
+				if ((magic != MAGIC) || (length != buffer.remaining()) || (length <= 0) ||
+					(width <= 0) || (height <= 0) || ((length % (width * height)) != 0)) {
+					throw new IOException("Bad wavelet header");
+				}
+				if ((source != sourceLength) || (modified != sourceModified)) {
+					// Map downloaded again
+					cache.invalidateCache(file);
+					return null;
+				}
+
+				// The mapping stays valid once the channel is closed
+				final ByteBuffer pixels = buffer.slice();
+				return new Texture(pixels, width, height);
+			}
+			finally {
+				fis.close();
+			}
+		}
+		catch (IOException e) {
+			IO.printfParser("Invalid wavelet %s: %s\n", file, e.getMessage());
+			cache.invalidateCache(file);
+			return null;
+		}
+	}
+
+	/** Store a wavelet in the cache */
+	public static void write(MapDataKey key, int resolution, long sourceLength, long sourceModified, Texture texture) {
+		final FileSystemCache cache = Ptolemy3D.getTextureCache();
+		if ((cache == null) || (texture.pixels == null)) {
+			return;
+		}
+
+		final File file = cache.getCacheFile(getPath(key, resolution));
+		final File tmp = new File(file.getPath() + ".tmp");
+		try {
+			final CRC32 crc32 = new CRC32();
+			final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(
+					new CheckedOutputStream(new FileOutputStream(tmp), crc32)));
+			try {
+				os.writeInt(MAGIC);
+				os.writeInt(texture.width);
+				os.writeInt(texture.height);
+				os.writeInt(texture.pixels.length);
+				os.writeLong(sourceLength);
+				os.writeLong(sourceModified);
+				os.write(texture.pixels, 0, texture.pixels.length);
+			}
+			finally {
+				os.close();
+			}
+
+			if (!tmp.renameTo(file)) {
+				// Windows does not replace an existing file
+				file.delete();
+				if (!tmp.renameTo(file)) {
+					throw new IOException("Can't rename " + tmp);
+				}
+			}
+			cache.addToCache(file, (int)crc32.getValue());
+		}
+		catch (IOException e) {
+			IO.printStackParser(e);
+			tmp.delete();
+		}
+	}
+}
@@ -18,6 +18,7 @@
 
 package org.ptolemy3d.globe;
 
+import java.nio.ByteBuffer;
 import java.security.InvalidParameterException;
 
 import org.ptolemy3d.Ptolemy3D;
@@ -27,8 +28,10 @@ import org.ptolemy3d.scene.Landscape;
  * @author Jerome JOUVIE (Jouvieje) <jerome.jouvie@gmail.com>
  */
 public class ElevationDem {
-	/** Elevation grid */
-	private final short[][] elevation;
+	/** Elevation grid, row by row from the upper left corner: index is <code>latID * numRows + lonID</code> */
+	private final short[] elevation;
+	/** Number of rows and columns of the grid */
+	private final int numRows;
 	/** Reference longitude or the upper left corner */
 	private final int refLongitude;
 	/** Reference latitude or the upper left corner */
@@ -39,7 +42,7 @@ public class ElevationDem {
 	private final double geomIncr;	//Only used to avoid / computed each time, remove that ?
 
 	public ElevationDem(MapDataKey mapKey, byte[] datas) {
-		final int numRows = (int)Math.sqrt((datas.length / 2));
+		numRows = (int)Math.sqrt((datas.length / 2));
 		if((numRows * numRows * 2) != datas.length) {
 			throw new InvalidParameterException("Corrupted DEM data");
 		}
@@ -51,19 +54,13 @@ public class ElevationDem {
 		refLongitude = mapKey.lon + Landscape.MAX_LONGITUDE;
 		refLatitude = -mapKey.lat;
 		
-		// Decode DEM data
-		this.elevation = new short[numRows][numRows];
-		for(int lat = 0; lat < numRows; lat++) {
-			for(int lon = 0; lon < numRows; lon++) {
-				final int index = ((lat * numRows) + lon) * 2;
-				final int height = ((datas[index] & 0xFF) << 8) | (datas[index + 1] & 0xFF);
-				elevation[lon][lat] = (short)(height&0xFFFF);
-			}
-		}
+		// Decode DEM data: big-endian samples, read in bulk
+		this.elevation = new short[numRows * numRows];
+		ByteBuffer.wrap(datas).asShortBuffer().get(elevation);
 	}
 	
 	public int getNumRows() {
-		return elevation.length;
+		return numRows;
 	}
 	
 	/**
@@ -145,6 +142,6 @@ public class ElevationDem {
 	 * @see #getNumRows()
 	 */
 	public final int getHeightFromIndex(int lonID, int latID) {
-		return elevation[lonID][latID]&0xFFFF;
+		return elevation[latID * numRows + lonID]&0xFFFF;
 	}
 }
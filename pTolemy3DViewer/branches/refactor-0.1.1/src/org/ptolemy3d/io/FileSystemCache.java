@@ -17,28 +17,114 @@
  */
 package org.ptolemy3d.io;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URL;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.ptolemy3d.debug.IO;
 
 /**
+ * Size bounded cache of downloaded files.<BR>
+ * Files are stored under their path in the cache directory, which holds nothing else than the
+ * files of this cache. An index of the files, with their length and CRC32 and in least recently
+ * used order, is kept in memory for the lookups and saved in a compact file of the cache
+ * directory, so the order persists between sessions. Least recently used files are deleted when
+ * the cache grows over its size.<BR>
+ * The checksum of a file is verified the first time it is used in a session, a corrupted file
+ * is dropped from the cache.
+ * 
  * @author Jerome JOUVIE (Jouvieje) <jerome.jouvie@gmail.com>
  */
 public class FileSystemCache {
+	private final static int INDEX_MAGIC = 0x50544649;	//PTFI
+	private final static int INDEX_VERSION = 1;
+	private final static String INDEX_FILE = "index.dat";
+	/** The index is saved every <code>SAVE_INTERVAL</code> new files */
+	private final static int SAVE_INTERVAL = 32;
+	
+	/** A file of the index */
+	private static class Entry {
+		final long length;
+		final int crc;
+		/** True once the checksum has been verified in this session */
+		boolean verified;
+		
+		Entry(long length, int crc, boolean verified) {
+			this.length = length;
+			this.crc = crc;
+			this.verified = verified;
+		}
+	}
+	
 	private final File cacheDirectory;
+	private final long maxSize;
+	/** Cached files by path, least recently used first */
+	private final LinkedHashMap<String, Entry> index = new LinkedHashMap<String, Entry>(1024, 0.75f, true);
+	private long size = 0;
+	private int unsaved = 0;
 	
-	public FileSystemCache() {
-		final String userHome = System.getProperty("user.home");
-		cacheDirectory = new File(userHome, ".ptolemy");
+	/**
+	 * @param cacheDirectory directory of this cache only, created if needed
+	 * @param maxSize maximum size of the cached files, in bytes
+	 */
+	public FileSystemCache(File cacheDirectory, long maxSize) {
+		this.cacheDirectory = cacheDirectory;
+		this.maxSize = maxSize;
 		cacheDirectory.mkdirs();
+		
+		synchronized (this) {
+			loadIndex();
+			final HashSet<File> indexed = new HashSet<File>();
+			for (String path : index.keySet()) {
+				indexed.add(getFile(path));
+			}
+			sweep(cacheDirectory, indexed);
+			evict();
+		}
+		IO.printfConnection("Cache %s: %d files, %d KB\n", cacheDirectory, index.size(), size >> 10);
 	}
 	
-	protected URI getFromCache(String fileBase) {
-		final File cache = new File(cacheDirectory, fileBase);
-		if (cache.exists()) {
-			return cache.toURI();
+	/** @return the file of <code>fileBase</code> in the cache, null if it is not in the cache */
+	public URI getFromCache(String fileBase) {
+		final String path = normalize(fileBase);
+		final Entry entry;
+		synchronized (this) {
+			entry = index.get(path);
+			if (entry == null) {
+				return null;
+			}
+			if (entry.verified) {
+				return getFile(path).toURI();
+			}
+		}
+		
+		final File file = getFile(path);
+		final boolean valid = (file.length() == entry.length) && (checksum(file) == entry.crc);
+		synchronized (this) {
+			if (index.get(path) != entry) {
+				return (index.get(path) != null) ? file.toURI() : null;
+			}
+			if (!valid) {
+				IO.printfConnection("Cache: corrupted file %s\n", file);
+				remove(path);
+				return null;
+			}
+			entry.verified = true;
 		}
-		return null;
+		return file.toURI();
 	}
 	
 	public URI getFromCache(URL url) {
@@ -46,14 +132,219 @@ public class FileSystemCache {
 		return getFromCache(fileInCache);
 	}
 	
-	public URI getCacheFileFor(URL url) {
-		final String fileInCache = url.getPath();
-		final File cache = new File(cacheDirectory, fileInCache);
+	/** @return the file of the cache for <code>path</code>, its directory is created */
+	public File getCacheFile(String path) {
+		final File cache = getFile(normalize(path));
 		cache.getParentFile().mkdirs();
-		return cache.toURI();
+		return cache;
+	}
+	
+	public URI getCacheFileFor(URL url) {
+		return getCacheFile(url.getPath()).toURI();
+	}
+	
+	/** Register a file written in the cache, deleting least recently used files if needed. */
+	public void addToCache(File file) throws IOException {
+		if (!file.exists()) {
+			throw new IOException("Not in cache: " + file);
+		}
+		addToCache(file, checksum(file));
+	}
+	
+	/**
+	 * Register a file written in the cache, deleting least recently used files if needed.
+	 * @param crc CRC32 of the file content
+	 */
+	public void addToCache(File file, int crc) {
+		final String path = getPath(file);
+		if (path == null) {
+			return;
+		}
+		
+		boolean save;
+		synchronized (this) {
+			final Entry old = index.remove(path);
+			if (old != null) {
+				size -= old.length;
+			}
+			final Entry entry = new Entry(file.length(), crc, true);
+			index.put(path, entry);
+			size += entry.length;
+			evict();
+			save = (++unsaved >= SAVE_INTERVAL);
+		}
+		if (save) {
+			saveIndex();
+		}
+	}
+	
+	public synchronized void invalidateCache(File file) {
+		final String path = getPath(file);
+		if ((path == null) || !remove(path)) {
+			file.delete();
+		}
+	}
+	
+	/** Save the index. */
+	public void close() {
+		saveIndex();
+	}
+	
+	/** @return size of the cached files, in bytes */
+	public synchronized long getSize() {
+		return size;
+	}
+	
+	private final File getFile(String path) {
+		return new File(cacheDirectory, path);
+	}
+	
+	/** @return path of a file in the cache, null if the file is not in the cache directory */
+	private final String getPath(File file) {
+		final String dir = cacheDirectory.getAbsolutePath() + File.separator;
+		final String name = file.getAbsolutePath();
+		if (!name.startsWith(dir)) {
+			return null;
+		}
+		return normalize(name.substring(dir.length()).replace(File.separatorChar, '/'));
+	}
+	
+	private final static String normalize(String path) {
+		int start = 0;
+		while ((start < path.length()) && (path.charAt(start) == '/')) {
+			start++;
+		}
+		return path.substring(start);
+	}
+	
+	/** @return CRC32 of the file content, 0 if it can't be read */
+	private final static int checksum(File file) {
+		final CRC32 crc32 = new CRC32();
+		try {
+			final InputStream in = new FileInputStream(file);
+			try {
+				final byte[] buffer = new byte[8192];
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					crc32.update(buffer, 0, read);
+				}
+			}
+			finally {
+				in.close();
+			}
+		}
+		catch (IOException e) {
+			return 0;
+		}
+		return (int)crc32.getValue();
+	}
+	
+	/** Lock must be held. @return true if the path was in the cache */
+	private final boolean remove(String path) {
+		final Entry entry = index.remove(path);
+		if (entry == null) {
+			return false;
+		}
+		size -= entry.length;
+		getFile(path).delete();
+		return true;
 	}
 	
-	public void invalidateCache(File file) {
-		file.delete();
+	/** Remove least recently used files until the cache fits its size. Lock must be held. */
+	private final void evict() {
+		final Iterator<Map.Entry<String, Entry>> it = index.entrySet().iterator();
+		while ((size > maxSize) && it.hasNext()) {
+			final Map.Entry<String, Entry> eldest = it.next();
+			it.remove();
+			size -= eldest.getValue().length;
+			getFile(eldest.getKey()).delete();
+		}
+	}
+	
+	/** Delete the partial downloads, and the files not in the index (written after the last save). */
+	private final void sweep(File dir, HashSet<File> indexed) {
+		final File[] list = dir.listFiles();
+		if (list == null) {
+			return;
+		}
+		for (File file : list) {
+			if (file.isDirectory()) {
+				sweep(file, indexed);
+			}
+			else if ((dir != cacheDirectory) || !file.getName().equals(INDEX_FILE)) {
+				if (!indexed.contains(file)) {
+					file.delete();
+				}
+			}
+		}
+	}
+	
+	/** Lock must be held. */
+	private final void loadIndex() {
+		final File file = new File(cacheDirectory, INDEX_FILE);
+		if (!file.exists()) {
+			return;
+		}
+		try {
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				if ((in.readInt() != INDEX_MAGIC) || (in.readInt() != INDEX_VERSION)) {
+					throw new IOException("unknown format");
+				}
+				final int numEntries = in.readInt();
+				for (int i = 0; i < numEntries; i++) {
+					final String path = in.readUTF();
+					final Entry entry = new Entry(in.readLong(), in.readInt(), false);
+					index.put(path, entry);
+					size += entry.length;
+				}
+			}
+			finally {
+				in.close();
+			}
+		}
+		catch (IOException e) {
+			IO.printlnConnection("Cache: bad index, " + e.getMessage());
+			index.clear();
+			size = 0;
+		}
+	}
+	
+	private final void saveIndex() {
+		final File file = new File(cacheDirectory, INDEX_FILE);
+		File tmp = null;
+		try {
+			tmp = File.createTempFile("index", ".tmp", cacheDirectory);
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				out.writeInt(INDEX_MAGIC);
+				out.writeInt(INDEX_VERSION);
+				synchronized (this) {
+					out.writeInt(index.size());
+					for (Map.Entry<String, Entry> e : index.entrySet()) {
+						out.writeUTF(e.getKey());
+						out.writeLong(e.getValue().length);
+						out.writeInt(e.getValue().crc);
+					}
+					unsaved = 0;
+				}
+			}
+			finally {
+				out.close();
+			}
+			if (!tmp.renameTo(file)) {
+				// Windows does not replace an existing file
+				file.delete();
+				if (!tmp.renameTo(file)) {
+					throw new IOException("Can't rename " + tmp);
+				}
+			}
+		}
+		catch (IOException e) {
+			IO.printStackConnection(e);
+			if (tmp != null) {
+				tmp.delete();
+			}
+		}
 	}
 }
@@ -26,6 +26,7 @@ import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URL;
+import java.util.zip.CRC32;
 
 import org.ptolemy3d.Ptolemy3D;
 import org.ptolemy3d.debug.IO;
@@ -99,6 +100,7 @@ public class Stream {
 
         final InputStream in = connection.getInputStream();
         final FileOutputStream os = new FileOutputStream(cacheTmpFile);
+        final CRC32 crc32 = new CRC32();
         
         final byte[] buffer = new byte[BUFFER_SIZE];
         int remaining = length;
@@ -106,8 +108,16 @@ public class Stream {
 //        int remaining = 0;
 //        while ((remaining = in.available()) > 0)  {
         	int read = in.read(buffer, 0, (remaining > buffer.length) ? buffer.length : remaining);
+        	if (read == -1) {
+        		// Truncated download, never put it in the cache
+        		in.close();
+        		os.close();
+        		cacheTmpFile.delete();
+        		throw new IOException("Incomplete download: " + distant);
+        	}
         	ProfilerUtil.bytesDownloaded += read;
         	os.write(buffer, 0, read);
+        	crc32.update(buffer, 0, read);
         	remaining -= read;
         }
 
@@ -116,7 +126,15 @@ public class Stream {
         connection.disconnect();
         connection = null;
         
-        cacheTmpFile.renameTo(cacheFile);
+        if (!cacheTmpFile.renameTo(cacheFile)) {
+        	// Windows does not replace an existing file
+        	cacheFile.delete();
+        	if (!cacheTmpFile.renameTo(cacheFile)) {
+        		cacheTmpFile.delete();
+        		throw new IOException("Can't write in cache: " + cacheFile);
+        	}
+        }
+        Ptolemy3D.getFileSystemCache().addToCache(cacheFile, (int)crc32.getValue());
         
 		local = cachedURI;
 	}
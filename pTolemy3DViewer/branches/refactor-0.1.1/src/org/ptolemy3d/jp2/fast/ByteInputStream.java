@@ -17,17 +17,21 @@
  */
 package org.ptolemy3d.jp2.fast;
 
-import java.io.BufferedInputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 
+/**
+ * Big endian reader of a jp2 file in memory, usually a mapped file.<BR>
+ * Reading does not copy the data, except when asked to fill an array.
+ */
 class ByteInputStream {
-	private final InputStream is;
-	private int position;
+	private final ByteBuffer buffer;
 
-	public ByteInputStream(InputStream is) {
-		this.is = new BufferedInputStream(is);
-		this.position = 0;
+	/** @param buffer data, read from its position (the buffer position is not changed) */
+	public ByteInputStream(ByteBuffer buffer) {
+		this.buffer = buffer.duplicate();
 	}
 
 	public final int readUnsignedByte() throws IOException {
@@ -47,37 +51,32 @@ class ByteInputStream {
 	}
 
 	public final int read() throws IOException {
-		final int read = is.read();
-		position++;
-		return read;
+		if (!buffer.hasRemaining()) {
+			return -1;
+		}
+		return buffer.get() & 0xFF;
 	}
 
 	public final int read(byte[] b, int offset, int length) throws IOException {
-		int remaining = length;
-		while (remaining > 0) {
-			final int realRead = is.read(b, offset, remaining);
-			position += realRead;
-			offset += realRead;
-			remaining -= realRead;
+		try {
+			buffer.get(b, offset, length);
 		}
-		return length - remaining;
+		catch (BufferUnderflowException e) {
+			throw new EOFException();
+		}
+		return length;
 	}
 
 	public final long skip(long numBytes) throws IOException {
-		long remaining = numBytes;
-		while(remaining > 0) {
-			final long skipped = is.skip(remaining);
-			position += skipped;
-			remaining -= skipped;
-		}
-		return numBytes - remaining;
+		final int skipped = (int)Math.min(numBytes, buffer.remaining());
+		buffer.position(buffer.position() + skipped);
+		return skipped;
 	}
 	
 	public int getPosition() {
-		return position;
+		return buffer.position();
 	}
 	
 	public void close() throws IOException {
-		is.close();
 	}
 }
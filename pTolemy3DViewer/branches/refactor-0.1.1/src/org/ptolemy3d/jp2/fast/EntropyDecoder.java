@@ -85,6 +85,7 @@
  * */
 package org.ptolemy3d.jp2.fast;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 class EntropyDecoder
@@ -357,7 +358,7 @@ class EntropyDecoder
     private boolean markerFound;
     
 	private int pos, count;
-	private byte[] buffer;
+	private ByteBuffer buffer;
 	private int[] state;
 	private int options;
 	private int Blkw, Blkh, MsbSk;
@@ -380,7 +381,7 @@ class EntropyDecoder
 	 */
 	static private int[] out_data = null;
 
-	public int[] decode(int sbot, byte[] block, int sb_start, int sb_len, int[] trunc, int msbSk, int blkw, int blkh) {
+	public int[] decode(int sbot, ByteBuffer block, int sb_start, int sb_len, int[] trunc, int msbSk, int blkw, int blkh) {
 
 		int zc_lut[]; // The ZC lookup table to use
 		int npasses = 0; // The number of coding passes to perform
@@ -1474,7 +1475,7 @@ class EntropyDecoder
 		Arrays.fill(mPS, 0);
 	}
 
-	private final void nextSegment(byte buf[], int off, int len) {
+	private final void nextSegment(ByteBuffer buf, int off, int len) {
 		// Set the new input
 		buffer = buf;
 		pos = off;
@@ -1511,7 +1512,7 @@ class EntropyDecoder
 
 	private int readByte() {
 		if(pos < count) {
-			return buffer[pos++] & 0xFF;
+			return buffer.get(pos++) & 0xFF;
 		}
 		else {
 			return -1;
@@ -39,7 +39,7 @@ public class JJ2000FastDecoder implements org.ptolemy3d.jp2.Decoder {
 		for(int res = 0; res < decoder.getNumWavelets(); res++) {
 			long start = System.nanoTime();
 			Texture wavelet = decoder.parseWavelet(res);
-			System.out.println("[Wavelet:"+res+"] Time spent: "+(System.nanoTime() - start)/10e9);
+			System.out.println("[Wavelet:"+res+"] Time spent: "+(System.nanoTime() - start)/1e9+" s");
 			
 			BufferedImage bi = ImgWriterArrayByte.createBufferedImage(wavelet.width, wavelet.height, wavelet.pixels);
 			ImageIO.write(bi, "PNG", new File(argv[0] + "-" + res + ".png"));
@@ -18,6 +18,7 @@
 package org.ptolemy3d.jp2.fast;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -45,7 +46,7 @@ class Jp2Decoder {
 		}
 		
 		//Decoding
-		byte[] streamBuffer = parser.getWaveletData(res);
+		final ByteBuffer streamBuffer = parser.getWaveletData(res);
 		for(int c = 0; c < parser.getNumChannels(); c++) {
 			getDataAtRes(streamBuffer, res, c, waveletData[c]);
 		}
@@ -64,7 +65,7 @@ class Jp2Decoder {
 	 *  greater than 0 res gets the HL , LH,HH bands and performs 2d wavelet recons.
 	 *  with LL gotten band
 	 */
-	void getDataAtRes(byte[] streamBuffer, int reslvl, int c, short[] data) {
+	void getDataAtRes(ByteBuffer streamBuffer, int reslvl, int c, short[] data) {
 		Subband node = parser.header.subband;
 		while(node.resLvl != reslvl) {
 			node = node.subb_LL;
@@ -85,7 +86,7 @@ class Jp2Decoder {
 	}
 
 	// get all code block data for this subband and store it in imgData
-	protected void getSubbandData(byte[] streamBuffer, int NomWidth, Subband sb, int c, short[] data) {
+	protected void getSubbandData(ByteBuffer streamBuffer, int NomWidth, Subband sb, int c, short[] data) {
 		int s = sb.sbandIdx;
 		int r = sb.resLvl;
 		int blkw, blkh, bulx, buly;
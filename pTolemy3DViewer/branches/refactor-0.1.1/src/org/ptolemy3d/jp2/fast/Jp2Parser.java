@@ -17,26 +17,70 @@
  */
 package org.ptolemy3d.jp2.fast;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
 
 import org.ptolemy3d.io.Stream;
 
 /**
- * 
+ * Jp2 file parser.<BR>
+ * The file is memory mapped once, the header and the wavelets of every resolution are read
+ * from that mapping without copy.
  */
 class Jp2Parser {
 	protected final Stream stream;
 	protected final Jp2Header header;
+	/** Jp2 file content */
+	private final ByteBuffer data;
 	
 	public Jp2Parser(Stream stream) throws IOException {
 		this.stream = stream;
+		this.data = map(stream);
 		// Parse JP2 header
-		final ByteInputStream is = new ByteInputStream(stream.createInputStream());
+		final ByteInputStream is = new ByteInputStream(data);
 		header = new Jp2HeaderParser().parseHeader(is);
 		is.close();
 	}
 	
+	/** @return the mapped file, or its content if the stream is not a local file */
+	private static ByteBuffer map(Stream stream) throws IOException {
+		final File file = stream.createFile();
+		if (file != null) {
+			final FileInputStream fis = new FileInputStream(file);
+			try {
+				final FileChannel channel = fis.getChannel();
+				// The mapping stays valid once the channel is closed
+				return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+			finally {
+				fis.close();
+			}
+		}
+		
+		final InputStream is = stream.createInputStream();
+		if (is == null) {
+			throw new IOException("Stream not available");
+		}
+		try {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[4096];
+			int read;
+			while ((read = is.read(buffer)) != -1) {
+				bytes.write(buffer, 0, read);
+			}
+			return ByteBuffer.wrap(bytes.toByteArray());
+		}
+		finally {
+			is.close();
+		}
+	}
+	
 	public int getWidth() {
 		return header.imageWidth;
 	}
@@ -64,15 +108,17 @@ class Jp2Parser {
 		return width;
 	}
 	
-	public byte[] getWaveletData(int res) throws IOException {
+	/** @return the data of a resolution, a view of the file starting at index 0 */
+	public ByteBuffer getWaveletData(int res) throws IOException {
 		final int start = header.progPackStart[res];
 		final int end = header.progPackEnd[res];
-		final byte[] data = new byte[end - start + 1];
-		final ByteInputStream is = new ByteInputStream(stream.createInputStream());
-		is.skip(start);
-		is.read(data, 0, data.length);
-		is.close();
-		return data;
+		if ((start < 0) || (end >= data.capacity()) || (start > end + 1)) {
+			throw new IOException("Wavelet "+res+" out of file: "+start+"-"+end);
+		}
+		final ByteBuffer wavelet = data.duplicate();
+		wavelet.position(start);
+		wavelet.limit(end + 1);
+		return wavelet.slice();
 	}
 	public void textureToNextWaveletRef(short[][] dst, byte[] src, int width, int prevWidth, int prevHeight) {
 		int m = 0;
@@ -90,6 +90,7 @@ public class Ptolemy3DConfiguration {
 		public final static String HTSCALE = "HTSCALE";
 		public final static String KEYBOARD = "KEYBOARD";
 		public final static String TIN = "TIN";
+		public final static String CompressedDEM = "CompressedDEM";
 		public final static String BackgroundImageUrl = "BackgroundImageUrl";
 		public final static String SubTextures = "SubTextures";
 		public final static String HORIZON = "HORIZON";
@@ -98,6 +99,16 @@ public class Ptolemy3DConfiguration {
 		public final static String BGCOLOR = "BGCOLOR";
 		public final static String HUDBGRGBA = "HUDBGRGBA";
 		public final static String FlightFrameDelay = "FlightFrameDelay";
+		public final static String DecoderThreads = "DecoderThreads";
+		public final static String LoaderFetchers = "LoaderFetchers";
+		public final static String LoaderDecoders = "LoaderDecoders";
+		public final static String DiskCacheSize = "DiskCacheSize";
+		public final static String DiskCacheDir = "DiskCacheDir";
+		public final static String TextureMemory = "TextureMemory";
+		public final static String TextureCompression = "TextureCompression";
+		public final static String TextureAtlas = "TextureAtlas";
+		public final static String TileBufferMemory = "TileBufferMemory";
+		public final static String MaxScreenError = "MaxScreenError";
 	}
 	private static interface Deprecated {
 		public final static String FontFace = "FontFace";
@@ -130,9 +141,31 @@ public class Ptolemy3DConfiguration {
 	public String area = "";
 	public String DEMLocation[][];
 	public int flightFrameDelay = 1;
+	// Number of threads decoding the code-blocks of a jp2 tile (1: decode on the tile loader thread)
+	public int decoderThreads = 1;
+	// Number of tile loader threads downloading tile data
+	public int loaderFetchers = 2;
+	// Number of tile loader threads decoding tile data
+	public int loaderDecoders = 1;
+	// Size of the tile cache on disk, in MB (0: no cache)
+	public int diskCacheSize = 0;
+	// Directory of the tile cache on disk (null: .ptolemy/tiles in the user home)
+	public String diskCacheDir = null;
+	// Texture memory budget of the tiles, in MB (0: no budget)
+	public int textureMemory = 0;
+	// Compress the tile textures in DXT1 when decoded, if the graphic card supports it
+	public boolean textureCompression = false;
+	// Pack the tile textures of each resolution in atlases, to bind fewer textures
+	public boolean textureAtlas = false;
+	// Off-heap memory of the decoded tile images, in MB (0: 3 full resolution tiles per resolution)
+	public int tileBufferMemory = 0;
+	// Largest texel size on screen, in pixels, before a finer resolution or level is loaded (0: load all of them)
+	public float maxScreenError = 1;
 	
 	public boolean useSubtexturing = false;
 	public boolean useTIN = false;
+	// Request the compressed DEM tiles (.cdm) first, the raw ones (.bdm) if not found
+	public boolean useCompressedDEM = false;
 	
 	public Color hudBackgroundColor = new Color(20, 20, 20, 128);
 	public String backgroundImageUrl = null;
@@ -294,6 +327,34 @@ public class Ptolemy3DConfiguration {
 			if ((s = getOptionalParameter(Optional.FlightFrameDelay, docelem)) != null) {
 				flightFrameDelay = Integer.parseInt(s);
 			}
+			if ((s = getOptionalParameter(Optional.DecoderThreads, docelem)) != null) {
+				decoderThreads = Integer.parseInt(s);
+			}
+			if ((s = getOptionalParameter(Optional.LoaderFetchers, docelem)) != null) {
+				loaderFetchers = Integer.parseInt(s);
+			}
+			if ((s = getOptionalParameter(Optional.LoaderDecoders, docelem)) != null) {
+				loaderDecoders = Integer.parseInt(s);
+			}
+			if ((s = getOptionalParameter(Optional.DiskCacheSize, docelem)) != null) {
+				diskCacheSize = Integer.parseInt(s);
+			}
+			diskCacheDir = getOptionalParameter(Optional.DiskCacheDir, docelem);
+			if ((s = getOptionalParameter(Optional.TextureMemory, docelem)) != null) {
+				textureMemory = Integer.parseInt(s);
+			}
+			if ((s = getOptionalParameter(Optional.TextureCompression, docelem)) != null) {
+				textureCompression = s.equals("1");
+			}
+			if ((s = getOptionalParameter(Optional.TextureAtlas, docelem)) != null) {
+				textureAtlas = s.equals("1");
+			}
+			if ((s = getOptionalParameter(Optional.TileBufferMemory, docelem)) != null) {
+				tileBufferMemory = Integer.parseInt(s);
+			}
+			if ((s = getOptionalParameter(Optional.MaxScreenError, docelem)) != null) {
+				maxScreenError = Float.parseFloat(s);
+			}
 			if ((s = getOptionalParameter(Optional.DDBuffer, docelem)) != null) {
 				unit.DD = Integer.parseInt(s);
 			}
@@ -306,6 +367,9 @@ public class Ptolemy3DConfiguration {
 			if ((s = getOptionalParameter(Optional.TIN, docelem)) != null) {
 				useTIN = s.equals("1") ? true : false;
 			}
+			if ((s = getOptionalParameter(Optional.CompressedDEM, docelem)) != null) {
+				useCompressedDEM = s.equals("1");
+			}
 			if ((s = getOptionalParameter(Optional.SubTextures, docelem)) != null) {
 				useSubtexturing = s.equals("1") ? true : false;
 			}
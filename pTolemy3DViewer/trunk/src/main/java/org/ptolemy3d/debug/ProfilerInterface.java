@@ -29,6 +29,8 @@ import org.ptolemy3d.Ptolemy3D;
 import org.ptolemy3d.debug.Profiler.ProfilerEvent;
 import org.ptolemy3d.font.FontRenderer;
 import org.ptolemy3d.scene.Landscape;
+import org.ptolemy3d.scene.TextureManager;
+import org.ptolemy3d.tile.Jp2TileLoader;
 /**
  * By encapsulating any debug related code, the compiler will
  * <pre>
@@ -169,6 +171,32 @@ public class ProfilerInterface
 						}
 						line = "RenderMode: "+landscapeRenderMode;
 						break;
+					case 4:
+						TextureManager textureManager = Ptolemy3D.ptolemy.textureManager;
+						if(textureManager == null) {
+							break;
+						}
+						line = String.format("TexUsage:%d ko (%d/%d/%d/%d)|Budget:%d ko|Evictions:%d|Reuploads:%d",
+								textureManager.getResidentBytes() >> 10,
+								textureManager.getResidentBytes(0) >> 10, textureManager.getResidentBytes(1) >> 10,
+								textureManager.getResidentBytes(2) >> 10, textureManager.getResidentBytes(3) >> 10,
+								textureManager.getMemoryBudget() >> 10,
+								textureManager.getEvictions(), textureManager.getReuploads());
+						break;
+					case 5:
+						Jp2TileLoader tileLoader = Ptolemy3D.ptolemy.tileLoader;
+						if(tileLoader == null) {
+							break;
+						}
+						line = String.format("TileBuffers:%d ko|Used:%d/%d %d/%d %d/%d %d/%d|Full:%d/%d/%d/%d",
+								tileLoader.getImageDataMemory() >> 10,
+								tileLoader.getImageDataUsed(0), tileLoader.getImageDataCapacity(0),
+								tileLoader.getImageDataUsed(1), tileLoader.getImageDataCapacity(1),
+								tileLoader.getImageDataUsed(2), tileLoader.getImageDataCapacity(2),
+								tileLoader.getImageDataUsed(3), tileLoader.getImageDataCapacity(3),
+								tileLoader.getImageDataFailures(0), tileLoader.getImageDataFailures(1),
+								tileLoader.getImageDataFailures(2), tileLoader.getImageDataFailures(3));
+						break;
 				}
 				if (line == null) {
 					break;
@@ -162,19 +162,24 @@ public class BasicCommunicator implements Communicator
     {
         in = conn.getInputStream();
 
-        if (clen < len) {
-            len = clen;
+        // The whole file is sent, StartPos bytes are skipped
+        if ((clen >= 0) && (clen - StartPos < len)) {
+            len = Math.max(clen - StartPos, 0);
         }
         int offset = 0, bytesread = 0;
         byte[] data = new byte[len];
 
         int lenToStart = StartPos;
-        while (lenToStart > 0)  {
+        while ((lenToStart > 0) && (len > 0))  {
         	//1nd way
 //        	in.skip(lenToStart);
 //        	lenToStart = 0;
         	//2nd way
         	bytesread = in.read(data, 0, lenToStart > len ? len : lenToStart);
+        	if (bytesread == -1) {
+        		len = 0;
+        		break;
+        	}
         	lenToStart -= bytesread;
         	//3nd way
 //        	in.read();
@@ -183,12 +188,21 @@ public class BasicCommunicator implements Communicator
 
         while (len > 0) {
             bytesread = in.read(data, offset, len);
+            if (bytesread == -1) {
+                // End of file, return what has been read
+                break;
+            }
             offset += bytesread;
             len -= bytesread;
         }
 
         tot_br += offset;
         in.close();
+        if (offset < data.length) {
+            final byte[] shortData = new byte[offset];
+            System.arraycopy(data, 0, shortData, 0, offset);
+            return shortData;
+        }
         return data;
     }
 
@@ -202,6 +216,12 @@ public class BasicCommunicator implements Communicator
         }
     }
 
+    /** The whole file is always sent: its length is the content length. */
+    public int getFileLength()
+    {
+        return clen;
+    }
+
     public int getHeaderReturnCode() throws IOException
     {
         return conn.getResponseCode();
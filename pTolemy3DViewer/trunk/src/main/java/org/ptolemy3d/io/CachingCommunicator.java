@@ -0,0 +1,271 @@
+/**
+ * Ptolemy3D - a Java-based 3D Viewer for GeoWeb applications.
+ * Copyright (C) 2008 Mark W. Korver
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ptolemy3d.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Vector;
+
+import org.ptolemy3d.debug.IO;
+
+/**
+ * Communicator serving map data from a <code>DiskTileCache</code>.<BR>
+ * Map data requests found in the cache are answered locally, the others are forwarded to the
+ * wrapped communicator and their data is added to the cache once read. Responses are read in
+ * the order of the requests, like the wrapped communicator.<BR>
+ * Other requests (plugin data) are not cached.<BR>
+ * Not thread-safe, except <code>endSocket</code>.
+ */
+public class CachingCommunicator implements Communicator
+{
+	/** A map data request */
+	private static class Request
+	{
+		/** Cache key, null if not cached */
+		final String key;
+		/** First byte of the range */
+		final int start;
+		/** Range length, -1 for the whole file */
+		final int length;
+		/** Data from the cache, null if forwarded */
+		final byte[] cached;
+
+		Request(String key, int start, int length, byte[] cached)
+		{
+			this.key = key;
+			this.start = start;
+			this.length = length;
+			this.cached = cached;
+		}
+	}
+
+	private final Communicator communicator;
+	private final DiskTileCache cache;
+	private String Server = "";
+	/** Requests whose response has not been read */
+	private final Vector<Request> requests = new Vector<Request>();
+	/** File length of the last data read, -1 if unknown */
+	private int fileLength = -1;
+
+	/**
+	 * @param communicator communicator used for the data not in the cache
+	 * @param cache shared cache
+	 */
+	public CachingCommunicator(Communicator communicator, DiskTileCache cache)
+	{
+		this.communicator = communicator;
+		this.cache = cache;
+	}
+
+	public void setServer(String server)
+	{
+		this.Server = server;
+		communicator.setServer(server);
+	}
+
+	public void setHeaderKey(String key)
+	{
+		communicator.setHeaderKey(key);
+	}
+
+	public void setUrlAppend(String qrystr)
+	{
+		// Query string is not part of the cache key, it usually carries a session key
+		communicator.setUrlAppend(qrystr);
+	}
+
+	public void endSocket()
+	{
+		synchronized (requests) {
+			requests.clear();
+		}
+		communicator.endSocket();
+	}
+
+	public void verify()
+	{
+		communicator.verify();
+	}
+
+	public void requestData(String file, int start, int end) throws IOException
+	{
+		forward(null, start, -1);
+		communicator.requestData(file, start, end);
+	}
+
+	public void requestData(String file) throws IOException
+	{
+		forward(null, 0, -1);
+		communicator.requestData(file);
+	}
+
+	public void requestMapData(String file, int start, int end) throws IOException
+	{
+		final String key = DiskTileCache.key(Server, file, start, end);
+		final int length = (end == -1) ? -1 : (end - start + 1);
+		final byte[] cached = cache.get(key);
+		if (cached != null) {
+			IO.printlnConnection("CachingCommunicator.request: " + key + " from cache");
+			synchronized (requests) {
+				requests.add(new Request(key, start, length, cached));
+			}
+		}
+		else {
+			forward(key, start, length);
+			communicator.requestMapData(file, start, end);
+		}
+	}
+
+	public void requestMapData(String file) throws IOException
+	{
+		requestMapData(file, 0, -1);
+	}
+
+	private final void forward(String key, int start, int length)
+	{
+		synchronized (requests) {
+			requests.add(new Request(key, start, length, null));
+		}
+	}
+
+	/**
+	 * @return true if <code>data</code> is the whole range of the request: as long as the range,
+	 * or shorter because it ends with the file, as confirmed by the file length sent by the server.
+	 * A connection closed early gives a short read that must not be cached.
+	 */
+	private final boolean isComplete(Request req, byte[] data)
+	{
+		if (data.length == 0) {
+			return false;
+		}
+		if ((req.length != -1) && (data.length == req.length)) {
+			return true;
+		}
+		return (fileLength >= 0) && (req.start + data.length == fileLength);
+	}
+
+	/** @return the next request, null if the communicator has been ended */
+	private final Request current()
+	{
+		synchronized (requests) {
+			return (requests.size() > 0) ? requests.get(0) : null;
+		}
+	}
+
+	private final void next()
+	{
+		synchronized (requests) {
+			if (requests.size() > 0) {
+				requests.remove(0);
+			}
+		}
+	}
+
+	public int getHeaderReturnCode() throws IOException
+	{
+		final Request req = current();
+		if ((req != null) && (req.cached != null)) {
+			return (req.length == -1) ? 200 : 206;
+		}
+		return communicator.getHeaderReturnCode();
+	}
+
+	public byte[] getData(int len) throws IOException
+	{
+		final Request req = current();
+		next();
+		if ((req != null) && (req.cached != null)) {
+			fileLength = -1;
+			if (req.cached.length <= len) {
+				return req.cached;
+			}
+			final byte[] data = new byte[len];
+			System.arraycopy(req.cached, 0, data, 0, len);
+			return data;
+		}
+
+		final byte[] data = communicator.getData(len);
+		fileLength = communicator.getFileLength();
+		if ((req != null) && (req.key != null) && (data != null) && isComplete(req, data)) {
+			cache.put(req.key, data);
+		}
+		return data;
+	}
+
+	public byte[] getData()
+	{
+		final Request req = current();
+		next();
+		if ((req != null) && (req.cached != null)) {
+			fileLength = -1;
+			return req.cached;
+		}
+
+		final byte[] data = communicator.getData();
+		fileLength = communicator.getFileLength();
+		if ((req != null) && (req.key != null) && (data != null) && isComplete(req, data)) {
+			cache.put(req.key, data);
+		}
+		return data;
+	}
+
+	public int getFileLength()
+	{
+		return fileLength;
+	}
+
+	public void readOutStream(int pos)
+	{
+		communicator.readOutStream(pos);
+	}
+
+	public void flushNotFound() throws IOException
+	{
+		final Request req = current();
+		next();
+		if ((req == null) || (req.cached == null)) {
+			communicator.flushNotFound();
+		}
+	}
+
+	public boolean test(String file)
+	{
+		return communicator.test(file);
+	}
+
+	public double getBytesRead()
+	{
+		return communicator.getBytesRead();
+	}
+
+	public void clearBytesRead()
+	{
+		communicator.clearBytesRead();
+	}
+
+	public InputStream getInputStream()
+	{
+		final Request req = current();
+		next();
+		if ((req != null) && (req.cached != null)) {
+			return new ByteArrayInputStream(req.cached);
+		}
+		return communicator.getInputStream();
+	}
+}
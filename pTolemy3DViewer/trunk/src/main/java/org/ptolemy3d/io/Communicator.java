@@ -46,6 +46,9 @@ public interface Communicator
 
     public byte[] getData();
 
+    /** @return length of the whole file of the last data read, -1 if the server did not tell it */
+    public int getFileLength();
+
     public int getHeaderReturnCode() throws IOException;
 
     public void readOutStream(int pos);
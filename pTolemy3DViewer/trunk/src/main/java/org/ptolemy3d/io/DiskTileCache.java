@@ -0,0 +1,368 @@
+/**
+ * Ptolemy3D - a Java-based 3D Viewer for GeoWeb applications.
+ * Copyright (C) 2008 Mark W. Korver
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ptolemy3d.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.ptolemy3d.debug.IO;
+
+/**
+ * Size bounded cache of downloaded tile data on the local file system.<BR>
+ * Each entry is stored in its own file, with its key, length and checksum so a truncated or
+ * corrupted entry is detected when read, and dropped. Entries are written in a temporary file
+ * first and renamed, so a crash never leaves a partial entry under its final name.<BR>
+ * An index of the entries, in least recently used order, is kept in memory and saved in a
+ * compact file of the cache directory. When the cache grows over its size, least recently
+ * used entries are evicted.<BR>
+ * Thread-safe, shared by all the communicators of the tile loader.
+ */
+public class DiskTileCache
+{
+	private final static int ENTRY_MAGIC = 0x50544345;	//PTCE
+	private final static int INDEX_MAGIC = 0x50544349;	//PTCI
+	private final static int INDEX_VERSION = 1;
+	private final static String INDEX_FILE = "index.dat";
+	private final static String ENTRY_EXT = ".tile";
+	/** The index is saved every <code>SAVE_INTERVAL</code> new entries */
+	private final static int SAVE_INTERVAL = 256;
+
+	/** An entry of the index */
+	private static class Entry
+	{
+		final int length;
+		final int crc;
+
+		Entry(int length, int crc)
+		{
+			this.length = length;
+			this.crc = crc;
+		}
+	}
+
+	private final File directory;
+	private final long maxSize;
+	/** Entries in access order, least recently used first */
+	private final LinkedHashMap<String, Entry> index = new LinkedHashMap<String, Entry>(1024, 0.75f, true);
+	private long size = 0;
+	private int unsaved = 0;
+	private long hits = 0, misses = 0;
+
+	/**
+	 * @param directory cache directory, created if needed
+	 * @param maxSize maximum size of the cached data, in bytes
+	 */
+	public DiskTileCache(File directory, long maxSize)
+	{
+		this.directory = directory;
+		this.maxSize = maxSize;
+
+		directory.mkdirs();
+		loadIndex();
+		sweep();
+		evict();
+	}
+
+	/** @return key of the bytes <code>start</code> to <code>end</code> of a file, end at -1 for the whole file */
+	public static String key(String server, String file, int start, int end)
+	{
+		if (end == -1) {
+			return server + "/" + file;
+		}
+		return server + "/" + file + "#" + start + "-" + end;
+	}
+
+	/** @return the cached data, null if not in the cache */
+	public byte[] get(String key)
+	{
+		final Entry entry;
+		synchronized (this) {
+			entry = index.get(key);
+			if (entry == null) {
+				misses++;
+				return null;
+			}
+		}
+
+		byte[] data = null;
+		try {
+			data = readEntry(getFile(key), key, entry);
+		}
+		catch (IOException e) {
+			IO.printlnConnection("DiskTileCache: " + e.getMessage());
+		}
+
+		synchronized (this) {
+			if (data == null) {
+				misses++;
+				if (index.get(key) == entry) {
+					remove(key);
+				}
+			}
+			else {
+				hits++;
+			}
+		}
+		return data;
+	}
+
+	/** Add data to the cache, replacing the previous data of the key. */
+	public void put(String key, byte[] data)
+	{
+		if ((data == null) || (data.length > maxSize)) {
+			return;
+		}
+
+		final CRC32 crc32 = new CRC32();
+		crc32.update(data);
+		final Entry entry = new Entry(data.length, (int) crc32.getValue());
+
+		final File file = getFile(key);
+		try {
+			writeEntry(file, key, entry, data);
+		}
+		catch (IOException e) {
+			IO.printlnConnection("DiskTileCache: " + e.getMessage());
+			return;
+		}
+
+		boolean save;
+		synchronized (this) {
+			final Entry old = index.put(key, entry);
+			if (old != null) {
+				size -= old.length;
+			}
+			size += entry.length;
+			evict();
+			save = (++unsaved >= SAVE_INTERVAL);
+		}
+		if (save) {
+			saveIndex();
+		}
+	}
+
+	/** Save the index. */
+	public void close()
+	{
+		saveIndex();
+		IO.printlnConnection("DiskTileCache: " + hits + " hits, " + misses + " misses, " + (size >> 10) + " KB used");
+	}
+
+	/** @return size of the cached data, in bytes */
+	public synchronized long getSize()
+	{
+		return size;
+	}
+
+	private final File getFile(String key)
+	{
+		// 64 bits FNV-1a hash of the key, the key is also stored in the file
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < key.length(); i++) {
+			hash ^= key.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		final String dir = Integer.toHexString(0x100 | (int) (hash & 0xFF)).substring(1);
+		return new File(new File(directory, dir), Long.toHexString(hash) + ENTRY_EXT);
+	}
+
+	/** Remove least recently used entries until the cache fits its size. Lock must be held. */
+	private final void evict()
+	{
+		final Iterator<Map.Entry<String, Entry>> it = index.entrySet().iterator();
+		while ((size > maxSize) && it.hasNext()) {
+			final Map.Entry<String, Entry> eldest = it.next();
+			it.remove();
+			size -= eldest.getValue().length;
+			getFile(eldest.getKey()).delete();
+		}
+	}
+
+	/** Lock must be held. */
+	private final void remove(String key)
+	{
+		final Entry entry = index.remove(key);
+		if (entry != null) {
+			size -= entry.length;
+			getFile(key).delete();
+		}
+	}
+
+	private final static byte[] readEntry(File file, String key, Entry entry) throws IOException
+	{
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if ((in.readInt() != ENTRY_MAGIC) || !in.readUTF().equals(key) ||
+				(in.readInt() != entry.length) || (in.readInt() != entry.crc)) {
+				throw new IOException("Bad entry header " + file.getName());
+			}
+			final byte[] data = new byte[entry.length];
+			in.readFully(data);
+
+			final CRC32 crc32 = new CRC32();
+			crc32.update(data);
+			if ((int) crc32.getValue() != entry.crc) {
+				throw new IOException("Bad entry checksum " + file.getName());
+			}
+			return data;
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	private final static void writeEntry(File file, String key, Entry entry, byte[] data) throws IOException
+	{
+		final File dir = file.getParentFile();
+		dir.mkdirs();
+		final File tmp = File.createTempFile("entry", ".tmp", dir);
+		try {
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				out.writeInt(ENTRY_MAGIC);
+				out.writeUTF(key);
+				out.writeInt(entry.length);
+				out.writeInt(entry.crc);
+				out.write(data);
+			}
+			finally {
+				out.close();
+			}
+			rename(tmp, file);
+		}
+		finally {
+			tmp.delete();
+		}
+	}
+
+	private final static void rename(File from, File to) throws IOException
+	{
+		if (!from.renameTo(to)) {
+			// Windows does not replace an existing file
+			to.delete();
+			if (!from.renameTo(to)) {
+				throw new IOException("Can't rename " + from + " to " + to);
+			}
+		}
+	}
+
+	private final void loadIndex()
+	{
+		final File file = new File(directory, INDEX_FILE);
+		if (!file.exists()) {
+			return;
+		}
+		try {
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				if ((in.readInt() != INDEX_MAGIC) || (in.readInt() != INDEX_VERSION)) {
+					throw new IOException("unknown format");
+				}
+				final int numEntries = in.readInt();
+				for (int i = 0; i < numEntries; i++) {
+					final String key = in.readUTF();
+					final Entry entry = new Entry(in.readInt(), in.readInt());
+					index.put(key, entry);
+					size += entry.length;
+				}
+			}
+			finally {
+				in.close();
+			}
+		}
+		catch (IOException e) {
+			IO.printlnConnection("DiskTileCache: bad index, " + e.getMessage());
+			index.clear();
+			size = 0;
+		}
+	}
+
+	private final void saveIndex()
+	{
+		final File file = new File(directory, INDEX_FILE);
+		try {
+			final File tmp = File.createTempFile("index", ".tmp", directory);
+			try {
+				final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+				try {
+					out.writeInt(INDEX_MAGIC);
+					out.writeInt(INDEX_VERSION);
+					synchronized (this) {
+						out.writeInt(index.size());
+						for (Map.Entry<String, Entry> e : index.entrySet()) {
+							out.writeUTF(e.getKey());
+							out.writeInt(e.getValue().length);
+							out.writeInt(e.getValue().crc);
+						}
+						unsaved = 0;
+					}
+				}
+				finally {
+					out.close();
+				}
+				rename(tmp, file);
+			}
+			finally {
+				tmp.delete();
+			}
+		}
+		catch (IOException e) {
+			IO.printStackConnection(e);
+		}
+	}
+
+	/** Delete the temporary files, and the entries not in the index (written after the last save). */
+	private final void sweep()
+	{
+		final HashSet<File> indexed = new HashSet<File>();
+		for (String key : index.keySet()) {
+			indexed.add(getFile(key));
+		}
+
+		final File[] dirs = directory.listFiles();
+		if (dirs == null) {
+			return;
+		}
+		for (int i = 0; i < dirs.length; i++) {
+			if (dirs[i].getName().endsWith(".tmp")) {
+				dirs[i].delete();
+			}
+			final File[] files = dirs[i].listFiles();
+			if (files == null) {
+				continue;
+			}
+			for (int j = 0; j < files.length; j++) {
+				final String name = files[j].getName();
+				if (name.endsWith(".tmp") || (name.endsWith(ENTRY_EXT) && !indexed.contains(files[j]))) {
+					files[j].delete();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,369 @@
+/**
+ * Ptolemy3D - a Java-based 3D Viewer for GeoWeb applications.
+ * Copyright (C) 2008 Mark W. Korver
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ptolemy3d.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Vector;
+
+import org.ptolemy3d.debug.IO;
+
+/**
+ * Pool of persistent HTTP/1.1 connections to a server.<BR>
+ * Connections are shared by all the communicators of the server: an idle connection is reused
+ * as long as it has not been idle for more than <code>KEEP_ALIVE_TIMEOUT</code>, and at most
+ * <code>MAX_CONNECTIONS</code> connections are opened to a server at a time.
+ */
+public class HttpConnectionPool
+{
+	/** Maximum number of connections opened to a server */
+	public final static int MAX_CONNECTIONS = 4;
+	/** Idle connections older than that are closed, in ms */
+	public final static int KEEP_ALIVE_TIMEOUT = 15000;
+	/** Connection and read timeouts, in ms */
+	private final static int CONNECT_TIMEOUT = 10000;
+	private final static int READ_TIMEOUT = 30000;
+
+	private final static HashMap<String, HttpConnectionPool> pools = new HashMap<String, HttpConnectionPool>();
+
+	/** @return the pool of the server <code>host[:port]</code> */
+	public static HttpConnectionPool getPool(String server)
+	{
+		synchronized (pools) {
+			HttpConnectionPool pool = pools.get(server);
+			if (pool == null) {
+				pool = new HttpConnectionPool(server);
+				pools.put(server, pool);
+			}
+			return pool;
+		}
+	}
+
+	/** Close the idle connections of all the pools. */
+	public static void closeAllIdle()
+	{
+		synchronized (pools) {
+			for (HttpConnectionPool pool : pools.values()) {
+				pool.closeIdle();
+			}
+		}
+	}
+
+	/** HTTP response, body fully read */
+	static class Response
+	{
+		int status;
+		/** Position of the body in the file, from the Content-Range header */
+		int bodyStart;
+		/** Length of the whole file, -1 if unknown */
+		int fileLength = -1;
+		byte[] body;
+		/** Server will close the connection */
+		boolean close;
+	}
+
+	/** A persistent connection */
+	static class Connection
+	{
+		private final Socket socket;
+		private final InputStream in;
+		private final OutputStream out;
+		private long lastUsed;
+		/** Number of responses read on this connection */
+		int served = 0;
+		private boolean closed = false;
+
+		Connection(String host, int port) throws IOException
+		{
+			socket = new Socket();
+			socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+			socket.setSoTimeout(READ_TIMEOUT);
+			socket.setTcpNoDelay(true);
+			in = new BufferedInputStream(socket.getInputStream());
+			out = new BufferedOutputStream(socket.getOutputStream());
+			lastUsed = System.currentTimeMillis();
+		}
+
+		final void write(String request) throws IOException
+		{
+			out.write(request.getBytes("ISO-8859-1"));
+		}
+
+		final void flush() throws IOException
+		{
+			out.flush();
+		}
+
+		/** Read the next response on the connection. */
+		final Response readResponse() throws IOException
+		{
+			final Response response = new Response();
+			int contentLength;
+			boolean chunked;
+			do {
+				final String statusLine = readLine();
+				final int sp = statusLine.indexOf(' ');
+				if (!statusLine.startsWith("HTTP/") || (sp == -1) || (statusLine.length() < sp + 4)) {
+					throw new IOException("Bad status line: " + statusLine);
+				}
+				response.status = Integer.parseInt(statusLine.substring(sp + 1, sp + 4));
+				response.close = statusLine.startsWith("HTTP/1.0");
+
+				contentLength = -1;
+				chunked = false;
+				String line;
+				while ((line = readLine()).length() > 0) {
+					final int colon = line.indexOf(':');
+					if (colon == -1) {
+						continue;
+					}
+					final String name = line.substring(0, colon).trim();
+					final String value = line.substring(colon + 1).trim();
+					if (name.equalsIgnoreCase("Content-Length")) {
+						contentLength = Integer.parseInt(value);
+					}
+					else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+						chunked = value.equalsIgnoreCase("chunked");
+					}
+					else if (name.equalsIgnoreCase("Connection")) {
+						if (value.equalsIgnoreCase("close")) {
+							response.close = true;
+						}
+						else if (value.equalsIgnoreCase("keep-alive")) {
+							response.close = false;
+						}
+					}
+					else if (name.equalsIgnoreCase("Content-Range")) {
+						// bytes start-end/length
+						final int start = value.indexOf(' ') + 1;
+						final int dash = value.indexOf('-', start);
+						if ((start > 0) && (dash > start)) {
+							response.bodyStart = Integer.parseInt(value.substring(start, dash));
+						}
+						final int slash = value.indexOf('/', dash);
+						if ((slash != -1) && !value.endsWith("*")) {
+							response.fileLength = Integer.parseInt(value.substring(slash + 1).trim());
+						}
+					}
+				}
+			} while ((response.status >= 100) && (response.status < 200));
+
+			if (chunked) {
+				response.body = readChunked();
+			}
+			else if (contentLength >= 0) {
+				response.body = new byte[contentLength];
+				readFully(response.body, 0, contentLength);
+			}
+			else if ((response.status == 204) || (response.status == 304)) {
+				response.body = new byte[0];
+			}
+			else {
+				// body ends with the connection, it may have been cut
+				response.body = readToEnd();
+				response.close = true;
+			}
+			if ((response.status == 200) && (chunked || (contentLength >= 0))) {
+				// whole file, fully read
+				response.fileLength = response.body.length;
+			}
+			served++;
+			lastUsed = System.currentTimeMillis();
+			return response;
+		}
+
+		private final String readLine() throws IOException
+		{
+			final StringBuffer line = new StringBuffer();
+			int b;
+			while ((b = in.read()) != '\n') {
+				if (b == -1) {
+					throw new EOFException("Connection closed");
+				}
+				if (b != '\r') {
+					line.append((char) b);
+				}
+			}
+			return line.toString();
+		}
+
+		private final void readFully(byte[] data, int offset, int len) throws IOException
+		{
+			while (len > 0) {
+				final int bytesread = in.read(data, offset, len);
+				if (bytesread == -1) {
+					throw new EOFException("Connection closed");
+				}
+				offset += bytesread;
+				len -= bytesread;
+			}
+		}
+
+		private final byte[] readChunked() throws IOException
+		{
+			final ByteArrayOutputStream body = new ByteArrayOutputStream();
+			while (true) {
+				String size = readLine();
+				final int ext = size.indexOf(';');
+				if (ext != -1) {
+					size = size.substring(0, ext);
+				}
+				final int len = Integer.parseInt(size.trim(), 16);
+				if (len == 0) {
+					// trailers
+					while (readLine().length() > 0);
+					return body.toByteArray();
+				}
+				final byte[] chunk = new byte[len];
+				readFully(chunk, 0, len);
+				body.write(chunk, 0, len);
+				readLine();
+			}
+		}
+
+		private final byte[] readToEnd() throws IOException
+		{
+			final ByteArrayOutputStream body = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[4096];
+			int bytesread;
+			while ((bytesread = in.read(buffer)) != -1) {
+				body.write(buffer, 0, bytesread);
+			}
+			return body.toByteArray();
+		}
+
+		final void close()
+		{
+			closed = true;
+			try {
+				socket.close();
+			}
+			catch (IOException e) {}
+		}
+	}
+
+	private final String server;
+	private final String host;
+	private final int port;
+	private final Vector<Connection> idle = new Vector<Connection>();
+	private int opened = 0;
+
+	private HttpConnectionPool(String server)
+	{
+		this.server = server;
+		final int colon = server.lastIndexOf(':');
+		if (colon != -1) {
+			host = server.substring(0, colon);
+			port = Integer.parseInt(server.substring(colon + 1));
+		}
+		else {
+			host = server;
+			port = 80;
+		}
+	}
+
+	/** @return the value of the Host header */
+	final String getServer()
+	{
+		return server;
+	}
+
+	/**
+	 * Get a connection, waiting if <code>MAX_CONNECTIONS</code> are in use.
+	 * The connection must be given back with <code>release</code>.
+	 */
+	final Connection acquire() throws IOException
+	{
+		synchronized (this) {
+			while (true) {
+				final long now = System.currentTimeMillis();
+				while (idle.size() > 0) {
+					final Connection conn = idle.remove(idle.size() - 1);
+					if ((now - conn.lastUsed) < KEEP_ALIVE_TIMEOUT) {
+						return conn;
+					}
+					conn.close();
+					opened--;
+				}
+				if (opened < MAX_CONNECTIONS) {
+					opened++;
+					break;
+				}
+				try {
+					wait();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+				}
+			}
+		}
+
+		IO.printlnConnection("HttpConnectionPool: opening connection to " + server);
+		try {
+			return new Connection(host, port);
+		}
+		catch (IOException e) {
+			synchronized (this) {
+				opened--;
+				notifyAll();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Give back a connection.
+	 * @param reusable false if the connection must be closed
+	 */
+	final synchronized void release(Connection conn, boolean reusable)
+	{
+		if (conn.closed) {
+			// already given back
+			return;
+		}
+		if (reusable) {
+			idle.add(conn);
+		}
+		else {
+			conn.close();
+			opened--;
+		}
+		notifyAll();
+	}
+
+	/** Close the idle connections. */
+	public final synchronized void closeIdle()
+	{
+		for (int i = 0; i < idle.size(); i++) {
+			idle.get(i).close();
+			opened--;
+		}
+		idle.clear();
+		notifyAll();
+	}
+}
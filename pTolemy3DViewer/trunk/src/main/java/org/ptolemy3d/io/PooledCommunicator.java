@@ -0,0 +1,581 @@
+/**
+ * Ptolemy3D - a Java-based 3D Viewer for GeoWeb applications.
+ * Copyright (C) 2008 Mark W. Korver
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ptolemy3d.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Vector;
+
+import org.ptolemy3d.debug.IO;
+import org.ptolemy3d.io.HttpConnectionPool.Connection;
+import org.ptolemy3d.io.HttpConnectionPool.Response;
+
+/**
+ * Communicator using persistent connections from a <code>HttpConnectionPool</code>.<BR>
+ * Byte ranges are asked to the server with a <code>Range</code> header instead of being
+ * skipped on the client side.<BR>
+ * Requests are not sent right away: they are queued until a response is read, so several
+ * requests can be made before reading their responses, in the same order. Queued requests
+ * are then sent together, pipelined on the connection, and adjacent ranges of the same file
+ * are coalesced into a single HTTP request.<BR>
+ * A communicator holds at most one connection: up to <code>PIPELINE_DEPTH</code> HTTP requests
+ * are sent on it, the next ones stay queued until their responses are read. Communicators
+ * sharing a pool then never wait for a connection while holding one.<BR>
+ * Not thread-safe, except <code>endSocket</code>: it can be called while another thread reads a
+ * response, that read then ends as if the server had closed the connection.
+ */
+public class PooledCommunicator implements Communicator
+{
+	/** Maximum number of HTTP requests pipelined on a connection */
+	public final static int PIPELINE_DEPTH = 4;
+
+	/** A request made to the communicator */
+	private static class Request
+	{
+		final String server;
+		final String path;
+		/** First and last byte, end is -1 for the whole file */
+		final int start, end;
+		Batch batch;
+
+		Request(String server, String path, int start, int end)
+		{
+			this.server = server;
+			this.path = path;
+			this.start = start;
+			this.end = end;
+		}
+	}
+
+	/** A HTTP request, serving one or more adjacent requests */
+	private static class Batch
+	{
+		final String server;
+		final String path;
+		final int start;
+		int end;
+		Connection conn;
+		Response response;
+
+		Batch(Request req)
+		{
+			this.server = req.server;
+			this.path = req.path;
+			this.start = req.start;
+			this.end = req.end;
+		}
+	}
+
+	private String Server = "";
+	private String hkey = null;
+	private String qrystr = "";
+	private double tot_br = 0;
+	/** File length of the last response read, -1 if unknown */
+	private int fileLength = -1;
+
+	/** Requests not sent yet */
+	private final Vector<Request> queued = new Vector<Request>();
+	/** Requests sent, whose response has not been read */
+	private final Vector<Request> sent = new Vector<Request>();
+	/** Batches sent, in the order of the responses */
+	private final Vector<Batch> batches = new Vector<Batch>();
+	/** Connections taken from the pools, with their pool. Guarded by <code>this</code> */
+	private final HashMap<Connection, HttpConnectionPool> inUse = new HashMap<Connection, HttpConnectionPool>();
+	/** Set by <code>endSocket</code>, until the next request */
+	private volatile boolean ended = false;
+
+	public PooledCommunicator(String server)
+	{
+		this.Server = server;
+	}
+
+	public void setServer(String server)
+	{
+		this.Server = server;
+	}
+
+	public void setHeaderKey(String key)
+	{
+		this.hkey = key;
+		if (this.hkey != null) {
+			if (this.hkey.length() == 0) {
+				this.hkey = null;
+			}
+		}
+	}
+
+	public void setUrlAppend(String qstr)
+	{
+		boolean set = false;
+		if (qstr != null) {
+			if (qstr.length() > 0) {
+				if (qstr.charAt(0) != '?') {
+					qstr = "?" + qstr;
+				}
+				this.qrystr = qstr;
+				set = true;
+			}
+		}
+		if (!set) {
+			this.qrystr = "";
+		}
+	}
+
+	/**
+	 * Drop pending requests and close the connections in use.<BR>
+	 * The request lists belong to the reading thread: they are dropped by it, when it sees the
+	 * communicator has been ended.
+	 */
+	public void endSocket()
+	{
+		final Connection[] connections;
+		final HttpConnectionPool[] pools;
+		synchronized (this) {
+			ended = true;
+			connections = inUse.keySet().toArray(new Connection[inUse.size()]);
+			pools = new HttpConnectionPool[connections.length];
+			for (int i = 0; i < connections.length; i++) {
+				pools[i] = inUse.get(connections[i]);
+			}
+			inUse.clear();
+		}
+		// Closing the sockets unblocks a thread reading on them
+		for (int i = 0; i < connections.length; i++) {
+			pools[i].release(connections[i], false);
+		}
+	}
+
+	public void verify()
+	{
+	}
+
+	public void requestData(String file, int start, int end) throws IOException
+	{
+		if (Server.equals("WFS_SERVER")) {
+			final URL url = new URL(file);
+			final String server = (url.getPort() == -1) ? url.getHost() : (url.getHost() + ":" + url.getPort());
+			queue(server, url.getFile(), start, end);
+		}
+		else {
+			queue(Server, file, start, end);
+		}
+	}
+
+	public void requestData(String file) throws IOException
+	{
+		requestData(file, 0, -1);
+	}
+
+	public void requestMapData(String file, int start, int end) throws IOException
+	{
+		queue(Server, file + qrystr, start, end);
+	}
+
+	public void requestMapData(String file) throws IOException
+	{
+		requestMapData(file, 0, -1);
+	}
+
+	private final void queue(String server, String path, int start, int end)
+	{
+		if (ended) {
+			// requests made before endSocket are dropped
+			fail();
+			queued.clear();
+			ended = false;
+		}
+		IO.printlnConnection("PooledCommunicator.request: " + server + path + " [" + start + "-" + end + "]");
+		queued.add(new Request(server, path, start, end));
+	}
+
+	public double getBytesRead()
+	{
+		return tot_br;
+	}
+
+	public void clearBytesRead()
+	{
+		tot_br = 0;
+	}
+
+	/** @return the response code of the next request */
+	public int getHeaderReturnCode() throws IOException
+	{
+		return getResponse(current()).status;
+	}
+
+	/** @return at most <code>len</code> bytes of the next request, and move to the request after */
+	public byte[] getData(int len) throws IOException
+	{
+		final Request req = current();
+		final Response response = getResponse(req);
+		sent.remove(0);
+		trim();
+
+		fileLength = -1;
+		if ((response.status != 200) && (response.status != 206)) {
+			return null;
+		}
+		fileLength = response.fileLength;
+		// 200: the server ignored the range and sent the whole file
+		final int bodyStart = (response.status == 206) ? response.bodyStart : 0;
+		final int from = req.start - bodyStart;
+		int to = (req.end == -1) ? response.body.length : (req.end - bodyStart + 1);
+		if (to > response.body.length) {
+			to = response.body.length;
+		}
+		if ((from < 0) || (from > to)) {
+			throw new IOException("Range " + req.start + "-" + req.end + " not in response");
+		}
+		if (to - from > len) {
+			to = from + len;
+		}
+
+		final byte[] data = new byte[to - from];
+		System.arraycopy(response.body, from, data, 0, data.length);
+		return data;
+	}
+
+	public byte[] getData()
+	{
+		try {
+			return getData(Integer.MAX_VALUE);
+		}
+		catch (IOException e) {
+			IO.printStackConnection(e);
+			return null;
+		}
+	}
+
+	public int getFileLength()
+	{
+		return fileLength;
+	}
+
+	public void readOutStream(int pos)
+	{
+	}
+
+	/** Skip the next request. */
+	public void flushNotFound() throws IOException
+	{
+		if ((sent.size() > 0) || (queued.size() > 0)) {
+			getResponse(current());
+			sent.remove(0);
+			trim();
+		}
+	}
+
+	public boolean test(String file)
+	{
+		try {
+			requestMapData(file, 0, 1);
+			requestMapData(file, 0, 1);
+			final byte[] b1 = getData(1);
+			final byte[] b2 = getData(1);
+			return (b1 != null) && (b2 != null) && (b1.length == 1) && (b1[0] == b2[0]);
+		}
+		catch (IOException e) {
+			IO.printlnConnection(e.getMessage());
+			return false;
+		}
+	}
+
+	public InputStream getInputStream()
+	{
+		final byte[] data = getData();
+		return (data == null) ? null : new ByteArrayInputStream(data);
+	}
+
+	/** @return the request whose response is read next, sending the queued requests if needed */
+	private final Request current() throws IOException
+	{
+		if (sent.size() == 0) {
+			send();
+		}
+		if (sent.size() == 0) {
+			throw new IOException("No request");
+		}
+		return sent.get(0);
+	}
+
+	/** Coalesce the queued requests, and send the first ones on a connection. */
+	private final void send() throws IOException
+	{
+		if (queued.size() == 0) {
+			return;
+		}
+
+		// Coalesce adjacent ranges of the same file
+		final Vector<Batch> newBatches = new Vector<Batch>();
+		Batch batch = null;
+		for (int i = 0; i < queued.size(); i++) {
+			final Request req = queued.get(i);
+			if ((batch != null) && (req.end != -1) && (batch.end != -1) &&
+				batch.server.equals(req.server) && batch.path.equals(req.path) &&
+				(req.start >= batch.start) && (req.start <= batch.end + 1)) {
+				if (req.end > batch.end) {
+					batch.end = req.end;
+				}
+			}
+			else {
+				batch = new Batch(req);
+				newBatches.add(batch);
+			}
+			req.batch = batch;
+		}
+
+		// Pipeline the first batches of the same server on one connection, the others wait
+		final String server = newBatches.get(0).server;
+		int last = 1;
+		while ((last < newBatches.size()) && (last < PIPELINE_DEPTH) && newBatches.get(last).server.equals(server)) {
+			last++;
+		}
+		final Batch waiting = (last < newBatches.size()) ? newBatches.get(last) : null;
+		int numSent = 0;
+		while ((numSent < queued.size()) && (queued.get(numSent).batch != waiting)) {
+			numSent++;
+		}
+		for (int i = 0; i < numSent; i++) {
+			sent.add(queued.remove(0));
+		}
+		for (int i = 0; i < queued.size(); i++) {
+			// coalesced again on the next send
+			queued.get(i).batch = null;
+		}
+
+		final Connection conn;
+		try {
+			conn = acquire(HttpConnectionPool.getPool(server));
+		}
+		catch (IOException e) {
+			fail();
+			throw e;
+		}
+		for (int i = 0; i < last; i++) {
+			newBatches.get(i).conn = conn;
+			batches.add(newBatches.get(i));
+		}
+		try {
+			write(conn, newBatches, 0, last);
+		}
+		catch (IOException e) {
+			// a reused connection may have been closed by the server, read will retry
+		}
+	}
+
+	private final void write(Connection conn, Vector<Batch> list, int first, int last) throws IOException
+	{
+		for (int i = first; i < last; i++) {
+			final Batch batch = list.get(i);
+			final StringBuffer request = new StringBuffer();
+			request.append("GET ").append(batch.path).append(" HTTP/1.1\r\n");
+			request.append("Host: ").append(batch.server).append("\r\n");
+			request.append("Connection: keep-alive\r\n");
+			if ((batch.start > 0) || (batch.end != -1)) {
+				request.append("Range: bytes=").append(batch.start).append('-');
+				if (batch.end != -1) {
+					request.append(batch.end);
+				}
+				request.append("\r\n");
+			}
+			if (this.hkey != null) {
+				request.append("Authorization: Basic ").append(this.hkey).append("\r\n");
+			}
+			request.append("\r\n");
+			conn.write(request.toString());
+		}
+		conn.flush();
+	}
+
+	/** @return the response serving <code>req</code>, reading the responses before it */
+	private final Response getResponse(Request req) throws IOException
+	{
+		final Batch target = req.batch;
+		while (target.response == null) {
+			readNext();
+		}
+		return target.response;
+	}
+
+	/** Read the response of the first batch not read. */
+	private final void readNext() throws IOException
+	{
+		int index = 0;
+		while (batches.get(index).response != null) {
+			index++;
+		}
+		final Batch batch = batches.get(index);
+		final HttpConnectionPool pool = HttpConnectionPool.getPool(batch.server);
+		Connection conn = batch.conn;
+
+		Response response;
+		try {
+			if (ended) {
+				throw new EOFException("Communicator closed");
+			}
+			response = conn.readResponse();
+		}
+		catch (IOException e) {
+			if (ended) {
+				// endSocket closed the connection: end of stream, no retry
+				fail();
+				queued.clear();
+				throw new EOFException("Communicator closed");
+			}
+			if (conn.served > 0) {
+				// persistent connection closed by the server: send again on a new connection
+				IO.printlnConnection("PooledCommunicator: connection lost, retrying.");
+				response = retry(pool, index);
+				conn = batch.conn;
+			}
+			else {
+				fail();
+				throw e;
+			}
+		}
+		batch.response = response;
+		tot_br += response.body.length;
+
+		// Give back the connection once its last batch is read
+		boolean pendingOnConn = false;
+		for (int i = index + 1; i < batches.size(); i++) {
+			if (batches.get(i).conn == conn) {
+				pendingOnConn = true;
+				break;
+			}
+		}
+		batch.conn = null;
+		if (response.close) {
+			release(pool, conn, false);
+			if (pendingOnConn) {
+				// remaining batches of the connection go to a new one
+				resend(pool, conn, index + 1);
+			}
+		}
+		else if (!pendingOnConn) {
+			release(pool, conn, true);
+		}
+		trim();
+	}
+
+	/** Drop the batches whose requests have all been read. */
+	private final void trim()
+	{
+		while ((batches.size() > 0) && (batches.get(0).response != null) && !isUsed(batches.get(0))) {
+			batches.remove(0);
+		}
+	}
+
+	private final Response retry(HttpConnectionPool pool, int index) throws IOException
+	{
+		final Connection old = batches.get(index).conn;
+		release(pool, old, false);
+		final Connection conn = resend(pool, old, index);
+		try {
+			return conn.readResponse();
+		}
+		catch (IOException e) {
+			fail();
+			throw e;
+		}
+	}
+
+	/** Send again the batches of <code>old</code> from <code>index</code>, on a new connection. */
+	private final Connection resend(HttpConnectionPool pool, Connection old, int index) throws IOException
+	{
+		final Vector<Batch> list = new Vector<Batch>();
+		for (int i = index; i < batches.size(); i++) {
+			if (batches.get(i).conn == old) {
+				list.add(batches.get(i));
+			}
+		}
+		final Connection conn;
+		try {
+			conn = acquire(pool);
+		}
+		catch (IOException e) {
+			fail();
+			throw e;
+		}
+		for (int i = 0; i < list.size(); i++) {
+			list.get(i).conn = conn;
+		}
+		try {
+			write(conn, list, 0, list.size());
+		}
+		catch (IOException e) {
+			fail();
+			throw e;
+		}
+		return conn;
+	}
+
+	/** Close the connections in use and forget the pending requests, after a failure. */
+	private final void fail()
+	{
+		for (int i = 0; i < batches.size(); i++) {
+			final Batch batch = batches.get(i);
+			if (batch.conn != null) {
+				release(HttpConnectionPool.getPool(batch.server), batch.conn, false);
+				batch.conn = null;
+			}
+		}
+		batches.clear();
+		sent.clear();
+	}
+
+	/** @return a connection of the pool, kept in <code>inUse</code> until given back */
+	private final Connection acquire(HttpConnectionPool pool) throws IOException
+	{
+		final Connection conn = pool.acquire();
+		synchronized (this) {
+			if (!ended) {
+				inUse.put(conn, pool);
+				return conn;
+			}
+		}
+		pool.release(conn, false);
+		throw new EOFException("Communicator closed");
+	}
+
+	/** Give back a connection, unless <code>endSocket</code> already closed it. */
+	private final void release(HttpConnectionPool pool, Connection conn, boolean reusable)
+	{
+		synchronized (this) {
+			if (inUse.remove(conn) == null) {
+				return;
+			}
+		}
+		pool.release(conn, reusable);
+	}
+
+	private final boolean isUsed(Batch batch)
+	{
+		for (int i = 0; i < sent.size(); i++) {
+			if (sent.get(i).batch == batch) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
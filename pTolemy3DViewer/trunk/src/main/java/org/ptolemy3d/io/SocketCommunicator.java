@@ -344,6 +344,12 @@ public class SocketCommunicator implements Communicator
 		return val;
 	}
 
+	/** Ranges are skipped in the stream, the file length is not known. */
+	public int getFileLength()
+	{
+		return -1;
+	}
+
 	public int getHeaderReturnCode() throws IOException
 	{
 		int n = -1;
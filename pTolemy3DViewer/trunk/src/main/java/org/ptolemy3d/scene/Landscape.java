@@ -22,6 +22,8 @@ import static org.ptolemy3d.debug.Config.DEBUG;
 import static org.ptolemy3d.tile.Level.LEVEL_NUMTILE_LON;
 import static org.ptolemy3d.tile.Level.LEVEL_NUMTILE_LAT;
 
+import java.util.Arrays;
+
 import javax.media.opengl.GL;
 
 import org.ptolemy3d.Ptolemy3D;
@@ -185,6 +187,8 @@ public class Landscape
 	public Level[] levels;
 	protected transient int numVisibleJp2 = 0;
 	protected transient float maxTextureAnisotropy = 1.0f;
+	/** Level visibility sent to the plugins, the ground height only comes from visible levels */
+	private transient boolean[] terrainVisible = null;
 //	protected transient LoadingScreen loadingScreen = new LoadingScreen();
 
 	/** Fog radius */
@@ -372,6 +376,10 @@ public class Landscape
 
 		//Destroy unused textures
 		ptolemy.textureManager.destroyTrashTextures(gl);
+		//Publish tile data decoded since last frame
+		ptolemy.textureManager.publishDecoded();
+		//Upload the tile textures queued at the last frame
+		ptolemy.textureManager.uploadQueued(gl);
 
 		//Correct Tiles
 		if(DEBUG) {
@@ -493,6 +501,16 @@ public class Landscape
 			numJP2 += tileLoader.acquireTile(level, p == 0);
 			level.processVisibility();
 		}
+
+		if ((terrainVisible == null) || (terrainVisible.length != levels.length)) {
+			terrainVisible = new boolean[levels.length];
+		}
+		for (int p = 0; p < levels.length; p++) {
+			if (terrainVisible[p] != levels[p].visible) {
+				terrainVisible[p] = levels[p].visible;
+				ptolemy.scene.plugins.terrainChanged(p, -maxLongitude, -maxLatitude, maxLongitude, maxLatitude);
+			}
+		}
 		return numJP2;
 	}
 
@@ -523,10 +541,12 @@ public class Landscape
 			gl.glEnable(GL.GL_TEXTURE_2D);
 		}
 
+		ptolemy.textureManager.beginTileTextures();
 		for (int p = levels.length - 1; p >= 0; p--) {
 			final Level level = levels[p];
 			level.draw(gl);
 		}
+		ptolemy.textureManager.endTileTextures(gl);
 
 		if(displayMode == DISPLAY_MESH) {
 			gl.glPolygonMode(GL.GL_FRONT_AND_BACK, GL.GL_FILL);
@@ -561,6 +581,25 @@ public class Landscape
 		return false;
 	}
 
+	/**
+	 * Set the elevation scaling.<BR>
+	 * The plugins are told the ground height of all the levels has changed.
+	 */
+	public final void setTerrainScaler(double terrainScaler)
+	{
+		if (terrainScaler == this.terrainScaler) {
+			return;
+		}
+		this.terrainScaler = terrainScaler;
+
+		final Level[] levels = this.levels;
+		if (levels != null) {
+			for (int p = 0; p < levels.length; p++) {
+				ptolemy.scene.plugins.terrainChanged(p, -maxLongitude, -maxLatitude, maxLongitude, maxLatitude);
+			}
+		}
+	}
+
 	/**
 	 * Retrieve the ground height.
 	 * @param lon longitude in DD
@@ -594,10 +633,40 @@ public class Landscape
 		return 0;
 	}
 
+	/**
+	 * Retrieve the ground height of many points at once, as <code>groundHeight</code> for each point.<BR>
+	 * For each level, the points are sorted by tile so the elevation of a tile is resolved once.
+	 * @param lons longitudes in DD
+	 * @param lats latitudes in DD
+	 * @param out ground heights, at least as long as <code>lons</code>
+	 * @param minLevel minimum level
+	 */
+	public void groundHeights(double[] lons, double[] lats, double[] out, int minLevel)
+	{
+		Arrays.fill(out, 0, lons.length, 0);
+		if (!terrainEnabled) {
+			return;
+		}
+
+		final boolean[] found = new boolean[lons.length];
+		for (int i = levels.length - 1; (i >= minLevel); i--) {
+			try {
+				levels[i].groundHeights(lons, lats, out, found, ptolemy.cameraController.maxAlt);
+			}
+			catch(RuntimeException e) {
+				IO.printStackRenderer(e);
+			}
+		}
+		for (int i = 0; i < lons.length; i++) {
+			out[i] *= terrainScaler;
+		}
+	}
+
 	/** Landscape Destruction */
 
 	protected void destroyGL(GL gl)
 	{
 //		loadingScreen.destroyGL(gl);
+		Level.destroyGL(gl);
 	}
 }
\ No newline at end of file
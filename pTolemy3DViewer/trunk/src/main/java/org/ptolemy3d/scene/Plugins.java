@@ -34,6 +34,7 @@ import org.ptolemy3d.io.Communicator;
  * <li>Initialize plugins</li>
  * <li>Load balance for plugins data downloading.</li>
  * <li>Plugins rendering: including visibility, geometry update with landscape incoming datas ...</li>
+ * <li>Terrain changes: areas of new elevation data, sent to the <code>TerrainListener</code> plugins.</li>
  * <li>Geometry picking: select plugin object with the mouse.</li>
  * </ul>
  */
@@ -48,6 +49,8 @@ public class Plugins
 	private int pluginCue = 0;		//TODO Don't know its uses ...
 	private int tl_rotation = 0;
 	private boolean running = false;
+	/** Terrain changes not yet sent: level, minLon, minLat, maxLon, maxLat */
+	private final Vector<int[]> terrainChanges = new Vector<int[]>();
 
 	protected Plugins(Ptolemy3D ptolemy)
 	{
@@ -126,6 +129,8 @@ public class Plugins
 	{
 		running = true;
 
+		dispatchTerrainChanges();
+
 		boolean hasPlugins = plugins.size() > 0;
 		if (hasPlugins && (!ptolemy.cameraController.isActive) && (ptolemy.cameraController.inAutoPilot == 0))
 		{
@@ -225,6 +230,37 @@ public class Plugins
 		}
 	}
 
+	/**
+	 * Notify the plugins the ground height of an area may have changed.<BR>
+	 * Can be called from any thread: the change is sent in the rendering thread, at the next frame.
+	 * @param level level of the change
+	 * @param minLon west longitude of the area, in DD
+	 * @param minLat south latitude of the area, in DD
+	 * @param maxLon east longitude of the area, in DD
+	 * @param maxLat north latitude of the area, in DD
+	 */
+	public final void terrainChanged(int level, int minLon, int minLat, int maxLon, int maxLat)
+	{
+		terrainChanges.add(new int[]{level, minLon, minLat, maxLon, maxLat});
+	}
+
+	private final void dispatchTerrainChanges()
+	{
+		while (!terrainChanges.isEmpty()) {
+			final int[] change = terrainChanges.remove(0);
+			for (int i = 0; i < plugins.size(); i++) {
+				final Plugin plugin = plugins.get(i);
+				if (plugin instanceof TerrainListener) {
+					try {
+						((TerrainListener)plugin).terrainChanged(change[0], change[1], change[2], change[3], change[4]);
+					} catch(RuntimeException e) {
+						IO.printStackPlugin(e);
+					}
+				}
+			}
+		}
+	}
+
 	/** Pick plugins. */
 	public final synchronized boolean pick(double[] intersectPoint, double[][] ray)
 	{
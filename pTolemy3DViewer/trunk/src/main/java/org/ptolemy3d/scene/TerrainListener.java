@@ -0,0 +1,37 @@
+/**
+ * Ptolemy3D - a Java-based 3D Viewer for GeoWeb applications.
+ * Copyright (C) 2008 Mark W. Korver
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ptolemy3d.scene;
+
+/**
+ * Optional interface of a plugin clamping its geometry on the ground.<BR>
+ * The plugin is told where the ground height has changed, so it only updates the geometry
+ * of this area instead of reloading all its data.
+ */
+public interface TerrainListener
+{
+	/**
+	 * Called in the rendering thread, before the plugins draw, when the ground height of an area
+	 * may have changed: elevation of a tile loaded or released, level shown or hidden.
+	 * @param level level of the change
+	 * @param minLon west longitude of the area, in DD
+	 * @param minLat south latitude of the area, in DD
+	 * @param maxLon east longitude of the area, in DD
+	 * @param maxLat north latitude of the area, in DD
+	 */
+	public void terrainChanged(int level, int minLon, int minLat, int maxLon, int maxLat);
+}
@@ -0,0 +1,120 @@
+/**
+ * Ptolemy3D - a Java-based 3D Viewer for GeoWeb applications.
+ * Copyright (C) 2008 Mark W. Korver
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ptolemy3d.scene;
+
+/**
+ * Slots of the tile textures of one resolution, packed in a grid in a few big textures (pages).<BR>
+ * All tiles of a resolution have the same square size, so a slot is an index in the grid. Pages are
+ * created when their first slot is allocated and are never resized.<BR>
+ * Texture coordinates of a tile (0 to 1) are mapped to its slot with the texture matrix, inset by
+ * half a texel so the linear filter never reads the neighbour slots.
+ */
+class TextureAtlas
+{
+	/** Width of a slot, in texels */
+	final int slotWidth;
+	/** Texture format of the pages: <code>GL_RGB</code> or <code>GL_COMPRESSED_RGB_S3TC_DXT1_EXT</code> */
+	final int format;
+	/** Slots per page row */
+	final int slotsPerRow;
+	/** Width of a page, in texels */
+	final int pageWidth;
+	/** Texture IDs of the pages, -1 until created */
+	final int[] pages;
+	private final boolean[] used;
+	private final int slotsPerPage;
+	private int numUsed = 0;
+
+	/**
+	 * @param numSlots maximum number of tiles of the resolution
+	 * @param maxPageWidth maximum width of a page (<code>GL_MAX_TEXTURE_SIZE</code>)
+	 */
+	TextureAtlas(int slotWidth, int numSlots, int format, int maxPageWidth)
+	{
+		this.slotWidth = slotWidth;
+		this.format = format;
+
+		// Smallest power of two grid holding all the slots, within the maximum page size
+		int perRow = 1;
+		while (((perRow * perRow) < numSlots) && ((perRow * 2 * slotWidth) <= maxPageWidth)) {
+			perRow *= 2;
+		}
+		slotsPerRow = perRow;
+		pageWidth = perRow * slotWidth;
+		slotsPerPage = perRow * perRow;
+
+		final int numPages = (numSlots + slotsPerPage - 1) / slotsPerPage;
+		pages = new int[numPages];
+		for (int i = 0; i < numPages; i++) {
+			pages[i] = -1;
+		}
+		used = new boolean[numPages * slotsPerPage];
+	}
+
+	/** @return a free slot, -1 if the atlas is full */
+	final int alloc()
+	{
+		for (int i = 0; i < used.length; i++) {
+			if (!used[i]) {
+				used[i] = true;
+				numUsed++;
+				return i;
+			}
+		}
+		return -1;
+	}
+	final void free(int slot)
+	{
+		if (used[slot]) {
+			used[slot] = false;
+			numUsed--;
+		}
+	}
+	/** @return number of allocated slots */
+	final int getNumUsed()
+	{
+		return numUsed;
+	}
+
+	final int getPage(int slot)
+	{
+		return slot / slotsPerPage;
+	}
+	/** @return x offset of the slot in its page, in texels */
+	final int getX(int slot)
+	{
+		return ((slot % slotsPerPage) % slotsPerRow) * slotWidth;
+	}
+	/** @return y offset of the slot in its page, in texels */
+	final int getY(int slot)
+	{
+		return ((slot % slotsPerPage) / slotsPerRow) * slotWidth;
+	}
+
+	/** Fill the texture matrix mapping the tile texture coordinates to the slot, in column-major order. */
+	final void getTextureMatrix(int slot, float[] matrix)
+	{
+		final float scale = (float) (slotWidth - 1) / pageWidth;
+		matrix[0] = scale;
+		matrix[5] = scale;
+		matrix[10] = 1;
+		matrix[15] = 1;
+		matrix[12] = (getX(slot) + 0.5f) / pageWidth;
+		matrix[13] = (getY(slot) + 0.5f) / pageWidth;
+	}
+}
@@ -20,18 +20,91 @@ package org.ptolemy3d.scene;
 
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import javax.media.opengl.GL;
 
 import org.ptolemy3d.Ptolemy3D;
 import org.ptolemy3d.debug.IO;
 import org.ptolemy3d.tile.Jp2Tile;
+import org.ptolemy3d.util.DxtCompressor;
 
 public class TextureManager
 {
+	/**
+	 * A tile texture, queued each frame it is needed with <code>queueUpload</code> until it is uploaded.
+	 * Once uploaded, it is resident until the tile drops it or it is evicted to fit the memory budget.
+	 */
+	public static abstract class Upload
+	{
+		protected final int width, height, format;
+		/** Tile resolution, else -1 if it is not a tile */
+		protected final int resolution;
+		/** Screen-space importance, lower is uploaded first and evicted last */
+		private double priority;
+		/** Last frame the upload has been queued */
+		private int frame;
+		private boolean queued = false;
+		/** Texture ID while resident, else -1 */
+		private int textureId = -1;
+		/** Memory of the resident texture, in bytes */
+		private int bytes;
+		/** Last frame the resident texture has been used */
+		private int lastUsed;
+		/** true if the texture has been evicted and not uploaded again */
+		private boolean evicted = false;
+
+		protected Upload(int width, int height, int format, int resolution)
+		{
+			this.width = width;
+			this.height = height;
+			this.format = format;
+			this.resolution = resolution;
+		}
+
+		/** @return the texels from index 0, null if the texture is not wanted anymore */
+		protected abstract ByteBuffer getData();
+		/** @return the texels compressed in DXT1 from index 0, null if they have not been compressed */
+		protected ByteBuffer getCompressedData()
+		{
+			return null;
+		}
+		/**
+		 * Called once the texture is uploaded.
+		 * @return false if the texture is not wanted anymore, it is then unloaded
+		 */
+		protected abstract boolean uploaded(int textureId);
+		/** Called when the texture is evicted, before it is unloaded. */
+		protected abstract void evicted(int textureId);
+	}
+	private final static Comparator<Upload> PRIORITY_ORDER = new Comparator<Upload>() {
+		public int compare(Upload u1, Upload u2)
+		{
+			return Double.compare(u1.priority, u2.priority);
+		}
+	};
+	/** Textures not used at the last frame first, least recently used first, then the least important */
+	private final Comparator<Upload> EVICTION_ORDER = new Comparator<Upload>() {
+		public int compare(Upload u1, Upload u2)
+		{
+			final boolean unused1 = (u1.lastUsed < (frame - 1));
+			final boolean unused2 = (u2.lastUsed < (frame - 1));
+			if (unused1 != unused2) {
+				return unused1 ? -1 : 1;
+			}
+			if (unused1 && (u1.lastUsed != u2.lastUsed)) {
+				return (u1.lastUsed < u2.lastUsed) ? -1 : 1;
+			}
+			return Double.compare(u2.priority, u1.priority);
+		}
+	};
+
 	/** Instance of Ptolemy3D */
 	private final Ptolemy3D ptolemy;
 
@@ -42,9 +115,55 @@ public class TextureManager
 	private final HashMap<Integer, Integer> textures;
 	private final Vector<Integer> emptyRecycler;
 	private final Vector<Integer>[] trash;
+	/** Tile resolutions decoded by the tile loader, waiting to be published */
+	private final BlockingQueue<Jp2Tile.Decoded> decodedQueue;
 	
 	public final boolean useSubtexturing;
 
+	/** Maximum number of decoded tile resolutions waiting to be published */
+	private final static int DECODED_QUEUE_SIZE = 16;
+
+	/* Upload queue */
+	/** Maximum bytes uploaded per frame, at least one texture is uploaded */
+	private final static int MAX_UPLOAD_BYTES = 4 * 1024 * 1024;
+	/** Maximum time spent uploading per frame, in ns */
+	private final static long MAX_UPLOAD_TIME = 4 * 1000 * 1000;
+	/** Number of pixel buffers used in turn to stream textures */
+	private final static int NUM_PIXEL_BUFFERS = 2;
+	private final Vector<Upload> uploads = new Vector<Upload>();
+	private int frame = 0;
+	/** Pixel buffer object support, null if not checked */
+	private Boolean pixelBufferSupported = null;
+	private int[] pixelBuffers = null;
+	private int pixelBufferIndex = 0;
+	/** DXT1 texture support, null if not checked */
+	private Boolean compressionSupported = null;
+	/** Read by the tile decoding threads to compress the tile textures */
+	private volatile boolean compressionEnabled = false;
+
+	/* Atlases */
+	/** Texture IDs of the atlas slots: <code>ATLAS_SLOT | (resolution << 24) | slot</code> */
+	private final static int ATLAS_SLOT = 1 << 30;
+	/** Maximum width of an atlas page */
+	private final static int MAX_ATLAS_WIDTH = 4096;
+	/** Atlases of the tile textures by resolution, null if tiles have their own textures */
+	private final TextureAtlas[] atlases;
+	private final float[] atlasMatrix = new float[16];
+	/** Texture bound by <code>bindTileTexture</code>, 0 if unknown */
+	private int boundTexture = 0;
+	/** Atlas slot mapped by the texture matrix, -1 for the identity */
+	private int mappedSlot = -1;
+
+	/* Residency */
+	/** Memory budget of the tile textures, in bytes (0: no budget) */
+	private final long memoryBudget;
+	/** Resident tile textures, by texture ID */
+	private final HashMap<Integer, Upload> residents = new HashMap<Integer, Upload>();
+	private long residentBytes = 0;
+	private final long[] residentResBytes = new long[Jp2Tile.NUM_RESOLUTION];
+	private int evictions = 0;
+	private int reuploads = 0;
+
 	public TextureManager(Ptolemy3D ptolemy)
 	{
 		this.ptolemy = ptolemy;
@@ -61,8 +180,280 @@ public class TextureManager
 		for(int i = 0; i < trash.length; i++) {
 			trash[i] = new Vector<Integer>(10);
 		}
+		decodedQueue = new ArrayBlockingQueue<Jp2Tile.Decoded>(DECODED_QUEUE_SIZE);
+		memoryBudget = (long) ptolemy.configuration.textureMemory * 1024 * 1024;
+		atlases = ptolemy.configuration.textureAtlas ? new TextureAtlas[Jp2Tile.NUM_RESOLUTION] : null;
+	}
+
+	/** Hand a decoded tile resolution to the rendering thread.<BR>
+	 * Blocks while the rendering thread is behind. */
+	public final void queueDecoded(Jp2Tile.Decoded decoded) throws InterruptedException
+	{
+		decodedQueue.put(decoded);
+	}
+	/** Publish decoded tile resolutions, must be called from the rendering thread. */
+	protected final void publishDecoded()
+	{
+		Jp2Tile.Decoded decoded;
+		while ((decoded = decodedQueue.poll()) != null) {
+			decoded.publish();
+		}
+	}
+	/** Drop the decoded tile resolutions not published yet. */
+	public final void clearDecoded()
+	{
+		decodedQueue.clear();
 	}
 	
+	/**
+	 * Queue a texture to upload. The texture must be queued again each frame it is needed,
+	 * the textures not queued at the last frame are dropped.
+	 * @param priority screen-space importance, lower is uploaded first
+	 */
+	public final void queueUpload(Upload upload, double priority)
+	{
+		upload.priority = priority;
+		upload.frame = frame;
+		upload.lastUsed = frame;
+		if (!upload.queued) {
+			upload.queued = true;
+			uploads.add(upload);
+		}
+	}
+	/**
+	 * Mark a resident texture as used at this frame.
+	 * @param priority screen-space importance, lower is evicted last
+	 */
+	public final void touch(Upload upload, double priority)
+	{
+		upload.priority = priority;
+		upload.lastUsed = frame;
+	}
+	/**
+	 * Upload the queued textures by priority, until <code>MAX_UPLOAD_BYTES</code> or
+	 * <code>MAX_UPLOAD_TIME</code> is reached. Must be called once per frame from the rendering thread.<BR>
+	 * Over the memory budget, textures are evicted to make room for more important ones. A tile
+	 * resolution that does not fit is not uploaded: the tile stays at a lower resolution.
+	 */
+	protected final void uploadQueued(GL gl)
+	{
+		frame++;
+		if (compressionSupported == null) {
+			compressionSupported = Boolean.valueOf(gl.isExtensionAvailable("GL_EXT_texture_compression_s3tc") &&
+					gl.isFunctionAvailable("glCompressedTexImage2D"));
+			compressionEnabled = ptolemy.configuration.textureCompression && compressionSupported.booleanValue();
+			IO.printlnRenderer("Texture compression: " + compressionEnabled);
+		}
+		if (uploads.size() == 0) {
+			return;
+		}
+
+		Collections.sort(uploads, PRIORITY_ORDER);
+		final long start = System.nanoTime();
+		int bytes = 0;
+		final Iterator<Upload> it = uploads.iterator();
+		while (it.hasNext()) {
+			final Upload upload = it.next();
+			if (upload.frame < (frame - 1)) {
+				// Not drawn anymore
+				it.remove();
+				upload.queued = false;
+				continue;
+			}
+
+			final ByteBuffer compressed = compressionEnabled ? upload.getCompressedData() : null;
+			final int size = (compressed != null) ? DxtCompressor.getCompressedSize(upload.width, upload.height) :
+				upload.width * upload.height * getBytesPerPixel(upload.format);
+			if ((bytes > 0) && (((bytes + size) > MAX_UPLOAD_BYTES) || ((System.nanoTime() - start) > MAX_UPLOAD_TIME))) {
+				break;
+			}
+			it.remove();
+			upload.queued = false;
+
+			final ByteBuffer data = (compressed != null) ? compressed : upload.getData();
+			if (data == null) {
+				continue;
+			}
+			if ((memoryBudget > 0) && ((residentBytes + size) > memoryBudget)) {
+				if (!makeRoom(gl, upload, size) && (upload.resolution > 0)) {
+					continue;
+				}
+			}
+			int textureId = loadInAtlas(gl, data, upload, compressed != null, size);
+			if (textureId != -1) {
+				// Loaded in an atlas slot
+			}
+			else if (compressed != null) {
+				textureId = loadCompressed(gl, data, upload.width, upload.height, size, upload.resolution);
+			}
+			else {
+				textureId = load(gl, data, upload.width, upload.height, upload.format, upload.resolution);
+			}
+			if (!upload.uploaded(textureId)) {
+				unload(gl, textureId);
+			}
+			else {
+				addResident(upload, textureId, size);
+			}
+			bytes += size;
+		}
+	}
+
+	/**
+	 * Evict textures to fit <code>size</code> more bytes in the memory budget: textures not used
+	 * at the last frame, then the resolutions above 0 less important than <code>upload</code>.
+	 * @return false if there is not enough room, nothing is evicted then
+	 */
+	private final boolean makeRoom(GL gl, Upload upload, int size)
+	{
+		final Vector<Upload> candidates = new Vector<Upload>();
+		long freeable = 0;
+		for (Upload resident : residents.values()) {
+			if ((resident.lastUsed < (frame - 1)) ||
+				((resident.resolution > 0) && (resident.priority > upload.priority))) {
+				candidates.add(resident);
+				freeable += resident.bytes;
+			}
+		}
+		if ((residentBytes - freeable + size) > memoryBudget) {
+			return false;
+		}
+
+		Collections.sort(candidates, EVICTION_ORDER);
+		for (Upload candidate : candidates) {
+			if ((residentBytes + size) <= memoryBudget) {
+				break;
+			}
+			evict(gl, candidate);
+		}
+		return true;
+	}
+	private final void evict(GL gl, Upload upload)
+	{
+		final int textureId = upload.textureId;
+		removeResident(textureId);
+		upload.evicted(textureId);
+		upload.evicted = true;
+		evictions++;
+		unload(gl, textureId);
+	}
+	private final void addResident(Upload upload, int textureId, int size)
+	{
+		upload.textureId = textureId;
+		upload.bytes = size;
+		upload.lastUsed = frame;
+		if (upload.evicted) {
+			upload.evicted = false;
+			reuploads++;
+		}
+		residents.put(textureId, upload);
+		residentBytes += size;
+		if (upload.resolution >= 0) {
+			residentResBytes[upload.resolution] += size;
+		}
+	}
+	/** Forget a resident texture, dropped by its tile or evicted. */
+	private final void removeResident(int textureId)
+	{
+		final Upload upload = residents.remove(textureId);
+		if (upload != null) {
+			upload.textureId = -1;
+			residentBytes -= upload.bytes;
+			if (upload.resolution >= 0) {
+				residentResBytes[upload.resolution] -= upload.bytes;
+			}
+		}
+	}
+
+	/** @return memory used by the resident tile textures, in bytes */
+	public final long getResidentBytes()
+	{
+		return residentBytes;
+	}
+	/** @return memory used by the resident tile textures of a resolution, in bytes */
+	public final long getResidentBytes(int res)
+	{
+		return residentResBytes[res];
+	}
+	/** @return true if the tile textures are compressed when decoded */
+	public final boolean isCompressionEnabled()
+	{
+		return compressionEnabled;
+	}
+	/** @return memory budget of the tile textures, in bytes (0: no budget) */
+	public final long getMemoryBudget()
+	{
+		return memoryBudget;
+	}
+	/** @return number of tile textures evicted to fit the memory budget */
+	public final int getEvictions()
+	{
+		return evictions;
+	}
+	/** @return number of evicted tile textures uploaded again */
+	public final int getReuploads()
+	{
+		return reuploads;
+	}
+	private final static int getBytesPerPixel(int format)
+	{
+		switch (format) {
+			case GL.GL_RGBA:            return 4;
+			case GL.GL_RGB:             return 3;
+			case GL.GL_LUMINANCE_ALPHA: return 2;
+			default:                    return 1;
+		}
+	}
+
+	/**
+	 * Copy texels in the next pixel buffer object, and leave it bound.
+	 * @return false if pixel buffer objects are not supported, texels must then be given to GL
+	 */
+	private final boolean bindPixelBuffer(GL gl, ByteBuffer datas, int size)
+	{
+		if (pixelBufferSupported == null) {
+			pixelBufferSupported = Boolean.valueOf(gl.isExtensionAvailable("GL_ARB_pixel_buffer_object") &&
+					gl.isFunctionAvailable("glMapBuffer") && gl.isFunctionAvailable("glUnmapBuffer"));
+			IO.printlnRenderer("Pixel buffer objects: " + pixelBufferSupported);
+		}
+		if (!pixelBufferSupported.booleanValue() || (size > datas.capacity())) {
+			return false;
+		}
+		if (pixelBuffers == null) {
+			pixelBuffers = new int[NUM_PIXEL_BUFFERS];
+			gl.glGenBuffers(NUM_PIXEL_BUFFERS, pixelBuffers, 0);
+		}
+
+		gl.glBindBuffer(GL.GL_PIXEL_UNPACK_BUFFER, pixelBuffers[pixelBufferIndex]);
+		pixelBufferIndex = (pixelBufferIndex + 1) % NUM_PIXEL_BUFFERS;
+		// Orphan the previous storage, the driver may still be reading it
+		gl.glBufferData(GL.GL_PIXEL_UNPACK_BUFFER, size, null, GL.GL_STREAM_DRAW);
+		final ByteBuffer buffer = gl.glMapBuffer(GL.GL_PIXEL_UNPACK_BUFFER, GL.GL_WRITE_ONLY);
+		if (buffer == null) {
+			gl.glBindBuffer(GL.GL_PIXEL_UNPACK_BUFFER, 0);
+			return false;
+		}
+		final ByteBuffer src = datas.duplicate();
+		src.position(0);
+		src.limit(size);
+		buffer.clear();
+		buffer.put(src);
+		if (!gl.glUnmapBuffer(GL.GL_PIXEL_UNPACK_BUFFER)) {
+			// Buffer content lost, upload from the heap
+			gl.glBindBuffer(GL.GL_PIXEL_UNPACK_BUFFER, 0);
+			return false;
+		}
+		return true;
+	}
+	private final void deletePixelBuffers(GL gl)
+	{
+		if (pixelBuffers != null) {
+			gl.glDeleteBuffers(NUM_PIXEL_BUFFERS, pixelBuffers, 0);
+			pixelBuffers = null;
+		}
+		pixelBufferSupported = null;
+	}
+
 	/** Texture loading
 	 * @param resolution tile resolution, else -1 if it is not a tile
 	 * @param colorType default 3
@@ -70,25 +461,200 @@ public class TextureManager
 	public final int load(GL gl, byte[] imageData, int width, int height, int format, boolean clamp, int resolution)
 	{
 		if(resolution >= 0) {
-			int textureId = get(resolution);
-			if (textureId == -1) {
-				return loadTexture(gl, imageData, width, height, format, clamp);
+			return load(gl, (imageData == null) ? null : ByteBuffer.wrap(imageData), width, height, format, resolution);
+		}
+		else {
+			return loadTexture(gl, (imageData == null) ? null : ByteBuffer.wrap(imageData), width, height, format, clamp);
+		}
+	}
+	/** Load a tile texture, in a recycled texture if possible. */
+	private final int load(GL gl, ByteBuffer imageData, int width, int height, int format, int resolution)
+	{
+		int textureId = get(resolution);
+		if (textureId == -1) {
+			return loadTexture(gl, imageData, width, height, format, true);
+		}
+		else if (compressionEnabled) {
+			// The recycled texture may be compressed, specify it again
+			gl.glBindTexture(GL.GL_TEXTURE_2D, textureId);
+			texImage2D(gl, imageData, width, height, format);
+			return textureId;
+		}
+		else {
+			update(gl, textureId, imageData, width, height, format);
+			return textureId;
+		}
+	}
+	private final int loadTexture(GL gl, ByteBuffer imageData, int width, int height, int format, boolean clamp)
+	{
+		if(imageData == null) {
+			return -1;
+		}
+
+		final int texId = genTexture(gl, clamp);
+		texImage2D(gl, imageData, width, height, format);
+		return texId;
+	}
+	/**
+	 * Load a tile texture compressed in DXT1, in a recycled texture if possible.
+	 * @param size size of the compressed texels
+	 * @return the texture ID
+	 */
+	private final int loadCompressed(GL gl, ByteBuffer imageData, int width, int height, int size, int resolution)
+	{
+		int texId = get(resolution);
+		if (texId == -1) {
+			texId = genTexture(gl, true);
+		}
+		else {
+			gl.glBindTexture(GL.GL_TEXTURE_2D, texId);
+		}
+
+		// Compressed textures can't be updated with glTexSubImage2D from RGB data: always specify them again
+		if (bindPixelBuffer(gl, imageData, size)) {
+			gl.glCompressedTexImage2D(GL.GL_TEXTURE_2D, 0, GL.GL_COMPRESSED_RGB_S3TC_DXT1_EXT, width, height, 0, size, 0);
+			gl.glBindBuffer(GL.GL_PIXEL_UNPACK_BUFFER, 0);
+		}
+		else {
+			gl.glCompressedTexImage2D(GL.GL_TEXTURE_2D, 0, GL.GL_COMPRESSED_RGB_S3TC_DXT1_EXT, width, height, 0, size, rewind(imageData));
+		}
+		return texId;
+	}
+	/**
+	 * Load a tile texture in a slot of the atlas of its resolution.
+	 * @param size size of the texels
+	 * @return the slot texture ID, -1 if there is no atlas or no free slot for the texture
+	 */
+	private final int loadInAtlas(GL gl, ByteBuffer imageData, Upload upload, boolean compressed, int size)
+	{
+		final int res = upload.resolution;
+		if ((atlases == null) || (res < 0) || (upload.format != GL.GL_RGB) || (upload.width != upload.height)) {
+			return -1;
+		}
+		if (atlases[res] == null) {
+			final int[] maxTextureSize = new int[1];
+			gl.glGetIntegerv(GL.GL_MAX_TEXTURE_SIZE, maxTextureSize, 0);
+			atlases[res] = new TextureAtlas(upload.width, ptolemy.tileLoader.getImageDataCapacity(res),
+					compressionEnabled ? GL.GL_COMPRESSED_RGB_S3TC_DXT1_EXT : GL.GL_RGB,
+					Math.min(maxTextureSize[0], MAX_ATLAS_WIDTH));
+			IO.printlnRenderer("Texture atlas " + res + ": " + atlases[res].pages.length + " x " +
+					atlases[res].pageWidth + "x" + atlases[res].pageWidth);
+		}
+		final TextureAtlas atlas = atlases[res];
+		if ((upload.width != atlas.slotWidth) || (compressed != (atlas.format != GL.GL_RGB))) {
+			return -1;
+		}
+		final int slot = atlas.alloc();
+		if (slot == -1) {
+			return -1;
+		}
+
+		final int page = atlas.getPage(slot);
+		if (atlas.pages[page] == -1) {
+			atlas.pages[page] = genTexture(gl, true);
+			if (compressed) {
+				gl.glCompressedTexImage2D(GL.GL_TEXTURE_2D, 0, atlas.format, atlas.pageWidth, atlas.pageWidth, 0,
+						DxtCompressor.getCompressedSize(atlas.pageWidth, atlas.pageWidth), null);
 			}
 			else {
-				update(gl, textureId, imageData, width, height, format);
-				return textureId;
+				gl.glTexImage2D(GL.GL_TEXTURE_2D, 0, atlas.format, atlas.pageWidth, atlas.pageWidth, 0, atlas.format, GL.GL_UNSIGNED_BYTE, null);
 			}
 		}
 		else {
-			return loadTexture(gl, imageData, width, height, format, clamp);
+			gl.glBindTexture(GL.GL_TEXTURE_2D, atlas.pages[page]);
 		}
+		boundTexture = 0;
+
+		final int x = atlas.getX(slot), y = atlas.getY(slot), w = atlas.slotWidth;
+		final boolean pixelBuffer = bindPixelBuffer(gl, imageData, size);
+		if (compressed) {
+			if (pixelBuffer) {
+				gl.glCompressedTexSubImage2D(GL.GL_TEXTURE_2D, 0, x, y, w, w, atlas.format, size, 0);
+			}
+			else {
+				gl.glCompressedTexSubImage2D(GL.GL_TEXTURE_2D, 0, x, y, w, w, atlas.format, size, rewind(imageData));
+			}
+		}
+		else {
+			if (pixelBuffer) {
+				gl.glTexSubImage2D(GL.GL_TEXTURE_2D, 0, x, y, w, w, GL.GL_RGB, GL.GL_UNSIGNED_BYTE, 0);
+			}
+			else {
+				gl.glTexSubImage2D(GL.GL_TEXTURE_2D, 0, x, y, w, w, GL.GL_RGB, GL.GL_UNSIGNED_BYTE, rewind(imageData));
+			}
+		}
+		if (pixelBuffer) {
+			gl.glBindBuffer(GL.GL_PIXEL_UNPACK_BUFFER, 0);
+		}
+		return ATLAS_SLOT | (res << 24) | slot;
 	}
-	private final int loadTexture(GL gl, byte[] imageData, int width, int height, int format, boolean clamp)
+	private final static boolean isAtlasSlot(int textureId)
 	{
-		if(imageData == null) {
-			return -1;
+		return (textureId != -1) && ((textureId & ATLAS_SLOT) != 0);
+	}
+	private final TextureAtlas getAtlas(int textureId)
+	{
+		return atlases[(textureId >> 24) & 0x3F];
+	}
+	private final static int getSlot(int textureId)
+	{
+		return textureId & 0xFFFFFF;
+	}
+
+	/** Start drawing tiles with <code>bindTileTexture</code>, the texture matrix must be the identity. */
+	public final void beginTileTextures()
+	{
+		boundTexture = 0;
+		mappedSlot = -1;
+	}
+	/**
+	 * Bind the texture of the next tile drawn: the texture is bound only if it changed, and the
+	 * texture matrix is set to the slot of the atlas textures.
+	 */
+	public final void bindTileTexture(GL gl, int textureId)
+	{
+		int texture = textureId;
+		TextureAtlas atlas = null;
+		if (isAtlasSlot(textureId)) {
+			atlas = getAtlas(textureId);
+			texture = atlas.pages[atlas.getPage(getSlot(textureId))];
 		}
+		if (texture != boundTexture) {
+			gl.glBindTexture(GL.GL_TEXTURE_2D, texture);
+			boundTexture = texture;
+		}
+
+		if (atlas != null) {
+			if (textureId != mappedSlot) {
+				atlas.getTextureMatrix(getSlot(textureId), atlasMatrix);
+				gl.glMatrixMode(GL.GL_TEXTURE);
+				gl.glLoadMatrixf(atlasMatrix, 0);
+				gl.glMatrixMode(GL.GL_MODELVIEW);
+				mappedSlot = textureId;
+			}
+		}
+		else if (mappedSlot != -1) {
+			gl.glMatrixMode(GL.GL_TEXTURE);
+			gl.glLoadIdentity();
+			gl.glMatrixMode(GL.GL_MODELVIEW);
+			mappedSlot = -1;
+		}
+	}
+	/** Stop drawing tiles, the texture matrix is reset to the identity. */
+	public final void endTileTextures(GL gl)
+	{
+		if (mappedSlot != -1) {
+			gl.glMatrixMode(GL.GL_TEXTURE);
+			gl.glLoadIdentity();
+			gl.glMatrixMode(GL.GL_MODELVIEW);
+			mappedSlot = -1;
+		}
+		boundTexture = 0;
+	}
 
+	/** Create a texture and leave it bound. */
+	private final int genTexture(GL gl, boolean clamp)
+	{
 		int[] buff = new int[1];
 		gl.glGenTextures(1, buff, 0);
 		final int texId = buff[0];
@@ -110,8 +676,6 @@ public class TextureManager
 		}
 		gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER, GL.GL_LINEAR);
 		gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MIN_FILTER, GL.GL_NEAREST);
-
-		gl.glTexImage2D(GL.GL_TEXTURE_2D, 0, format, width, height, 0, format, GL.GL_UNSIGNED_BYTE, ByteBuffer.wrap(imageData));
 		
 		//Register texture
 		final Integer keyAndValue = texId;
@@ -120,10 +684,37 @@ public class TextureManager
 //		IO.printlnRenderer("Texture creation: "+texId);
 		return texId;
 	}
+	/** Specify the bound texture */
+	private final void texImage2D(GL gl, ByteBuffer imageData, int width, int height, int format)
+	{
+		if (bindPixelBuffer(gl, imageData, width * height * getBytesPerPixel(format))) {
+			gl.glTexImage2D(GL.GL_TEXTURE_2D, 0, format, width, height, 0, format, GL.GL_UNSIGNED_BYTE, 0);
+			gl.glBindBuffer(GL.GL_PIXEL_UNPACK_BUFFER, 0);
+		}
+		else {
+			gl.glTexImage2D(GL.GL_TEXTURE_2D, 0, format, width, height, 0, format, GL.GL_UNSIGNED_BYTE, rewind(imageData));
+		}
+	}
+	/** @return the buffer from index 0, direct buffers are read by GL without copy */
+	private final static ByteBuffer rewind(ByteBuffer buffer)
+	{
+		final ByteBuffer data = buffer.duplicate();
+		data.clear();
+		return data;
+	}
 	public final void update(GL gl, int textureId, byte[] datas, int width, int height, int format) {
+		update(gl, textureId, ByteBuffer.wrap(datas), width, height, format);
+	}
+	private final void update(GL gl, int textureId, ByteBuffer datas, int width, int height, int format) {
 		assert(gl.glIsTexture(textureId));
 		gl.glBindTexture(GL.GL_TEXTURE_2D, textureId);
-		gl.glTexSubImage2D(GL.GL_TEXTURE_2D, 0, 0, 0, width, height, format, GL.GL_UNSIGNED_BYTE, ByteBuffer.wrap(datas));
+		if (bindPixelBuffer(gl, datas, width * height * getBytesPerPixel(format))) {
+			gl.glTexSubImage2D(GL.GL_TEXTURE_2D, 0, 0, 0, width, height, format, GL.GL_UNSIGNED_BYTE, 0);
+			gl.glBindBuffer(GL.GL_PIXEL_UNPACK_BUFFER, 0);
+		}
+		else {
+			gl.glTexSubImage2D(GL.GL_TEXTURE_2D, 0, 0, 0, width, height, format, GL.GL_UNSIGNED_BYTE, rewind(datas));
+		}
 	}
 	
 	/**
@@ -140,6 +731,11 @@ public class TextureManager
 	/** Safely texture unload */
 	public final void unload(GL gl, int textureID)
 	{
+		removeResident(textureID);
+		if (isAtlasSlot(textureID)) {
+			getAtlas(textureID).free(getSlot(textureID));
+			return;
+		}
 		unloadImpl(gl, textureID);
 		
 		//Unregister texture
@@ -186,7 +782,19 @@ public class TextureManager
 			if (vec == null || vec.size() == 0) {
 				continue;
 			}
+			for (int j = vec.size() - 1; j >= 0; j--) {
+				final int textureId = vec.get(j);
+				removeResident(textureId);
+				if (isAtlasSlot(textureId)) {
+					// Atlas slots are not recycled as textures
+					unload(gl, textureId);
+					vec.remove(j);
+				}
+			}
 			final int num = vec.size();
+			if (num == 0) {
+				continue;
+			}
 
 			// add to recycle bin
 			if (useSubtexturing) {
@@ -232,9 +840,36 @@ public class TextureManager
 	}
 	
 	protected void destroyGL(GL gl) {
+		//Drop the queued uploads
+		for (Upload upload : uploads) {
+			upload.queued = false;
+		}
+		uploads.clear();
+		deletePixelBuffers(gl);
+		compressionSupported = null;
+		compressionEnabled = false;
+		residents.clear();
+		residentBytes = 0;
+		Arrays.fill(residentResBytes, 0);
+
 		//Destroy texture retained here
 		destroyTrashTextures(gl);
 		emptyRecyler(gl);
+		if (atlases != null) {
+			for (int i = 0; i < atlases.length; i++) {
+				if (atlases[i] == null) {
+					continue;
+				}
+				for (int page : atlases[i].pages) {
+					if (page != -1) {
+						unload(gl, page);
+					}
+				}
+				atlases[i] = null;
+			}
+		}
+		boundTexture = 0;
+		mappedSlot = -1;
 		
 		//Search for leak
 		Iterator<Integer> i = textures.keySet().iterator();
@@ -0,0 +1,141 @@
+/**
+ * Ptolemy3D - a Java-based 3D Viewer for GeoWeb applications.
+ * Copyright (C) 2008 Mark W. Korver
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ptolemy3d.tile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decoder of the compressed DEM tiles (<code>.cdm</code>), written by the DemCutter tool.<BR>
+ * Big-endian header:
+ * <ul>
+ * <li>magic: 'C' 'D' 'M' and the version, 1</li>
+ * <li>int: number of rows of the square grid</li>
+ * <li>short: minimum and maximum height</li>
+ * <li>short: quantization step, heights are <code>min + value * step</code></li>
+ * </ul>
+ * Then a deflate stream of the grid values row by row, each one as the zig-zag varint of its
+ * difference with the planar prediction of its left, upper and upper left neighbours.<BR>
+ * Values are decoded as the deflate output comes, without an intermediate copy of the stream.
+ */
+class DemDecoder
+{
+	/** Magic and version of the format */
+	final static int MAGIC = ('C' << 24) | ('D' << 16) | ('M' << 8) | 1;
+	private final static int HEADER_SIZE = 14;
+
+	private final Inflater inflater = new Inflater();
+	private final byte[] buffer = new byte[4096];
+	private int pos = 0, end = 0;
+
+	private DemDecoder(byte[] datas)
+	{
+		inflater.setInput(datas, HEADER_SIZE, datas.length - HEADER_SIZE);
+	}
+
+	/** @return true if the data starts as a compressed DEM */
+	static boolean isCompressed(byte[] datas)
+	{
+		return (datas.length >= HEADER_SIZE) && (ByteBuffer.wrap(datas).getInt() == MAGIC);
+	}
+
+	/**
+	 * Decode a compressed DEM.
+	 * @return heights, row by row
+	 * @throws IOException if the data is not a valid compressed DEM
+	 */
+	static short[] decode(byte[] datas) throws IOException
+	{
+		if (!isCompressed(datas)) {
+			throw new IOException("Not a compressed DEM");
+		}
+		final ByteBuffer header = ByteBuffer.wrap(datas);
+		header.getInt();
+		final int numRows = header.getInt();
+		final int minHeight = header.getShort();
+		final int maxHeight = header.getShort();
+		final int step = header.getShort();
+		if ((numRows < 0) || (numRows > 4096) || (step <= 0) || (maxHeight < minHeight)) {
+			throw new IOException("Invalid compressed DEM header");
+		}
+
+		final DemDecoder decoder = new DemDecoder(datas);
+		try {
+			final int[] values = new int[numRows * numRows];
+			for (int i = 0, v = 0; i < numRows; i++) {
+				for (int j = 0; j < numRows; j++, v++) {
+					final int prediction;
+					if (i == 0) {
+						prediction = (j == 0) ? 0 : values[v - 1];
+					}
+					else if (j == 0) {
+						prediction = values[v - numRows];
+					}
+					else {
+						prediction = values[v - 1] + values[v - numRows] - values[v - numRows - 1];
+					}
+					final int zigzag = decoder.readVarint();
+					values[v] = prediction + ((zigzag >>> 1) ^ -(zigzag & 1));
+				}
+			}
+
+			// clamped to the header range, a corrupted value must not wrap around
+			final short[] heights = new short[values.length];
+			for (int v = 0; v < values.length; v++) {
+				final long height = minHeight + (long)values[v] * step;
+				heights[v] = (short)Math.max(minHeight, Math.min(maxHeight, height));
+			}
+			return heights;
+		}
+		finally {
+			decoder.inflater.end();
+		}
+	}
+
+	private final int readVarint() throws IOException
+	{
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			final int b = readByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Invalid varint in compressed DEM");
+	}
+
+	private final int readByte() throws IOException
+	{
+		while (pos == end) {
+			try {
+				end = inflater.inflate(buffer);
+			}
+			catch (DataFormatException e) {
+				throw new IOException("Corrupted compressed DEM: " + e.getMessage());
+			}
+			pos = 0;
+			if ((end == 0) && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+				throw new IOException("Truncated compressed DEM");
+			}
+		}
+		return buffer[pos++] & 0xFF;
+	}
+}
@@ -0,0 +1,177 @@
+/**
+ * Ptolemy3D - a Java-based 3D Viewer for GeoWeb applications.
+ * Copyright (C) 2008 Mark W. Korver
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ptolemy3d.tile;
+
+import org.ptolemy3d.math.Math3D;
+
+/**
+ * Min/max height mip of a DEM grid, used as an implicit quadtree.<BR>
+ * Level 0 holds the height range of each cell, level k the range of the blocks of 2^k x 2^k cells,
+ * up to a single block. Tile units are cells.
+ */
+class DemIndex extends TerrainIndex
+{
+	private final short[] heights;
+	private final int numRows, numCells;
+	/** Height range of the blocks, by level then row by row */
+	private final short[][] minHeights, maxHeights;
+	/** Blocks per row, by level */
+	private final int[] numBlocks;
+
+	DemIndex(short[] heights, int numRows)
+	{
+		this.heights = heights;
+		this.numRows = numRows;
+		this.numCells = Math.max(numRows - 1, 0);
+
+		int numLevels = 1;
+		for (int n = numCells; n > 1; n = (n + 1) / 2) {
+			numLevels++;
+		}
+		minHeights = new short[numLevels][];
+		maxHeights = new short[numLevels][];
+		numBlocks = new int[numLevels];
+		if (numCells == 0) {
+			numBlocks[0] = 0;
+			minHeights[0] = maxHeights[0] = new short[0];
+			return;
+		}
+
+		// Cells: range of their 4 corners
+		numBlocks[0] = numCells;
+		minHeights[0] = new short[numCells * numCells];
+		maxHeights[0] = new short[numCells * numCells];
+		for (int i = 0; i < numCells; i++) {
+			for (int j = 0; j < numCells; j++) {
+				final int v = i * numRows + j;
+				final short h0 = heights[v], h1 = heights[v + 1];
+				final short h2 = heights[v + numRows], h3 = heights[v + numRows + 1];
+				minHeights[0][i * numCells + j] = (short) Math.min(Math.min(h0, h1), Math.min(h2, h3));
+				maxHeights[0][i * numCells + j] = (short) Math.max(Math.max(h0, h1), Math.max(h2, h3));
+			}
+		}
+
+		// Blocks: range of their (up to) 4 children
+		for (int l = 1; l < numLevels; l++) {
+			final int nc = numBlocks[l - 1];
+			final int n = (nc + 1) / 2;
+			final short[] cmin = minHeights[l - 1], cmax = maxHeights[l - 1];
+			final short[] min = new short[n * n], max = new short[n * n];
+			for (int i = 0; i < n; i++) {
+				for (int j = 0; j < n; j++) {
+					short lo = Short.MAX_VALUE, hi = Short.MIN_VALUE;
+					for (int ci = 2 * i; ci < Math.min(2 * i + 2, nc); ci++) {
+						for (int cj = 2 * j; cj < Math.min(2 * j + 2, nc); cj++) {
+							lo = (short) Math.min(lo, cmin[ci * nc + cj]);
+							hi = (short) Math.max(hi, cmax[ci * nc + cj]);
+						}
+					}
+					min[i * n + j] = lo;
+					max[i * n + j] = hi;
+				}
+			}
+			numBlocks[l] = n;
+			minHeights[l] = min;
+			maxHeights[l] = max;
+		}
+	}
+
+	final boolean pick(Frame frame, double[][] ray, double[] dest)
+	{
+		if (numCells == 0) {
+			return false;
+		}
+		final int top = numBlocks.length - 1;
+		if (intersectBlock(frame, ray, top, 0, 0) < 0) {
+			return false;
+		}
+		return pick(frame, ray, dest, top, 0, 0);
+	}
+
+	private final boolean pick(Frame frame, double[][] ray, double[] dest, int level, int bi, int bj)
+	{
+		if (level == 0) {
+			return pickCell(frame, ray, dest, bi, bj);
+		}
+
+		// Children, closest first
+		final int l = level - 1, n = numBlocks[l];
+		final double[] entry = new double[4];
+		final int[] child = new int[4];
+		int numChildren = 0;
+		for (int ci = 2 * bi; ci < Math.min(2 * bi + 2, n); ci++) {
+			for (int cj = 2 * bj; cj < Math.min(2 * bj + 2, n); cj++) {
+				final double t = intersectBlock(frame, ray, l, ci, cj);
+				if (t < 0) {
+					continue;
+				}
+				int k = numChildren++;
+				for (; (k > 0) && (entry[k - 1] > t); k--) {
+					entry[k] = entry[k - 1];
+					child[k] = child[k - 1];
+				}
+				entry[k] = t;
+				child[k] = ci * n + cj;
+			}
+		}
+
+		boolean found = false;
+		for (int k = 0; k < numChildren; k++) {
+			if (entry[k] > getHitDistance(ray, dest)) {
+				break;
+			}
+			if (pick(frame, ray, dest, l, child[k] / n, child[k] % n)) {
+				found = true;
+			}
+		}
+		return found;
+	}
+
+	/** Pick the two triangles of a cell, split as the renderers draw them */
+	private final boolean pickCell(Frame frame, double[][] ray, double[] dest, int i, int j)
+	{
+		final int v = i * numRows + j;
+		final double[] ul = new double[3], ur = new double[3], ll = new double[3], lr = new double[3];
+		frame.toWorld(j    , heights[v              ], i    , ul);
+		frame.toWorld(j + 1, heights[v + 1          ], i    , ur);
+		frame.toWorld(j    , heights[v + numRows    ], i + 1, ll);
+		frame.toWorld(j + 1, heights[v + numRows + 1], i + 1, lr);
+
+		Math3D.setTriVert(0, ul[0], ul[1], ul[2]);
+		Math3D.setTriVert(1, ll[0], ll[1], ll[2]);
+		Math3D.setTriVert(2, ur[0], ur[1], ur[2]);
+		boolean found = (Math3D.rayIntersectTri(dest, ray) == 1);
+
+		Math3D.setTriVert(0, ll[0], ll[1], ll[2]);
+		Math3D.setTriVert(1, ur[0], ur[1], ur[2]);
+		Math3D.setTriVert(2, lr[0], lr[1], lr[2]);
+		if (Math3D.rayIntersectTri(dest, ray) == 1) {
+			found = true;
+		}
+		return found;
+	}
+
+	private final double intersectBlock(Frame frame, double[][] ray, int level, int bi, int bj)
+	{
+		final int size = 1 << level;
+		final int b = bi * numBlocks[level] + bj;
+		return intersectArea(frame, ray,
+				bj * size, bi * size, Math.min((bj + 1) * size, numCells), Math.min((bi + 1) * size, numCells),
+				minHeights[level][b], maxHeights[level][b]);
+	}
+}
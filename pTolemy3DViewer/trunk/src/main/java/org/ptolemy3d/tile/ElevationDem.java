@@ -18,19 +18,61 @@
 
 package org.ptolemy3d.tile;
 
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
- *
+ * DEM elevation of a tile: a square grid of heights.
  */
 class ElevationDem
 {
-	/** DEM Elevation raw datas */
-	public final byte[] demDatas;
+	private final static AtomicInteger stamps = new AtomicInteger(0);
+
+	/** Unique stamp, identifies the DEM without keeping a reference on it */
+	final int stamp = stamps.incrementAndGet();
+	/** Heights, row by row, read in bulk from the big-endian payload */
+	public final short[] heights;
 	/** */
 	public final int numRows;
+	/** Elevation range of the DEM */
+	public final int minHeight, maxHeight;
+	/** Picking acceleration structure */
+	final DemIndex index;
 
+	/** DEM of a raw big-endian grid (<code>.bdm</code>) */
 	public ElevationDem(byte[] datas)
 	{
-		numRows = (int)Math.sqrt((datas.length / 2));
-		demDatas = datas;
+		this(readRaw(datas));
+	}
+
+	/** DEM of heights already decoded, row by row */
+	public ElevationDem(short[] heights)
+	{
+		this.heights = heights;
+		numRows = (int)Math.sqrt(heights.length);
+
+		int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+		for (int i = 0; i < heights.length; i++) {
+			final int h = heights[i];
+			if (h < min) {
+				min = h;
+			}
+			if (h > max) {
+				max = h;
+			}
+		}
+		minHeight = (min <= max) ? min : 0;
+		maxHeight = (min <= max) ? max : 0;
+
+		index = new DemIndex(heights, numRows);
+	}
+
+	private static short[] readRaw(byte[] datas)
+	{
+		final ShortBuffer samples = ByteBuffer.wrap(datas).asShortBuffer();
+		final short[] heights = new short[samples.remaining()];
+		samples.get(heights);
+		return heights;
 	}
 }
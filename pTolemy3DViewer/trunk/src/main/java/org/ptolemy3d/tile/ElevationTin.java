@@ -17,46 +17,84 @@
  */
 package org.ptolemy3d.tile;
 
-import org.ptolemy3d.util.ByteReader;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- *
+ * TIN elevation of a tile.<BR>
+ * Points and triangle strips are kept in flat arrays, read in bulk from the big-endian payload.
  */
 class ElevationTin
 {
-	/** Array of positions */
-	public float[][] p;
-	/* Array of texture coordinates */
-	public int[][] nSt;
+	private final static AtomicInteger stamps = new AtomicInteger(0);
+
+	/** Unique stamp, identifies the TIN without keeping a reference on it */
+	final int stamp = stamps.incrementAndGet();
+	/** Positions of the points: x, y (height), z, 3 floats per point */
+	public final float[] positions;
+	/** Point indices of the triangle strips, one strip after the other */
+	public final int[] strips;
+	/** First index of each strip in <code>strips</code>, plus the end of the last one */
+	public final int[] stripStart;
 	/**  */
 	public double x, y;
 	/**  */
 	public int w;
+	/** Elevation range of the positions */
+	public float minHeight = 0, maxHeight = 0;
+	/** Picking and ground height acceleration structure */
+	final TinIndex index;
 
 	public ElevationTin(byte[] datas)
 	{
-		int[] cursor = { 0 };
+		final ByteBuffer buffer = ByteBuffer.wrap(datas);
 
-		x = ByteReader.readDouble(datas, cursor);
-		y = ByteReader.readDouble(datas, cursor);
-		w = ByteReader.readInt(datas, cursor);
+		x = buffer.getDouble();
+		y = buffer.getDouble();
+		w = buffer.getInt();
 
-		int nP = ByteReader.readInt(datas, cursor);
-		p = new float[nP][3];
-		for (int j = 0; j < nP; j++) {
-			for (int k = 0; k < 3; k++) {
-				p[j][k] = ByteReader.readFloat(datas, cursor);
+		final int nP = buffer.getInt();
+		positions = new float[nP * 3];
+		buffer.asFloatBuffer().get(positions);
+		buffer.position(buffer.position() + positions.length * 4);
+		for (int j = 1; j < positions.length; j += 3) {
+			if ((j == 1) || (positions[j] < minHeight)) {
+				minHeight = positions[j];
+			}
+			if ((j == 1) || (positions[j] > maxHeight)) {
+				maxHeight = positions[j];
 			}
 		}
 
-		nP = ByteReader.readInt(datas, cursor);
-		nSt = new int[nP][];
-		for (int j = 0; j < nP; j++) {
-			int nV = ByteReader.readInt(datas, cursor);
-			nSt[j] = new int[nV];
-			for (int k = 0; k < nV; k++) {
-				nSt[j][k] = ByteReader.readInt(datas, cursor);
-			}
+		// Strips: vertex count then indices, the indices fill the rest of the payload
+		final int nS = buffer.getInt();
+		final IntBuffer ints = buffer.asIntBuffer();
+		final int[] indices = new int[Math.max(ints.remaining() - nS, 0)];
+		stripStart = new int[nS + 1];
+		int n = 0;
+		for (int j = 0; j < nS; j++) {
+			final int nV = ints.get();
+			stripStart[j] = n;
+			ints.get(indices, n, nV);
+			n += nV;
 		}
+		stripStart[nS] = n;
+		strips = (n == indices.length) ? indices : Arrays.copyOf(indices, n);
+
+		index = new TinIndex(positions, strips, stripStart);
+	}
+
+	/** @return number of triangle strips */
+	public final int getNumStrips()
+	{
+		return stripStart.length - 1;
+	}
+
+	/** @return height of a point */
+	public final float getHeight(int v)
+	{
+		return positions[v * 3 + 1];
 	}
 }
@@ -18,8 +18,13 @@
 
 package org.ptolemy3d.tile;
 
+import java.nio.ByteBuffer;
+
+import javax.media.opengl.GL;
+
 import org.ptolemy3d.Ptolemy3D;
 import org.ptolemy3d.debug.IO;
+import org.ptolemy3d.scene.TextureManager;
 import org.ptolemy3d.tile.jp2.Jp2Head;
 
 /**
@@ -29,11 +34,97 @@ public class Jp2Tile
 {
 	static class Jp2TileRes {
 		public boolean tileGotten = false;
+		/** true while a request for this resolution is in the loading pipeline */
+		public boolean requested = false;
 		public boolean imageDataReady;
 		public int textureId = -1;
 		public int datakey = -1;
 	}
 
+	/**
+	 * A decoded resolution, waiting to be published from the rendering thread.
+	 * @see org.ptolemy3d.scene.TextureManager#queueDecoded(Decoded)
+	 */
+	public final static class Decoded {
+		private final Jp2Tile tile;
+		private final int stamp;
+		private final int res;
+		private final int datakey;
+		/** Pipeline to notify once published, null if the job has more resolutions */
+		private final Jp2TilePipeline pipeline;
+
+		Decoded(Jp2Tile tile, int stamp, int res, int datakey, Jp2TilePipeline pipeline)
+		{
+			this.tile = tile;
+			this.stamp = stamp;
+			this.res = res;
+			this.datakey = datakey;
+			this.pipeline = pipeline;
+		}
+
+		/** Make the resolution available to the renderer. */
+		public void publish()
+		{
+			tile.publish(stamp, res, datakey);
+			if (pipeline != null) {
+				pipeline.done();
+			}
+		}
+	}
+
+	/** Texture upload of a resolution, its texels are read when uploaded. */
+	private final class TextureUpload extends TextureManager.Upload {
+		TextureUpload(int res, int width, int height)
+		{
+			super(width, height, GL.GL_RGB, res);
+		}
+
+		protected ByteBuffer getData()
+		{
+			synchronized (Jp2Tile.this) {
+				final Jp2TileRes tileLevel = tileRes[resolution];
+				if (!tileLevel.imageDataReady || (tileLevel.textureId != -1)) {
+					return null;
+				}
+				return getImageData(resolution);
+			}
+		}
+
+		protected ByteBuffer getCompressedData()
+		{
+			synchronized (Jp2Tile.this) {
+				final Jp2TileRes tileLevel = tileRes[resolution];
+				if (!tileLevel.imageDataReady || (tileLevel.textureId != -1) || (tileLevel.datakey < 0)) {
+					return null;
+				}
+				return Ptolemy3D.ptolemy.tileLoader.quadBufferPool.getCompressedBuffer(resolution, tileLevel.datakey);
+			}
+		}
+
+		protected boolean uploaded(int textureId)
+		{
+			synchronized (Jp2Tile.this) {
+				final Jp2TileRes tileLevel = tileRes[resolution];
+				if (!tileLevel.imageDataReady || (tileLevel.textureId != -1)) {
+					return false;
+				}
+				tileLevel.textureId = textureId;
+				return true;
+			}
+		}
+
+		protected void evicted(int textureId)
+		{
+			synchronized (Jp2Tile.this) {
+				final Jp2TileRes tileLevel = tileRes[resolution];
+				if (tileLevel.textureId == textureId) {
+					// Image data is kept, the texture is uploaded again when it fits
+					tileLevel.textureId = -1;
+				}
+			}
+		}
+	}
+
 	/** Number of resolution per jp2 tiles. */
 	public final static int NUM_RESOLUTION = 4;
 
@@ -66,6 +157,12 @@ public class Jp2Tile
 	protected int scale;
 	protected int terrainGotten;
 	protected boolean inScene;
+	/** true while the header request is in the loading pipeline */
+	protected boolean headerRequested = false;
+	/** Changed each time the tile is recycled, to detect outdated requests */
+	protected int stamp = 0;
+	/** Texture uploads of the resolutions, created when first needed */
+	private TextureUpload[] uploads = null;
 
 	// converts integer to left-zero padded string, len  chars long.
 	private static String padWithZeros(int i, int len)
@@ -95,10 +192,16 @@ public class Jp2Tile
 		set(lvl, scale, x, z);
 	}
 
-	protected final void set(int lvl, int scale, int lon, int lat)
+	protected synchronized final void set(int lvl, int scale, int lon, int lat)
 	{
 		final Level[] levels = Ptolemy3D.ptolemy.scene.landscape.levels;
 
+		// Elevation released: the ground falls back to the other levels
+		if (((tin != null) || (dem != null)) && (levels != null)) {
+			final int tileSize = levels[level].tileSize;
+			Ptolemy3D.ptolemy.scene.plugins.terrainChanged(level, this.lon, this.lat - tileSize, this.lon + tileSize, this.lat);
+		}
+
 		this.curRes = 0;
 		this.level = lvl;
 		this.scale = scale;
@@ -140,11 +243,14 @@ public class Jp2Tile
 
 		final QuadBufferPool quadBufferPool = Ptolemy3D.ptolemy.tileLoader.quadBufferPool;
 
+		stamp++;
 		gotten = false;
 		hasData = false;
+		headerRequested = false;
 		for (int i = 0; i < NUM_RESOLUTION; i++) {
 			Jp2TileRes tileLevel = tileRes[i];
 			tileLevel.tileGotten = false;
+			tileLevel.requested = false;
 			tileLevel.textureId = -1;
 			tileLevel.imageDataReady = false;
 			if (tileLevel.datakey != -1) {
@@ -162,55 +268,105 @@ public class Jp2Tile
 		return Ptolemy3D.ptolemy.configuration.backgroundImageUrl + "&lat=" + lat + "&lon=" + lon + "&scale=" + scale + "&w=" + tileLoader.twidth[res] + "&h=" + tileLoader.twidth[res] + "&res=" + res;
 	}
 
-	protected boolean setImageData(byte[] data, int[] meta, int res)
+	/**
+	 * Copy png image data to the buffer pool.
+	 * @return the buffer pool key, -1 if the data can't be set
+	 */
+	protected int setImageData(byte[] data, int[] meta, int res)
 	{
 		final QuadBufferPool quadBufferPool = Ptolemy3D.ptolemy.tileLoader.quadBufferPool;
-		byte[] imageData = quadBufferPool.setArray(res, tileRes);
-		if (imageData == null) {
-			return false;
+		final int datakey = quadBufferPool.alloc(res);
+		if (datakey == -1) {
+			return -1;
 		}
-		if (imageData.length != (meta[0] * meta[1] * 3)) {
-			return false;
+		final ByteBuffer imageData = quadBufferPool.getBuffer(res, datakey);
+		if (imageData.capacity() != (meta[0] * meta[1] * 3)) {
+			quadBufferPool.free(res, datakey);
+			return -1;
 			// just copy over array
 		}
 
 		if (meta[3] == 3) {
-			System.arraycopy(data, 0, imageData, 0, data.length);
+			imageData.put(data, 0, imageData.capacity());
 		}
 		else if (meta[3] == 4) {
 			for (int i = 0; i < meta[1]; i++) {
 				for (int j = 0; j < meta[0]; j++) {
-					System.arraycopy(data, i * meta[0] * 4 + j * 4, imageData, i * meta[0] * 3 + j * 3, 3);
+					imageData.put(data, i * meta[0] * 4 + j * 4, 3);
 				}
 			}
 		}
-		tileRes[res].imageDataReady = true;
-		curRes = res;
-		return true;
+		compressImageData(res, datakey);
+		return datakey;
 	}
 
-	protected boolean setImageData(short[][] data, int res, Jp2Head jp2h)
+	/**
+	 * Convert decoded jp2 data to the buffer pool.
+	 * @return the buffer pool key, -1 if the pool is full
+	 */
+	protected int setImageData(short[][] data, int res, Jp2Head jp2h)
 	{
 		final Jp2TileLoader tileLoader = Ptolemy3D.ptolemy.tileLoader;
 		final QuadBufferPool quadBufferPool = tileLoader.quadBufferPool;
-		byte[] imageData = quadBufferPool.setArray(res, tileRes);
-		if (imageData == null) {
-			return false;
+		final int datakey = quadBufferPool.alloc(res);
+		if (datakey == -1) {
+			return -1;
 		}
 
 		int width = tileLoader.twidth[res];
-		jp2h.setImageData(imageData, data, width);
+		jp2h.setImageData(quadBufferPool.getBuffer(res, datakey), data, width);
+		compressImageData(res, datakey);
+		return datakey;
+	}
+
+	/** Compress the image data in DXT1 on the decoding thread, if the tile textures are compressed. */
+	private final void compressImageData(int res, int datakey)
+	{
+		final TextureManager textureManager = Ptolemy3D.ptolemy.textureManager;
+		if ((textureManager != null) && textureManager.isCompressionEnabled()) {
+			Ptolemy3D.ptolemy.tileLoader.quadBufferPool.compress(res, datakey);
+		}
+	}
+
+	/**
+	 * Publish image data set with <code>setImageData</code>. The data is dropped if the
+	 * tile has been recycled or the resolution dropped since it has been requested.
+	 */
+	protected synchronized void publish(int stamp, int res, int datakey)
+	{
+		final QuadBufferPool quadBufferPool = Ptolemy3D.ptolemy.tileLoader.quadBufferPool;
+		final Jp2TileRes tileLevel = tileRes[res];
+		if ((stamp != this.stamp) || !tileLevel.requested || ((res > 0) && !tileRes[res - 1].imageDataReady)) {
+			if (stamp == this.stamp) {
+				tileLevel.requested = false;
+			}
+			quadBufferPool.free(res, datakey);
+			return;
+		}
 
-		tileRes[res].imageDataReady = true;
+		if (tileLevel.datakey != -1) {
+			quadBufferPool.free(res, tileLevel.datakey);
+		}
+		tileLevel.datakey = datakey;
+		tileLevel.imageDataReady = true;
+		tileLevel.tileGotten = true;
+		tileLevel.requested = false;
 		curRes = res;
-		return true;
 	}
 
-	protected byte[] getImageData(int res)
+	/** Cancel a resolution request that did not make it through the pipeline. */
+	protected synchronized void cancelRequest(int stamp, int res)
+	{
+		if (stamp == this.stamp) {
+			tileRes[res].requested = false;
+		}
+	}
+
+	protected ByteBuffer getImageData(int res)
 	{
 		if (tileRes[res].datakey >= 0) {
 			final QuadBufferPool quadBufferPool = Ptolemy3D.ptolemy.tileLoader.quadBufferPool;
-			return quadBufferPool.getArray(res, tileRes[res].datakey);
+			return quadBufferPool.getBuffer(res, tileRes[res].datakey);
 		}
 		else {
 			IO.println("ERROR: trying to request data that isn't there!");
@@ -218,12 +374,13 @@ public class Jp2Tile
 		}
 	}
 
-	protected final void dropTo(int res)
+	protected synchronized final void dropTo(int res)
 	{
 		final QuadBufferPool quadBufferPool = Ptolemy3D.ptolemy.tileLoader.quadBufferPool;
 		for (int i = res + 1; i < NUM_RESOLUTION; i++) {
 			Jp2TileRes tileLevel = tileRes[i];
 			tileLevel.tileGotten = false;
+			tileLevel.requested = false;
 			tileLevel.textureId = -1;
 			tileLevel.imageDataReady = false;
 			if (tileLevel.datakey != -1) {
@@ -237,6 +394,23 @@ public class Jp2Tile
 		curRes = res;
 	}
 
+	/** @return the texture upload of the resolution, null if none has been created */
+	protected final TextureManager.Upload getTextureUpload(int res)
+	{
+		return (uploads == null) ? null : uploads[res];
+	}
+	/** @return the texture upload of the resolution */
+	protected final TextureManager.Upload getTextureUpload(int res, int width, int height)
+	{
+		if (uploads == null) {
+			uploads = new TextureUpload[NUM_RESOLUTION];
+		}
+		if (uploads[res] == null) {
+			uploads[res] = new TextureUpload(res, width, height);
+		}
+		return uploads[res];
+	}
+
 	public int getTextureId(int res)
 	{
 		final Jp2TileRes tile = tileRes[res];
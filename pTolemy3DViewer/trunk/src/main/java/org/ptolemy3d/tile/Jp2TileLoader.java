@@ -20,24 +20,33 @@ package org.ptolemy3d.tile;
 import static org.ptolemy3d.Ptolemy3DConfiguration.EARTH_RADIUS;
 import static org.ptolemy3d.tile.Level.LEVEL_NUMTILES;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import org.ptolemy3d.Ptolemy3D;
 import org.ptolemy3d.debug.IO;
 import org.ptolemy3d.io.BasicCommunicator;
+import org.ptolemy3d.io.CachingCommunicator;
 import org.ptolemy3d.io.Communicator;
+import org.ptolemy3d.io.DiskTileCache;
+import org.ptolemy3d.io.HttpConnectionPool;
+import org.ptolemy3d.io.PooledCommunicator;
 import org.ptolemy3d.math.Math3D;
-import org.ptolemy3d.math.Matrix9d;
 import org.ptolemy3d.scene.Landscape;
 import org.ptolemy3d.tile.Jp2Tile.Jp2TileRes;
+import org.ptolemy3d.tile.Jp2TilePipeline.Job;
 import org.ptolemy3d.tile.jp2.Jp2Block;
 import org.ptolemy3d.tile.jp2.Jp2Decoder;
 import org.ptolemy3d.tile.jp2.Jp2Head;
 import org.ptolemy3d.util.PngDecoder;
 import org.ptolemy3d.view.Camera;
-import org.ptolemy3d.view.LatLonAlt;
+import org.ptolemy3d.view.Frustum;
 
 public class Jp2TileLoader implements Runnable
 {
@@ -50,7 +59,8 @@ public class Jp2TileLoader implements Runnable
 
 	protected QuadBufferPool quadBufferPool;
 	protected Jp2Head[][] masterH;
-	private Jp2Decoder[][] jpd;
+	private ExecutorService decoderPool = null;
+	private volatile Jp2TilePipeline pipeline;
 	protected int[] twidth;
 
 	public boolean on = false;
@@ -63,15 +73,30 @@ public class Jp2TileLoader implements Runnable
 	private boolean[/*level*/] found;
 	private Communicator[] JC;
 	private Communicator JC_APP;
-	private short[][] targetData;
+	/** Tile data cache on disk, null if disabled */
+	private DiskTileCache diskCache = null;
+	private int targetSize;
 	private Vector<Integer>[] texTrash;
 	private int[] quadtiles;
 	private Thread thread;
 	private long idleFrom, lastIdle;
 
-	//Temporary variables
-	private Matrix9d utilMatrix = new Matrix9d();
-	private Matrix9d cloneMat = new Matrix9d();
+	/** Scheduler wait when the pipeline is busy, in ms */
+	private final static int PROGRESS_TIMEOUT = 50;
+	/** Added to the priority of the requests out of view, so they come after the ones in view */
+	private final static double OUT_OF_VIEW_PRIORITY = 1e12;
+
+	/* Request scheduling */
+	private final TileScheduler scheduler;
+	private final boolean[/*level*/][/*tile:0..LEVEL_NUMTILES*/] inView;
+	private final double[/*level*/][/*tile:0..LEVEL_NUMTILES*/] tileDistance;
+	/** Last resolution needed by the screen-space error, -1 if the tile is covered by the level above */
+	private final int[/*level*/][/*tile:0..LEVEL_NUMTILES*/] neededRes;
+	private final TileBounds[/*level*/][/*tile:0..LEVEL_NUMTILES*/] tileBounds;
+	/** Tile stamp when inView, tileDistance and neededRes have been computed */
+	private final int[/*level*/][/*tile:0..LEVEL_NUMTILES*/] viewStamp;
+	private final double[] lastCameraPos = new double[3];
+	private double lastDirection = Double.NaN, lastPitch = Double.NaN;
 
 	public Jp2TileLoader(Ptolemy3D ptolemy)
 	{
@@ -87,6 +112,19 @@ public class Jp2TileLoader implements Runnable
 		jp2Blocks = new Jp2Block[numLevels][Level.LEVEL_NUMTILES];
 		tileLock = new boolean[numLevels][Level.LEVEL_NUMTILES];
 
+		scheduler = new TileScheduler(numLevels);
+		inView = new boolean[numLevels][Level.LEVEL_NUMTILES];
+		tileDistance = new double[numLevels][Level.LEVEL_NUMTILES];
+		neededRes = new int[numLevels][Level.LEVEL_NUMTILES];
+		tileBounds = new TileBounds[numLevels][Level.LEVEL_NUMTILES];
+		viewStamp = new int[numLevels][Level.LEVEL_NUMTILES];
+		for (int p = 0; p < numLevels; p++) {
+			Arrays.fill(viewStamp[p], -1);
+			for (int j = 0; j < Level.LEVEL_NUMTILES; j++) {
+				tileBounds[p][j] = new TileBounds();
+			}
+		}
+
 		texTrash = new Vector[Jp2Tile.NUM_RESOLUTION];
 		for (int w = 0; w < Jp2Tile.NUM_RESOLUTION; w++) {
 			texTrash[w] = new Vector<Integer>(10);
@@ -95,18 +133,24 @@ public class Jp2TileLoader implements Runnable
 		quadBufferPool = new QuadBufferPool();
 	}
 
-	protected final void setServers()
+	/**
+	 * @param pooled use persistent connections for the servers with keep alive
+	 * @return a new set of communicators, one per data server
+	 */
+	protected final Communicator[] newCommunicators(boolean pooled)
 	{
-		JC_APP = null;
+		final Communicator[] JC = new Communicator[ptolemy.configuration.dataServers.length];
 		for (int i = 0; i < JC.length; i++)
 		{
-			//FIXME
-//			JC[i] = new Ptolemy3DSocketCommunicator(ptolemy.settings.Server);
-//			if ((!ptolemy.settings.isKeepAlive[i]) || (!JC[i].test("/Ptolemy3Dkey")))
-//			{
-//				IO.println("using basic server");
+			if (pooled && ptolemy.configuration.keepAlives[i]) {
+				JC[i] = new PooledCommunicator(ptolemy.configuration.server);
+			}
+			else {
 				JC[i] = new BasicCommunicator(ptolemy.configuration.server);
-//			}
+			}
+			if (diskCache != null) {
+				JC[i] = new CachingCommunicator(JC[i], diskCache);
+			}
 
 			if (JC[i] != null)
 			{
@@ -115,6 +159,17 @@ public class Jp2TileLoader implements Runnable
 				JC[i].setUrlAppend(ptolemy.configuration.urlAppends[i]);
 			}
 		}
+		return JC;
+	}
+
+	protected final void setServers()
+	{
+		JC_APP = null;
+		if (ptolemy.configuration.diskCacheSize > 0) {
+			diskCache = newDiskCache();
+		}
+		// Plugins use the loader communicators, keep them basic
+		JC = newCommunicators(false);
 		// look for a match
 		//for(int i=0;i<JC.length;i++)
 		//if (jetApplet.MDataServer[i].equals(jetApplet.Server))
@@ -127,7 +182,20 @@ public class Jp2TileLoader implements Runnable
 		// search for a default files for locations
 
 		masterH = new Jp2Head[JC.length][];
-		jpd = new Jp2Decoder[JC.length][];
+
+		final int decoderThreads = ptolemy.configuration.decoderThreads;
+		if (decoderThreads > 1) {
+			decoderPool = Executors.newFixedThreadPool(decoderThreads, new ThreadFactory() {
+				private int numThreads = 0;
+				public Thread newThread(Runnable r)
+				{
+					final Thread t = new Thread(r, "Jp2DecoderThread-" + (numThreads++));
+					t.setDaemon(true);
+					t.setPriority(Thread.MIN_PRIORITY);
+					return t;
+				}
+			});
+		}
 
 		byte[] hdat = null;
 		for (int i = 0; i < JC.length; i++)
@@ -141,7 +209,6 @@ public class Jp2TileLoader implements Runnable
 				if (ptolemy.configuration.locations[i] != null)
 				{
 					masterH[i] = new Jp2Head[ptolemy.configuration.locations[i].length];
-					jpd[i] = new Jp2Decoder[ptolemy.configuration.locations[i].length];
 					for (int h = 0; h < ptolemy.configuration.locations[i].length; h++)
 					{
 						JC[i].requestMapData(ptolemy.configuration.locations[i][h] + "default.jp2", 0, Communicator.HEADERMAXLEN);
@@ -152,13 +219,11 @@ public class Jp2TileLoader implements Runnable
 						{
 							hdat = JC[i].getData(Communicator.HEADERMAXLEN + 1);
 							masterH[i][h] = new Jp2Head(hdat);
-							jpd[i][h] = new Jp2Decoder(masterH[i][h]);
 						}
 						else
 						{
 							JC[i].flushNotFound();
 							masterH[i][h] = null;
-							jpd[i][h] = null;
 						}
 					}
 				}
@@ -173,7 +238,6 @@ public class Jp2TileLoader implements Runnable
 		// fill in any missing headers
 
 		Jp2Head repHeader = null;
-		Jp2Decoder repJpd = null;
 		// begin on a per server basis
 		for (int i = 0; i < JC.length; i++)
 		{
@@ -185,7 +249,6 @@ public class Jp2TileLoader implements Runnable
 					if (masterH[i][h] != null)
 					{
 						repHeader = masterH[i][h];
-						repJpd = jpd[i][h];
 						break;
 					}
 				}
@@ -196,7 +259,6 @@ public class Jp2TileLoader implements Runnable
 						if (masterH[i][h] == null)
 						{
 							masterH[i][h] = repHeader;
-							jpd[i][h] = repJpd;
 						}
 					}
 				}
@@ -213,7 +275,6 @@ public class Jp2TileLoader implements Runnable
 					if (masterH[i][h] != null)
 					{
 						repHeader = masterH[i][h];
-						repJpd = jpd[i][h];
 					}
 				}
 			}
@@ -227,7 +288,6 @@ public class Jp2TileLoader implements Runnable
 					if (masterH[i][h] == null)
 					{
 						masterH[i][h] = repHeader;
-						jpd[i][h] = repJpd;
 					}
 				}
 			}
@@ -238,7 +298,7 @@ public class Jp2TileLoader implements Runnable
 			IO.println("default j2k file missing. Stopping program.");
 		}
 		else {
-			targetData = new short[NUMCOMPS][repHeader.getImageW() * repHeader.getImageH()];
+			targetSize = repHeader.getImageW() * repHeader.getImageH();
 
 			twidth = new int[Jp2Tile.NUM_RESOLUTION];
 			quadtiles = new int[Jp2Tile.NUM_RESOLUTION];
@@ -251,7 +311,7 @@ public class Jp2TileLoader implements Runnable
 			for (int p = 0; p < tileLock.length; p++) {
 				Arrays.fill(tileLock[p], false);
 			}
-			quadBufferPool.init(quadtiles, twidth);
+			quadBufferPool.init(quadtiles, twidth, ptolemy.configuration.tileBufferMemory);
 		}
 
 	}
@@ -263,7 +323,10 @@ public class Jp2TileLoader implements Runnable
 		if (masterH == null) {
 			return;
 		}
-		boolean isIdle;
+		pipeline = new Jp2TilePipeline(this, ptolemy.configuration.loaderFetchers, ptolemy.configuration.loaderDecoders);
+		pipeline.start();
+
+		boolean isIdle, scheduled;
 		thread = Thread.currentThread();
 		thread.setPriority(1);
 		isSleeping = false;
@@ -279,29 +342,28 @@ public class Jp2TileLoader implements Runnable
 
 			isIdle = false;
 			setHeaders();
-			try {
-				if (!setData(1) && !setData(0) &&
-				   (!ptolemy.cameraController.isActive) && (ptolemy.cameraController.inAutoPilot == 0))
-				{
-					isIdle = true;
-					idleFrom = System.currentTimeMillis();
-					if (idleFrom - lastIdle > 5000) {
-						try {
-							isSleeping = true;
-							if (on) {
-								Thread.sleep(9999999);
-							}
-						}
-						catch (InterruptedException e) {
-							isSleeping = false;
-							isIdle = false;
+			scheduled = setData();
+			if (!scheduled && !pipeline.isBusy() &&
+			   (!ptolemy.cameraController.isActive) && (ptolemy.cameraController.inAutoPilot == 0))
+			{
+				isIdle = true;
+				idleFrom = System.currentTimeMillis();
+				if (idleFrom - lastIdle > 5000) {
+					try {
+						isSleeping = true;
+						if (on) {
+							Thread.sleep(9999999);
 						}
 					}
+					catch (InterruptedException e) {
+						isSleeping = false;
+						isIdle = false;
+					}
 				}
-				if (!isIdle) {
-					lastIdle = System.currentTimeMillis();
-				}
-			} catch (IOException e){}
+			}
+			if (!isIdle) {
+				lastIdle = System.currentTimeMillis();
+			}
 
 			// run plugins
 			if (on) {
@@ -310,13 +372,30 @@ public class Jp2TileLoader implements Runnable
 			}
 			try {
 				if (on) {
-					final int flightFrameDelay = ptolemy.configuration.flightFrameDelay;
-					Thread.sleep(((ptolemy.cameraController.isActive || (ptolemy.cameraController.inAutoPilot > 0)) && on) ? flightFrameDelay : 1, 0);
+					if (!scheduled && pipeline.isBusy()) {
+						// nothing more can be scheduled until a request ends
+						pipeline.awaitProgress(PROGRESS_TIMEOUT);
+					}
+					else {
+						final int flightFrameDelay = ptolemy.configuration.flightFrameDelay;
+						Thread.sleep(((ptolemy.cameraController.isActive || (ptolemy.cameraController.inAutoPilot > 0)) && on) ? flightFrameDelay : 1, 0);
+					}
 				}
 			} catch (InterruptedException e) {}
 		}
 
+		// Stop loading stages
+		pipeline.stop();
+		scheduler.clear();
+		if (ptolemy.textureManager != null) {
+			ptolemy.textureManager.clearDecoded();
+		}
+
 		// Free memory
+		if (decoderPool != null) {
+			decoderPool.shutdown();
+			decoderPool = null;
+		}
 		clearTextureData();
 		quadBufferPool.release();
 		System.gc();
@@ -361,388 +440,814 @@ public class Jp2TileLoader implements Runnable
 		jp2Blocks = null;
 	}
 
-	private final boolean setData(int getVisible) throws IOException
+	/**
+	 * Schedule requests for data not gotten, most important first.
+	 * @return true if at least one request has been scheduled
+	 */
+	private final boolean setData()
 	{
 		final Level[] levels = ptolemy.scene.landscape.levels;
 
-		int jp2DatServer;
-		int locIndex;
-		int res = 0;
-		// make requests for data not gotten
-		byte[] data;
-
-		ptolemy.camera.vpMat.copyTo(utilMatrix);
-		utilMatrix.invert(cloneMat);
-
-		if ((levels.length > 3) && (quadBufferPool.full >= 0))
+		if (levels.length > 3)
 		{
-loop:		for (int p = 0; p < levels.length; p++)
+			// Release a slot of the exhausted resolutions, from a level not displayed
+			for (int res = 0; res < Jp2Tile.NUM_RESOLUTION; res++)
 			{
-				final Level level = levels[p];
-				if (!level.status)
+				if (!quadBufferPool.isExhausted(res)) {
+					continue;
+				}
+loop:			for (int p = 0; p < levels.length; p++)
 				{
-					for (int j = 0; j < jp2Tiles[p].length; j++)
+					final Level level = levels[p];
+					if (!level.status)
 					{
-						final Jp2Tile tile = jp2Tiles[p][j];
-						final Jp2TileRes tileLevel = tile.tileRes[quadBufferPool.full];
-						if (tileLevel.imageDataReady)
+						for (int j = 0; j < jp2Tiles[p].length; j++)
 						{
-							tile.dropTo(quadBufferPool.full - 1);
-							if(quadBufferPool.full == -1) {		//08-2008 fix
+							final Jp2Tile tile = jp2Tiles[p][j];
+							final Jp2TileRes tileLevel = tile.tileRes[res];
+							if (tileLevel.imageDataReady)
+							{
+								tile.dropTo(res - 1);
 								break loop;
 							}
-							break;
 						}
 					}
 				}
 			}
 		}
 
-		for (int p = 0; p < levels.length; p++)
+		updateRequests();
+
+		boolean scheduled = false;
+		while (!scheduler.isEmpty())
 		{
-			final Level level = levels[p];
-			if (!level.status) {
-				continue;
+			final int key = scheduler.peek();
+			final int p = TileScheduler.level(key);
+			final int tileId = TileScheduler.tileId(key);
+			final int slot = TileScheduler.slot(key);
+			final Jp2Tile tile = jp2Tiles[p][tileId];
+
+			final Job job;
+			if (slot == TileScheduler.HEADER)
+			{
+				// the resolutions needed are fetched along with the header
+				final int lastRes = (levels[p].status && inView[p][tileId] && (neededRes[p][tileId] >= 0)) ? planLastRes(p, tileId, 0) : -1;
+				job = new Job(Job.HEADER, tile, p, tileId, 0, lastRes, null, false);
+				tile.headerRequested = true;
+				setRequested(tile, 0, lastRes, true);
+				if (!pipeline.schedule(job)) {
+					tile.headerRequested = false;
+					setRequested(tile, 0, lastRes, false);
+					break;
+				}
 			}
+			else
+			{
+				final int res = slot - 1;
+				if ((res > 0) && !makeRoom(p, tileId, res)) {
+					scheduler.remove(key);
+					continue;
+				}
 
-			/****** headers ***********/
-			int tileId = getClosestTile(1, p, getVisible, 0);
-			//IO.println("Level:" + p + " TILE:"+tileId);
-			if (tileId != -1)
+				final boolean isPng = (!tile.hasData) && (ptolemy.configuration.backgroundImageUrl != null);
+				final int lastRes = isPng ? res : planLastRes(p, tileId, res);
+				job = new Job(Job.RESOLUTION, tile, p, tileId, res, lastRes, jp2Blocks[p][tileId], isPng);
+				setRequested(tile, res, lastRes, true);
+				if (!pipeline.schedule(job)) {
+					setRequested(tile, res, lastRes, false);
+					break;
+				}
+			}
+			scheduler.remove(key);
+			for (int res = job.res; res <= job.lastRes; res++) {
+				final int resKey = TileScheduler.key(p, tileId, res + 1);
+				scheduler.remove(resKey);
+				scheduler.setPending(resKey, job);
+			}
+			scheduled = true;
+		}
+		return scheduled;
+	}
+
+	/**
+	 * Plan the resolutions to fetch in a single job: following resolutions are added as long
+	 * as they are needed and there is room for them.
+	 * @return the last resolution to fetch
+	 */
+	private final int planLastRes(int p, int tileId, int firstRes)
+	{
+		final Level[] levels = ptolemy.scene.landscape.levels;
+		final Jp2Tile tile = jp2Tiles[p][tileId];
+
+		int lastRes = firstRes;
+		while (lastRes + 1 < Jp2Tile.NUM_RESOLUTION)
+		{
+			final int res = lastRes + 1;
+			final Jp2TileRes tileLevel = tile.tileRes[res];
+			if (tileLevel.tileGotten || tileLevel.requested || (res > neededRes[p][tileId])) {
+				break;
+			}
+			if ((res == (Jp2Tile.NUM_RESOLUTION - 1)) && (p < (levels.length - 1)) && levels[p + 1].visible) {
+				break;
+			}
+			if (!makeRoom(p, tileId, res)) {
+				break;
+			}
+			lastRes = res;
+		}
+		return lastRes;
+	}
+
+	private final static void setRequested(Jp2Tile tile, int firstRes, int lastRes, boolean requested)
+	{
+		for (int res = firstRes; res <= lastRes; res++) {
+			tile.tileRes[res].requested = requested;
+		}
+	}
+
+	/**
+	 * Update the scheduler with the requests that can be made, and cancel the pending requests
+	 * of the tiles that left the view or are not needed anymore by the screen-space error.
+	 * Priorities are only computed again when the camera moved.
+	 */
+	private final void updateRequests()
+	{
+		final Landscape landscape = ptolemy.scene.landscape;
+		final Level[] levels = landscape.levels;
+		final Frustum frustum = ptolemy.view.frustum;
+
+		final boolean moved = cameraMoved();
+
+		for (int p = 0; p < levels.length; p++)
+		{
+			final Level level = levels[p];
+			for (int j = 0; j < jp2Tiles[p].length; j++)
 			{
-				data = null;
-				locIndex = 0;
-				jp2DatServer = 0;
-				while ((data == null) && (jp2DatServer < JC.length))
-				{
-					if ((JC[jp2DatServer] == null) || (ptolemy.configuration.locations[jp2DatServer] == null))
-					{
-						jp2DatServer++;
-						continue;
-					}
+				final Jp2Tile tile = jp2Tiles[p][j];
+				if (tile == null) {
+					continue;
+				}
 
-					JC[jp2DatServer].requestMapData(ptolemy.configuration.locations[jp2DatServer][locIndex] + jp2Tiles[p][tileId].fileBase + ".jp2", 0, Communicator.HEADERMAXLEN);
-					int ret = JC[jp2DatServer].getHeaderReturnCode();
-					if ((ret == 200) || (ret == 206)) {
-						data = JC[jp2DatServer].getData(Communicator.HEADERMAXLEN + 1);
-					}
-					else {
-						JC[jp2DatServer].flushNotFound();
-						data = null;
+				final boolean refresh = moved || (viewStamp[p][j] != tile.stamp);
+				if (refresh) {
+					tileBounds[p][j].set(tile.lon, tile.lat, level.tileSize, tile);
+					inView[p][j] = (frustum == null) || tileBounds[p][j].isVisible(frustum);
+					tileDistance[p][j] = getDistanceTile(p, j);
+					neededRes[p][j] = getNeededRes(p, j, frustum);
+					viewStamp[p][j] = tile.stamp;
+				}
+				final boolean wanted = level.status && inView[p][j] && (neededRes[p][j] >= 0);
+
+				// Cancel requests not wanted anymore
+				for (int res = 0; res < Jp2Tile.NUM_RESOLUTION; res++) {
+					final int key = TileScheduler.key(p, j, res + 1);
+					final Job job = scheduler.getPending(key);
+					if (job == null) {
+						continue;
 					}
-					if (data != null) {
-						jp2Tiles[p][tileId].tileDataServer = jp2DatServer;
-						jp2Tiles[p][tileId].tileDataLoc = locIndex;
-						break;
+					if ((job.stamp == tile.stamp) && !tile.tileRes[res].requested) {
+						// done, or dropped
+						scheduler.setPending(key, null);
 					}
-
-					locIndex++;
-					if (locIndex >= ptolemy.configuration.locations[jp2DatServer].length) {
-						locIndex = 0;
-						jp2DatServer++;
+					else if (!wanted || (job.res > neededRes[p][j]) || (job.stamp != tile.stamp)) {
+						scheduler.setPending(key, null);
+						pipeline.cancel(job);
 					}
 				}
-				if (data != null) {
-					try {
-						masterH[jp2Tiles[p][tileId].tileDataServer][jp2Tiles[p][tileId].tileDataLoc].setTileHeader(jp2Blocks[p][tileId], data);
-						jp2Tiles[p][tileId].gotten = true;
-						jp2Tiles[p][tileId].hasData = true;
-					}
-					catch (Exception ex) {
-						IO.printStackConnection(ex);
-						System.err.println("Jp2TileLoader.setData(): " + ex.toString());
-						System.err.println("File: " + ptolemy.configuration.locations[jp2DatServer][locIndex] + jp2Tiles[p][tileId].fileBase + ".jp2");
+
+				// Header and terrain
+				int key = TileScheduler.key(p, j, TileScheduler.HEADER);
+				if (level.status && !tile.gotten && !tile.headerRequested) {
+					if (refresh || !scheduler.contains(key)) {
+						double prio = getPriority(p, j, -1);
+						if (!inView[p][j] || (neededRes[p][j] < 0)) {
+							prio += OUT_OF_VIEW_PRIORITY;
+						}
+						scheduler.update(key, prio);
 					}
 				}
 				else {
-					jp2Tiles[p][tileId].gotten = true;
+					scheduler.remove(key);
 				}
-			}
 
-			/*****: dem ****************/
-			//tile = (JSlandscape.terrainEnabled) ? getClosestTile(3, p, getVisible,0) : -1;
-			if (tileId != -1)
-			{
-				boolean demOrTinSet = false;
-				locIndex = 0;
-				jp2DatServer = 0;
-				while ((!demOrTinSet) && (jp2DatServer < JC.length))
-				{
-					if ((JC[jp2DatServer] == null) || (ptolemy.configuration.DEMLocation[jp2DatServer] == null))
+				// Resolutions
+				for (int res = 0; res < Jp2Tile.NUM_RESOLUTION; res++) {
+					key = TileScheduler.key(p, j, res + 1);
+					boolean doCheck = false;
+					if (wanted && (res <= neededRes[p][j]) && (!tile.tileRes[res].tileGotten) && (!tile.tileRes[res].requested) && ((tile.hasData) ||
+						((ptolemy.configuration.backgroundImageUrl != null) && (res <= 2) && (tile.gotten))))
 					{
-						jp2DatServer++;
-						continue;
-					}
-					int ret = -1;
-					boolean isTin = true;
-					final boolean USE_TIN = ptolemy.configuration.useTIN;
-					if (USE_TIN) {
-						JC[jp2DatServer].requestMapData(ptolemy.configuration.DEMLocation[jp2DatServer][locIndex] + "tin/" + jp2Tiles[p][tileId].fileBase + ".tin");
-						ret = JC[jp2DatServer].getHeaderReturnCode();
-					}
-
-					if ((ret != 200) && (ret != 206)) {
-						if (USE_TIN) {
-							JC[jp2DatServer].flushNotFound();
-							//len = (JSlandscape.DEMSize[p] * JSlandscape.DEMSize[p] * 2)-1;
-							//JC[jp2DatServer].requestMapData(jetApplet.DEMLocation[jp2DatServer][locIndex] + jp2tiles[p][tile].filebase + ".bdm" , 0 , len);
+						if ((tile.terrainGotten > 0) || (!landscape.terrainEnabled)) {
+							doCheck = true;
+							if ((res > 0) && (!tile.tileRes[res - 1].tileGotten)) {
+								doCheck = false;
+							}
+							if ((res == (Jp2Tile.NUM_RESOLUTION - 1)) && (p < (levels.length - 1)) && levels[p + 1].visible) {
+								doCheck = false;
+							}
 						}
-						JC[jp2DatServer].requestMapData(ptolemy.configuration.DEMLocation[jp2DatServer][locIndex] + jp2Tiles[p][tileId].fileBase + ".bdm");
-						isTin = false;
-						ret = JC[jp2DatServer].getHeaderReturnCode();
 					}
-
-					if ((ret == 200) || (ret == 206)) {
-						if (isTin) {
-							jp2Tiles[p][tileId].tin = new ElevationTin(JC[jp2DatServer].getData());
+					if (doCheck) {
+						if (refresh || !scheduler.contains(key)) {
+							scheduler.update(key, getPriority(p, j, res));
 						}
-						else {
-							jp2Tiles[p][tileId].dem = new ElevationDem(JC[jp2DatServer].getData());
-						}
-						jp2Tiles[p][tileId].terrainGotten = TERRAIN_MAXTRIES;
-						demOrTinSet = true;
 					}
 					else {
-						JC[jp2DatServer].flushNotFound();
+						scheduler.remove(key);
 					}
+				}
+			}
+		}
+	}
 
-					locIndex++;
-					if (locIndex >= ptolemy.configuration.DEMLocation[jp2DatServer].length) {
-						locIndex = 0;
-						jp2DatServer++;
-					}
+	/**
+	 * Make room for resolution <code>res</code> of a tile, dropping the resolution of a tile
+	 * out of view or further if the quota of the resolution is reached.
+	 * @return false if there is no room
+	 */
+	private final boolean makeRoom(int p, int tileId, int res)
+	{
+		double furthest = -1;
+		int quads = 0, fix = -1, bix = -1;
+		for (int j = 0; j < jp2Tiles[p].length; j++)
+		{
+			final Jp2Tile tile = jp2Tiles[p][j];
+			if (tile == null) {
+				continue;
+			}
+			final Jp2TileRes tileLevel = tile.tileRes[res];
+			if (tileLevel.requested) {
+				quads++;
+			}
+			else if (tileLevel.tileGotten) {
+				if (!inView[p][j]) {
+					bix = j;
 				}
-				if (!demOrTinSet)
-				{
-					jp2Tiles[p][tileId].terrainGotten++;
+				final double dist = tileDistance[p][j];
+				if (dist > furthest) {
+					furthest = dist;
+					fix = j;
 				}
+				quads++;
+			}
+		}
+
+		if (quads < quadtiles[res]) {
+			return true;
+		}
+		if ((fix == -1) || ((tileDistance[p][tileId] >= furthest) && (bix == -1))) {
+			return false;
+		}
+
+		fix = (bix != -1) ? bix : fix;
+		for (int q = res; q < Jp2Tile.NUM_RESOLUTION; q++)
+		{
+			final Jp2Tile tile = jp2Tiles[p][fix];
+			final Jp2TileRes tileLevel = tile.tileRes[q];
+
+			tileLevel.tileGotten = false;
+			if (tileLevel.textureId != -1) {
+				addToTrash(tileLevel.textureId, q);
+			}
+		}
+		jp2Tiles[p][fix].dropTo(res - 1);
+		return true;
+	}
+
+	/**
+	 * Priority of a request: the distance of the tile over the size of a texel of the resolution,
+	 * the inverse of its screen-space error. Lower values are served first.
+	 * @param res resolution, -1 for the tile header
+	 */
+	private final double getPriority(int p, int j, int res)
+	{
+		final double texelSize = (double) ptolemy.scene.landscape.levels[p].tileSize / ((res < 0) ? 1 : twidth[res]);
+		return tileDistance[p][j] / texelSize;
+	}
+
+	/**
+	 * Refinement of a tile by the screen-space error of its textures: a resolution is needed while
+	 * the texels of the resolution before it are larger than <code>maxScreenError</code> pixels on
+	 * screen. A tile is only needed if the level above, when displayed, does not reach that
+	 * precision at the tile distance: otherwise the level above is drawn there instead.
+	 * @return last resolution needed, -1 if the tile is not needed
+	 */
+	private final int getNeededRes(int p, int j, Frustum frustum)
+	{
+		final double maxError = ptolemy.configuration.maxScreenError;
+		if ((frustum == null) || (maxError <= 0)) {
+			return Jp2Tile.NUM_RESOLUTION - 1;
+		}
+
+		final Level[] levels = ptolemy.scene.landscape.levels;
+		final double ddToWorld = Math3D.degToRad / ptolemy.unit.DD * EARTH_RADIUS;
+		final double distance = tileBounds[p][j].getDistance(frustum);
+
+		// Best texels of the level above: its last resolution is not loaded when this level is displayed
+		if ((p > 0) && levels[p - 1].visible) {
+			final double texel = levels[p - 1].tileSize * ddToWorld / twidth[Jp2Tile.NUM_RESOLUTION - 2];
+			if (frustum.getScreenSize(texel, distance) <= maxError) {
+				return -1;
 			}
+		}
+
+		int res = 0;
+		while ((res + 1) < Jp2Tile.NUM_RESOLUTION) {
+			final double texel = levels[p].tileSize * ddToWorld / twidth[res];
+			if (frustum.getScreenSize(texel, distance) <= maxError) {
+				break;
+			}
+			res++;
+		}
+		return res;
+	}
 
-			/**************************************************************************/
-			int quads;
-			double tdist, dist, furthest = -1;
-			int fix, bix;
-			for (res = 0; res < Jp2Tile.NUM_RESOLUTION; res++)
+	/** @return true if the camera moved since the last call */
+	private final boolean cameraMoved()
+	{
+		final Camera camera = ptolemy.camera;
+		final double[] pos = camera.cameraPos;
+		final double direction = camera.getDirectionRadians();
+		final double pitch = camera.getPitchRadians();
+		if ((pos[0] == lastCameraPos[0]) && (pos[1] == lastCameraPos[1]) && (pos[2] == lastCameraPos[2]) &&
+			(direction == lastDirection) && (pitch == lastPitch)) {
+			return false;
+		}
+		System.arraycopy(pos, 0, lastCameraPos, 0, 3);
+		lastDirection = direction;
+		lastPitch = pitch;
+		return true;
+	}
+
+	/**
+	 * Fetch stage: download the data of a job. Called from the fetcher threads.
+	 * @param JC communicators of the fetcher thread
+	 * @return true if the job has to be decoded
+	 */
+	final boolean fetch(Job job, Communicator[] JC) throws IOException
+	{
+		if (job.type == Job.HEADER) {
+			return fetchHeader(job, JC);
+		}
+		else {
+			return fetchResolution(job, JC);
+		}
+	}
+
+	private final boolean fetchHeader(Job job, Communicator[] JC) throws IOException
+	{
+		final Jp2Tile tile = job.tile;
+		// all the resolutions needed: read the whole file at once
+		final boolean wholeFile = (job.lastRes == (Jp2Tile.NUM_RESOLUTION - 1));
+
+		int jp2DatServer;
+		int locIndex;
+		int dataServer = 0, dataLoc = 0;
+		byte[] data;
+
+		/****** headers ***********/
+		data = null;
+		locIndex = 0;
+		jp2DatServer = 0;
+		while ((data == null) && (jp2DatServer < JC.length))
+		{
+			if ((JC[jp2DatServer] == null) || (ptolemy.configuration.locations[jp2DatServer] == null))
 			{
-				if (p < (levels.length - 1))
-				{
-					if (res == (Jp2Tile.NUM_RESOLUTION - 1))
-					{
-						if (levels[p + 1].visible)
-						{
-							continue;
-						}
-					}
+				jp2DatServer++;
+				continue;
+			}
+
+			if (wholeFile) {
+				JC[jp2DatServer].requestMapData(ptolemy.configuration.locations[jp2DatServer][locIndex] + job.fileBase + ".jp2");
+			}
+			else {
+				JC[jp2DatServer].requestMapData(ptolemy.configuration.locations[jp2DatServer][locIndex] + job.fileBase + ".jp2", 0, Communicator.HEADERMAXLEN);
+			}
+			int ret = JC[jp2DatServer].getHeaderReturnCode();
+			if ((ret == 200) || (ret == 206)) {
+				data = wholeFile ? JC[jp2DatServer].getData() : JC[jp2DatServer].getData(Communicator.HEADERMAXLEN + 1);
+				if ((data != null) && !wholeFile) {
+					data = completeHeader(JC[jp2DatServer], ptolemy.configuration.locations[jp2DatServer][locIndex] + job.fileBase + ".jp2", data);
 				}
-				tileId = getClosestTile(2, p, 1, res);
-				quads = 0;
-				if ((res > 0) && (tileId != -1))
-				{
-					tdist = getDistanceTileCenter(ptolemy.camera.cameraX, ptolemy.camera.cameraY, p, tileId);
-					//tangle = getAngleTileCenter(p,tile);
-					fix = -1;
-					furthest = -1;
-					bix = -1;
-					for (int j = 0; j < jp2Tiles[p].length; j++)
-					{
-						final Jp2Tile tile = jp2Tiles[p][j];
-						if (tile == null) {
-							continue;
-						}
-						final Jp2TileRes tileLevel = tile.tileRes[res];
-						if (tileLevel.tileGotten) {
-							if (!tileInView(p, j)) {
-								bix = j;
-							}
-							dist = getDistanceTileCenter(ptolemy.camera.cameraX, ptolemy.camera.cameraY, p, j);
-							if (dist > furthest) {
-								furthest = dist;
-								fix = j;
-							}
-							quads++;
-						}
-					}
+			}
+			else {
+				JC[jp2DatServer].flushNotFound();
+				data = null;
+			}
+			if (data != null) {
+				dataServer = jp2DatServer;
+				dataLoc = locIndex;
+				break;
+			}
 
-					if (quads >= quadtiles[res])
-					{
-						if ((tdist < furthest) || (bix != -1))
-						{
-							fix = (bix != -1) ? bix : fix;
-							for (int q = res; q < Jp2Tile.NUM_RESOLUTION; q++)
-							{
-								final Jp2Tile tile = jp2Tiles[p][fix];
-								final Jp2TileRes tileLevel = tile.tileRes[q];
+			locIndex++;
+			if (locIndex >= ptolemy.configuration.locations[jp2DatServer].length) {
+				locIndex = 0;
+				jp2DatServer++;
+			}
+		}
 
-								tileLevel.tileGotten = false;
-								if (tileLevel.textureId != -1) {
-									addToTrash(tileLevel.textureId, q);
-								}
-							}
-							jp2Tiles[p][fix].dropTo(res - 1);
-						}
-						else
-						{
-							tileId = -1;
-						}
-					}
-				} // if ((res > 0) && (tile != -1)){
+		Jp2Block block = null;
+		boolean headerSet = true;
+		if (data != null) {
+			block = new Jp2Block();
+			block.fileBase = job.fileBase;
+			try {
+				masterH[dataServer][dataLoc].setTileHeader(block, data);
+			}
+			catch (Exception ex) {
+				IO.printStackConnection(ex);
+				System.err.println("Jp2TileLoader.fetchHeader(): " + ex.toString());
+				System.err.println("File: " + ptolemy.configuration.locations[dataServer][dataLoc] + job.fileBase + ".jp2");
+				headerSet = false;
+			}
+		}
 
-				if (tileId != -1)
-				{
-					boolean isSet = false;
-					if ((!jp2Tiles[p][tileId].hasData) && (ptolemy.configuration.backgroundImageUrl != null))
-					{
-						// try to grab a png image
-						data = null;
-						locIndex = 0;
-						jp2DatServer = 0;
-						while ((data == null) && (jp2DatServer < JC.length))
-						{
-							if ((JC[jp2DatServer] == null) || (ptolemy.configuration.locations[jp2DatServer] == null))
-							{
-								jp2DatServer++;
-								continue;
-							}
-							JC[jp2DatServer].requestMapData(jp2Tiles[p][tileId].fillFile(res));
-							int t = JC[jp2DatServer].getHeaderReturnCode();
-							if ((t == 200) || (t == 206))
-							{
-								data = JC[jp2DatServer].getData();
-							}
-							else
-							{
-								JC[jp2DatServer].flushNotFound();
-								data = null;
-							}
+		/*****: dem ****************/
+		ElevationTin tin = null;
+		ElevationDem dem = null;
+		boolean demOrTinSet = false;
+		locIndex = 0;
+		jp2DatServer = 0;
+		while ((!demOrTinSet) && (jp2DatServer < JC.length))
+		{
+			if ((JC[jp2DatServer] == null) || (ptolemy.configuration.DEMLocation[jp2DatServer] == null))
+			{
+				jp2DatServer++;
+				continue;
+			}
+			int ret = -1;
+			boolean isTin = true;
+			final boolean USE_TIN = ptolemy.configuration.useTIN;
+			if (USE_TIN) {
+				JC[jp2DatServer].requestMapData(ptolemy.configuration.DEMLocation[jp2DatServer][locIndex] + "tin/" + job.fileBase + ".tin");
+				ret = JC[jp2DatServer].getHeaderReturnCode();
+			}
 
-							locIndex++;
-							if (locIndex >= ptolemy.configuration.locations[jp2DatServer].length) {
-								locIndex = 0;
-								jp2DatServer++;
-							}
+			// DEM: compressed format first if enabled, the raw one if the server doesn't have it
+			final boolean USE_CDM = ptolemy.configuration.useCompressedDEM;
+			if (USE_CDM && (ret != 200) && (ret != 206)) {
+				if (USE_TIN) {
+					JC[jp2DatServer].flushNotFound();
+				}
+				JC[jp2DatServer].requestMapData(ptolemy.configuration.DEMLocation[jp2DatServer][locIndex] + job.fileBase + ".cdm");
+				isTin = false;
+				ret = JC[jp2DatServer].getHeaderReturnCode();
+			}
+			if ((ret != 200) && (ret != 206)) {
+				if (USE_TIN || USE_CDM) {
+					JC[jp2DatServer].flushNotFound();
+				}
+				JC[jp2DatServer].requestMapData(ptolemy.configuration.DEMLocation[jp2DatServer][locIndex] + job.fileBase + ".bdm");
+				isTin = false;
+				ret = JC[jp2DatServer].getHeaderReturnCode();
+			}
+
+			if ((ret == 200) || (ret == 206)) {
+				if (isTin) {
+					tin = new ElevationTin(JC[jp2DatServer].getData());
+					demOrTinSet = true;
+				}
+				else {
+					final byte[] demData = JC[jp2DatServer].getData();
+					if (!DemDecoder.isCompressed(demData)) {
+						dem = new ElevationDem(demData);
+						demOrTinSet = true;
+					}
+					else {
+						try {
+							dem = new ElevationDem(DemDecoder.decode(demData));
+							demOrTinSet = true;
 						}
-						if (data != null)
-						{
-							int[] meta = new int[5];
-							byte[] pngdata = PngDecoder.decode(data, meta);
-							// process png file.
-							if ((meta[2] == 3) || (meta[2] == 2))
-							{ // only rgb color models used
-								isSet = jp2Tiles[p][tileId].setImageData(pngdata, meta, res);
-							}
+						catch (IOException e) {
+							// Try the next location
+							IO.printStackConnection(e);
 						}
 					}
-					else
-					{
-						final int dataServerId = jp2Tiles[p][tileId].tileDataServer;
-						final int dataLocId = jp2Tiles[p][tileId].tileDataLoc;
+				}
+			}
+			else {
+				JC[jp2DatServer].flushNotFound();
+			}
 
-						jp2Blocks[p][tileId].requestMapData(
-								JC[dataServerId],
-								ptolemy.configuration.locations[dataServerId][dataLocId] + jp2Tiles[p][tileId].fileBase + ".jp2",
-								res);
+			locIndex++;
+			if (locIndex >= ptolemy.configuration.DEMLocation[jp2DatServer].length) {
+				locIndex = 0;
+				jp2DatServer++;
+			}
+		}
 
-						int ret = JC[dataServerId].getHeaderReturnCode();
-						if ((ret == 200) || (ret == 206)) {
-							data = jp2Blocks[p][tileId].getData(JC[dataServerId], res);
-						}
-						else {
-							JC[dataServerId].flushNotFound();
-							data = null;
-						}
+		final int tileLon, tileLat;
+		synchronized (tile) {
+			if (tile.stamp != job.stamp) {
+				// tile recycled meanwhile
+				return false;
+			}
+			tileLon = tile.lon;
+			tileLat = tile.lat;
+			if (headerSet) {
+				if (data != null) {
+					jp2Blocks[job.level][job.tileId] = block;
+					tile.tileDataServer = dataServer;
+					tile.tileDataLoc = dataLoc;
+					tile.hasData = true;
+				}
+				tile.gotten = true;
+			}
+			if (demOrTinSet) {
+				tile.tin = tin;
+				tile.dem = dem;
+				tile.terrainGotten = TERRAIN_MAXTRIES;
+			}
+			else {
+				tile.terrainGotten++;
+			}
+		}
+		if (demOrTinSet) {
+			final int tileSize = ptolemy.scene.landscape.levels[job.level].tileSize;
+			ptolemy.scene.plugins.terrainChanged(job.level, tileLon, tileLat - tileSize, tileLon + tileSize, tileLat);
+		}
 
-						if (data != null)
-						{
-							final Jp2Head jp2Head = masterH[dataServerId][dataLocId];
-
-							if (res > 0) {
-								// clear data array
-								Arrays.fill(targetData[0], (short) 0);	//TODO can gain time here
-								Arrays.fill(targetData[1], (short) 0);
-								Arrays.fill(targetData[2], (short) 0);
-
-								int prevRes = res - 1;
-								byte[] imgData = jp2Tiles[p][tileId].getImageData(prevRes);
-								if (imgData == null) {
-									jp2Tiles[p][tileId].dropTo(-1);
-									break;
-								}
+		/****** resolutions ***********/
+		if ((job.lastRes < 0) || (data == null) || !headerSet) {
+			return false;
+		}
+		job.block = block;
+		job.server = dataServer;
+		job.loc = dataLoc;
+		if (wholeFile) {
+			job.data = new byte[job.lastRes - job.res + 1][];
+			for (int res = job.res; res <= job.lastRes; res++) {
+				if ((job.data[res - job.res] = block.cutResolution(data, 0, res)) == null) {
+					job.data = null;
+					break;
+				}
+			}
+		}
+		else {
+			job.data = fetchRanges(job, JC[dataServer]);
+		}
+		return (job.data != null);
+	}
 
-								// copy the data from this buffer to the target array
-								jp2Head.prepareImageData(targetData, imgData, twidth[res], twidth[prevRes]);
-							}
-							jpd[dataServerId][dataLocId].getNextResolution(jp2Blocks[p][tileId], 0, targetData, res, data);
-							isSet = jp2Tiles[p][tileId].setImageData(targetData, res, jp2Head);
-						}
-					}
-					jp2Tiles[p][tileId].tileRes[res].tileGotten = isSet;
-					return true;
+	/**
+	 * Fetch the end of a header longer than the first read, before it is parsed.<BR>
+	 * Parsing is serialized on the layer header: the fetcher thread gets the missing bytes here,
+	 * rather than the parser while holding the lock.
+	 * @return the header data, extended if needed
+	 */
+	private final byte[] completeHeader(Communicator JC, String file, byte[] data) throws IOException
+	{
+		int len;
+		while ((len = Jp2Head.getHeaderLength(data)) > data.length) {
+			// one more read usually covers the next boxes too
+			final int end = len + Communicator.HEADERMAXLEN;
+			JC.requestMapData(file, data.length, end - 1);
+			int ret = JC.getHeaderReturnCode();
+			if ((ret != 200) && (ret != 206)) {
+				JC.flushNotFound();
+				break;
+			}
+			final byte[] more = JC.getData(end - data.length);
+			if ((more == null) || (more.length == 0)) {
+				break;
+			}
+			final byte[] newData = new byte[data.length + more.length];
+			System.arraycopy(data, 0, newData, 0, data.length);
+			System.arraycopy(more, 0, newData, data.length, more.length);
+			final boolean endOfFile = (newData.length < end);
+			data = newData;
+			if (endOfFile) {
+				// short read: the file ends here, never request past its end
+				break;
+			}
+		}
+		return data;
+	}
+
+	/**
+	 * Fetch the jp2 data of the resolutions of a job, with as few reads as possible.
+	 * @return the data of each resolution, null on failure
+	 */
+	private final byte[][] fetchRanges(Job job, Communicator JC) throws IOException
+	{
+		final String file = ptolemy.configuration.locations[job.server][job.loc] + job.fileBase + ".jp2";
+		final int[][] ranges = job.block.planRanges(job.res, job.lastRes);
+		final byte[][] reads = new byte[ranges.length][];
+		for (int i = 0; i < ranges.length; i++) {
+			JC.requestMapData(file, ranges[i][0], ranges[i][1]);
+			int ret = JC.getHeaderReturnCode();
+			if ((ret == 200) || (ret == 206)) {
+				reads[i] = JC.getData(ranges[i][1] - ranges[i][0] + 1);
+			}
+			else {
+				JC.flushNotFound();
+				return null;
+			}
+		}
+
+		final byte[][] data = new byte[job.lastRes - job.res + 1][];
+		for (int res = job.res; res <= job.lastRes; res++) {
+			for (int i = 0; (i < ranges.length) && (data[res - job.res] == null); i++) {
+				if (reads[i] != null) {
+					data[res - job.res] = job.block.cutResolution(reads[i], ranges[i][0], res);
 				}
 			}
+			if (data[res - job.res] == null) {
+				return null;
+			}
 		}
-		return false;
+		return data;
 	}
 
-	private final int getClosestTile(int type, int lvl, int isVisible, int res)
+	private final boolean fetchResolution(Job job, Communicator[] JC) throws IOException
 	{
-		Landscape landscape = ptolemy.scene.landscape;
-
-		//IO.println("GET CLOSEST TILE:" + type + " " + lvl + " " + isVisible + " " + res);
-		double dist, closest = Double.MAX_VALUE;
-		int six = -1;
-		boolean inView = true;
-		boolean doCheck = false;
-		for (int j = 0; j < jp2Tiles[lvl].length; j++)
+		final int res = job.res;
+
+		int jp2DatServer;
+		int locIndex;
+		byte[] data = null;
+
+		if (job.isPng)
 		{
-			final Jp2Tile tile = jp2Tiles[lvl][j];
-			if (tile == null) {
-				continue;
-			}
-			doCheck = false;
-			switch (type)
+			// try to grab a png image
+			locIndex = 0;
+			jp2DatServer = 0;
+			while ((data == null) && (jp2DatServer < JC.length))
 			{
-				case 1:  // header
-					if (!tile.gotten) {
-						doCheck = true;
-					}
-					break;
-				case 2:  // jp2
-					if ((!tile.tileRes[res].tileGotten) && ((tile.hasData) ||
-						((ptolemy.configuration.backgroundImageUrl != null) && (res <= 2) && (tile.gotten))))
-					{
-						if ((tile.terrainGotten > 0) || (!landscape.terrainEnabled)) {
-							doCheck = true;
-							if ((res > 1) && (!tile.tileRes[res - 1].tileGotten)) {
-								doCheck = false;
-							}
-						}
-					}
-					break;
-				case 3:
-					if (tile.terrainGotten < TERRAIN_MAXTRIES) {
-						doCheck = true;
-					}
-					break;
+				if ((JC[jp2DatServer] == null) || (ptolemy.configuration.locations[jp2DatServer] == null))
+				{
+					jp2DatServer++;
+					continue;
+				}
+				JC[jp2DatServer].requestMapData(job.tile.fillFile(res));
+				int t = JC[jp2DatServer].getHeaderReturnCode();
+				if ((t == 200) || (t == 206))
+				{
+					data = JC[jp2DatServer].getData();
+				}
+				else
+				{
+					JC[jp2DatServer].flushNotFound();
+					data = null;
+				}
+
+				locIndex++;
+				if (locIndex >= ptolemy.configuration.locations[jp2DatServer].length) {
+					locIndex = 0;
+					jp2DatServer++;
+				}
 			}
+		}
+		else
+		{
+			job.data = fetchRanges(job, JC[job.server]);
+			return (job.data != null);
+		}
+		job.data = (data != null) ? new byte[][] { data } : null;
+		return (data != null);
+	}
 
-			if (doCheck) {
-				if (isVisible > 0) {
-					inView = tileInView(lvl, j);
+	/**
+	 * Decode stage: decode the data of a job and hand it to the texture manager.
+	 * Called from the decoder threads.
+	 * @return false if the job has been dropped
+	 */
+	final boolean decode(Job job, Jp2TilePipeline.DecoderContext ctx) throws InterruptedException
+	{
+		final Jp2Tile tile = job.tile;
+
+		if (job.isPng)
+		{
+			int[] meta = new int[5];
+			byte[] pngdata = PngDecoder.decode(job.data[0], meta);
+			// process png file.
+			if ((meta[2] == 3) || (meta[2] == 2))
+			{ // only rgb color models used
+				return handDecoded(job, job.res, tile.setImageData(pngdata, meta, job.res));
+			}
+			return false;
+		}
+
+		final short[][] targetData = ctx.targetData;
+		final Jp2Head jp2Head = masterH[job.server][job.loc];
+		final Jp2Decoder decoder = ctx.getDecoder(jp2Head, this);
+
+		final int firstRes = job.res;
+		if (firstRes > 0) {
+			clearTargetData(targetData, twidth[firstRes], twidth[firstRes - 1]);
+
+			int prevRes = firstRes - 1;
+			synchronized (tile) {
+				if ((tile.stamp != job.stamp) || !tile.tileRes[prevRes].imageDataReady) {
+					return false;
 				}
-				else {
-					inView = true;
+				final ByteBuffer imgData = tile.getImageData(prevRes);
+				if (imgData == null) {
+					return false;
 				}
 
-				if (inView) {
-					dist = getDistanceTileCenter(ptolemy.camera.cameraX, ptolemy.camera.cameraY, lvl, j);
-					if (dist < closest) {
-						closest = dist;
-						six = j;
-					}
+				// copy the data from this buffer to the target array
+				jp2Head.prepareImageData(targetData, imgData, twidth[firstRes], twidth[prevRes]);
+			}
+		}
+
+		for (int res = firstRes; res <= job.lastRes; res++) {
+			if (job.cancelled) {
+				return false;
+			}
+			decoder.getNextResolution(job.block, 0, targetData, res, job.data[res - firstRes]);
+			final int datakey = tile.setImageData(targetData, res, jp2Head);
+			if (datakey == -1) {
+				return false;
+			}
+			if (res < job.lastRes) {
+				// next resolution starts from this one
+				clearTargetData(targetData, twidth[res + 1], twidth[res]);
+				jp2Head.prepareImageData(targetData, quadBufferPool.getBuffer(res, datakey), twidth[res + 1], twidth[res]);
+			}
+			if (!handDecoded(job, res, datakey)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Clear the high-pass subbands of a <code>size</code> wide resolution.<BR>
+	 * The low-pass subband, <code>prevSize</code> wide, is filled by <code>prepareImageData</code>
+	 * and the data after the resolution area is not used.
+	 */
+	private final static void clearTargetData(short[][] targetData, int size, int prevSize)
+	{
+		for (int c = 0; c < targetData.length; c++) {
+			final short[] plane = targetData[c];
+			for (int k = 0, dix = 0; k < prevSize; k++, dix += size) {
+				Arrays.fill(plane, dix + prevSize, dix + size, (short) 0);
+			}
+			Arrays.fill(plane, prevSize * size, size * size, (short) 0);
+		}
+	}
+
+	/**
+	 * Hand a decoded resolution to the texture manager. The last resolution of the job ends
+	 * the job once published.
+	 * @return false if <code>datakey</code> is not valid
+	 */
+	private final boolean handDecoded(Job job, int res, int datakey) throws InterruptedException
+	{
+		if (datakey == -1) {
+			return false;
+		}
+		final boolean last = (res == job.lastRes);
+		try {
+			ptolemy.textureManager.queueDecoded(new Jp2Tile.Decoded(job.tile, job.stamp, res, datakey, last ? pipeline : null));
+		}
+		catch (InterruptedException e) {
+			quadBufferPool.free(res, datakey);
+			throw e;
+		}
+		job.nextRes = res + 1;
+		return true;
+	}
+
+	/** Release a job that will not be published. */
+	final void dropJob(Job job)
+	{
+		final Jp2Tile tile = job.tile;
+		if (job.type == Job.HEADER) {
+			synchronized (tile) {
+				if (tile.stamp == job.stamp) {
+					tile.headerRequested = false;
 				}
 			}
 		}
-		return six;
+		for (int res = job.nextRes; res <= job.lastRes; res++) {
+			tile.cancelRequest(job.stamp, res);
+		}
+		pipeline.done();
+	}
+
+	/** @return a decoder for the tiles of <code>head</code>, to be used by a single thread */
+	final Jp2Decoder newDecoder(Jp2Head head)
+	{
+		final Jp2Decoder decoder = new Jp2Decoder(head);
+		decoder.setWorkerPool(decoderPool, ptolemy.configuration.decoderThreads);
+		return decoder;
+	}
+
+	/** @return an array to decode tile data, to be used by a single thread */
+	final short[][] newTargetData()
+	{
+		return new short[NUMCOMPS][targetSize];
+	}
+
+	/** @return distance from the camera to the center of a tile, taking the altitude into account */
+	private double getDistanceTile(int p, int j)
+	{
+		final double ground = getDistanceTileCenter(ptolemy.camera.cameraX, ptolemy.camera.cameraY, p, j);
+		final double alt = ptolemy.camera.getLatAltLon().getAltitudeDD() / EARTH_RADIUS * Math3D.radToDeg * ptolemy.unit.DD;
+		return Math.sqrt(ground * ground + alt * alt);
 	}
 
 	private double getDistanceTileCenter(double x, double z, int p, int j)
@@ -771,45 +1276,6 @@ loop:		for (int p = 0; p < levels.length; p++)
 		return ((dist < dist2) ? dist : dist2);
 	}
 
-	private boolean tileInView(int lvl, int j)
-	{
-		final Level level = ptolemy.scene.landscape.levels[lvl];
-		final Camera camera = ptolemy.camera;
-		final LatLonAlt latLonAlt = camera.getLatAltLon();
-
-		int MAXANGLE = 50;
-		{
-			//above ?
-			if ((latLonAlt.getLongitudeDD() >= jp2Tiles[lvl][j].lon) && (latLonAlt.getLongitudeDD() <= jp2Tiles[lvl][j].lon + level.tileSize) && (latLonAlt.getLatitudeDD() <= jp2Tiles[lvl][j].lat) && (latLonAlt.getLatitudeDD() >= jp2Tiles[lvl][j].lat - level.tileSize))
-			{
-				return true;
-			}
-			int k;
-			double posy, posz, cy, cz;
-			posy = -Math.sin(camera.getPitchRadians());
-			posz = -Math.cos(camera.getPitchRadians());
-			cy = Math.sin(camera.getPitchRadians()) * latLonAlt.getAltitudeDD();
-			cz = Math.cos(camera.getPitchRadians()) * latLonAlt.getAltitudeDD();
-			double[] coord = new double[3];
-
-			Math3D.setSphericalCoord(
-					((latLonAlt.getLongitudeDD() < jp2Tiles[lvl][j].lon) ? jp2Tiles[lvl][j].lon : (latLonAlt.getLongitudeDD() > (jp2Tiles[lvl][j].lon + level.tileSize)) ? (jp2Tiles[lvl][j].lon + level.tileSize) : latLonAlt.getLongitudeDD()),
-					((latLonAlt.getLatitudeDD() > jp2Tiles[lvl][j].lat) ? jp2Tiles[lvl][j].lat : (latLonAlt.getLatitudeDD() < (jp2Tiles[lvl][j].lat - level.tileSize)) ? (jp2Tiles[lvl][j].lat - level.tileSize) : latLonAlt.getLatitudeDD()),
-					coord);
-
-			utilMatrix.transform(coord);
-			for (k = 0; k < 3; k++)
-			{
-				coord[k] = (coord[k] * EARTH_RADIUS);
-			}
-			if ((coord[2] > 0) && (Math3D.angle3dvec(0, posy, posz, coord[0], coord[1] - cy, coord[2] - (EARTH_RADIUS + cz), true) <= MAXANGLE))
-			{
-				return true;
-			}
-			return false;
-		}
-	}
-
 	private boolean checkInScene(int p, double mx, double mz)
 	{
 		final Level level = ptolemy.scene.landscape.levels[p];
@@ -868,7 +1334,6 @@ loop:		for (int p = 0; p < levels.length; p++)
 					for (; q < jp2Tiles[p].length; q++)
 					{
 						final Jp2Tile jp2Tile = jp2Tiles[p][q];
-						final Jp2Block jp2Header = jp2Blocks[p][q];
 						if (!jp2Tile.inScene)
 						{
 							for (int h = 0; h < Jp2Tile.NUM_RESOLUTION; h++) {
@@ -879,7 +1344,9 @@ loop:		for (int p = 0; p < levels.length; p++)
 
 							// setting tile will reset all of its parameters.
 							jp2Tile.set(p, level.tileSize, level.tiles[k].fmx, level.tiles[k].fmz);
-							jp2Header.fileBase = jp2Tile.fileBase;
+							// new header: the previous one may still be used by pending jobs
+							jp2Blocks[p][q] = new Jp2Block();
+							jp2Blocks[p][q].fileBase = jp2Tile.fileBase;
 							jp2Tile.inScene = true;
 							break;
 						}
@@ -890,6 +1357,13 @@ loop:		for (int p = 0; p < levels.length; p++)
 	}
 
 	protected final Jp2Tile getHeader(double x, double z, int lvl)
+	{
+		final int m = getHeaderIndex(x, z, lvl);
+		return (m < 0) ? null : jp2Tiles[lvl][m];
+	}
+
+	/** @return index of the tile of the level holding the point, -1 if none */
+	protected final int getHeaderIndex(double x, double z, int lvl)
 	{
 		final Level level = ptolemy.scene.landscape.levels[lvl];
 
@@ -899,10 +1373,16 @@ loop:		for (int p = 0; p < levels.length; p++)
 				(jp2Tiles[lvl][m].lon <= x) && ((jp2Tiles[lvl][m].lon + level.tileSize) > x) &&
 				(jp2Tiles[lvl][m].lat >= z) && ((jp2Tiles[lvl][m].lat - level.tileSize) < z))
 			{
-				return jp2Tiles[lvl][m];
+				return m;
 			}
 		}
-		return null;
+		return -1;
+	}
+
+	/** @return tile of a level, by its index */
+	protected final Jp2Tile getHeader(int lvl, int m)
+	{
+		return jp2Tiles[lvl][m];
 	}
 
 	/**
@@ -979,6 +1459,27 @@ loop:		for (int p = 0; p < levels.length; p++)
 		texTrash[res].add(tid);
 	}
 
+	/** @return maximum number of tile image data of a resolution held at the same time */
+	public final int getImageDataCapacity(int res)
+	{
+		return quadBufferPool.getCapacity(res);
+	}
+	/** @return number of tile image data of a resolution held */
+	public final int getImageDataUsed(int res)
+	{
+		return quadBufferPool.getUsed(res);
+	}
+	/** @return number of tile image data of a resolution dropped because the pool was full */
+	public final int getImageDataFailures(int res)
+	{
+		return quadBufferPool.getAllocFailures(res);
+	}
+	/** @return memory of the tile image data pool, in bytes */
+	public final long getImageDataMemory()
+	{
+		return quadBufferPool.getMemory();
+	}
+
 	public synchronized void getTextureTrash(Vector<Integer>[] copy)
 	{
 		for (int i = 0; i < texTrash.length; i++) {
@@ -1017,45 +1518,86 @@ loop:		for (int p = 0; p < levels.length; p++)
 	 * @return the number of bytes read by the download services. */
 	public double getBytesRead(int server)
 	{
-		if (server == -1) {
-			double tot = 0;
+		double tot = 0;
+		final Communicator[][] sets = getCommunicatorSets();
+		for (int s = 0; s < sets.length; s++) {
+			final Communicator[] JC = sets[s];
 			for (int i = 0; i < JC.length; i++) {
-				if (JC[i] != null) {
+				if ((JC[i] != null) && ((server == -1) || (server == i))) {
 					tot += JC[i].getBytesRead();
 				}
 			}
-			return tot;
 		}
-		return JC[server].getBytesRead();
+		return tot;
 	}
 	/** Reset the number of bytes read by the download services. */
 	public void clearBytesRead(int server)
 	{
-		if (server == -1) {
+		final Communicator[][] sets = getCommunicatorSets();
+		for (int s = 0; s < sets.length; s++) {
+			final Communicator[] JC = sets[s];
 			for (int i = 0; i < JC.length; i++) {
-				if (JC[i] != null) {
+				if ((JC[i] != null) && ((server == -1) || (server == i))) {
 					JC[i].clearBytesRead();
 				}
 			}
 		}
-		else {
-			JC[server].clearBytesRead();
-		}
 	}
 
 	public void setServerHeaderKey(int server_id, String key)
 	{
-		if ((server_id > 0) && (server_id < JC.length) && (JC[server_id] != null))
-		{
-			JC[server_id].setHeaderKey(key);
+		final Communicator[][] sets = getCommunicatorSets();
+		for (int s = 0; s < sets.length; s++) {
+			final Communicator[] JC = sets[s];
+			if ((server_id > 0) && (server_id < JC.length) && (JC[server_id] != null))
+			{
+				JC[server_id].setHeaderKey(key);
+			}
 		}
 	}
 
 	public void updateUrlAppend(int server_id, String urlapp)
 	{
-		if ((server_id > 0) && (server_id < JC.length) && (JC[server_id] != null))
-		{
-			JC[server_id].setUrlAppend(urlapp);
+		final Communicator[][] sets = getCommunicatorSets();
+		for (int s = 0; s < sets.length; s++) {
+			final Communicator[] JC = sets[s];
+			if ((server_id > 0) && (server_id < JC.length) && (JC[server_id] != null))
+			{
+				JC[server_id].setUrlAppend(urlapp);
+			}
+		}
+	}
+
+	/** @return communicators of the loader thread and of the fetcher threads */
+	private final Communicator[][] getCommunicatorSets()
+	{
+		final Jp2TilePipeline pipeline = this.pipeline;
+		if (pipeline == null) {
+			return new Communicator[][] { JC };
+		}
+		final Communicator[][] fetchers = pipeline.getCommunicators();
+		final Communicator[][] sets = new Communicator[fetchers.length + 1][];
+		sets[0] = JC;
+		System.arraycopy(fetchers, 0, sets, 1, fetchers.length);
+		return sets;
+	}
+
+	private final DiskTileCache newDiskCache()
+	{
+		try {
+			File dir;
+			if (ptolemy.configuration.diskCacheDir != null) {
+				dir = new File(ptolemy.configuration.diskCacheDir);
+			}
+			else {
+				dir = new File(new File(System.getProperty("user.home"), ".ptolemy"), "tiles");
+			}
+			return new DiskTileCache(dir, ptolemy.configuration.diskCacheSize * 1024L * 1024L);
+		}
+		catch (SecurityException e) {
+			// Unsigned applet
+			IO.printStackConnection(e);
+			return null;
 		}
 	}
 
@@ -1069,6 +1611,10 @@ loop:		for (int p = 0; p < levels.length; p++)
 				//JC[curServer] = null;
 			}
 		}
+		HttpConnectionPool.closeAllIdle();
+		if (diskCache != null) {
+			diskCache.close();
+		}
 	}
 
 	/** Acquire jp2 tile for the specified level.
@@ -0,0 +1,336 @@
+/**
+ * Ptolemy3D - a Java-based 3D Viewer for GeoWeb applications.
+ * Copyright (C) 2008 Mark W. Korver
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ptolemy3d.tile;
+
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ptolemy3d.debug.IO;
+import org.ptolemy3d.io.Communicator;
+import org.ptolemy3d.tile.jp2.Jp2Block;
+import org.ptolemy3d.tile.jp2.Jp2Decoder;
+import org.ptolemy3d.tile.jp2.Jp2Head;
+
+/**
+ * Staged tile loading.<BR>
+ * The tile loader thread schedules jobs, fetcher threads download the data and decoder threads
+ * decode it. Decoded resolutions are handed to the texture manager and published from the
+ * rendering thread.<BR>
+ * Stages are connected with bounded queues: a full queue blocks the stage feeding it, the
+ * tile loader thread just stops scheduling until there is room again.
+ */
+class Jp2TilePipeline
+{
+	/** A tile request going through the pipeline */
+	static class Job
+	{
+		/** Tile header and terrain request */
+		final static int HEADER = 0;
+		/** Tile resolution request */
+		final static int RESOLUTION = 1;
+
+		final int type;
+		final Jp2Tile tile;
+		/** Tile stamp when the job has been created */
+		final int stamp;
+		final int level, tileId;
+		/**
+		 * Resolutions requested, from <code>res</code> to <code>lastRes</code>.
+		 * Header jobs have <code>lastRes</code> at -1 if no resolution is fetched with the header.
+		 */
+		final int res, lastRes;
+		final String fileBase;
+		/** Background png image instead of jp2 data (resolution jobs) */
+		final boolean isPng;
+
+		/* Set by the loader for resolution jobs, by the fetch stage for header jobs */
+		/** Tile header */
+		Jp2Block block;
+		/** Data server and location */
+		int server, loc;
+
+		/* Filled by the fetch stage */
+		/** Data of the resolutions, index 0 for <code>res</code> */
+		byte[][] data = null;
+		/** First resolution not handed to the texture manager */
+		int nextRes;
+		/** Set when the job is not wanted anymore */
+		volatile boolean cancelled = false;
+
+		Job(int type, Jp2Tile tile, int level, int tileId, int res, int lastRes, Jp2Block block, boolean isPng)
+		{
+			this.type = type;
+			this.tile = tile;
+			this.stamp = tile.stamp;
+			this.level = level;
+			this.tileId = tileId;
+			this.res = res;
+			this.lastRes = lastRes;
+			this.nextRes = res;
+			this.block = block;
+			this.server = tile.tileDataServer;
+			this.loc = tile.tileDataLoc;
+			this.fileBase = tile.fileBase;
+			this.isPng = isPng;
+		}
+	}
+
+	/** Decoder thread state */
+	static class DecoderContext
+	{
+		final short[][] targetData;
+		private final HashMap<Jp2Head, Jp2Decoder> decoders = new HashMap<Jp2Head, Jp2Decoder>();
+
+		DecoderContext(short[][] targetData)
+		{
+			this.targetData = targetData;
+		}
+
+		Jp2Decoder getDecoder(Jp2Head head, Jp2TileLoader loader)
+		{
+			Jp2Decoder decoder = decoders.get(head);
+			if (decoder == null) {
+				decoder = loader.newDecoder(head);
+				decoders.put(head, decoder);
+			}
+			return decoder;
+		}
+	}
+
+	private final Jp2TileLoader loader;
+	private final BlockingQueue<Job> fetchQueue;
+	private final BlockingQueue<Job> decodeQueue;
+	private final Thread[] fetchers;
+	private final Thread[] decoders;
+	private final Communicator[][] communicators;
+	/** Jobs scheduled but not yet published nor dropped */
+	private final AtomicInteger inFlight = new AtomicInteger(0);
+	private final Object progress = new Object();
+	private volatile boolean on = false;
+
+	Jp2TilePipeline(Jp2TileLoader loader, int numFetchers, int numDecoders)
+	{
+		this.loader = loader;
+
+		if (numFetchers < 1) {
+			numFetchers = 1;
+		}
+		if (numDecoders < 1) {
+			numDecoders = 1;
+		}
+		fetchQueue = new ArrayBlockingQueue<Job>(2 * numFetchers);
+		decodeQueue = new ArrayBlockingQueue<Job>(2 * numDecoders);
+
+		communicators = new Communicator[numFetchers][];
+		fetchers = new Thread[numFetchers];
+		for (int i = 0; i < numFetchers; i++) {
+			final Communicator[] JC = loader.newCommunicators(true);
+			communicators[i] = JC;
+			fetchers[i] = new Thread("TileFetcherThread-" + i) {
+				public void run()
+				{
+					fetchLoop(JC);
+				}
+			};
+		}
+
+		decoders = new Thread[numDecoders];
+		for (int i = 0; i < numDecoders; i++) {
+			final DecoderContext ctx = new DecoderContext(loader.newTargetData());
+			decoders[i] = new Thread("TileDecoderThread-" + i) {
+				public void run()
+				{
+					decodeLoop(ctx);
+				}
+			};
+		}
+	}
+
+	final void start()
+	{
+		on = true;
+		for (int i = 0; i < fetchers.length; i++) {
+			fetchers[i].setDaemon(true);
+			fetchers[i].setPriority(Thread.MIN_PRIORITY);
+			fetchers[i].start();
+		}
+		for (int i = 0; i < decoders.length; i++) {
+			decoders[i].setDaemon(true);
+			decoders[i].setPriority(Thread.MIN_PRIORITY);
+			decoders[i].start();
+		}
+	}
+
+	/** Stop all the stages and wait (a bit) for the threads to end. */
+	final void stop()
+	{
+		on = false;
+		for (int i = 0; i < fetchers.length; i++) {
+			fetchers[i].interrupt();
+		}
+		for (int i = 0; i < decoders.length; i++) {
+			decoders[i].interrupt();
+		}
+		for (int i = 0; i < communicators.length; i++) {
+			for (int j = 0; j < communicators[i].length; j++) {
+				if (communicators[i][j] != null) {
+					communicators[i][j].endSocket();
+				}
+			}
+		}
+		try {
+			for (int i = 0; i < fetchers.length; i++) {
+				fetchers[i].join(1000);
+			}
+			for (int i = 0; i < decoders.length; i++) {
+				decoders[i].join(1000);
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		fetchQueue.clear();
+		decodeQueue.clear();
+	}
+
+	/**
+	 * Schedule a job, without blocking.
+	 * @return false if the fetch queue is full
+	 */
+	final boolean schedule(Job job)
+	{
+		inFlight.incrementAndGet();
+		if (!fetchQueue.offer(job)) {
+			inFlight.decrementAndGet();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Cancel a scheduled job. A job still waiting in a queue is dropped now, otherwise it is
+	 * dropped by its stage as soon as it checks it.
+	 */
+	final void cancel(Job job)
+	{
+		job.cancelled = true;
+		if (fetchQueue.remove(job) || decodeQueue.remove(job)) {
+			loader.dropJob(job);
+		}
+	}
+
+	/** @return true while scheduled jobs have not been published or dropped */
+	final boolean isBusy()
+	{
+		return inFlight.get() > 0;
+	}
+
+	/** A scheduled job has been published or dropped. */
+	final void done()
+	{
+		inFlight.decrementAndGet();
+		synchronized (progress) {
+			progress.notifyAll();
+		}
+	}
+
+	/** Wait until a job ends, or <code>timeout</code> ms elapsed. */
+	final void awaitProgress(long timeout) throws InterruptedException
+	{
+		synchronized (progress) {
+			if (isBusy()) {
+				progress.wait(timeout);
+			}
+		}
+	}
+
+	/** @return communicators of the fetcher threads */
+	final Communicator[][] getCommunicators()
+	{
+		return communicators;
+	}
+
+	private void fetchLoop(Communicator[] JC)
+	{
+		while (on) {
+			final Job job;
+			try {
+				job = fetchQueue.take();
+			}
+			catch (InterruptedException e) {
+				break;
+			}
+
+			boolean decode = false;
+			if (!job.cancelled) {
+				try {
+					decode = loader.fetch(job, JC);
+				}
+				catch (Exception e) {
+					IO.printStackConnection(e);
+				}
+			}
+
+			if (decode && !job.cancelled) {
+				try {
+					decodeQueue.put(job);
+				}
+				catch (InterruptedException e) {
+					loader.dropJob(job);
+					break;
+				}
+			}
+			else {
+				loader.dropJob(job);
+			}
+		}
+	}
+
+	private void decodeLoop(DecoderContext ctx)
+	{
+		while (on) {
+			final Job job;
+			try {
+				job = decodeQueue.take();
+			}
+			catch (InterruptedException e) {
+				break;
+			}
+
+			boolean handed = false;
+			if (!job.cancelled) {
+				try {
+					handed = loader.decode(job, ctx);
+				}
+				catch (InterruptedException e) {
+					loader.dropJob(job);
+					break;
+				}
+				catch (Exception e) {
+					IO.printStack(e);
+				}
+			}
+			job.data = null;
+			if (!handed) {
+				loader.dropJob(job);
+			}
+		}
+	}
+}
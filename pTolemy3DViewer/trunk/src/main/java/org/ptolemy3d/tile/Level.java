@@ -183,8 +183,6 @@ public class Level
 			return;
 		}
 
-		final Landscape landscape = Ptolemy3D.ptolemy.scene.landscape;
-
 		//Render layer tiles
 		for (int i = 0; i < LEVEL_NUMTILE_LAT; i++)
 		{
@@ -195,24 +193,20 @@ public class Level
 
 				//Bind texture
 				boolean hasTexture = false;
-				if (tile != null) {
+				if ((tile != null) && tile.status) {
 					if (tile.isImageDataReady(0)) {
+						final double distance = tile.getTextureDistance();
 						int textureId = tile.getCurTextureId();
 						if (textureId == -1) {
-							byte[] datas = tile.getCurImageData();
-							if (datas != null) {
-								final int curRes = tile.getCurRes();
-								final int width = tile.getWidth();
-								final int height = tile.getHeight();
-
-								textureId = landscape.load(datas, width, height, curRes);
-								tile.setCurTextureId(textureId);
-							}
+							// Uploaded by the texture manager within its budgets, use a lower resolution meanwhile
+							tile.queueTextureUpload(distance);
+							textureId = tile.getLowerTextureId();
 						}
-						else {
-							gl.glBindTexture(GL.GL_TEXTURE_2D, textureId);
+						tile.touchTextures(distance);
+						if (textureId != -1) {
+							Ptolemy3D.ptolemy.textureManager.bindTileTexture(gl, textureId);
+							hasTexture = true;
 						}
-						hasTexture = true;
 					}
 				}
 
@@ -231,6 +225,12 @@ public class Level
 		}
 	}
 
+	/** Release the GL resources of the tiles, shared by all levels */
+	public static void destroyGL(GL gl)
+	{
+		Tile.destroyGL(gl);
+	}
+
 	/** Level Picking */
 	public boolean pick(double[] intersectPoint, double[][] ray)
 	{
@@ -243,30 +243,102 @@ public class Level
 		return false;
 	}
 
-	/** @return true if found */
+	/**
+	 * Ground height of a point.
+	 * @return the point on the ground, null if the level has no elevation there
+	 */
 	public double[] groundHeight(final double lon, final double lat, final double[][] ray)
 	{
 		if (!visible) {
 			return null;
 		}
 
-		final Ptolemy3DUnit unit = Ptolemy3D.ptolemy.unit;
-		final Jp2TileLoader tileLoader = Ptolemy3D.ptolemy.tileLoader;
-
-		Jp2Tile head = tileLoader.getHeader(lon, lat, levelID);
+		Jp2Tile head = Ptolemy3D.ptolemy.tileLoader.getHeader(lon, lat, levelID);
 		if (head == null) {
 			return null;
 		}
 
-		final double[] pickArr = {-999, -999, -999};
+		final double[] pickArr = new double[3];
+		return groundHeight(head, lon, lat, ray, pickArr) ? pickArr : null;
+	}
+
+	/**
+	 * Ground height of many points, for the points not found yet by a finer level.<BR>
+	 * Points are sorted by tile (counting sort on the tile index), so the tile of each point is
+	 * searched once and the points of a tile are processed together.
+	 * @param out ground heights, set for the points found
+	 * @param found points already found, updated
+	 * @param maxAlt altitude of the vertical rays
+	 */
+	public void groundHeights(double[] lons, double[] lats, double[] out, boolean[] found, double maxAlt)
+	{
+		if (!visible) {
+			return;
+		}
+
+		final Jp2TileLoader tileLoader = Ptolemy3D.ptolemy.tileLoader;
+		final int numPoints = lons.length;
+
+		// Tile of the points, the last bucket holds the points without tile
+		final int[] tileOf = new int[numPoints];
+		final int[] bucketStart = new int[LEVEL_NUMTILES + 2];
+		for (int i = 0; i < numPoints; i++) {
+			if (found[i]) {
+				tileOf[i] = -1;
+				continue;
+			}
+			final int m = tileLoader.getHeaderIndex(lons[i], lats[i], levelID);
+			tileOf[i] = (m < 0) ? LEVEL_NUMTILES : m;
+			bucketStart[tileOf[i] + 1]++;
+		}
+		for (int m = 0; m <= LEVEL_NUMTILES; m++) {
+			bucketStart[m + 1] += bucketStart[m];
+		}
+		final int[] sorted = new int[bucketStart[LEVEL_NUMTILES]];
+		final int[] next = new int[LEVEL_NUMTILES];
+		System.arraycopy(bucketStart, 0, next, 0, LEVEL_NUMTILES);
+		for (int i = 0; i < numPoints; i++) {
+			if ((tileOf[i] >= 0) && (tileOf[i] < LEVEL_NUMTILES)) {
+				sorted[next[tileOf[i]]++] = i;
+			}
+		}
+
+		final double[][] ray = {{0, maxAlt, 0}, {0, maxAlt - 1, 0}};
+		final double[] pickArr = new double[3];
+		for (int m = 0; m < LEVEL_NUMTILES; m++) {
+			if (bucketStart[m] == bucketStart[m + 1]) {
+				continue;
+			}
+			final Jp2Tile head = tileLoader.getHeader(levelID, m);
+			if ((head == null) || ((head.dem == null) && (head.tin == null))) {
+				continue;
+			}
+			for (int k = bucketStart[m]; k < bucketStart[m + 1]; k++) {
+				final int i = sorted[k];
+				ray[0][0] = ray[1][0] = lons[i];
+				ray[0][2] = ray[1][2] = lats[i];
+				if (groundHeight(head, lons[i], lats[i], ray, pickArr)) {
+					out[i] = pickArr[1];
+					found[i] = true;
+				}
+			}
+		}
+	}
+
+	/** @return true if found, the point on the ground is in <code>pickArr</code> */
+	private boolean groundHeight(final Jp2Tile head, final double lon, final double lat, final double[][] ray, final double[] pickArr)
+	{
+		final Ptolemy3DUnit unit = Ptolemy3D.ptolemy.unit;
+
+		pickArr[0] = pickArr[1] = pickArr[2] = -999;
 		if (head.dem != null)
 		{
 			/*
 			 * DEM Elevation
 			 */
-			final byte[] dem = head.dem.demDatas;
+			final short[] dem = head.dem.heights;
 			final int numRows = head.dem.numRows;
-			final int rowWidth = numRows * 2; // assuming we have a square tile
+			final int rowWidth = numRows; // assuming we have a square tile
 
 			float dw = (float) (numRows - 1) / tileSize;
 			int xpos = (int) ((lon - head.lon) * (dw));
@@ -290,44 +362,36 @@ public class Level
 				gmaxy = lat + 1;
 			}
 
-			Math3D.setTriVert(0, gminx, (dem[(ypos * rowWidth) + (xpos * 2)] << 8) + (dem[((ypos * rowWidth) + (xpos * 2)) + 1] & 0xFF), gminy);
-			Math3D.setTriVert(1, gmaxx, (dem[(ypos * rowWidth) + ((xpos + 1) * 2)] << 8) + (dem[((ypos * rowWidth) + ((xpos + 1) * 2)) + 1] & 0xFF), gminy);
-			Math3D.setTriVert(2, gminx, (dem[((ypos + 1) * rowWidth) + (xpos * 2)] << 8) + (dem[(((ypos + 1) * rowWidth) + (xpos * 2)) + 1] & 0xFF), gmaxy);
+			Math3D.setTriVert(0, gminx, dem[(ypos * rowWidth) + xpos], gminy);
+			Math3D.setTriVert(1, gmaxx, dem[(ypos * rowWidth) + (xpos + 1)], gminy);
+			Math3D.setTriVert(2, gminx, dem[((ypos + 1) * rowWidth) + xpos], gmaxy);
 			if (Math3D.rayIntersectTri(pickArr, ray) != 1) {
 				// to avoid overlap for ray through tri...
-				Math3D.setTriVert(0, gmaxx, (dem[(ypos * rowWidth) + ((xpos + 1) * 2)] << 8) + (dem[((ypos * rowWidth) + ((xpos + 1) * 2)) + 1] & 0xFF), gminy);
-				Math3D.setTriVert(1, gminx, (dem[((ypos + 1) * rowWidth) + (xpos * 2)] << 8) + (dem[(((ypos + 1) * rowWidth) + (xpos * 2)) + 1] & 0xFF), gmaxy);
-				Math3D.setTriVert(2, gmaxx, (dem[((ypos + 1) * rowWidth) + ((xpos + 1) * 2)] << 8) + (dem[(((ypos + 1) * rowWidth) + ((xpos + 1) * 2)) + 1] & 0xFF), gmaxy);
+				Math3D.setTriVert(0, gmaxx, dem[(ypos * rowWidth) + (xpos + 1)], gminy);
+				Math3D.setTriVert(1, gminx, dem[((ypos + 1) * rowWidth) + xpos], gmaxy);
+				Math3D.setTriVert(2, gmaxx, dem[((ypos + 1) * rowWidth) + (xpos + 1)], gmaxy);
 				if (Math3D.rayIntersectTri(pickArr, ray) != 1) {
 					pickArr[1] = 0;
 				}
 			}
 
 			pickArr[1] *= unit.coordSystemRatio;
-			return pickArr;	//FIXME Must be just over ?
+			return true;	//FIXME Must be just over ?
 		}
 		else if (head.tin != null)
 		{
 			/*
 			 * TIN Elevation
 			 */
-			for (int k = 0; (k < head.tin.nSt.length); k++)
-			{
-				if (head.tin.nSt[k] == null) {
-					continue;
-				}
-				for (int j = 2; (j < head.tin.nSt[k].length); j++) {
-					Math3D.setTriVert(0, head.lon + (head.tin.p[head.tin.nSt[k][j - 2]][0]), head.tin.p[head.tin.nSt[k][j - 2]][1], head.lat - (head.tin.p[head.tin.nSt[k][j - 2]][2]));
-					Math3D.setTriVert(1, head.lon + (head.tin.p[head.tin.nSt[k][j - 1]][0]), head.tin.p[head.tin.nSt[k][j - 1]][1], head.lat - (head.tin.p[head.tin.nSt[k][j - 1]][2]));
-					Math3D.setTriVert(2, head.lon + (head.tin.p[head.tin.nSt[k][j]][0]), head.tin.p[head.tin.nSt[k][j]][1], head.lat - (head.tin.p[head.tin.nSt[k][j]][2]));
-					if (Math3D.rayIntersectTri(pickArr, ray) == 1) {
-						pickArr[1] *= unit.coordSystemRatio;
-						return pickArr;
-					}
-				}
+			final float height = head.tin.index.getHeight((float) (lon - head.lon), (float) (head.lat - lat));
+			if (!Float.isNaN(height)) {
+				pickArr[0] = lon;
+				pickArr[1] = height * unit.coordSystemRatio;
+				pickArr[2] = lat;
+				return true;
 			}
 		}
-		return null;
+		return false;
 	}
 
 	//Getters
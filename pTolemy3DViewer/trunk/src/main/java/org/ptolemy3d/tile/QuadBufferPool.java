@@ -17,73 +17,195 @@
  */
 package org.ptolemy3d.tile;
 
-import org.ptolemy3d.tile.Jp2Tile.Jp2TileRes;
+import java.nio.ByteBuffer;
 
+import org.ptolemy3d.util.DxtCompressor;
+
+/**
+ * Image data of the tile resolutions, in off-heap slabs.<BR>
+ * Each resolution has one direct buffer cut in fixed size slots, and a free list of its slots:
+ * allocation and release are O(1). Slots are handed out as direct buffers, given to GL without copy.
+ */
 class QuadBufferPool
 {
+	/** Default capacity of a resolution, in multiples of its <code>quadtiles</code> */
 	private static final int DATA_STORAGE_MULT = 3;
 
-	protected int full; // a basic full state, goes for any resolution
-	private byte[][][] pool;
-	private boolean filled[][];
+	/** Slots of each resolution, views of the resolution slab */
+	private ByteBuffer[][] slots;
+	/** Free slots of each resolution, as a stack */
+	private int[][] freeSlots;
+	private int[] numFree;
+	private boolean[][] filled;
+	/** true if an allocation failed since the last release, by resolution */
+	private boolean[] exhausted;
+	private int[] allocFailures;
+	private int[] width;
+	private long memory;
+	/** DXT1 copies of the slots, the slab of a resolution is allocated when first needed */
+	private ByteBuffer[][] compressedSlots;
+	/** true if the DXT1 copy is up to date */
+	private boolean[][] compressed;
 
-	public final void init(int[] quadtiles, int[] twidth)
+	/**
+	 * @param memory memory of the image data, in MB, shared equally by the resolutions
+	 * (0: <code>DATA_STORAGE_MULT * quadtiles</code> slots per resolution)
+	 */
+	public synchronized final void init(int[] quadtiles, int[] twidth, int memory)
 	{
-		full = -1;
-		// init pool to hold all of our data.
-		pool = new byte[Jp2Tile.NUM_RESOLUTION][][];
-		filled = new boolean[Jp2Tile.NUM_RESOLUTION][];
+		final int numRes = Jp2Tile.NUM_RESOLUTION;
+		slots = new ByteBuffer[numRes][];
+		freeSlots = new int[numRes][];
+		numFree = new int[numRes];
+		filled = new boolean[numRes][];
+		exhausted = new boolean[numRes];
+		allocFailures = new int[numRes];
+		width = new int[numRes];
+		compressedSlots = new ByteBuffer[numRes][];
+		compressed = new boolean[numRes][];
+		this.memory = 0;
+
+		for (int res = 0; res < numRes; res++) {
+			final int slotSize = twidth[res] * twidth[res] * 3;
+			int numSlots = quadtiles[res] * DATA_STORAGE_MULT;
+			if (memory > 0) {
+				numSlots = (int) Math.max(1, ((long) memory * 1024 * 1024 / numRes) / slotSize);
+			}
 
-		for (int i = 0; i < Jp2Tile.NUM_RESOLUTION; i++)
-		{
-			pool[i] = new byte[quadtiles[i] * DATA_STORAGE_MULT][twidth[i] * twidth[i] * 3];
-			filled[i] = new boolean[quadtiles[i] * DATA_STORAGE_MULT];
+			final ByteBuffer slab = ByteBuffer.allocateDirect(numSlots * slotSize);
+			slots[res] = slice(slab, numSlots, slotSize);
+			freeSlots[res] = new int[numSlots];
+			for (int i = 0; i < numSlots; i++) {
+				// Lowest keys on top of the stack
+				freeSlots[res][i] = numSlots - 1 - i;
+			}
+			numFree[res] = numSlots;
+			filled[res] = new boolean[numSlots];
+			compressed[res] = new boolean[numSlots];
+			width[res] = twidth[res];
+			this.memory += (long) numSlots * slotSize;
+		}
+	}
+	private final static ByteBuffer[] slice(ByteBuffer slab, int numSlots, int slotSize)
+	{
+		final ByteBuffer[] slices = new ByteBuffer[numSlots];
+		for (int i = 0; i < numSlots; i++) {
+			slab.limit((i + 1) * slotSize);
+			slab.position(i * slotSize);
+			slices[i] = slab.slice();
 		}
+		slab.clear();
+		return slices;
 	}
 
-	public byte[] setArray(int res, Jp2TileRes[] levels)
+	/** @return the key of a free slot, -1 if the resolution is full */
+	public synchronized int alloc(int res)
 	{
-		// look for an open array
-		for (int i = 0; i < filled[res].length; i++) {
-			if (!filled[res][i]) {
-				levels[res].datakey = i;
-				filled[res][i] = true;
-				return pool[res][i];
+		if ((numFree == null) || (numFree[res] == 0)) {
+			if (allocFailures != null) {
+				exhausted[res] = true;
+				allocFailures[res]++;
 			}
+			return -1;
 		}
-		full = res;
-		return null;
+		final int key = freeSlots[res][--numFree[res]];
+		filled[res][key] = true;
+		compressed[res][key] = false;
+		return key;
 	}
 
-	public byte[] getArray(int res, int key)
+	/** @return the slot content, to be read or written with absolute or relative operations of its own */
+	public synchronized ByteBuffer getBuffer(int res, int key)
 	{
-		return pool[res][key];
+		return slots[res][key].duplicate();
 	}
 
-	public final void free(int res, int key)
+	/**
+	 * Compress the slot in DXT1, must be called by the owner of the key before it hands it over.
+	 * The compression runs outside of the pool lock.
+	 */
+	public final void compress(int res, int key)
 	{
-		if (res == full) {
-			full = -1;
+		final ByteBuffer data, dxt;
+		final int w;
+		synchronized (this) {
+			if (slots == null) {
+				return;
+			}
+			w = width[res];
+			if (compressedSlots[res] == null) {
+				final int slotSize = DxtCompressor.getCompressedSize(w, w);
+				compressedSlots[res] = slice(ByteBuffer.allocateDirect(slots[res].length * slotSize), slots[res].length, slotSize);
+			}
+			data = slots[res][key].duplicate();
+			dxt = compressedSlots[res][key].duplicate();
+		}
+		DxtCompressor.compress(data, w, w, dxt);
+		synchronized (this) {
+			if (slots != null) {
+				compressed[res][key] = true;
+			}
 		}
-		filled[res][key] = false;
 	}
 
-	public void release()
+	/** @return the DXT1 copy of the slot, null if it has not been compressed */
+	public synchronized ByteBuffer getCompressedBuffer(int res, int key)
 	{
-		if(pool != null) {
-			for(int i = 0; i < pool.length; i++) {
-				for(int j = 0; j < pool[i].length; j++) {
-					pool[i][j] = null;
-				}
-				pool[i] = null;
-			}
+		if ((compressed == null) || !compressed[res][key]) {
+			return null;
 		}
-		pool = null;
-		if(filled != null) {
-			for(int i = 0; i < filled.length; i++) {
-				filled[i] = null;
-			}
+		return compressedSlots[res][key].duplicate();
+	}
+
+	public synchronized final void free(int res, int key)
+	{
+		if ((filled == null) || !filled[res][key]) {
+			return;
 		}
+		filled[res][key] = false;
+		compressed[res][key] = false;
+		freeSlots[res][numFree[res]++] = key;
+		exhausted[res] = false;
+	}
+
+	/** @return true if an allocation of the resolution failed since the last release */
+	public synchronized boolean isExhausted(int res)
+	{
+		return (exhausted != null) && exhausted[res];
+	}
+
+	/** @return number of slots of a resolution */
+	public synchronized int getCapacity(int res)
+	{
+		return (slots == null) ? 0 : slots[res].length;
+	}
+	/** @return number of allocated slots of a resolution */
+	public synchronized int getUsed(int res)
+	{
+		return (slots == null) ? 0 : slots[res].length - numFree[res];
+	}
+	/** @return number of failed allocations of a resolution */
+	public synchronized int getAllocFailures(int res)
+	{
+		return (allocFailures == null) ? 0 : allocFailures[res];
+	}
+	/** @return size of the slabs, DXT1 copies excluded, in bytes */
+	public synchronized long getMemory()
+	{
+		return memory;
+	}
+
+	public synchronized void release()
+	{
+		// Direct buffers are freed once not referenced anymore
+		slots = null;
+		freeSlots = null;
+		numFree = null;
 		filled = null;
+		exhausted = null;
+		allocFailures = null;
+		compressedSlots = null;
+		compressed = null;
+		memory = 0;
 	}
-}
\ No newline at end of file
+}
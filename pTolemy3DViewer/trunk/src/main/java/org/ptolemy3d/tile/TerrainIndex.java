@@ -0,0 +1,129 @@
+/**
+ * Ptolemy3D - a Java-based 3D Viewer for GeoWeb applications.
+ * Copyright (C) 2008 Mark W. Korver
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ptolemy3d.tile;
+
+import static org.ptolemy3d.Ptolemy3DConfiguration.EARTH_RADIUS;
+
+/**
+ * Acceleration structure for the picking of the elevation of a tile, built once when the
+ * elevation is loaded.<BR>
+ * Its nodes hold an area of the tile and the height range inside it. A ray only descends in the
+ * nodes whose bounding sphere it crosses, the closest first, and skips the nodes further than the
+ * best hit: only the triangles around the hit point are tested.<BR>
+ * Tile units: x and z from the upper left corner of the tile, y is the elevation.
+ */
+abstract class TerrainIndex
+{
+	/** Placement of a tile on the globe */
+	static class Frame
+	{
+		/** Angles of the upper left corner, in radians */
+		final double theta1, phi1;
+		/** Radians per tile unit */
+		final double dTheta, dPhi;
+		/** World units per elevation unit */
+		final double scaler;
+
+		Frame(double theta1, double phi1, double dTheta, double dPhi, double scaler)
+		{
+			this.theta1 = theta1;
+			this.phi1 = phi1;
+			this.dTheta = dTheta;
+			this.dPhi = dPhi;
+			this.scaler = scaler;
+		}
+
+		/** World position of a point in tile units */
+		final void toWorld(double x, double y, double z, double[] dest)
+		{
+			final double theta = theta1 + x * dTheta;
+			final double phi = phi1 + z * dPhi;
+			final double r = EARTH_RADIUS + y * scaler;
+			final double cosZ = Math.cos(phi);
+
+			dest[0] =  r * cosZ * Math.sin(theta);
+			dest[1] = -r * Math.sin(phi);
+			dest[2] =  r * cosZ * Math.cos(theta);
+		}
+	}
+
+	/**
+	 * Pick the elevation with a ray. <code>dest</code> keeps the closest hit, as with
+	 * <code>Math3D.rayIntersectTri</code>: (-999, -999, -999) if none yet.
+	 * @param ray origin and second point of the ray, in world coordinates
+	 * @return true if a hit closer than <code>dest</code> has been found
+	 */
+	abstract boolean pick(Frame frame, double[][] ray, double[] dest);
+
+	/** @return distance of the ray origin to the hit in <code>dest</code>, infinite if none */
+	protected static final double getHitDistance(double[][] ray, double[] dest)
+	{
+		if ((dest[0] == -999) && (dest[1] == -999) && (dest[2] == -999)) {
+			return Double.POSITIVE_INFINITY;
+		}
+		final double dx = dest[0] - ray[0][0], dy = dest[1] - ray[0][1], dz = dest[2] - ray[0][2];
+		return Math.sqrt(dx * dx + dy * dy + dz * dz);
+	}
+
+	/**
+	 * Intersection of the ray with the bounding sphere of an area of the tile.
+	 * @return distance of the ray origin to the sphere (0 if inside), -1 if the ray misses it
+	 */
+	protected static final double intersectArea(Frame frame, double[][] ray,
+			double x0, double z0, double x1, double z1, double y0, double y1)
+	{
+		final double cosT0 = Math.cos(frame.theta1 + x0 * frame.dTheta), sinT0 = Math.sin(frame.theta1 + x0 * frame.dTheta);
+		final double cosT1 = Math.cos(frame.theta1 + x1 * frame.dTheta), sinT1 = Math.sin(frame.theta1 + x1 * frame.dTheta);
+		final double cosP0 = Math.cos(frame.phi1   + z0 * frame.dPhi  ), sinP0 = Math.sin(frame.phi1   + z0 * frame.dPhi  );
+		final double cosP1 = Math.cos(frame.phi1   + z1 * frame.dPhi  ), sinP1 = Math.sin(frame.phi1   + z1 * frame.dPhi  );
+		final double r0 = EARTH_RADIUS + y0 * frame.scaler;
+		final double r1 = EARTH_RADIUS + y1 * frame.scaler;
+
+		// Center on the middle direction, at the middle height
+		final double[] c = new double[3];
+		frame.toWorld((x0 + x1) / 2, (y0 + y1) / 2, (z0 + z1) / 2, c);
+
+		// The furthest points of an area smaller than a hemisphere are its corners
+		double radius2 = 0;
+		for (int k = 0; k < 8; k++) {
+			final double cosT = ((k & 1) == 0) ? cosT0 : cosT1, sinT = ((k & 1) == 0) ? sinT0 : sinT1;
+			final double cosP = ((k & 2) == 0) ? cosP0 : cosP1, sinP = ((k & 2) == 0) ? sinP0 : sinP1;
+			final double r = ((k & 4) == 0) ? r0 : r1;
+			final double dx =  r * cosP * sinT - c[0];
+			final double dy = -r * sinP        - c[1];
+			final double dz =  r * cosP * cosT - c[2];
+			radius2 = Math.max(radius2, dx * dx + dy * dy + dz * dz);
+		}
+		final double radius = Math.sqrt(radius2) * 1.001 + 1;
+
+		final double[] o = ray[0];
+		final double dx = ray[1][0] - o[0], dy = ray[1][1] - o[1], dz = ray[1][2] - o[2];
+		final double ox = o[0] - c[0], oy = o[1] - c[1], oz = o[2] - c[2];
+		final double a = dx * dx + dy * dy + dz * dz;
+		final double b = ox * dx + oy * dy + oz * dz;
+		final double d = ox * ox + oy * oy + oz * oz - radius * radius;
+		if (d <= 0) {
+			return 0;
+		}
+		final double disc = b * b - a * d;
+		if ((disc < 0) || (b >= 0) || (a == 0)) {
+			return -1;
+		}
+		return (-b - Math.sqrt(disc)) / Math.sqrt(a);
+	}
+}
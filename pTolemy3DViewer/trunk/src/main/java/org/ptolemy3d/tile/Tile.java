@@ -20,6 +20,8 @@ package org.ptolemy3d.tile;
 import static org.ptolemy3d.Ptolemy3DConfiguration.EARTH_RADIUS;
 import static org.ptolemy3d.debug.Config.DEBUG;
 
+import java.nio.ByteBuffer;
+
 import javax.media.opengl.GL;
 
 import org.ptolemy3d.Ptolemy3D;
@@ -27,7 +29,9 @@ import org.ptolemy3d.Ptolemy3DUnit;
 import org.ptolemy3d.debug.ProfilerInterface;
 import org.ptolemy3d.math.Math3D;
 import org.ptolemy3d.scene.Landscape;
+import org.ptolemy3d.scene.TextureManager;
 import org.ptolemy3d.tile.Jp2Tile.Jp2TileRes;
+import org.ptolemy3d.view.Frustum;
 
 /**
  * A tile.
@@ -36,6 +40,8 @@ class Tile
 {
 	protected static interface ITileRenderer {
 		public void drawSubsection(Tile tile, int x1, int z1, int x2, int z2) throws Exception;
+		/** Release the GL resources of the renderer */
+		public void destroyGL(GL gl);
 	}
 
 	/* Variable updated by setTile */
@@ -48,13 +54,16 @@ class Tile
 	/* TexTile renderer */
 //	private static final ITileRenderer renderer = new TileDefaultRenderer();				//Original version
 //	private static final ITileRenderer renderer = new TileDirectModeRenderer();			//CPU Optimizations
-	private static final ITileRenderer renderer = new TileDirectModeRenderer_MathLookUp();//Cos/Sin table lookup
+//	private static final ITileRenderer renderer = new TileDirectModeRenderer_MathLookUp();//Cos/Sin table lookup
 //	private static final ITileRenderer renderer = new TileVARenderer();					//
+	private static final ITileRenderer renderer = new TileVBORenderer();					//Meshes cached in VBO
 
 	/* Variable updated by Landscape */
 	/** Tile status (for visibility, ...) */
 	public boolean status;
 	protected Jp2Tile jp2;
+	/** Bounds of the area drawn, for the view culling */
+	private final TileBounds bounds = new TileBounds();
 
 	/* Temporary datas for display */
 	protected GL gl;
@@ -82,13 +91,29 @@ class Tile
 		this.jp2 = null;
 	}
 
+	/** Cull the tile if it is outside the view frustum or behind the horizon. */
 	protected void processVisibility()
 	{
-//		status = 
-//			Math3D.isPointInView(upLeftLon,     upLeftLat) &&
-//			Math3D.isPointInView(lowRightLon,   upLeftLat) &&
-//			Math3D.isPointInView(upLeftLon,   lowRightLat) &&
-//			Math3D.isPointInView(lowRightLon, lowRightLat);
+		final Frustum frustum = Ptolemy3D.ptolemy.view.frustum;
+		if (!status || (frustum == null)) {
+			return;
+		}
+
+		// Area drawn: the one of the data of a lower level if it is used instead (see display)
+		if ((jp2 != null) && (jp2.level != levelID)) {
+			final Ptolemy3DUnit unit = Ptolemy3D.ptolemy.unit;
+			bounds.set(jp2.lon - unit.meterX, jp2.lat - unit.meterZ, Ptolemy3D.ptolemy.scene.landscape.levels[jp2.level].tileSize, jp2);
+		}
+		else {
+			bounds.set(upLeftLon, -upLeftLat, lowRightLon - upLeftLon, jp2);
+		}
+		status = bounds.isVisible(frustum);
+	}
+
+	/** Release the GL resources shared by the tiles */
+	protected static void destroyGL(GL gl)
+	{
+		renderer.destroyGL(gl);
 	}
 
 	protected void display(GL gl, boolean texture, Tile rightTile, Tile belowTile, Tile leftTile, Tile aboveTile) throws Exception
@@ -359,135 +384,17 @@ class Tile
 		}
 		else if (useTin)
 		{
-			{
-				double d = 1.0 / jp2.tin.w;
-				dTetaOverN /= d;
-				dPhiOverN  /= d;
-			}
-			double scaler = unit.coordSystemRatio * terrainScaler;
-
-			for (int i = 0; i < jp2.tin.nSt.length; i++)
-			{
-				for (int j = 0; j < jp2.tin.nSt[i].length; j++)
-				{
-					double dx, dz, dy;
-					{
-						final int v = jp2.tin.nSt[i][j];
-						final float[] p = jp2.tin.p[v];
-
-						dx = theta1 + p[0] * dTetaOverN;
-						dy =          p[1] * scaler;
-						dz = phi1   + p[2] * dPhiOverN;
-					}
-
-
-					double tx, ty, tz;
-					{
-						double dyE = EARTH_RADIUS + dy;
-						double sinZ = Math.sin(dz);
-						double cosZ = Math.cos(dz);
-						double sinX = Math.sin(dx);
-						double cosX = Math.cos(dx);
-
-						tx =   dyE * cosZ * sinX;
-						ty = - dyE * sinZ;
-						tz =   dyE * cosZ * cosX;
-					}
-
-					// pick
-					if (j < 2) {
-						Math3D.setTriVert(j, tx, ty, tz);
-					}
-					else {
-						Math3D.setTriVert(2, tx, ty, tz);
-						if (Math3D.pickTri(intersectPoint, ray)) {
-							return true;
-						}
-					}
-				}
-			}
+			final ElevationTin tin = jp2.tin;
+			final TerrainIndex.Frame frame = new TerrainIndex.Frame(theta1, phi1,
+					dTetaOverN / tin.w, dPhiOverN / tin.w, unit.coordSystemRatio * terrainScaler);
+			return tin.index.pick(frame, ray, intersectPoint);
 		}
 		else if (useDem)
 		{
-			final byte[] dem = jp2.dem.demDatas;
-
-			final int row_width = (int) Math.sqrt((dem.length / 2)) * 2; // assuming we have a square tile
-			final int numrows = row_width / 2;
-
-			int startx = 0;
-			int startz = 0;
-			int endx = numrows - 1;
-			int endz = numrows - 1;
-
-			int nrows_x = endx - startx;
-			int nrows_z = endz - startz;
-
-			{
-				dTetaOverN /= nrows_x;
-				dPhiOverN  /= nrows_z;
-			}
-
-			double scaler = unit.coordSystemRatio * terrainScaler;
-
-			double dz = phi1;
-			int pos_d1 = (startz * row_width) + (startx * 2);
-			for (int i = startz; i < endz; i++)
-			{
-				double d2z = dz + dPhiOverN;
-
-				final double cosZ  = Math.cos(dz);
-				final double cos2Z = Math.cos(d2z);
-				final double sinZ  = Math.sin(dz);
-				final double sin2Z = Math.sin(d2z);
-
-				int pos_d1_save = pos_d1;	//int pos_d1 = (i * rowWidth) + (startx * 2);
-				double dx = theta1;
-				for (int j = startx; j < endx; j++)
-				{
-					int pos_d2 = pos_d1 + row_width;
-
-					double dy1 = ((dem[pos_d1] << 8) + (dem[pos_d1 + 1] & 0xFF)) * scaler;
-					double dy2 = ((dem[pos_d2] << 8) + (dem[pos_d2 + 1] & 0xFF)) * scaler;
-
-					double cx1, cy1, cz1, cx2, cy2, cz2;
-					{
-						final double dy1E = EARTH_RADIUS + dy1;
-						final double dy2E = EARTH_RADIUS + dy2;
-
-						final double cosX = Math.cos(dx);
-						final double sinX = Math.sin(dx);
-
-						cx1 =  dy1E * cosZ  * sinX;
-						cx2 =  dy2E * cos2Z * sinX;
-						cy1 = -dy1E * sinZ;
-						cy2 = -dy2E * sin2Z;
-						cz1 =  dy1E * cosZ  * cosX;
-						cz2 =  dy2E * cos2Z * cosX;
-					}
-
-					if (j > startx) {
-						Math3D.setTriVert(2, cx1, cy1, cz1);
-						if (Math3D.pickTri(intersectPoint, ray)) {
-							return true;
-						}
-
-						Math3D.setTriVert(2, cx2, cy2, cz2);
-						if (Math3D.pickTri(intersectPoint, ray)) {
-							return true;
-						}
-					}
-					else {
-						Math3D.setTriVert(0, cx1, cy1, cz1);
-						Math3D.setTriVert(1, cx2, cy2, cz2);
-					}
-
-					pos_d1 += 2;
-					dx     += dTetaOverN;
-				}
-
-				dz += dPhiOverN;
-				pos_d1 = pos_d1_save + row_width;
-			}
+			final ElevationDem dem = jp2.dem;
+			final TerrainIndex.Frame frame = new TerrainIndex.Frame(theta1, phi1,
+					dTetaOverN / (dem.numRows - 1), dPhiOverN / (dem.numRows - 1), unit.coordSystemRatio * terrainScaler);
+			return dem.index.pick(frame, ray, intersectPoint);
 		}
 		else
 		{
@@ -516,7 +423,7 @@ class Tile
 		return tile.imageDataReady;
 	}
 	/** @return OpenGL texture texels, in the format RGB */
-	protected byte[] getCurImageData()
+	protected ByteBuffer getCurImageData()
 	{
 		return jp2.getImageData(jp2.curRes);
 	}
@@ -549,6 +456,55 @@ class Tile
 		final Jp2TileRes tile = jp2.tileRes[jp2.curRes];
 		return tile.textureId;
 	}
+	/** @return OpenGL texture ID of the best resolution below the current one, -1 if none */
+	protected final int getLowerTextureId()
+	{
+		for (int res = jp2.curRes - 1; res >= 0; res--) {
+			final Jp2TileRes tile = jp2.tileRes[res];
+			if (tile.imageDataReady && (tile.textureId != -1)) {
+				return tile.textureId;
+			}
+		}
+		return -1;
+	}
+	/** @return distance of the camera to the tile center, in DD, like the tile loader priorities */
+	protected final double getTextureDistance()
+	{
+		final Ptolemy3D ptolemy = Ptolemy3D.ptolemy;
+		final Landscape landscape = ptolemy.scene.landscape;
+
+		double dx = Math.abs(ptolemy.camera.cameraX - ((upLeftLon + lowRightLon) / 2));
+		if (dx > landscape.maxLongitude) {
+			dx = 2 * landscape.maxLongitude - dx;
+		}
+		final double dz = ptolemy.camera.cameraY - ((upLeftLat + lowRightLat) / 2);
+		final double alt = ptolemy.camera.getLatAltLon().getAltitudeDD() / EARTH_RADIUS * Math3D.radToDeg * ptolemy.unit.DD;
+		return Math.sqrt(dx * dx + dz * dz + alt * alt);
+	}
+	/** @return screen-space importance of a resolution texture: the distance over the texel size */
+	private final double getTexturePriority(double distance, int res)
+	{
+		final double texelSize = (double) (lowRightLon - upLeftLon) / Ptolemy3D.ptolemy.tileLoader.twidth[res];
+		return distance / texelSize;
+	}
+	/** Queue the upload of the current resolution texture, by screen-space importance. */
+	protected final void queueTextureUpload(double distance)
+	{
+		final int curRes = jp2.curRes;
+		Ptolemy3D.ptolemy.textureManager.queueUpload(jp2.getTextureUpload(curRes, getWidth(), getHeight()),
+				getTexturePriority(distance, curRes));
+	}
+	/** Mark the textures of the current and lower resolutions as used, lower ones are the fallbacks. */
+	protected final void touchTextures(double distance)
+	{
+		final TextureManager textureManager = Ptolemy3D.ptolemy.textureManager;
+		for (int res = 0; res <= jp2.curRes; res++) {
+			final TextureManager.Upload upload = jp2.getTextureUpload(res);
+			if (upload != null) {
+				textureManager.touch(upload, getTexturePriority(distance, res));
+			}
+		}
+	}
 
 	//Getters
 
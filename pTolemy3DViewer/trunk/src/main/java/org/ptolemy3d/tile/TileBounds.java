@@ -0,0 +1,141 @@
+/**
+ * Ptolemy3D - a Java-based 3D Viewer for GeoWeb applications.
+ * Copyright (C) 2008 Mark W. Korver
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ptolemy3d.tile;
+
+import static org.ptolemy3d.Ptolemy3DConfiguration.EARTH_RADIUS;
+
+import org.ptolemy3d.Ptolemy3D;
+import org.ptolemy3d.Ptolemy3DUnit;
+import org.ptolemy3d.math.Math3D;
+import org.ptolemy3d.scene.Landscape;
+import org.ptolemy3d.view.Frustum;
+
+/**
+ * Bounding box of a tile on the globe, in world coordinates, from its longitude/latitude area and
+ * the elevation range of its terrain.<BR>
+ * The box holds the tile area sampled on a 3x3 grid, at the lowest and highest elevation, grown by
+ * the bulge of the globe between the samples. It is only computed again when the area or the
+ * elevation range changes.
+ */
+class TileBounds
+{
+	/** Tiles this large are not culled */
+	private final static int MAX_ANGLE = 90;
+
+	double minX, minY, minZ, maxX, maxY, maxZ;
+	/** Largest distance of the tile points to the globe center */
+	double maxRadius;
+
+	private int lon, lat = Integer.MIN_VALUE, size;
+	private double minHeight, maxHeight;
+	private final double[] coord = new double[3];
+
+	/**
+	 * Bounds of the tile area, with the elevation range of the terrain of <code>jp2</code>.
+	 * @param lon longitude of the left side, in DD
+	 * @param lat latitude of the top side, in DD
+	 * @param size tile width and height, in DD
+	 * @param jp2 tile data holding the terrain, null if none
+	 */
+	final void set(int lon, int lat, int size, Jp2Tile jp2)
+	{
+		final Landscape landscape = Ptolemy3D.ptolemy.scene.landscape;
+		double minHeight = 0, maxHeight = 0;
+		if (landscape.terrainEnabled && (jp2 != null)) {
+			final ElevationDem dem = jp2.dem;
+			final ElevationTin tin = jp2.tin;
+			if (dem != null) {
+				minHeight = Math.min(minHeight, dem.minHeight);
+				maxHeight = Math.max(maxHeight, dem.maxHeight);
+			}
+			if (tin != null) {
+				minHeight = Math.min(minHeight, tin.minHeight);
+				maxHeight = Math.max(maxHeight, tin.maxHeight);
+			}
+			final double scaler = Ptolemy3D.ptolemy.unit.coordSystemRatio * landscape.terrainScaler;
+			minHeight *= scaler;
+			maxHeight *= scaler;
+		}
+		set(lon, lat, size, minHeight, maxHeight);
+	}
+
+	private final void set(int lon, int lat, int size, double minHeight, double maxHeight)
+	{
+		if ((lon == this.lon) && (lat == this.lat) && (size == this.size) &&
+			(minHeight == this.minHeight) && (maxHeight == this.maxHeight)) {
+			return;
+		}
+		this.lon = lon;
+		this.lat = lat;
+		this.size = size;
+		this.minHeight = minHeight;
+		this.maxHeight = maxHeight;
+
+		final Ptolemy3DUnit unit = Ptolemy3D.ptolemy.unit;
+		final double rMin = EARTH_RADIUS + minHeight;
+		final double rMax = EARTH_RADIUS + maxHeight;
+		maxRadius = rMax;
+
+		if (size >= (MAX_ANGLE * unit.DD)) {
+			minX = minY = minZ = -rMax;
+			maxX = maxY = maxZ = rMax;
+			return;
+		}
+
+		minX = minY = minZ = Double.MAX_VALUE;
+		maxX = maxY = maxZ = -Double.MAX_VALUE;
+		for (int i = 0; i <= 2; i++) {
+			for (int k = 0; k <= 2; k++) {
+				Math3D.setSphericalCoord(lon + (i * size) / 2.0, lat - (k * size) / 2.0, coord);
+				add(rMin);
+				add(rMax);
+			}
+		}
+
+		// Bulge of the sphere over the chord between two samples (along the diagonal)
+		final double step = Math.sqrt(2) * (size / 2.0) * Math3D.degToRad / unit.DD;
+		final double bulge = rMax * (1 - Math.cos(step / 2));
+		minX -= bulge; minY -= bulge; minZ -= bulge;
+		maxX += bulge; maxY += bulge; maxZ += bulge;
+	}
+
+	private final void add(double radius)
+	{
+		final double x = coord[0] * radius, y = coord[1] * radius, z = coord[2] * radius;
+		if (x < minX) { minX = x; } if (x > maxX) { maxX = x; }
+		if (y < minY) { minY = y; } if (y > maxY) { maxY = y; }
+		if (z < minZ) { minZ = z; } if (z > maxZ) { maxZ = z; }
+	}
+
+	/** @return true if the tile is in the view frustum and not behind the horizon */
+	final boolean isVisible(Frustum frustum)
+	{
+		final double dx = (maxX - minX) / 2, dy = (maxY - minY) / 2, dz = (maxZ - minZ) / 2;
+		final double radius = Math.sqrt(dx * dx + dy * dy + dz * dz);
+		if (frustum.isBehindHorizon(minX + dx, minY + dy, minZ + dz, radius, maxRadius)) {
+			return false;
+		}
+		return frustum.isBoxVisible(minX, minY, minZ, maxX, maxY, maxZ);
+	}
+
+	/** @return distance of the camera to the tile, 0 if inside the bounds */
+	final double getDistance(Frustum frustum)
+	{
+		return frustum.getDistance(minX, minY, minZ, maxX, maxY, maxZ);
+	}
+}
@@ -84,6 +84,10 @@ class TileDefaultRenderer implements ITileRenderer
 		meshColor = landscape.meshColor;
 	}
 
+	public void destroyGL(GL gl)
+	{
+	}
+
 	public void drawSubsection(Tile tile, int x1, int z1, int x2, int z2) throws Exception
 	{
 		if ((x1 == x2) || (z1 == z2)) {
@@ -118,16 +122,16 @@ class TileDefaultRenderer implements ITileRenderer
 
 		// corners clockwise, from ul
 		if ((leftTile == null) || (leftTile.jp2 == null) || (leftTile.jp2.level != drawZlevel)) {
-			left_dem_slope = (double) (jtile.tin.p[3][1] - jtile.tin.p[0][1]) / jtile.tin.w;
+			left_dem_slope = (double) (jtile.tin.getHeight(3) - jtile.tin.getHeight(0)) / jtile.tin.w;
 		}
 		if ((rightTile == null) || (rightTile.jp2 == null) || (rightTile.jp2.level != drawZlevel)) {
-			right_dem_slope = (double) (jtile.tin.p[2][1] - jtile.tin.p[1][1]) / jtile.tin.w;
+			right_dem_slope = (double) (jtile.tin.getHeight(2) - jtile.tin.getHeight(1)) / jtile.tin.w;
 		}
 		if ((aboveTile == null) || (aboveTile.jp2 == null) || (aboveTile.jp2.level != drawZlevel)) {
-			top_dem_slope = (double) (jtile.tin.p[1][1] - jtile.tin.p[0][1]) / jtile.tin.w;
+			top_dem_slope = (double) (jtile.tin.getHeight(1) - jtile.tin.getHeight(0)) / jtile.tin.w;
 		}
 		if ((belowTile == null) || (belowTile.jp2 == null) || (belowTile.jp2.level != drawZlevel)) {
-			bottom_dem_slope = (double) (jtile.tin.p[2][1] - jtile.tin.p[3][1]) / jtile.tin.w;
+			bottom_dem_slope = (double) (jtile.tin.getHeight(2) - jtile.tin.getHeight(3)) / jtile.tin.w;
 		}
 
 		double theta1 = 0, theta2 = 0;
@@ -143,33 +147,35 @@ class TileDefaultRenderer implements ITileRenderer
 		double dx, dz;
 		double tx, ty, tz;
 
-		for (int i = 0; i < jtile.tin.nSt.length; i++)
+		final float[] positions = jtile.tin.positions;
+		final int[] strips = jtile.tin.strips;
+		final int[] stripStart = jtile.tin.stripStart;
+		for (int i = 0; i < jtile.tin.getNumStrips(); i++)
 		{
 			setGLBegin();
-			for (int j = 0; j < jtile.tin.nSt[i].length; j++)
+			for (int j = stripStart[i]; j < stripStart[i + 1]; j++)
 			{
-				int v;
-
-				v = jtile.tin.nSt[i][j];
-				dy = jtile.tin.p[v][1];
+				final int v = strips[j] * 3;
+				final float px = positions[v], pz = positions[v + 2];
 
-				if ((left_dem_slope != -1) && (jtile.tin.p[v][0] == 0)) {
-					dy = jtile.tin.p[0][1] + (jtile.tin.p[v][2] * left_dem_slope);
+				dy = positions[v + 1];
+				if ((left_dem_slope != -1) && (px == 0)) {
+					dy = jtile.tin.getHeight(0) + (pz * left_dem_slope);
 				}
-				if ((right_dem_slope != -1) && (jtile.tin.p[v][0] == jtile.tin.w)) {
-					dy = jtile.tin.p[1][1] + (jtile.tin.p[v][2] * right_dem_slope);
+				if ((right_dem_slope != -1) && (px == jtile.tin.w)) {
+					dy = jtile.tin.getHeight(1) + (pz * right_dem_slope);
 				}
-				if ((top_dem_slope != -1) && (jtile.tin.p[v][2] == 0)) {
-					dy = jtile.tin.p[0][1] + (jtile.tin.p[v][0] * top_dem_slope);
+				if ((top_dem_slope != -1) && (pz == 0)) {
+					dy = jtile.tin.getHeight(0) + (px * top_dem_slope);
 				}
-				if ((bottom_dem_slope != -1) && (jtile.tin.p[v][2] == jtile.tin.w)) {
-					dy = jtile.tin.p[3][1] + (jtile.tin.p[v][0] * bottom_dem_slope);
+				if ((bottom_dem_slope != -1) && (pz == jtile.tin.w)) {
+					dy = jtile.tin.getHeight(3) + (px * bottom_dem_slope);
 				}
 				dy *= unit.coordSystemRatio * terrainScaler;
 
 				{
-					dx = theta1 + jtile.tin.p[v][0] * (theta2 - theta1) / jtile.tin.w;
-					dz = phi1 + jtile.tin.p[v][2] * (phi2 - phi1) / jtile.tin.w;
+					dx = theta1 + px * (theta2 - theta1) / jtile.tin.w;
+					dz = phi1 + pz * (phi2 - phi1) / jtile.tin.w;
 
 					tx =  (EARTH_RADIUS + dy) * Math.cos(dz) * Math.sin(dx);
 					ty = -(EARTH_RADIUS + dy) * Math.sin(dz);
@@ -177,7 +183,7 @@ class TileDefaultRenderer implements ITileRenderer
 				}
 
 				if (texture) {
-					gl.glTexCoord2f((jtile.tin.p[v][0] / jtile.tin.w), (jtile.tin.p[v][2] / jtile.tin.w));
+					gl.glTexCoord2f((px / jtile.tin.w), (pz / jtile.tin.w));
 				}
 				else if (landscape.displayMode == Landscape.DISPLAY_SHADEDDEM) {
 					setColor((float) dy);
@@ -187,7 +193,7 @@ class TileDefaultRenderer implements ITileRenderer
 			setGLEnd();
 			
 			if(DEBUG) {
-				int numVertices = jtile.tin.nSt[i].length;
+				int numVertices = stripStart[i + 1] - stripStart[i];
 				ProfilerInterface.vertexCounter += numVertices;
 				if (texture) {
 					ProfilerInterface.vertexMemoryUsage += numVertices * (2 * 4 + 3 * 8);
@@ -204,12 +210,12 @@ class TileDefaultRenderer implements ITileRenderer
 	private final void drawSubsection_Dem(int x1, int z1, int x2, int z2) throws Exception
 	{
 		final Level drawLevel = Ptolemy3D.ptolemy.scene.landscape.levels[drawZlevel];
-		final byte[] dem = jtile.dem.demDatas;
+		final short[] dem = jtile.dem.heights;
 
 		double left_dem_slope = -1, right_dem_slope = -1, top_dem_slope = -1, bottom_dem_slope = -1;
 
 		int numrows = jtile.dem.numRows;
-		int row_width = numrows * 2; // assuming we have a square tile
+		int row_width = numrows; // assuming we have a square tile
 		double geom_inc = (double) drawLevel.tileSize / (numrows - 1);
 		float tex_inc = 1.0f / (numrows - 1);
 		double dx, dz, d2z, dy1, dy2;
@@ -249,10 +255,10 @@ class TileDefaultRenderer implements ITileRenderer
 
 		if ((drawZlevel == ZLevel) && (x1 == upLeftX) && (x2 == lowRightX) && (z1 == upLeftZ) && (z2 == lowRightZ))
 		{
-			ul_corner = ((dem[0] << 8) + (dem[1] & 0xFF));
-			ur_corner = ((dem[(row_width - 2)] << 8) + (dem[(row_width - 1)] & 0xFF));
-			ll_corner = ((dem[row_width * (numrows - 1)] << 8) + (dem[(row_width * (numrows - 1)) + 1] & 0xFF));
-			lr_corner = ((dem[row_width * (numrows - 1) + (row_width - 2)] << 8) + (dem[(row_width * (numrows - 1)) + (row_width - 1)] & 0xFF));
+			ul_corner = dem[0];
+			ur_corner = dem[row_width - 1];
+			ll_corner = dem[row_width * (numrows - 1)];
+			lr_corner = dem[row_width * (numrows - 1) + (row_width - 1)];
 
 			if ((leftTile == null) || (leftTile.jp2 == null) || (leftTile.jp2.level != drawZlevel)) {
 				left_dem_slope = (ll_corner - ul_corner) / (nrows_z);
@@ -312,22 +318,22 @@ class TileDefaultRenderer implements ITileRenderer
 				dx = theta1 + (j - startx) * (theta2 - theta1) / (nrows_x);
 
 				tex_x = j * tex_inc;
-				pos_d1 = ((i * row_width) + (j * 2));
-				pos_d2 = (((i + 1) * row_width) + (j * 2));
+				pos_d1 = ((i * row_width) + j);
+				pos_d2 = (((i + 1) * row_width) + j);
 
 				if ((j == startx) && (xsinterpolate)) {
 					tex_x += (tex_inc * (startxcoord - startx));
 					ex_wt = (startxcoord - startx);
 					sx_wt = 1.0 - ex_wt;
-					pos_r1 = ((i * row_width) + ((j + 1) * 2));
-					pos_r2 = (((i + 1) * row_width) + ((j + 1) * 2));
+					pos_r1 = ((i * row_width) + (j + 1));
+					pos_r2 = (((i + 1) * row_width) + (j + 1));
 				}
 				else if ((j == (endx - 1)) && (xeinterpolate)) {
 					tex_x -= (tex_inc * (endx - endxcoord));
 					ex_wt = (endx - endxcoord);
 					sx_wt = 1.0 - ex_wt;
-					pos_r1 = ((i * row_width) + ((j - 1) * 2));
-					pos_r2 = (((i + 1) * row_width) + ((j - 1) * 2));
+					pos_r1 = ((i * row_width) + (j - 1));
+					pos_r2 = (((i + 1) * row_width) + (j - 1));
 				}
 				else {
 					ex_wt = 0.0;
@@ -348,21 +354,21 @@ class TileDefaultRenderer implements ITileRenderer
 					}
 					else if ((i == startz) && (top_dem_slope != -1)) {
 						dy1 = ul_corner + (j * top_dem_slope);
-						dy2 = (dem[pos_d2] << 8) + (dem[pos_d2 + 1] & 0xFF);
+						dy2 = dem[pos_d2];
 					}
 					else if ((i == (endz - 1)) && (bottom_dem_slope != -1)) {
-						dy1 = (dem[pos_d1] << 8) + (dem[pos_d1 + 1] & 0xFF);
+						dy1 = dem[pos_d1];
 						dy2 = ll_corner + (j * bottom_dem_slope);
 					}
 					else {
-						dy1 = (dem[pos_d1] << 8) + (dem[pos_d1 + 1] & 0xFF);
-						dy2 = (dem[pos_d2] << 8) + (dem[pos_d2 + 1] & 0xFF);
+						dy1 = dem[pos_d1];
+						dy2 = dem[pos_d2];
 					}
 				}
 				else
 				{
-					dy1 = (((dem[pos_d1] << 8) + (dem[pos_d1 + 1] & 0xFF)) * sx_wt * t_sz_wt) + (((dem[pos_r1] << 8) + (dem[pos_r1 + 1] & 0xFF)) * ex_wt * t_sz_wt) + (((dem[pos_d2] << 8) + (dem[pos_d2 + 1] & 0xFF)) * sx_wt * t_ez_wt) + (((dem[pos_r2] << 8) + (dem[pos_r2 + 1] & 0xFF)) * ex_wt * t_ez_wt);
-					dy2 = (((dem[pos_d1] << 8) + (dem[pos_d1 + 1] & 0xFF)) * sx_wt * b_sz_wt) + (((dem[pos_r1] << 8) + (dem[pos_r1 + 1] & 0xFF)) * ex_wt * b_sz_wt) + (((dem[pos_d2] << 8) + (dem[pos_d2 + 1] & 0xFF)) * sx_wt * b_ez_wt) + (((dem[pos_r2] << 8) + (dem[pos_r2 + 1] & 0xFF)) * ex_wt * b_ez_wt);
+					dy1 = (dem[pos_d1] * sx_wt * t_sz_wt) + (dem[pos_r1] * ex_wt * t_sz_wt) + (dem[pos_d2] * sx_wt * t_ez_wt) + (dem[pos_r2] * ex_wt * t_ez_wt);
+					dy2 = (dem[pos_d1] * sx_wt * b_sz_wt) + (dem[pos_r1] * ex_wt * b_sz_wt) + (dem[pos_d2] * sx_wt * b_ez_wt) + (dem[pos_r2] * ex_wt * b_ez_wt);
 				}
 
 				dy1 *= unit.coordSystemRatio * terrainScaler;
@@ -46,12 +46,18 @@ class TileDirectModeRenderer implements ITileRenderer
 	protected int ZLevel;
 	protected int upLeftX ,  upLeftZ;
 	protected int lowRightX, lowRightZ;
+	protected ElevationDem elevationDem;
+	protected ElevationTin elevationTin;
+	/** Edges with a neighbour of another level, adjusted to avoid cracks */
+	protected boolean leftJunction, aboveJunction, rightJunction, belowJunction;
 
 	protected Ptolemy3DUnit unit;
 	protected Landscape landscape;
 	protected float[] tileColor;
 	protected float[] colratios;
 	protected double terrainScaler;
+	/** Display mode of the landscape, read once per subsection */
+	protected byte displayMode;
 
 	protected void fillLocalVariables(Tile tile_)
 	{
@@ -69,12 +75,54 @@ class TileDirectModeRenderer implements ITileRenderer
 		upLeftZ = tile_.upLeftLat;
 		lowRightX = tile_.lowRightLon;
 		lowRightZ = tile_.lowRightLat;
+		elevationDem = (jtile == null) ? null : jtile.dem;
+		elevationTin = (jtile == null) ? null : jtile.tin;
+		leftJunction  = isJunction(leftTile);
+		aboveJunction = isJunction(aboveTile);
+		rightJunction = isJunction(rightTile);
+		belowJunction = isJunction(belowTile);
 
 		unit = Ptolemy3D.ptolemy.unit;
 		landscape = Ptolemy3D.ptolemy.scene.landscape;
 		tileColor = landscape.tileColor;
 		colratios = landscape.colorRatios;
 		terrainScaler = landscape.terrainScaler;
+		displayMode = landscape.displayMode;
+	}
+	private final boolean isJunction(Tile neighbour)
+	{
+		return (neighbour == null) || (neighbour.jp2 == null) || (neighbour.jp2.level != drawZlevel);
+	}
+
+	/**
+	 * Copy the temporary datas of another renderer, to generate its geometry in another thread.
+	 * The geometry does not read the tiles, the colors are copied.
+	 */
+	protected void copyLocalVariables(TileDirectModeRenderer from)
+	{
+		tile = null;
+		gl = null;
+		jtile = null;
+
+		drawZlevel = from.drawZlevel;
+		ZLevel = from.ZLevel;
+		upLeftX = from.upLeftX;
+		upLeftZ = from.upLeftZ;
+		lowRightX = from.lowRightX;
+		lowRightZ = from.lowRightZ;
+		elevationDem = from.elevationDem;
+		elevationTin = from.elevationTin;
+		leftJunction = from.leftJunction;
+		aboveJunction = from.aboveJunction;
+		rightJunction = from.rightJunction;
+		belowJunction = from.belowJunction;
+
+		unit = from.unit;
+		landscape = from.landscape;
+		tileColor = from.tileColor.clone();
+		colratios = from.colratios.clone();
+		terrainScaler = from.terrainScaler;
+		displayMode = from.displayMode;
 	}
 
 	public void drawSubsection(Tile tile, int x1, int z1, int x2, int z2)
@@ -92,10 +140,16 @@ class TileDirectModeRenderer implements ITileRenderer
 		fillLocalVariables(tile);
 
 		boolean lookForElevation = (jtile != null) && (landscape.terrainEnabled);
-		boolean useDem = lookForElevation && (jtile.dem != null);
-		boolean useTin = lookForElevation && (jtile.tin != null);
+		boolean useDem = lookForElevation && (elevationDem != null);
+		boolean useTin = lookForElevation && (elevationTin != null);
 
 		boolean texture = loadGLState(tile.texture);
+		drawGeometry(texture, useDem, useTin, x1, z1, x2, z2);
+	}
+
+	/** Emit the geometry of the subsection, with the hooks <code>beginStrip</code> to <code>vertex</code>. */
+	protected void drawGeometry(boolean texture, boolean useDem, boolean useTin, int x1, int z1, int x2, int z2)
+	{
 		if(texture) {
 			if(useDem) {
 				drawDemSubsection_Textured(x1, z1, x2, z2);
@@ -123,10 +177,10 @@ class TileDirectModeRenderer implements ITileRenderer
 	protected void drawDemSubsection_Textured(int x1, int z1, int x2, int z2)
 	{
 		final Level drawLevel = landscape.levels[drawZlevel];
-		final byte[] dem = jtile.dem.demDatas;
-		final int numRows = jtile.dem.numRows;
+		final short[] dem = elevationDem.heights;
+		final int numRows = elevationDem.numRows;
 
-		final int rowWidth = numRows * 2;	// assuming we have a square tile
+		final int rowWidth = numRows;	// assuming we have a square tile
 		final float tex_inc = 1.0f / (numRows - 1);
 
 		final boolean xsinterpolate, xeinterpolate, zsinterpolate, zeinterpolate;
@@ -162,24 +216,23 @@ class TileDirectModeRenderer implements ITileRenderer
 		final boolean eqZLevel = (drawZlevel == ZLevel);
 		if (eqZLevel && (x1 == upLeftX) && (x2 == lowRightX) && (z1 == upLeftZ) && (z2 == lowRightZ)) {
 			final int rowWidthMinusOne = rowWidth - 1;
-			final int rowWidthMinusTwo = rowWidth - 2;
 			final int i1 = rowWidth * (numRows - 1);
 
-			ul_corner = (dem[     0               ] << 8) + (dem[     1               ] & 0xFF);
-			ur_corner = (dem[     rowWidthMinusTwo] << 8) + (dem[     rowWidthMinusOne] & 0xFF);
-			ll_corner = (dem[i1                   ] << 8) + (dem[i1 + 1               ] & 0xFF);
-			lr_corner = (dem[i1 + rowWidthMinusTwo] << 8) + (dem[i1 + rowWidthMinusOne] & 0xFF);
+			ul_corner = dem[0];
+			ur_corner = dem[rowWidthMinusOne];
+			ll_corner = dem[i1];
+			lr_corner = dem[i1 + rowWidthMinusOne];
 
-			if ((leftTile == null) || (leftTile.jp2 == null) || (leftTile.jp2.level != drawZlevel)) {
+			if (leftJunction) {
 				left_dem_slope   = (ll_corner - ul_corner) * oneOverNrowsZ;
 			}
-			if ((rightTile == null) || (rightTile.jp2 == null) || (rightTile.jp2.level != drawZlevel)) {
+			if (rightJunction) {
 				right_dem_slope  = (lr_corner - ur_corner) * oneOverNrowsZ;
 			}
-			if ((aboveTile == null) || (aboveTile.jp2 == null) || (aboveTile.jp2.level != drawZlevel)) {
+			if (aboveJunction) {
 				top_dem_slope    = (ur_corner - ul_corner) * oneOverNrowsX;
 			}
-			if ((belowTile == null) || (belowTile.jp2 == null) || (belowTile.jp2.level != drawZlevel)) {
+			if (belowJunction) {
 				bottom_dem_slope = (lr_corner - ll_corner) * oneOverNrowsX;
 			}
 		}
@@ -209,8 +262,8 @@ class TileDirectModeRenderer implements ITileRenderer
 		double sinZ = Math.sin(dz);
 		double cos2Z, sin2Z;
 
-		int pos_d1 = (startz * rowWidth) + (startx * 2);
-//		gl.glBegin(GL.GL_TRIANGLE_STRIP);
+		int pos_d1 = (startz * rowWidth) + startx;
+//		beginStrip();
 		for (int i = startz; i < endz; i++)	//startz can be equal to (endz-1)
 		{
 			final double d2z = dz + dPhiOverN;
@@ -241,8 +294,8 @@ class TileDirectModeRenderer implements ITileRenderer
 				b_ez_wt = 1;
 			}
 
-			gl.glBegin(GL.GL_TRIANGLE_STRIP);
-			int pos_d1_save = pos_d1;	//int pos_d1 = (i * rowWidth) + (startx * 2);
+			beginStrip();
+			int pos_d1_save = pos_d1;	//int pos_d1 = (i * rowWidth) + startx;
 			double dx = theta1;
 			for (int j = startx; j < endx; j++)
 			{
@@ -255,7 +308,7 @@ class TileDirectModeRenderer implements ITileRenderer
 					ex_wt = startxcoord - startx;
 					sx_wt = 1.0 - ex_wt;
 
-					pos_r1 = (i * rowWidth) + ((startx + 1) * 2);
+					pos_r1 = (i * rowWidth) + (startx + 1);
 					pos_r2 = pos_r1 + rowWidth;
 
 					tex_x = (float)(tex_inc * startxcoord);
@@ -264,7 +317,7 @@ class TileDirectModeRenderer implements ITileRenderer
 					ex_wt = endx - endxcoord;
 					sx_wt = 1.0 - ex_wt;
 
-					pos_r1 = (i * rowWidth) + ((j - 1) * 2);
+					pos_r1 = (i * rowWidth) + (j - 1);
 					pos_r2 = pos_r1 + rowWidth;
 
 					tex_x = (float)(tex_inc * (endxcoord - 1));
@@ -291,22 +344,22 @@ class TileDirectModeRenderer implements ITileRenderer
 					}
 					else if ((i == startz) && (top_dem_slope != -1)) {
 						dy1 = ul_corner + (j * top_dem_slope);
-						dy2 = (dem[pos_d2] << 8) + (dem[pos_d2 + 1] & 0xFF);
+						dy2 = dem[pos_d2];
 					}
 					else if ((i == (endz - 1)) && (bottom_dem_slope != -1)) {
-						dy1 = (dem[pos_d1] << 8) + (dem[pos_d1 + 1] & 0xFF);
+						dy1 = dem[pos_d1];
 						dy2 = ll_corner + (j * bottom_dem_slope);
 					}
 					else {
-						dy1 = (dem[pos_d1] << 8) + (dem[pos_d1 + 1] & 0xFF);
-						dy2 = (dem[pos_d2] << 8) + (dem[pos_d2 + 1] & 0xFF);
+						dy1 = dem[pos_d1];
+						dy2 = dem[pos_d2];
 					}
 				}
 				else {
-					double f1 = ((dem[pos_d1] << 8) + (dem[pos_d1 + 1] & 0xFF)) * sx_wt;
-					double f2 = ((dem[pos_r1] << 8) + (dem[pos_r1 + 1] & 0xFF)) * ex_wt;
-					double f3 = ((dem[pos_d2] << 8) + (dem[pos_d2 + 1] & 0xFF)) * sx_wt;
-					double f4 = ((dem[pos_r2] << 8) + (dem[pos_r2 + 1] & 0xFF)) * ex_wt;
+					double f1 = dem[pos_d1] * sx_wt;
+					double f2 = dem[pos_r1] * ex_wt;
+					double f3 = dem[pos_d2] * sx_wt;
+					double f4 = dem[pos_r2] * ex_wt;
 
 					dy1 = (f1 * t_sz_wt) + (f2 * t_sz_wt) + (f3 * t_ez_wt) + (f4 * t_ez_wt);
 					dy2 = (f1 * b_sz_wt) + (f2 * b_sz_wt) + (f3 * b_ez_wt) + (f4 * b_ez_wt);
@@ -328,21 +381,21 @@ class TileDirectModeRenderer implements ITileRenderer
 					cz2 =  dy2E * cos2Z * cosX;
 				}
 
-				gl.glTexCoord2f(tex_x, tex_z);
-				gl.glVertex3d(cx1, cy1, cz1);
+				texCoord(tex_x, tex_z);
+				vertex(cx1, cy1, cz1);
 
-				gl.glTexCoord2f(tex_x, tex_z2);
-				gl.glVertex3d(cx2, cy2, cz2);
+				texCoord(tex_x, tex_z2);
+				vertex(cx2, cy2, cz2);
 
-				pos_d1 += 2;
+				pos_d1++;
 				dx     += dTetaOverN;
 			}
-			gl.glEnd();
+			endStrip();
 
 			dz = d2z; cosZ = cos2Z; sinZ = sin2Z;
 			pos_d1 = pos_d1_save + rowWidth;
 		}
-//		gl.glEnd();
+//		endStrip();
 
 		if(DEBUG) {
 			int numVertices = 2 * (endx-startx) * (endz-startz);
@@ -353,11 +406,11 @@ class TileDirectModeRenderer implements ITileRenderer
 	protected void drawDemSubsection(int x1, int z1, int x2, int z2)
 	{
 		final Level drawLevel = landscape.levels[drawZlevel];
-		final byte[] dem = jtile.dem.demDatas;
-		final int numRows = jtile.dem.numRows;
-		final boolean useColor = (landscape.displayMode == Landscape.DISPLAY_SHADEDDEM);
+		final short[] dem = elevationDem.heights;
+		final int numRows = elevationDem.numRows;
+		final boolean useColor = (displayMode == Landscape.DISPLAY_SHADEDDEM);
 
-		final int rowWidth = numRows * 2;	// assuming we have a square tile
+		final int rowWidth = numRows;	// assuming we have a square tile
 
 		final boolean xsinterpolate, xeinterpolate, zsinterpolate, zeinterpolate;
 		final double startxcoord, startzcoord, endxcoord, endzcoord;
@@ -392,24 +445,23 @@ class TileDirectModeRenderer implements ITileRenderer
 		final boolean eqZLevel = (drawZlevel == ZLevel);
 		if (eqZLevel && (x1 == upLeftX) && (x2 == lowRightX) && (z1 == upLeftZ) && (z2 == lowRightZ)) {
 			final int rowWidthMinusOne = rowWidth - 1;
-			final int rowWidthMinusTwo = rowWidth - 2;
 			final int i1 = rowWidth * (numRows - 1);
 
-			ul_corner = (dem[0                  ] <<8) + (dem[   1               ] & 0xFF);
-			ur_corner = (dem[   rowWidthMinusTwo] <<8) + (dem[   rowWidthMinusOne] & 0xFF);
-			ll_corner = (dem[i1                 ] <<8) + (dem[i1+1               ] & 0xFF);
-			lr_corner = (dem[i1+rowWidthMinusTwo] <<8) + (dem[i1+rowWidthMinusOne] & 0xFF);
+			ul_corner = dem[0];
+			ur_corner = dem[rowWidthMinusOne];
+			ll_corner = dem[i1];
+			lr_corner = dem[i1+rowWidthMinusOne];
 
-			if ((leftTile == null) || (leftTile.jp2 == null) || (leftTile.jp2.level != drawZlevel)) {
+			if (leftJunction) {
 				left_dem_slope   = (ll_corner - ul_corner) * oneOverNrowsZ;
 			}
-			if ((rightTile == null) || (rightTile.jp2 == null) || (rightTile.jp2.level != drawZlevel)) {
+			if (rightJunction) {
 				right_dem_slope  = (lr_corner - ur_corner) * oneOverNrowsZ;
 			}
-			if ((aboveTile == null) || (aboveTile.jp2 == null) || (aboveTile.jp2.level != drawZlevel)) {
+			if (aboveJunction) {
 				top_dem_slope    = (ur_corner - ul_corner) * oneOverNrowsX;
 			}
-			if ((belowTile == null) || (belowTile.jp2 == null) || (belowTile.jp2.level != drawZlevel)) {
+			if (belowJunction) {
 				bottom_dem_slope = (lr_corner - ll_corner) * oneOverNrowsX;
 			}
 		}
@@ -439,8 +491,8 @@ class TileDirectModeRenderer implements ITileRenderer
 		double sinZ = Math.sin(dz);
 		double cos2Z, sin2Z;
 
-		int pos_d1 = (startz * rowWidth) + (startx * 2);
-//		gl.glBegin(GL.GL_TRIANGLE_STRIP);
+		int pos_d1 = (startz * rowWidth) + startx;
+//		beginStrip();
 		for (int i = startz; i < endz; i++)
 		{
 			final double d2z = dz + dPhiOverN;
@@ -466,8 +518,8 @@ class TileDirectModeRenderer implements ITileRenderer
 				b_ez_wt = 1;
 			}
 
-			gl.glBegin(GL.GL_TRIANGLE_STRIP);
-			int pos_d1_save = pos_d1;	//int pos_d1 = (i * rowWidth) + (startx * 2);
+			beginStrip();
+			int pos_d1_save = pos_d1;	//int pos_d1 = (i * rowWidth) + startx;
 			double dx = theta1;
 			for (int j = startx; j < endx; j++)
 			{
@@ -479,14 +531,14 @@ class TileDirectModeRenderer implements ITileRenderer
 					ex_wt = startxcoord - startx;
 					sx_wt = 1.0 - ex_wt;
 
-					pos_r1 = (i * rowWidth) + ((startx + 1) * 2);
+					pos_r1 = (i * rowWidth) + (startx + 1);
 					pos_r2 = pos_r1 + rowWidth;
 				}
 				else if (xeinterpolate && (j == (endx - 1))) {
 					ex_wt = endx - endxcoord;
 					sx_wt = 1.0 - ex_wt;
 
-					pos_r1 = (i * rowWidth) + ((j - 1) * 2);
+					pos_r1 = (i * rowWidth) + (j - 1);
 					pos_r2 = pos_r1 + rowWidth;
 				}
 				else {
@@ -509,22 +561,22 @@ class TileDirectModeRenderer implements ITileRenderer
 					}
 					else if ((i == startz) && (top_dem_slope != -1)) {
 						dy1 = ul_corner + (j * top_dem_slope);
-						dy2 = (dem[pos_d2] << 8) + (dem[pos_d2 + 1] & 0xFF);
+						dy2 = dem[pos_d2];
 					}
 					else if ((i == (endz - 1)) && (bottom_dem_slope != -1)) {
-						dy1 = (dem[pos_d1] << 8) + (dem[pos_d1 + 1] & 0xFF);
+						dy1 = dem[pos_d1];
 						dy2 = ll_corner + (j * bottom_dem_slope);
 					}
 					else {
-						dy1 = (dem[pos_d1] << 8) + (dem[pos_d1 + 1] & 0xFF);
-						dy2 = (dem[pos_d2] << 8) + (dem[pos_d2 + 1] & 0xFF);
+						dy1 = dem[pos_d1];
+						dy2 = dem[pos_d2];
 					}
 				}
 				else {
-					double f1 = ((dem[pos_d1] << 8) + (dem[pos_d1 + 1] & 0xFF)) * sx_wt;
-					double f2 = ((dem[pos_r1] << 8) + (dem[pos_r1 + 1] & 0xFF)) * ex_wt;
-					double f3 = ((dem[pos_d2] << 8) + (dem[pos_d2 + 1] & 0xFF)) * sx_wt;
-					double f4 = ((dem[pos_r2] << 8) + (dem[pos_r2 + 1] & 0xFF)) * ex_wt;
+					double f1 = dem[pos_d1] * sx_wt;
+					double f2 = dem[pos_r1] * ex_wt;
+					double f3 = dem[pos_d2] * sx_wt;
+					double f4 = dem[pos_r2] * ex_wt;
 
 					dy1 = (f1 * t_sz_wt) + (f2 * t_sz_wt) + (f3 * t_ez_wt) + (f4 * t_ez_wt);
 					dy2 = (f1 * b_sz_wt) + (f2 * b_sz_wt) + (f3 * b_ez_wt) + (f4 * b_ez_wt);
@@ -552,22 +604,22 @@ class TileDirectModeRenderer implements ITileRenderer
 				if (useColor) {
 					setColor((float) dy1);
 				}
-				gl.glVertex3d(cx1, cy1, cz1);
+				vertex(cx1, cy1, cz1);
 
 				if (useColor) {
 					setColor((float) dy2);
 				}
-				gl.glVertex3d(cx2, cy2, cz2);
+				vertex(cx2, cy2, cz2);
 
-				pos_d1 += 2;
+				pos_d1++;
 				dx     += dTetaOverN;
 			}
-			gl.glEnd();
+			endStrip();
 
 			dz = d2z; cosZ = cos2Z; sinZ = sin2Z;
 			pos_d1 = pos_d1_save + rowWidth;
 		}
-//		gl.glEnd();
+//		endStrip();
 
 		if(DEBUG) {
 			int numVertices = 2 * (endx-startx) * (endz-startz);
@@ -626,7 +678,7 @@ class TileDirectModeRenderer implements ITileRenderer
 		double cosT1_E =   Math.cos(t1) * EARTH_RADIUS;
 		double sinT1_E = - Math.sin(t1) * EARTH_RADIUS;
 
-		gl.glBegin(GL.GL_TRIANGLE_STRIP);
+		beginStrip();
 		float ty1 = tz_start;
 		for (int j = 0; j < n; j++)
 		{
@@ -636,7 +688,7 @@ class TileDirectModeRenderer implements ITileRenderer
 			cosT2_E =   Math.cos(t2) * EARTH_RADIUS;
 			sinT2_E = - Math.sin(t2) * EARTH_RADIUS;
 
-			//gl.glBegin(GL.GL_TRIANGLE_STRIP);
+			//beginStrip();
 			double t3 = theta1;
 			float tx  = tx_start;
 			for (int i = 0; i <= n; i++)
@@ -655,23 +707,23 @@ class TileDirectModeRenderer implements ITileRenderer
 					cz2 =  cosT2_E * cosT3;
 				}
 
-				gl.glTexCoord2f(tx, ty1);
-				gl.glVertex3d(cx1, cy1, cz1);
+				texCoord(tx, ty1);
+				vertex(cx1, cy1, cz1);
 
-				gl.glTexCoord2f(tx, ty2);
-				gl.glVertex3d(cx2, cy2, cz2);
+				texCoord(tx, ty2);
+				vertex(cx2, cy2, cz2);
 
 				t3 += dTetaOverN;
 				tx += tx_w;
 			}
-			//gl.glEnd();
+			//endStrip();
 
 			t1  = t2;
 			ty1 = ty2;
 			cosT1_E = cosT2_E;
 			sinT1_E = sinT2_E;
 		}
-		gl.glEnd();
+		endStrip();
 
 		if(DEBUG) {
 			int numVertices = 2*n*(n+1);
@@ -709,15 +761,15 @@ class TileDirectModeRenderer implements ITileRenderer
 			dPhiOverN  = (phi2   - phi1)   * oneOverN;
 		}
 
-		final boolean useColor = (landscape.displayMode == Landscape.DISPLAY_SHADEDDEM);
-		if(useColor) gl.glColor3f(tileColor[0], tileColor[1], tileColor[2]);
+		final boolean useColor = (displayMode == Landscape.DISPLAY_SHADEDDEM);
+		if(useColor) color(tileColor[0], tileColor[1], tileColor[2]);
 
 		double t1 = phi1;
 		double cosT1_E, sinT1_E;
 		double cosT2_E =   Math.cos(t1) * EARTH_RADIUS;
 		double sinT2_E = - Math.sin(t1) * EARTH_RADIUS;
 
-		gl.glBegin(GL.GL_TRIANGLE_STRIP);
+		beginStrip();
 		for (int j = 0; j < n; j++)
 		{
 			final double t2 = t1 + dPhiOverN;
@@ -729,7 +781,7 @@ class TileDirectModeRenderer implements ITileRenderer
 
 			double t3 = theta1;
 
-			//gl.glBegin(GL.GL_TRIANGLE_STRIP);
+			//beginStrip();
 			for (int i = 0; i <= n; i++)
 			{
 				final double cosT3 = Math.cos(t3);
@@ -743,16 +795,16 @@ class TileDirectModeRenderer implements ITileRenderer
 				cz1 =  cosT1_E * cosT3;
 				cz2 =  cosT2_E * cosT3;
 
-				gl.glVertex3d(cx1, cy1, cz1);
-				gl.glVertex3d(cx2, cy2, cz2);
+				vertex(cx1, cy1, cz1);
+				vertex(cx2, cy2, cz2);
 
 				t3 += dTetaOverN;
 			}
-			//gl.glEnd();
+			//endStrip();
 
 			t1 = t2;
 		}
-		gl.glEnd();
+		endStrip();
 
 		if(DEBUG) {
 			int numVertices = 2*n*(n+1);
@@ -766,17 +818,17 @@ class TileDirectModeRenderer implements ITileRenderer
 		double left_dem_slope = -1, right_dem_slope = -1, top_dem_slope = -1, bottom_dem_slope = -1;
 
 		// corners clockwise, from ul
-		if ((leftTile == null) || (leftTile.jp2 == null) || (leftTile.jp2.level != drawZlevel)) {
-			left_dem_slope = (double) (jtile.tin.p[3][1] - jtile.tin.p[0][1]) / jtile.tin.w;
+		if (leftJunction) {
+			left_dem_slope = (double) (elevationTin.getHeight(3) - elevationTin.getHeight(0)) / elevationTin.w;
 		}
-		if ((rightTile == null) || (rightTile.jp2 == null) || (rightTile.jp2.level != drawZlevel)) {
-			right_dem_slope = (double) (jtile.tin.p[2][1] - jtile.tin.p[1][1]) / jtile.tin.w;
+		if (rightJunction) {
+			right_dem_slope = (double) (elevationTin.getHeight(2) - elevationTin.getHeight(1)) / elevationTin.w;
 		}
-		if ((aboveTile == null) || (aboveTile.jp2 == null) || (aboveTile.jp2.level != drawZlevel)) {
-			top_dem_slope = (double) (jtile.tin.p[1][1] - jtile.tin.p[0][1]) / jtile.tin.w;
+		if (aboveJunction) {
+			top_dem_slope = (double) (elevationTin.getHeight(1) - elevationTin.getHeight(0)) / elevationTin.w;
 		}
-		if ((belowTile == null) || (belowTile.jp2 == null) || (belowTile.jp2.level != drawZlevel)) {
-			bottom_dem_slope = (double) (jtile.tin.p[2][1] - jtile.tin.p[3][1]) / jtile.tin.w;
+		if (belowJunction) {
+			bottom_dem_slope = (double) (elevationTin.getHeight(2) - elevationTin.getHeight(3)) / elevationTin.w;
 		}
 
 		double theta1, dThetaOverW;
@@ -790,41 +842,44 @@ class TileDirectModeRenderer implements ITileRenderer
 			phi1 = (z1) * Math3D.degToRad / unit.DD; //starty
 			phi2 = (z2) * Math3D.degToRad / unit.DD;  //endy
 
-			double oneOverW = 1.0 / jtile.tin.w;
+			double oneOverW = 1.0 / elevationTin.w;
 			dThetaOverW = (theta2 - theta1) * oneOverW;
 			dPhiOverW   = (phi2 - phi1) * oneOverW;
 		}
 
-		float oneOverW = 1.0f / jtile.tin.w;
-		for (int i = 0; i < jtile.tin.nSt.length; i++)
+		float oneOverW = 1.0f / elevationTin.w;
+		final float[] positions = elevationTin.positions;
+		final int[] strips = elevationTin.strips;
+		final int[] stripStart = elevationTin.stripStart;
+		for (int i = 0; i < elevationTin.getNumStrips(); i++)
 		{
-			gl.glBegin(GL.GL_TRIANGLE_STRIP);
-			for (int j = 0; j < jtile.tin.nSt[i].length; j++)
+			beginStrip();
+			for (int j = stripStart[i]; j < stripStart[i + 1]; j++)
 			{
-				int v = jtile.tin.nSt[i][j];
+				final int v = strips[j] * 3;
+				final float px = positions[v], pz = positions[v + 2];
 
 				double dx, dy, dz;
 				{
-					final float[] p = jtile.tin.p[v];
-					final float tinW = jtile.tin.w;
+					final float tinW = elevationTin.w;
 
-					dy = p[1];
-					if ((left_dem_slope != -1) && (p[0] == 0)) {
-						dy = jtile.tin.p[0][1] + (p[2] * left_dem_slope);
+					dy = positions[v + 1];
+					if ((left_dem_slope != -1) && (px == 0)) {
+						dy = elevationTin.getHeight(0) + (pz * left_dem_slope);
 					}
-					if ((right_dem_slope != -1) && (p[0] == tinW)) {
-						dy = jtile.tin.p[1][1] + (p[2] * right_dem_slope);
+					if ((right_dem_slope != -1) && (px == tinW)) {
+						dy = elevationTin.getHeight(1) + (pz * right_dem_slope);
 					}
-					if ((top_dem_slope != -1) && (p[2] == 0)) {
-						dy = jtile.tin.p[0][1] + (p[0] * top_dem_slope);
+					if ((top_dem_slope != -1) && (pz == 0)) {
+						dy = elevationTin.getHeight(0) + (px * top_dem_slope);
 					}
-					if ((bottom_dem_slope != -1) && (p[2] == tinW)) {
-						dy = jtile.tin.p[3][1] + (p[0] * bottom_dem_slope);
+					if ((bottom_dem_slope != -1) && (pz == tinW)) {
+						dy = elevationTin.getHeight(3) + (px * bottom_dem_slope);
 					}
 					dy *= unit.coordSystemRatio * terrainScaler;
 
-					dx = theta1 + p[0] * dThetaOverW;
-					dz = phi1 + p[2] * dPhiOverW;
+					dx = theta1 + px * dThetaOverW;
+					dz = phi1 + pz * dPhiOverW;
 				}
 
 				double tx, ty, tz;
@@ -841,22 +896,22 @@ class TileDirectModeRenderer implements ITileRenderer
 				}
 
 				if (texture) {
-					gl.glTexCoord2f((jtile.tin.p[v][0] * oneOverW), (jtile.tin.p[v][2] * oneOverW));
+					texCoord((px * oneOverW), (pz * oneOverW));
 				}
-				else if (landscape.displayMode == Landscape.DISPLAY_SHADEDDEM) {
+				else if (displayMode == Landscape.DISPLAY_SHADEDDEM) {
 					setColor((float) dy);
 				}
-				gl.glVertex3d(tx, ty, tz);
+				vertex(tx, ty, tz);
 			}
-			gl.glEnd();
+			endStrip();
 
 			if(DEBUG) {
-				int numVertices = jtile.tin.nSt[i].length;
+				int numVertices = stripStart[i + 1] - stripStart[i];
 				ProfilerInterface.vertexCounter += numVertices;
 				if (texture) {
 					ProfilerInterface.vertexMemoryUsage += numVertices * (2 * 4 + 3 * 8);
 				}
-				else if (landscape.displayMode == Landscape.DISPLAY_SHADEDDEM) {
+				else if (displayMode == Landscape.DISPLAY_SHADEDDEM) {
 					ProfilerInterface.vertexMemoryUsage += numVertices * (3 * 4 + 3 * 8);
 				}
 				else {
@@ -866,6 +921,33 @@ class TileDirectModeRenderer implements ITileRenderer
 		}
 	}
 
+	/* Geometry emission, in immediate mode */
+
+	protected void beginStrip()
+	{
+		gl.glBegin(GL.GL_TRIANGLE_STRIP);
+	}
+	protected void endStrip()
+	{
+		gl.glEnd();
+	}
+	protected void texCoord(float s, float t)
+	{
+		gl.glTexCoord2f(s, t);
+	}
+	protected void color(float r, float g, float b)
+	{
+		gl.glColor3f(r, g, b);
+	}
+	protected void vertex(double x, double y, double z)
+	{
+		gl.glVertex3d(x, y, z);
+	}
+
+	public void destroyGL(GL gl)
+	{
+	}
+
 	protected final void setColor(float y)
 	{
 		final float COORDSYS_RATIO = Ptolemy3D.ptolemy.unit.coordSystemRatio;
@@ -875,9 +957,9 @@ class TileDirectModeRenderer implements ITileRenderer
 		}
 		y /= COORDSYS_RATIO;
 
-		gl.glColor3f(tileColor[0] + y * colratios[0],
-					 tileColor[1] + y * colratios[1],
-					 tileColor[2] + y * colratios[2]);
+		color(tileColor[0] + y * colratios[0],
+			  tileColor[1] + y * colratios[1],
+			  tileColor[2] + y * colratios[2]);
 	}
 	protected final void setJP2ResolutionColor()
 	{
@@ -956,20 +1038,20 @@ class TileDirectModeRenderer implements ITileRenderer
 	}
 	protected final boolean loadGLState(boolean texture)
 	{
-		if (landscape.displayMode == Landscape.DISPLAY_JP2RES) {
+		if (displayMode == Landscape.DISPLAY_JP2RES) {
 			setJP2ResolutionColor();
 			return false;
 		}
-		else if (landscape.displayMode == Landscape.DISPLAY_TILEID) {
+		else if (displayMode == Landscape.DISPLAY_TILEID) {
 			setTileIDColor();
 			return false;
 		}
-		else if (landscape.displayMode == Landscape.DISPLAY_LEVELID) {
+		else if (displayMode == Landscape.DISPLAY_LEVELID) {
 			setLevelIDColor();
 			return false;
 		}
-		else if (landscape.displayMode == Landscape.DISPLAY_MESH ||
-			landscape.displayMode == Landscape.DISPLAY_SHADEDDEM) {
+		else if (displayMode == Landscape.DISPLAY_MESH ||
+			displayMode == Landscape.DISPLAY_SHADEDDEM) {
 			return false;
 		}
 		if(texture) {
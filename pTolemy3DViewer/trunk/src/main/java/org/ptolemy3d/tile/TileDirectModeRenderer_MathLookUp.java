@@ -196,6 +196,15 @@ class TileDirectModeRenderer_MathLookUp extends TileDirectModeRenderer implement
 		}
 	}
 
+	protected void copyLocalVariables(TileDirectModeRenderer from)
+	{
+		super.copyLocalVariables(from);
+
+		if(!isInit) {
+			init(landscape);
+		}
+	}
+
 	protected void drawDemSubsection_Textured(int xStart, int zStart, int xEnd, int zEnd)
 	{
 		if(drawZlevel >= MAX_PRECOMPUTEDLEVEL) {
@@ -204,10 +213,10 @@ class TileDirectModeRenderer_MathLookUp extends TileDirectModeRenderer implement
 		}
 
 		final Level drawLevel = landscape.levels[drawZlevel];
-		final byte[] dem = jtile.dem.demDatas;
-		final int numRows = jtile.dem.numRows;
+		final short[] dem = elevationDem.heights;
+		final int numRows = elevationDem.numRows;
 
-		final int rowWidth = numRows * 2;	// assuming we have a square tile
+		final int rowWidth = numRows;	// assuming we have a square tile
 		final float tex_inc = 1.0f / (numRows - 1);
 
 		final boolean xsinterpolate, xeinterpolate, zsinterpolate, zeinterpolate;
@@ -243,24 +252,23 @@ class TileDirectModeRenderer_MathLookUp extends TileDirectModeRenderer implement
 		final boolean eqZLevel = (drawZlevel == ZLevel);
 		if (eqZLevel && (xStart == upLeftX) && (xEnd == lowRightX) && (zStart == upLeftZ) && (zEnd == lowRightZ)) {
 			final int rowWidthMinusOne = rowWidth - 1;
-			final int rowWidthMinusTwo = rowWidth - 2;
 			final int i1 = rowWidth * (numRows - 1);
 
-			ul_corner = (dem[     0               ] << 8) + (dem[     1               ] & 0xFF);
-			ur_corner = (dem[     rowWidthMinusTwo] << 8) + (dem[     rowWidthMinusOne] & 0xFF);
-			ll_corner = (dem[i1                   ] << 8) + (dem[i1 + 1               ] & 0xFF);
-			lr_corner = (dem[i1 + rowWidthMinusTwo] << 8) + (dem[i1 + rowWidthMinusOne] & 0xFF);
+			ul_corner = dem[0];
+			ur_corner = dem[rowWidthMinusOne];
+			ll_corner = dem[i1];
+			lr_corner = dem[i1 + rowWidthMinusOne];
 
-			if ((leftTile == null) || (leftTile.jp2 == null) || (leftTile.jp2.level != drawZlevel)) {
+			if (leftJunction) {
 				left_dem_slope   = (ll_corner - ul_corner) * oneOverNrowsZ;
 			}
-			if ((rightTile == null) || (rightTile.jp2 == null) || (rightTile.jp2.level != drawZlevel)) {
+			if (rightJunction) {
 				right_dem_slope  = (lr_corner - ur_corner) * oneOverNrowsZ;
 			}
-			if ((aboveTile == null) || (aboveTile.jp2 == null) || (aboveTile.jp2.level != drawZlevel)) {
+			if (aboveJunction) {
 				top_dem_slope    = (ur_corner - ul_corner) * oneOverNrowsX;
 			}
-			if ((belowTile == null) || (belowTile.jp2 == null) || (belowTile.jp2.level != drawZlevel)) {
+			if (belowJunction) {
 				bottom_dem_slope = (lr_corner - ll_corner) * oneOverNrowsX;
 			}
 		}
@@ -277,8 +285,8 @@ class TileDirectModeRenderer_MathLookUp extends TileDirectModeRenderer implement
 		double cosZ = lookUpCos(lat);
 		double sinZ = lookUpCos(angle90-lat);
 
-		int pos_d1 = (startz * rowWidth) + (startx * 2);
-//		gl.glBegin(GL.GL_TRIANGLE_STRIP);
+		int pos_d1 = (startz * rowWidth) + startx;
+//		beginStrip();
 		for (int i = startz; i < endz; i++)	//startz can be equal to (endz-1)
 		{
 			final int lat2 = lat + dz;
@@ -309,8 +317,8 @@ class TileDirectModeRenderer_MathLookUp extends TileDirectModeRenderer implement
 				b_ez_wt = 1;
 			}
 
-			gl.glBegin(GL.GL_TRIANGLE_STRIP);
-			int pos_d1_save = pos_d1;	//int pos_d1 = (i * rowWidth) + (startx * 2);
+			beginStrip();
+			int pos_d1_save = pos_d1;	//int pos_d1 = (i * rowWidth) + startx;
 			int lon = xStart;
 			for (int j = startx; j < endx; j++)
 			{
@@ -323,7 +331,7 @@ class TileDirectModeRenderer_MathLookUp extends TileDirectModeRenderer implement
 					ex_wt = startxcoord - startx;
 					sx_wt = 1.0 - ex_wt;
 
-					pos_r1 = (i * rowWidth) + ((startx + 1) * 2);
+					pos_r1 = (i * rowWidth) + (startx + 1);
 					pos_r2 = pos_r1 + rowWidth;
 
 					tex_x = (float)(tex_inc * startxcoord);
@@ -332,7 +340,7 @@ class TileDirectModeRenderer_MathLookUp extends TileDirectModeRenderer implement
 					ex_wt = endx - endxcoord;
 					sx_wt = 1.0 - ex_wt;
 
-					pos_r1 = (i * rowWidth) + ((j - 1) * 2);
+					pos_r1 = (i * rowWidth) + (j - 1);
 					pos_r2 = pos_r1 + rowWidth;
 
 					tex_x = (float)(tex_inc * (endxcoord - 1));
@@ -359,22 +367,22 @@ class TileDirectModeRenderer_MathLookUp extends TileDirectModeRenderer implement
 					}
 					else if ((i == startz) && (top_dem_slope != -1)) {
 						dy1 = ul_corner + (j * top_dem_slope);
-						dy2 = (dem[pos_d2] << 8) + (dem[pos_d2 + 1] & 0xFF);
+						dy2 = dem[pos_d2];
 					}
 					else if ((i == (endz - 1)) && (bottom_dem_slope != -1)) {
-						dy1 = (dem[pos_d1] << 8) + (dem[pos_d1 + 1] & 0xFF);
+						dy1 = dem[pos_d1];
 						dy2 = ll_corner + (j * bottom_dem_slope);
 					}
 					else {
-						dy1 = (dem[pos_d1] << 8) + (dem[pos_d1 + 1] & 0xFF);
-						dy2 = (dem[pos_d2] << 8) + (dem[pos_d2 + 1] & 0xFF);
+						dy1 = dem[pos_d1];
+						dy2 = dem[pos_d2];
 					}
 				}
 				else {
-					double f1 = ((dem[pos_d1] << 8) + (dem[pos_d1 + 1] & 0xFF)) * sx_wt;
-					double f2 = ((dem[pos_r1] << 8) + (dem[pos_r1 + 1] & 0xFF)) * ex_wt;
-					double f3 = ((dem[pos_d2] << 8) + (dem[pos_d2 + 1] & 0xFF)) * sx_wt;
-					double f4 = ((dem[pos_r2] << 8) + (dem[pos_r2 + 1] & 0xFF)) * ex_wt;
+					double f1 = dem[pos_d1] * sx_wt;
+					double f2 = dem[pos_r1] * ex_wt;
+					double f3 = dem[pos_d2] * sx_wt;
+					double f4 = dem[pos_r2] * ex_wt;
 
 					dy1 = (f1 * t_sz_wt) + (f2 * t_sz_wt) + (f3 * t_ez_wt) + (f4 * t_ez_wt);
 					dy2 = (f1 * b_sz_wt) + (f2 * b_sz_wt) + (f3 * b_ez_wt) + (f4 * b_ez_wt);
@@ -396,21 +404,21 @@ class TileDirectModeRenderer_MathLookUp extends TileDirectModeRenderer implement
 					cz2 =  dy2E * cos2Z * cosX;
 				}
 
-				gl.glTexCoord2f(tex_x, tex_z);
-				gl.glVertex3d(cx1, cy1, cz1);
+				texCoord(tex_x, tex_z);
+				vertex(cx1, cy1, cz1);
 
-				gl.glTexCoord2f(tex_x, tex_z2);
-				gl.glVertex3d(cx2, cy2, cz2);
+				texCoord(tex_x, tex_z2);
+				vertex(cx2, cy2, cz2);
 
-				pos_d1 += 2;
+				pos_d1++;
 				lon    += dx;
 			}
-			gl.glEnd();
+			endStrip();
 
 			lat = lat2; cosZ = cos2Z; sinZ = sin2Z;
 			pos_d1 = pos_d1_save + rowWidth;
 		}
-//		gl.glEnd();
+//		endStrip();
 
 		if(DEBUG) {
 			int numVertices = 2 * (endx-startx) * (endz-startz);
@@ -426,11 +434,11 @@ class TileDirectModeRenderer_MathLookUp extends TileDirectModeRenderer implement
 		}
 
 		final Level drawLevel = landscape.levels[drawZlevel];
-		final byte[] dem = jtile.dem.demDatas;
-		final int numRows = jtile.dem.numRows;
-		final boolean useColor = (landscape.displayMode == Landscape.DISPLAY_SHADEDDEM);
+		final short[] dem = elevationDem.heights;
+		final int numRows = elevationDem.numRows;
+		final boolean useColor = (displayMode == Landscape.DISPLAY_SHADEDDEM);
 
-		final int rowWidth = numRows * 2;	// assuming we have a square tile
+		final int rowWidth = numRows;	// assuming we have a square tile
 
 		final boolean xsinterpolate, xeinterpolate, zsinterpolate, zeinterpolate;
 		final double startxcoord, startzcoord, endxcoord, endzcoord;
@@ -465,24 +473,23 @@ class TileDirectModeRenderer_MathLookUp extends TileDirectModeRenderer implement
 		final boolean eqZLevel = (drawZlevel == ZLevel);
 		if (eqZLevel && (xStart == upLeftX) && (xEnd == lowRightX) && (zStart == upLeftZ) && (zEnd == lowRightZ)) {
 			final int rowWidthMinusOne = rowWidth - 1;
-			final int rowWidthMinusTwo = rowWidth - 2;
 			final int i1 = rowWidth * (numRows - 1);
 
-			ul_corner = (dem[     0               ] << 8) + (dem[     1               ] & 0xFF);
-			ur_corner = (dem[     rowWidthMinusTwo] << 8) + (dem[     rowWidthMinusOne] & 0xFF);
-			ll_corner = (dem[i1                   ] << 8) + (dem[i1 + 1               ] & 0xFF);
-			lr_corner = (dem[i1 + rowWidthMinusTwo] << 8) + (dem[i1 + rowWidthMinusOne] & 0xFF);
+			ul_corner = dem[0];
+			ur_corner = dem[rowWidthMinusOne];
+			ll_corner = dem[i1];
+			lr_corner = dem[i1 + rowWidthMinusOne];
 
-			if ((leftTile == null) || (leftTile.jp2 == null) || (leftTile.jp2.level != drawZlevel)) {
+			if (leftJunction) {
 				left_dem_slope   = (ll_corner - ul_corner) * oneOverNrowsZ;
 			}
-			if ((rightTile == null) || (rightTile.jp2 == null) || (rightTile.jp2.level != drawZlevel)) {
+			if (rightJunction) {
 				right_dem_slope  = (lr_corner - ur_corner) * oneOverNrowsZ;
 			}
-			if ((aboveTile == null) || (aboveTile.jp2 == null) || (aboveTile.jp2.level != drawZlevel)) {
+			if (aboveJunction) {
 				top_dem_slope    = (ur_corner - ul_corner) * oneOverNrowsX;
 			}
-			if ((belowTile == null) || (belowTile.jp2 == null) || (belowTile.jp2.level != drawZlevel)) {
+			if (belowJunction) {
 				bottom_dem_slope = (lr_corner - ll_corner) * oneOverNrowsX;
 			}
 		}
@@ -499,8 +506,8 @@ class TileDirectModeRenderer_MathLookUp extends TileDirectModeRenderer implement
 		double cosZ = lookUpCos(lat);
 		double sinZ = lookUpCos(angle90-lat);
 
-		int pos_d1 = (startz * rowWidth) + (startx * 2);
-//		gl.glBegin(GL.GL_TRIANGLE_STRIP);
+		int pos_d1 = (startz * rowWidth) + startx;
+//		beginStrip();
 		for (int i = startz; i < endz; i++)	//startz can be equal to (endz-1)
 		{
 			final int lat2 = lat + dz;
@@ -526,8 +533,8 @@ class TileDirectModeRenderer_MathLookUp extends TileDirectModeRenderer implement
 				b_ez_wt = 1;
 			}
 
-			gl.glBegin(GL.GL_TRIANGLE_STRIP);
-			int pos_d1_save = pos_d1;	//int pos_d1 = (i * rowWidth) + (startx * 2);
+			beginStrip();
+			int pos_d1_save = pos_d1;	//int pos_d1 = (i * rowWidth) + startx;
 			int lon = xStart;
 			for (int j = startx; j < endx; j++)
 			{
@@ -539,14 +546,14 @@ class TileDirectModeRenderer_MathLookUp extends TileDirectModeRenderer implement
 					ex_wt = startxcoord - startx;
 					sx_wt = 1.0 - ex_wt;
 
-					pos_r1 = (i * rowWidth) + ((startx + 1) * 2);
+					pos_r1 = (i * rowWidth) + (startx + 1);
 					pos_r2 = pos_r1 + rowWidth;
 				}
 				else if (xeinterpolate && (j == (endx - 1))) {
 					ex_wt = endx - endxcoord;
 					sx_wt = 1.0 - ex_wt;
 
-					pos_r1 = (i * rowWidth) + ((j - 1) * 2);
+					pos_r1 = (i * rowWidth) + (j - 1);
 					pos_r2 = pos_r1 + rowWidth;
 				}
 				else {
@@ -569,22 +576,22 @@ class TileDirectModeRenderer_MathLookUp extends TileDirectModeRenderer implement
 					}
 					else if ((i == startz) && (top_dem_slope != -1)) {
 						dy1 = ul_corner + (j * top_dem_slope);
-						dy2 = (dem[pos_d2] << 8) + (dem[pos_d2 + 1] & 0xFF);
+						dy2 = dem[pos_d2];
 					}
 					else if ((i == (endz - 1)) && (bottom_dem_slope != -1)) {
-						dy1 = (dem[pos_d1] << 8) + (dem[pos_d1 + 1] & 0xFF);
+						dy1 = dem[pos_d1];
 						dy2 = ll_corner + (j * bottom_dem_slope);
 					}
 					else {
-						dy1 = (dem[pos_d1] << 8) + (dem[pos_d1 + 1] & 0xFF);
-						dy2 = (dem[pos_d2] << 8) + (dem[pos_d2 + 1] & 0xFF);
+						dy1 = dem[pos_d1];
+						dy2 = dem[pos_d2];
 					}
 				}
 				else {
-					double f1 = ((dem[pos_d1] << 8) + (dem[pos_d1 + 1] & 0xFF)) * sx_wt;
-					double f2 = ((dem[pos_r1] << 8) + (dem[pos_r1 + 1] & 0xFF)) * ex_wt;
-					double f3 = ((dem[pos_d2] << 8) + (dem[pos_d2 + 1] & 0xFF)) * sx_wt;
-					double f4 = ((dem[pos_r2] << 8) + (dem[pos_r2 + 1] & 0xFF)) * ex_wt;
+					double f1 = dem[pos_d1] * sx_wt;
+					double f2 = dem[pos_r1] * ex_wt;
+					double f3 = dem[pos_d2] * sx_wt;
+					double f4 = dem[pos_r2] * ex_wt;
 
 					dy1 = (f1 * t_sz_wt) + (f2 * t_sz_wt) + (f3 * t_ez_wt) + (f4 * t_ez_wt);
 					dy2 = (f1 * b_sz_wt) + (f2 * b_sz_wt) + (f3 * b_ez_wt) + (f4 * b_ez_wt);
@@ -612,22 +619,22 @@ class TileDirectModeRenderer_MathLookUp extends TileDirectModeRenderer implement
 				if (useColor) {
 					setColor((float) dy1);
 				}
-				gl.glVertex3d(cx1, cy1, cz1);
+				vertex(cx1, cy1, cz1);
 
 				if (useColor) {
 					setColor((float) dy2);
 				}
-				gl.glVertex3d(cx2, cy2, cz2);
+				vertex(cx2, cy2, cz2);
 
-				pos_d1 += 2;
+				pos_d1++;
 				lon    += dx;
 			}
-			gl.glEnd();
+			endStrip();
 
 			lat = lat2; cosZ = cos2Z; sinZ = sin2Z;
 			pos_d1 = pos_d1_save + rowWidth;
 		}
-//		gl.glEnd();
+//		endStrip();
 
 		if(DEBUG) {
 			int numVertices = 2 * (endx-startx) * (endz-startz);
@@ -674,7 +681,7 @@ class TileDirectModeRenderer_MathLookUp extends TileDirectModeRenderer implement
 		final int xIncr = sizeX / n;
 		final int zIncr = sizeZ / n;
 
-		gl.glBegin(GL.GL_TRIANGLE_STRIP);
+		beginStrip();
 		int lat1 = zStart;
 		double cosY1 = lookUpCos(lat1) * EARTH_RADIUS;
 		double sinY1 = -lookUpCos(angle90-lat1) * EARTH_RADIUS;
@@ -690,7 +697,7 @@ class TileDirectModeRenderer_MathLookUp extends TileDirectModeRenderer implement
 			int lon = xStart;
 			float tx = txStart;
 
-			//gl.glBegin(GL.GL_TRIANGLE_STRIP);
+			//beginStrip();
 			for (int i = 0; i <= n; i++)
 			{
 				//setSphericalCoord(lon, lat1, dst1);
@@ -709,16 +716,16 @@ class TileDirectModeRenderer_MathLookUp extends TileDirectModeRenderer implement
 				pt2Y = sinY2;
 				pt2Z = cosY2 * cosX;
 
-				gl.glTexCoord2f(tx, ty1);
-				gl.glVertex3d(pt1X, pt1Y, pt1Z);
+				texCoord(tx, ty1);
+				vertex(pt1X, pt1Y, pt1Z);
 
-				gl.glTexCoord2f(tx, ty2);
-				gl.glVertex3d(pt2X, pt2Y, pt2Z);
+				texCoord(tx, ty2);
+				vertex(pt2X, pt2Y, pt2Z);
 
 				lon += xIncr;
 				tx += txIncr;
 			}
-			//gl.glEnd();
+			//endStrip();
 
 			lat1 = lat2;
 			cosY1 = cosY2;
@@ -726,7 +733,7 @@ class TileDirectModeRenderer_MathLookUp extends TileDirectModeRenderer implement
 
 			ty1 += tzIncr;
 		}
-		gl.glEnd();
+		endStrip();
 
 		if(DEBUG) {
 			int numVertices = 2*n*(n+1);
@@ -756,10 +763,10 @@ class TileDirectModeRenderer_MathLookUp extends TileDirectModeRenderer implement
 		final int xIncr = sizeX / n;
 		final int zIncr = sizeZ / n;
 
-		final boolean useColor = (landscape.displayMode == Landscape.DISPLAY_SHADEDDEM);
-		if(useColor) gl.glColor3f(tileColor[0], tileColor[1], tileColor[2]);
+		final boolean useColor = (displayMode == Landscape.DISPLAY_SHADEDDEM);
+		if(useColor) color(tileColor[0], tileColor[1], tileColor[2]);
 
-		gl.glBegin(GL.GL_TRIANGLE_STRIP);
+		beginStrip();
 		int lat1 = zStart;
 		double cosY1 = lookUpCos(lat1) * EARTH_RADIUS;
 		double sinY1 = -lookUpCos(angle90-lat1) * EARTH_RADIUS;
@@ -771,7 +778,7 @@ class TileDirectModeRenderer_MathLookUp extends TileDirectModeRenderer implement
 
 			int lon = xStart;
 
-			//gl.glBegin(GL.GL_TRIANGLE_STRIP);
+			//beginStrip();
 			for (int i = 0; i <= n; i++)
 			{
 				//setSphericalCoord(lon, lat1, dst1);
@@ -790,19 +797,19 @@ class TileDirectModeRenderer_MathLookUp extends TileDirectModeRenderer implement
 				pt2Y = sinY2;
 				pt2Z = cosY2 * cosX;
 
-				gl.glVertex3d(pt1X, pt1Y, pt1Z);
+				vertex(pt1X, pt1Y, pt1Z);
 
-				gl.glVertex3d(pt2X, pt2Y, pt2Z);
+				vertex(pt2X, pt2Y, pt2Z);
 
 				lon += xIncr;
 			}
-			//gl.glEnd();
+			//endStrip();
 
 			lat1 = lat2;
 			cosY1 = cosY2;
 			sinY1 = sinY2;
 		}
-		gl.glEnd();
+		endStrip();
 //		gl.glColor3f(1, 1, 1);	//This should be done somewhere
 
 		if(DEBUG) {
@@ -0,0 +1,149 @@
+/**
+ * Ptolemy3D - a Java-based 3D Viewer for GeoWeb applications.
+ * Copyright (C) 2008 Mark W. Korver
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ptolemy3d.tile;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.ptolemy3d.debug.IO;
+import org.ptolemy3d.tile.TileMeshRecorder.Geometry;
+
+/**
+ * Generate tile meshes in background threads.<BR>
+ * The rendering thread submits the subsections it has no mesh for, with a copy of the renderer
+ * datas. Builder threads compute the geometry (spherical coordinates, elevation interpolation)
+ * and the rendering thread polls the finished jobs to upload them.<BR>
+ * The job queue is bounded: when full, a subsection is submitted again at a later frame.
+ */
+class TileMeshBuilder
+{
+	/** A mesh to generate */
+	static class Job
+	{
+		/** Mesh key of the renderer */
+		final Object key;
+		/** Renderer generation when the job has been submitted */
+		final int generation;
+		/** Copy of the renderer datas */
+		final TileDirectModeRenderer state;
+		final boolean texture, useDem, useTin;
+		final int x1, z1, x2, z2;
+
+		/* Filled by the builder thread */
+		/** Generated geometry, null if it failed */
+		Geometry geometry = null;
+
+		Job(Object key, int generation, TileDirectModeRenderer renderer,
+				boolean texture, boolean useDem, boolean useTin, int x1, int z1, int x2, int z2)
+		{
+			this.key = key;
+			this.generation = generation;
+			this.state = new TileDirectModeRenderer();
+			this.state.copyLocalVariables(renderer);
+			this.texture = texture;
+			this.useDem = useDem;
+			this.useTin = useTin;
+			this.x1 = x1; this.z1 = z1;
+			this.x2 = x2; this.z2 = z2;
+		}
+	}
+
+	/** Maximum number of jobs waiting for a builder thread */
+	private final static int MAX_PENDING = 64;
+
+	private final BlockingQueue<Job> jobs = new ArrayBlockingQueue<Job>(MAX_PENDING);
+	private final ConcurrentLinkedQueue<Job> finished = new ConcurrentLinkedQueue<Job>();
+	private final Thread[] builders;
+	private volatile boolean on = false;
+
+	TileMeshBuilder(int numBuilders)
+	{
+		if (numBuilders < 1) {
+			numBuilders = 1;
+		}
+		builders = new Thread[numBuilders];
+		for (int i = 0; i < numBuilders; i++) {
+			builders[i] = new Thread("TileMeshBuilderThread-" + i) {
+				public void run()
+				{
+					buildLoop(new TileMeshRecorder());
+				}
+			};
+		}
+	}
+
+	final void start()
+	{
+		on = true;
+		for (int i = 0; i < builders.length; i++) {
+			builders[i].setDaemon(true);
+			builders[i].setPriority(Thread.MIN_PRIORITY);
+			builders[i].start();
+		}
+	}
+
+	/** Stop the builder threads, pending and finished jobs are dropped. */
+	final void stop()
+	{
+		on = false;
+		for (int i = 0; i < builders.length; i++) {
+			builders[i].interrupt();
+		}
+		jobs.clear();
+		finished.clear();
+	}
+
+	/**
+	 * Submit a job, without blocking.
+	 * @return false if the job queue is full
+	 */
+	final boolean submit(Job job)
+	{
+		return jobs.offer(job);
+	}
+
+	/** @return a finished job, null if none */
+	final Job poll()
+	{
+		return finished.poll();
+	}
+
+	private final void buildLoop(TileMeshRecorder recorder)
+	{
+		while (on) {
+			final Job job;
+			try {
+				job = jobs.take();
+			}
+			catch (InterruptedException e) {
+				break;
+			}
+
+			try {
+				job.geometry = recorder.record(job.state, job.texture, job.useDem, job.useTin, job.x1, job.z1, job.x2, job.z2);
+			}
+			catch (Exception e) {
+				IO.printStackRenderer(e);
+			}
+			if (on) {
+				finished.add(job);
+			}
+		}
+	}
+}
@@ -0,0 +1,143 @@
+/**
+ * Ptolemy3D - a Java-based 3D Viewer for GeoWeb applications.
+ * Copyright (C) 2008 Mark W. Korver
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ptolemy3d.tile;
+
+/**
+ * Record the geometry of the direct mode renderer as indexed triangles, without any GL call.<BR>
+ * Vertices are stored in float, relative to the first vertex of the mesh, to keep the precision
+ * of the double coordinates far from the globe center.<BR>
+ * Not thread-safe: each mesh builder thread has its own recorder.
+ */
+class TileMeshRecorder extends TileDirectModeRenderer_MathLookUp
+{
+	/** Recorded geometry */
+	static class Geometry
+	{
+		double originX, originY, originZ;
+		int numVertices, numIndices;
+		float[] positions;
+		/** null if not present */
+		float[] texCoords, colors;
+		int[] indices;
+	}
+
+	private float[] positions = new float[3 * 1024];
+	private float[] texCoords = new float[2 * 1024];
+	private float[] colors = new float[3 * 1024];
+	private int[] indices = new int[3 * 1024];
+	private int numVertices, numIndices, stripStart;
+	private boolean hasTexCoords, hasColors;
+	private double originX, originY, originZ;
+	private float curS, curT, curR, curG, curB;
+
+	public TileMeshRecorder() {}
+
+	/** @return the geometry the renderer <code>from</code> would draw for the subsection */
+	final Geometry record(TileDirectModeRenderer from, boolean texture, boolean useDem, boolean useTin, int x1, int z1, int x2, int z2)
+	{
+		copyLocalVariables(from);
+
+		numVertices = numIndices = stripStart = 0;
+		hasTexCoords = hasColors = false;
+		curS = curT = 0;
+		curR = curG = curB = 1;
+		drawGeometry(texture, useDem, useTin, x1, z1, x2, z2);
+
+		final Geometry geometry = new Geometry();
+		geometry.originX = originX;
+		geometry.originY = originY;
+		geometry.originZ = originZ;
+		geometry.numVertices = numVertices;
+		geometry.numIndices = numIndices;
+		geometry.positions = copy(positions, numVertices * 3);
+		geometry.texCoords = hasTexCoords ? copy(texCoords, numVertices * 2) : null;
+		geometry.colors = hasColors ? copy(colors, numVertices * 3) : null;
+		geometry.indices = new int[numIndices];
+		System.arraycopy(indices, 0, geometry.indices, 0, numIndices);
+		return geometry;
+	}
+
+	protected void beginStrip()
+	{
+		stripStart = numVertices;
+	}
+	protected void endStrip()
+	{
+	}
+	protected void texCoord(float s, float t)
+	{
+		curS = s;
+		curT = t;
+		hasTexCoords = true;
+	}
+	protected void color(float r, float g, float b)
+	{
+		curR = r;
+		curG = g;
+		curB = b;
+		hasColors = true;
+	}
+	protected void vertex(double x, double y, double z)
+	{
+		if (numVertices == 0) {
+			originX = x;
+			originY = y;
+			originZ = z;
+		}
+		if ((numVertices * 3) == positions.length) {
+			positions = copy(positions, positions.length * 2);
+			texCoords = copy(texCoords, texCoords.length * 2);
+			colors = copy(colors, colors.length * 2);
+		}
+		final int v = numVertices++;
+		positions[v * 3    ] = (float) (x - originX);
+		positions[v * 3 + 1] = (float) (y - originY);
+		positions[v * 3 + 2] = (float) (z - originZ);
+		texCoords[v * 2    ] = curS;
+		texCoords[v * 2 + 1] = curT;
+		colors[v * 3    ] = curR;
+		colors[v * 3 + 1] = curG;
+		colors[v * 3 + 2] = curB;
+
+		// Triangle strip to triangles, keeping the winding
+		final int k = v - stripStart;
+		if (k >= 2) {
+			if ((numIndices + 3) > indices.length) {
+				final int[] newIndices = new int[indices.length * 2];
+				System.arraycopy(indices, 0, newIndices, 0, numIndices);
+				indices = newIndices;
+			}
+			if ((k & 1) == 0) {
+				indices[numIndices++] = v - 2;
+				indices[numIndices++] = v - 1;
+			}
+			else {
+				indices[numIndices++] = v - 1;
+				indices[numIndices++] = v - 2;
+			}
+			indices[numIndices++] = v;
+		}
+	}
+
+	private final static float[] copy(float[] array, int length)
+	{
+		final float[] newArray = new float[length];
+		System.arraycopy(array, 0, newArray, 0, Math.min(length, array.length));
+		return newArray;
+	}
+}
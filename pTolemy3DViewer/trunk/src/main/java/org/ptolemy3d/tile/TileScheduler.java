@@ -0,0 +1,206 @@
+/**
+ * Ptolemy3D - a Java-based 3D Viewer for GeoWeb applications.
+ * Copyright (C) 2008 Mark W. Korver
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ptolemy3d.tile;
+
+import java.util.Arrays;
+
+import org.ptolemy3d.tile.Jp2TilePipeline.Job;
+
+/**
+ * Tile request scheduler.<BR>
+ * Requests waiting to be scheduled are kept in an indexed binary heap: the request with the
+ * lowest priority value is served first, and the priority of a request can be changed in
+ * place when the camera moves.<BR>
+ * A request is identified by a key built from its level, tile and slot (header or resolution).
+ * Jobs handed to the pipeline are remembered per key, so they can be cancelled.<BR>
+ * Only used by the tile loader thread.
+ */
+class TileScheduler
+{
+	/** Slot of the header request, resolution <code>res</code> uses slot <code>res + 1</code> */
+	final static int HEADER = 0;
+	/** Number of request slots per tile */
+	final static int NUM_SLOTS = Jp2Tile.NUM_RESOLUTION + 1;
+
+	/** Heap of keys */
+	private final int[] heap;
+	/** Position of each key in the heap, -1 if not in the heap */
+	private final int[] position;
+	/** Priority of each key */
+	private final double[] priority;
+	/** Jobs handed to the pipeline */
+	private final Job[] pending;
+	private int size;
+
+	TileScheduler(int numLevels)
+	{
+		final int numKeys = numLevels * Level.LEVEL_NUMTILES * NUM_SLOTS;
+		heap = new int[numKeys];
+		position = new int[numKeys];
+		priority = new double[numKeys];
+		pending = new Job[numKeys];
+		Arrays.fill(position, -1);
+	}
+
+	/** @return the key of a request */
+	final static int key(int level, int tileId, int slot)
+	{
+		return ((level * Level.LEVEL_NUMTILES) + tileId) * NUM_SLOTS + slot;
+	}
+	final static int level(int key)
+	{
+		return key / (Level.LEVEL_NUMTILES * NUM_SLOTS);
+	}
+	final static int tileId(int key)
+	{
+		return (key / NUM_SLOTS) % Level.LEVEL_NUMTILES;
+	}
+	final static int slot(int key)
+	{
+		return key % NUM_SLOTS;
+	}
+
+	final boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	final boolean contains(int key)
+	{
+		return position[key] != -1;
+	}
+
+	/** @return the key with the lowest priority value, -1 if empty */
+	final int peek()
+	{
+		return (size == 0) ? -1 : heap[0];
+	}
+
+	/** Remove and return the key with the lowest priority value, -1 if empty. */
+	final int poll()
+	{
+		if (size == 0) {
+			return -1;
+		}
+		final int key = heap[0];
+		remove(key);
+		return key;
+	}
+
+	/** Insert a request, or change its priority if already waiting. */
+	final void update(int key, double prio)
+	{
+		int pos = position[key];
+		if (pos == -1) {
+			pos = size++;
+			heap[pos] = key;
+			position[key] = pos;
+			priority[key] = prio;
+			siftUp(pos);
+		}
+		else {
+			final double old = priority[key];
+			priority[key] = prio;
+			if (prio < old) {
+				siftUp(pos);
+			}
+			else if (prio > old) {
+				siftDown(pos);
+			}
+		}
+	}
+
+	/** Remove a request if waiting. */
+	final void remove(int key)
+	{
+		final int pos = position[key];
+		if (pos == -1) {
+			return;
+		}
+		position[key] = -1;
+		size--;
+		if (pos != size) {
+			final int last = heap[size];
+			heap[pos] = last;
+			position[last] = pos;
+			siftUp(pos);
+			siftDown(position[last]);
+		}
+	}
+
+	/** Remove all the waiting requests and forget the pending jobs. */
+	final void clear()
+	{
+		for (int i = 0; i < size; i++) {
+			position[heap[i]] = -1;
+		}
+		size = 0;
+		Arrays.fill(pending, null);
+	}
+
+	final Job getPending(int key)
+	{
+		return pending[key];
+	}
+	final void setPending(int key, Job job)
+	{
+		pending[key] = job;
+	}
+
+	private final void siftUp(int pos)
+	{
+		final int key = heap[pos];
+		final double prio = priority[key];
+		while (pos > 0) {
+			final int parent = (pos - 1) >> 1;
+			final int parentKey = heap[parent];
+			if (priority[parentKey] <= prio) {
+				break;
+			}
+			heap[pos] = parentKey;
+			position[parentKey] = pos;
+			pos = parent;
+		}
+		heap[pos] = key;
+		position[key] = pos;
+	}
+
+	private final void siftDown(int pos)
+	{
+		final int key = heap[pos];
+		final double prio = priority[key];
+		final int half = size >> 1;
+		while (pos < half) {
+			int child = (pos << 1) + 1;
+			int childKey = heap[child];
+			final int right = child + 1;
+			if ((right < size) && (priority[heap[right]] < priority[childKey])) {
+				child = right;
+				childKey = heap[child];
+			}
+			if (prio <= priority[childKey]) {
+				break;
+			}
+			heap[pos] = childKey;
+			position[childKey] = pos;
+			pos = child;
+		}
+		heap[pos] = key;
+		position[key] = pos;
+	}
+}
@@ -0,0 +1,430 @@
+/**
+ * Ptolemy3D - a Java-based 3D Viewer for GeoWeb applications.
+ * Copyright (C) 2008 Mark W. Korver
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ptolemy3d.tile;
+
+import static org.ptolemy3d.debug.Config.DEBUG;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import javax.media.opengl.GL;
+
+import org.ptolemy3d.debug.IO;
+import org.ptolemy3d.debug.ProfilerInterface;
+import org.ptolemy3d.scene.Landscape;
+import org.ptolemy3d.tile.TileMeshBuilder.Job;
+import org.ptolemy3d.tile.TileMeshRecorder.Geometry;
+
+/**
+ * Tile renderer drawing meshes cached in vertex buffer objects.<BR>
+ * The geometry of a subsection is generated once by the mesh builder threads, as indexed
+ * triangles, and uploaded in a VBO/IBO. It is then drawn with <code>glDrawElements</code>
+ * until its elevation data, level or neighbour junctions change.<BR>
+ * Until its mesh is ready, a subsection is drawn in direct mode.<BR>
+ * Meshes are evicted in least recently used order when they use more than <code>MAX_MEMORY</code>.<BR>
+ * Falls back to the direct mode when VBO are not supported.
+ */
+class TileVBORenderer extends TileDirectModeRenderer_MathLookUp
+{
+	/** Maximum memory of the cached meshes, in bytes */
+	private final static int MAX_MEMORY = 32 * 1024 * 1024;
+
+	/** Identify the geometry of a subsection */
+	private static class MeshKey
+	{
+		/** Stamp of the elevation data, ElevationDem or ElevationTin, 0 for flat tiles */
+		int elevation;
+		int x1, z1, x2, z2;
+		int upLeftX, upLeftZ, lowRightX, lowRightZ;
+		int drawZlevel, ZLevel;
+		/** Texture, color and neighbour junctions */
+		int flags;
+
+		final MeshKey copy()
+		{
+			final MeshKey key = new MeshKey();
+			key.elevation = elevation;
+			key.x1 = x1; key.z1 = z1; key.x2 = x2; key.z2 = z2;
+			key.upLeftX = upLeftX; key.upLeftZ = upLeftZ;
+			key.lowRightX = lowRightX; key.lowRightZ = lowRightZ;
+			key.drawZlevel = drawZlevel; key.ZLevel = ZLevel;
+			key.flags = flags;
+			return key;
+		}
+
+		public int hashCode()
+		{
+			int hash = elevation;
+			hash = hash * 31 + x1;
+			hash = hash * 31 + z1;
+			hash = hash * 31 + x2;
+			hash = hash * 31 + z2;
+			hash = hash * 31 + upLeftX;
+			hash = hash * 31 + upLeftZ;
+			hash = hash * 31 + drawZlevel;
+			hash = hash * 31 + ZLevel;
+			return hash * 31 + flags;
+		}
+
+		public boolean equals(Object obj)
+		{
+			if (!(obj instanceof MeshKey)) {
+				return false;
+			}
+			final MeshKey key = (MeshKey) obj;
+			return (elevation == key.elevation) &&
+				(x1 == key.x1) && (z1 == key.z1) && (x2 == key.x2) && (z2 == key.z2) &&
+				(upLeftX == key.upLeftX) && (upLeftZ == key.upLeftZ) &&
+				(lowRightX == key.lowRightX) && (lowRightZ == key.lowRightZ) &&
+				(drawZlevel == key.drawZlevel) && (ZLevel == key.ZLevel) && (flags == key.flags);
+		}
+	}
+
+	/** A mesh the builder failed to generate */
+	private static class Failure
+	{
+		/** Time of the next try, in ms */
+		long retryTime;
+		/** Delay before the next try, doubled on each failure */
+		int delay;
+	}
+
+	/** A mesh uploaded in the GPU memory */
+	private static class Mesh
+	{
+		/** Buffers, 0 for an empty mesh */
+		int vertexBuffer, indexBuffer;
+		double originX, originY, originZ;
+		int numVertices, numIndices;
+		int indexType;
+		/** Offsets in the vertex buffer, -1 if not present */
+		int texCoordOffset, colorOffset;
+		int memory;
+	}
+
+	private final static int FLAG_TEXTURE = 1 << 0;
+	private final static int FLAG_COLOR   = 1 << 1;
+	private final static int FLAG_LEFT    = 1 << 2;
+	private final static int FLAG_RIGHT   = 1 << 3;
+	private final static int FLAG_ABOVE   = 1 << 4;
+	private final static int FLAG_BELOW   = 1 << 5;
+	private final static int FLAG_DEM     = 1 << 6;
+	private final static int FLAG_TIN     = 1 << 7;
+
+	/** Delays before a failed mesh is submitted again, in ms */
+	private final static int MIN_RETRY_DELAY = 500, MAX_RETRY_DELAY = 30000;
+	/** Maximum number of failures remembered */
+	private final static int MAX_FAILURES = 256;
+
+	/** VBO support, null if not checked */
+	private Boolean supported = null;
+	/** Meshes in access order, least recently used first */
+	private final LinkedHashMap<MeshKey, Mesh> meshes = new LinkedHashMap<MeshKey, Mesh>(256, 0.75f, true);
+	private final MeshKey probe = new MeshKey();
+	private int memory = 0;
+	/** Meshes submitted to the builder */
+	private final HashSet<MeshKey> pending = new HashSet<MeshKey>();
+	/** Meshes the builder failed to generate, drawn in direct mode until their next try */
+	private final HashMap<MeshKey, Failure> failures = new HashMap<MeshKey, Failure>();
+	/** Incremented when the meshes are flushed, to drop the jobs submitted before */
+	private int generation = 0;
+	private TileMeshBuilder builder = null;
+	private ByteBuffer staging = null;
+
+	/* Landscape parameters of the cached meshes */
+	private double meshTerrainScaler;
+	private float meshMaxColorHeight;
+	private final float[] meshTileColor = new float[3];
+	private final float[] meshColorRatios = new float[3];
+
+	public TileVBORenderer() {}
+
+	protected void drawGeometry(boolean texture, boolean useDem, boolean useTin, int x1, int z1, int x2, int z2)
+	{
+		if (supported == null) {
+			supported = Boolean.valueOf(gl.isFunctionAvailable("glGenBuffers") &&
+					gl.isFunctionAvailable("glBindBuffer") &&
+					gl.isFunctionAvailable("glBufferData") &&
+					gl.isFunctionAvailable("glDeleteBuffers"));
+			if (!supported.booleanValue()) {
+				IO.printlnRenderer("TileVBORenderer: VBO not supported, direct mode used");
+			}
+		}
+		if (!supported.booleanValue()) {
+			super.drawGeometry(texture, useDem, useTin, x1, z1, x2, z2);
+			return;
+		}
+
+		checkLandscape();
+		uploadFinished();
+
+		probe.elevation = useDem ? elevationDem.stamp : (useTin ? elevationTin.stamp : 0);
+		probe.x1 = x1; probe.z1 = z1; probe.x2 = x2; probe.z2 = z2;
+		probe.upLeftX = upLeftX; probe.upLeftZ = upLeftZ;
+		probe.lowRightX = lowRightX; probe.lowRightZ = lowRightZ;
+		probe.drawZlevel = drawZlevel; probe.ZLevel = ZLevel;
+		probe.flags = (texture ? FLAG_TEXTURE : 0) |
+			((displayMode == Landscape.DISPLAY_SHADEDDEM) ? FLAG_COLOR : 0) |
+			(useDem ? FLAG_DEM : (useTin ? FLAG_TIN : 0)) |
+			(leftJunction  ? FLAG_LEFT  : 0) |
+			(rightJunction ? FLAG_RIGHT : 0) |
+			(aboveJunction ? FLAG_ABOVE : 0) |
+			(belowJunction ? FLAG_BELOW : 0);
+
+		final Mesh mesh = meshes.get(probe);
+		if (mesh != null) {
+			if(DEBUG) {
+				ProfilerInterface.vertexCounter += mesh.numVertices;
+				ProfilerInterface.vertexMemoryUsage += mesh.memory;
+			}
+			drawMesh(mesh);
+			return;
+		}
+
+		final Failure failure = failures.get(probe);
+		if (!pending.contains(probe) && ((failure == null) || (System.currentTimeMillis() >= failure.retryTime))) {
+			if (builder == null) {
+				final int numBuilders = Math.min(2, Runtime.getRuntime().availableProcessors() - 1);
+				builder = new TileMeshBuilder(numBuilders);
+				builder.start();
+			}
+			final MeshKey key = probe.copy();
+			if (builder.submit(new Job(key, generation, this, texture, useDem, useTin, x1, z1, x2, z2))) {
+				pending.add(key);
+			}
+		}
+		super.drawGeometry(texture, useDem, useTin, x1, z1, x2, z2);
+	}
+
+	/** Upload the meshes generated by the builder */
+	private final void uploadFinished()
+	{
+		if (builder == null) {
+			return;
+		}
+		Job job;
+		while ((job = builder.poll()) != null) {
+			if (job.generation != generation) {
+				continue;
+			}
+			final MeshKey key = (MeshKey) job.key;
+			pending.remove(key);
+			if (job.geometry != null) {
+				final Mesh mesh = uploadMesh(job.geometry);
+				meshes.put(key, mesh);
+				memory += mesh.memory;
+				failures.remove(key);
+			}
+			else {
+				// Not submitted again at each frame
+				Failure failure = failures.get(key);
+				if (failure == null) {
+					if (failures.size() >= MAX_FAILURES) {
+						failures.clear();
+					}
+					failure = new Failure();
+					failure.delay = MIN_RETRY_DELAY;
+					failures.put(key, failure);
+				}
+				else {
+					failure.delay = Math.min(failure.delay * 2, MAX_RETRY_DELAY);
+				}
+				failure.retryTime = System.currentTimeMillis() + failure.delay;
+			}
+		}
+		evict();
+	}
+
+	/** Flush the meshes if the landscape parameters used for their geometry have changed */
+	private final void checkLandscape()
+	{
+		if ((meshTerrainScaler != terrainScaler) || (meshMaxColorHeight != landscape.maxColorHeight) ||
+			(meshTileColor[0] != tileColor[0]) || (meshTileColor[1] != tileColor[1]) || (meshTileColor[2] != tileColor[2]) ||
+			(meshColorRatios[0] != colratios[0]) || (meshColorRatios[1] != colratios[1]) || (meshColorRatios[2] != colratios[2])) {
+			flush();
+
+			meshTerrainScaler = terrainScaler;
+			meshMaxColorHeight = landscape.maxColorHeight;
+			System.arraycopy(tileColor, 0, meshTileColor, 0, 3);
+			System.arraycopy(colratios, 0, meshColorRatios, 0, 3);
+		}
+	}
+
+	/** Remove least recently used meshes until the cache fits its memory */
+	private final void evict()
+	{
+		final Iterator<Mesh> it = meshes.values().iterator();
+		while ((memory > MAX_MEMORY) && (meshes.size() > 1) && it.hasNext()) {
+			final Mesh eldest = it.next();
+			it.remove();
+			deleteMesh(eldest);
+		}
+	}
+
+	private final void deleteMesh(Mesh mesh)
+	{
+		if (mesh.vertexBuffer != 0) {
+			gl.glDeleteBuffers(2, new int[]{mesh.vertexBuffer, mesh.indexBuffer}, 0);
+		}
+		memory -= mesh.memory;
+	}
+
+	/** Delete all the meshes */
+	private final void flush()
+	{
+		for (Mesh mesh : meshes.values()) {
+			deleteMesh(mesh);
+		}
+		meshes.clear();
+		memory = 0;
+		pending.clear();
+		failures.clear();
+		generation++;
+	}
+
+	public void destroyGL(GL gl)
+	{
+		this.gl = gl;
+		if (builder != null) {
+			builder.stop();
+			builder = null;
+		}
+		flush();
+		supported = null;
+	}
+
+	/* Mesh upload and draw */
+
+	private final Mesh uploadMesh(Geometry geometry)
+	{
+		final int numVertices = geometry.numVertices;
+		final int numIndices = geometry.numIndices;
+
+		final Mesh mesh = new Mesh();
+		mesh.originX = geometry.originX;
+		mesh.originY = geometry.originY;
+		mesh.originZ = geometry.originZ;
+		mesh.numVertices = numVertices;
+		mesh.numIndices = numIndices;
+		if (numIndices == 0) {
+			return mesh;
+		}
+
+		final boolean shortIndices = (numVertices <= 0x10000);
+		mesh.indexType = shortIndices ? GL.GL_UNSIGNED_SHORT : GL.GL_UNSIGNED_INT;
+
+		int vertexSize = numVertices * 3 * 4;
+		mesh.texCoordOffset = mesh.colorOffset = -1;
+		if (geometry.texCoords != null) {
+			mesh.texCoordOffset = vertexSize;
+			vertexSize += numVertices * 2 * 4;
+		}
+		if (geometry.colors != null) {
+			mesh.colorOffset = vertexSize;
+			vertexSize += numVertices * 3 * 4;
+		}
+		final int indexSize = numIndices * (shortIndices ? 2 : 4);
+		mesh.memory = vertexSize + indexSize;
+
+		final int[] buffers = new int[2];
+		gl.glGenBuffers(2, buffers, 0);
+		mesh.vertexBuffer = buffers[0];
+		mesh.indexBuffer = buffers[1];
+
+		ByteBuffer data = getStaging(vertexSize);
+		data.asFloatBuffer().put(geometry.positions, 0, numVertices * 3);
+		if (geometry.texCoords != null) {
+			data.position(mesh.texCoordOffset);
+			data.asFloatBuffer().put(geometry.texCoords, 0, numVertices * 2);
+		}
+		if (geometry.colors != null) {
+			data.position(mesh.colorOffset);
+			data.asFloatBuffer().put(geometry.colors, 0, numVertices * 3);
+		}
+		data.position(0);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, mesh.vertexBuffer);
+		gl.glBufferData(GL.GL_ARRAY_BUFFER, vertexSize, data, GL.GL_STATIC_DRAW);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+
+		data = getStaging(indexSize);
+		if (shortIndices) {
+			for (int i = 0; i < numIndices; i++) {
+				data.putShort((short) geometry.indices[i]);
+			}
+		}
+		else {
+			data.asIntBuffer().put(geometry.indices, 0, numIndices);
+		}
+		data.position(0);
+		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, mesh.indexBuffer);
+		gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, indexSize, data, GL.GL_STATIC_DRAW);
+		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
+
+		return mesh;
+	}
+
+	/** @return the staging buffer, cleared, of at least <code>size</code> bytes */
+	private final ByteBuffer getStaging(int size)
+	{
+		if ((staging == null) || (staging.capacity() < size)) {
+			staging = ByteBuffer.allocateDirect(Math.max(size, 64 * 1024)).order(ByteOrder.nativeOrder());
+		}
+		staging.clear();
+		staging.limit(size);
+		return staging;
+	}
+
+	private final void drawMesh(Mesh mesh)
+	{
+		if (mesh.numIndices == 0) {
+			return;
+		}
+
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, mesh.vertexBuffer);
+		gl.glEnableClientState(GL.GL_VERTEX_ARRAY);
+		gl.glVertexPointer(3, GL.GL_FLOAT, 0, 0);
+		if (mesh.texCoordOffset != -1) {
+			gl.glEnableClientState(GL.GL_TEXTURE_COORD_ARRAY);
+			gl.glTexCoordPointer(2, GL.GL_FLOAT, 0, mesh.texCoordOffset);
+		}
+		if (mesh.colorOffset != -1) {
+			gl.glEnableClientState(GL.GL_COLOR_ARRAY);
+			gl.glColorPointer(3, GL.GL_FLOAT, 0, mesh.colorOffset);
+		}
+		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, mesh.indexBuffer);
+
+		gl.glPushMatrix();
+		gl.glTranslated(mesh.originX, mesh.originY, mesh.originZ);
+		gl.glDrawElements(GL.GL_TRIANGLES, mesh.numIndices, mesh.indexType, 0);
+		gl.glPopMatrix();
+
+		if (mesh.colorOffset != -1) {
+			gl.glDisableClientState(GL.GL_COLOR_ARRAY);
+		}
+		if (mesh.texCoordOffset != -1) {
+			gl.glDisableClientState(GL.GL_TEXTURE_COORD_ARRAY);
+		}
+		gl.glDisableClientState(GL.GL_VERTEX_ARRAY);
+		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+	}
+}
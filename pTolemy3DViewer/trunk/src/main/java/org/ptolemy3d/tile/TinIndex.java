@@ -0,0 +1,242 @@
+/**
+ * Ptolemy3D - a Java-based 3D Viewer for GeoWeb applications.
+ * Copyright (C) 2008 Mark W. Korver
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ptolemy3d.tile;
+
+import org.ptolemy3d.math.Math3D;
+
+/**
+ * Bounding volume hierarchy over the triangles of the strips of a TIN.<BR>
+ * Nodes are split at the median of the triangle centers, along the longest side of their box.
+ * Tile units are the TIN units.
+ */
+class TinIndex extends TerrainIndex
+{
+	/** Maximum number of triangles of a leaf */
+	private final static int LEAF_SIZE = 4;
+	/** Node box: minX, minZ, maxX, maxZ, minY, maxY */
+	private final static int BOX = 6;
+
+	private final float[] positions;
+	private final int[] strips;
+	/** Triangles, by the index of their last vertex in <code>strips</code>, grouped by leaf */
+	private final int[] triangles;
+	private final float[] boxes;
+	/** Second child of the nodes (the first one follows its parent), -1 for a leaf */
+	private final int[] nodeRight;
+	/** Triangles of the leaves */
+	private final int[] nodeStart, nodeCount;
+	private int numNodes = 0;
+
+	TinIndex(float[] positions, int[] strips, int[] stripStart)
+	{
+		this.positions = positions;
+		this.strips = strips;
+
+		final int numStrips = stripStart.length - 1;
+		int numTriangles = 0;
+		for (int s = 0; s < numStrips; s++) {
+			numTriangles += Math.max(stripStart[s + 1] - stripStart[s] - 2, 0);
+		}
+		triangles = new int[numTriangles];
+		for (int s = 0, t = 0; s < numStrips; s++) {
+			for (int j = stripStart[s] + 2; j < stripStart[s + 1]; j++) {
+				triangles[t++] = j;
+			}
+		}
+
+		// Split nodes have more than LEAF_SIZE triangles: leaves have at least 2, except a single root
+		final int maxNodes = Math.max(numTriangles, 1);
+		boxes = new float[maxNodes * BOX];
+		nodeRight = new int[maxNodes];
+		nodeStart = new int[maxNodes];
+		nodeCount = new int[maxNodes];
+		build(0, numTriangles);
+	}
+
+	private final int build(int start, int end)
+	{
+		final int node = numNodes++;
+		final int b = node * BOX;
+		boxes[b    ] = boxes[b + 1] = boxes[b + 4] = Float.POSITIVE_INFINITY;
+		boxes[b + 2] = boxes[b + 3] = boxes[b + 5] = Float.NEGATIVE_INFINITY;
+		for (int t = start; t < end; t++) {
+			for (int k = 0; k < 3; k++) {
+				final int v = strips[triangles[t] - k] * 3;
+				boxes[b    ] = Math.min(boxes[b    ], positions[v    ]);
+				boxes[b + 1] = Math.min(boxes[b + 1], positions[v + 2]);
+				boxes[b + 2] = Math.max(boxes[b + 2], positions[v    ]);
+				boxes[b + 3] = Math.max(boxes[b + 3], positions[v + 2]);
+				boxes[b + 4] = Math.min(boxes[b + 4], positions[v + 1]);
+				boxes[b + 5] = Math.max(boxes[b + 5], positions[v + 1]);
+			}
+		}
+
+		if ((end - start) <= LEAF_SIZE) {
+			nodeRight[node] = -1;
+			nodeStart[node] = start;
+			nodeCount[node] = end - start;
+			return node;
+		}
+
+		final int axis = ((boxes[b + 2] - boxes[b]) >= (boxes[b + 3] - boxes[b + 1])) ? 0 : 2;
+		final int mid = (start + end) >>> 1;
+		select(start, end - 1, mid, axis);
+
+		build(start, mid);
+		nodeRight[node] = build(mid, end);
+		return node;
+	}
+
+	/** Sum of the 3 vertices along an axis: 3 times the triangle center */
+	private final float getCenter(int triangle, int axis)
+	{
+		return positions[strips[triangle    ] * 3 + axis] +
+		       positions[strips[triangle - 1] * 3 + axis] +
+		       positions[strips[triangle - 2] * 3 + axis];
+	}
+
+	/** Partial sort of <code>triangles[left..right]</code> so the k-th one is at its sorted place */
+	private final void select(int left, int right, int k, int axis)
+	{
+		while (left < right) {
+			final float pivot = getCenter(triangles[(left + right) >>> 1], axis);
+			int i = left, j = right;
+			while (i <= j) {
+				while (getCenter(triangles[i], axis) < pivot) {
+					i++;
+				}
+				while (getCenter(triangles[j], axis) > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					final int t = triangles[i];
+					triangles[i++] = triangles[j];
+					triangles[j--] = t;
+				}
+			}
+			if (k <= j) {
+				right = j;
+			}
+			else if (k >= i) {
+				left = i;
+			}
+			else {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Elevation at a point, interpolated in the first triangle holding it.
+	 * @return the elevation, <code>Float.NaN</code> if no triangle holds the point
+	 */
+	final float getHeight(float x, float z)
+	{
+		if (triangles.length == 0) {
+			return Float.NaN;
+		}
+		final int[] stack = new int[64];
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			final int node = stack[--top];
+			final int b = node * BOX;
+			if ((x < boxes[b]) || (z < boxes[b + 1]) || (x > boxes[b + 2]) || (z > boxes[b + 3])) {
+				continue;
+			}
+			if (nodeRight[node] >= 0) {
+				stack[top++] = nodeRight[node];
+				stack[top++] = node + 1;
+				continue;
+			}
+			for (int t = nodeStart[node]; t < nodeStart[node] + nodeCount[node]; t++) {
+				final int j = triangles[t];
+				final int v0 = strips[j - 2] * 3, v1 = strips[j - 1] * 3, v2 = strips[j] * 3;
+				final float x0 = positions[v0], z0 = positions[v0 + 2];
+				final float x1 = positions[v1], z1 = positions[v1 + 2];
+				final float x2 = positions[v2], z2 = positions[v2 + 2];
+
+				final float det = (z1 - z2) * (x0 - x2) + (x2 - x1) * (z0 - z2);
+				if (det == 0) {
+					continue;
+				}
+				final float l0 = ((z1 - z2) * (x - x2) + (x2 - x1) * (z - z2)) / det;
+				final float l1 = ((z2 - z0) * (x - x2) + (x0 - x2) * (z - z2)) / det;
+				final float l2 = 1 - l0 - l1;
+				if ((l0 >= 0) && (l1 >= 0) && (l2 >= 0)) {
+					return l0 * positions[v0 + 1] + l1 * positions[v1 + 1] + l2 * positions[v2 + 1];
+				}
+			}
+		}
+		return Float.NaN;
+	}
+
+	final boolean pick(Frame frame, double[][] ray, double[] dest)
+	{
+		if ((triangles.length == 0) || (intersectNode(frame, ray, 0) < 0)) {
+			return false;
+		}
+		return pick(frame, ray, dest, 0);
+	}
+
+	private final boolean pick(Frame frame, double[][] ray, double[] dest, int node)
+	{
+		if (nodeRight[node] < 0) {
+			final double[] p = new double[3];
+			boolean found = false;
+			for (int t = nodeStart[node]; t < nodeStart[node] + nodeCount[node]; t++) {
+				final int j = triangles[t];
+				for (int k = 0; k < 3; k++) {
+					final int v = strips[j - 2 + k] * 3;
+					frame.toWorld(positions[v], positions[v + 1], positions[v + 2], p);
+					Math3D.setTriVert(k, p[0], p[1], p[2]);
+				}
+				if (Math3D.rayIntersectTri(dest, ray) == 1) {
+					found = true;
+				}
+			}
+			return found;
+		}
+
+		// Children, closest first
+		int first = node + 1, second = nodeRight[node];
+		double tFirst = intersectNode(frame, ray, first);
+		double tSecond = intersectNode(frame, ray, second);
+		if ((tSecond >= 0) && ((tFirst < 0) || (tSecond < tFirst))) {
+			final int n = first; first = second; second = n;
+			final double t = tFirst; tFirst = tSecond; tSecond = t;
+		}
+
+		boolean found = false;
+		if ((tFirst >= 0) && (tFirst <= getHitDistance(ray, dest))) {
+			found = pick(frame, ray, dest, first);
+		}
+		if ((tSecond >= 0) && (tSecond <= getHitDistance(ray, dest))) {
+			if (pick(frame, ray, dest, second)) {
+				found = true;
+			}
+		}
+		return found;
+	}
+
+	private final double intersectNode(Frame frame, double[][] ray, int node)
+	{
+		final int b = node * BOX;
+		return intersectArea(frame, ray, boxes[b], boxes[b + 1], boxes[b + 2], boxes[b + 3], boxes[b + 4], boxes[b + 5]);
+	}
+}
@@ -29,7 +29,11 @@ import org.ptolemy3d.io.Communicator;
  * but from an array rather than an input stream.<BR>
  * <BR>
  * Note : we could have used DataInputStream Wrapped around ByteArrayInputStream,
- * but this implementation is lighter...
+ * but this implementation is lighter...<BR>
+ * <BR>
+ * Reads are bounds-checked: when the header is longer than the array, the missing bytes are
+ * fetched from the servers. The tile loader normally completes the header before parsing it
+ * (<code>Jp2Head.getHeaderLength</code>), so this only happens on unexpected streams.
  */
 class ByteArrayReader
 {
@@ -51,32 +55,29 @@ class ByteArrayReader
 
 	public final int readUnsignedShort()
 	{
-		return read() << 8 | read();
+		ensure(2);
+		final int v = (ba[pos] & 0xff) << 8 | (ba[pos + 1] & 0xff);
+		pos += 2;
+		return v;
 	}
 
 	public final int readInt()
 	{
-		return read() << 24 | read() << 16 | read() << 8 | read();
+		ensure(4);
+		final int v = (ba[pos] & 0xff) << 24 | (ba[pos + 1] & 0xff) << 16 | (ba[pos + 2] & 0xff) << 8 | (ba[pos + 3] & 0xff);
+		pos += 4;
+		return v;
 	}
 
 	public final int read()
 	{
-		int b = 0;
-		try {
-			b = (ba[pos] & 0xff);
-			pos++;
-		}
-		catch (ArrayIndexOutOfBoundsException e) {
-			getMoreHeaderData(jp2Head.jp2Header.fileBase);	//Fixme
-			b = (ba[pos] & 0xff);
-			pos++;
-		}
-		return b;
+		ensure(1);
+		return ba[pos++] & 0xff;
 	}
 
 	public final short readShort()
 	{
-		return (short) (read() << 8 | read());
+		return (short) readUnsignedShort();
 	}
 
 	public final int readUnsignedByte()
@@ -86,10 +87,9 @@ class ByteArrayReader
 
 	public final void readFully(byte[] b, int offset, int length)
 	{
-		for (int i = offset; i < length + offset; i++) {
-			int c = read();
-			b[i] = (byte) c;
-		}
+		ensure(length);
+		System.arraycopy(ba, pos, b, offset, length);
+		pos += length;
 	}
 
 	public final int skipBytes(int len)
@@ -113,12 +113,21 @@ class ByteArrayReader
 		return pos;
 	}
 
+	/** Make sure the next <code>len</code> bytes are in the array. */
+	private final void ensure(int len)
+	{
+		if ((pos + len) > ba.length) {
+			getMoreHeaderData(jp2Head.jp2Header.fileBase, len);
+		}
+	}
+
 	/*
 	 *  this function is called in the case that there is not enought data to cover the header.
 	 *
 	 */
-	 private void getMoreHeaderData(String fileBase)
+	 private void getMoreHeaderData(String fileBase, int len)
 	 {
+		 final int size = Math.max(len, 1001);
 		 final Ptolemy3DConfiguration settings = Ptolemy3D.ptolemy.configuration;
 
 		 Communicator myJC = new BasicCommunicator(null);	//Server set in the loop
@@ -131,14 +140,14 @@ class ByteArrayReader
 				 try
 				 {
 					 myJC.verify();
-					 myJC.requestMapData(settings.locations[i][j] + fileBase + ".jp2", pos, pos + 1000);
-					 byte[] data = myJC.getData(1001);
+					 myJC.requestMapData(settings.locations[i][j] + fileBase + ".jp2", pos, pos + size - 1);
+					 byte[] data = myJC.getData(size);
 					 if (data != null)
 					 {
 						 // add this data to ba array
-						 byte[] newba = new byte[pos + 1001];
+						 byte[] newba = new byte[pos + data.length];
 						 System.arraycopy(ba, 0, newba, 0, pos);
-						 System.arraycopy(data, 0, newba, pos, 1001);
+						 System.arraycopy(data, 0, newba, pos, data.length);
 						 this.ba = newba;
 						 myJC.endSocket();
 						 myJC = null;
@@ -0,0 +1,168 @@
+/**
+ * Ptolemy3D - a Java-based 3D Viewer for GeoWeb applications.
+ * Copyright (C) 2008 Mark W. Korver
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ptolemy3d.tile.jp2;
+
+import java.util.Arrays;
+
+/**
+ * Code-block data of a tile header, in one flat int array.<BR>
+ * Code-blocks are ordered by tile | component | resolution | subband | y | x. Each one holds its
+ * inclusion and skipped most significant bit-planes, then the offset, length and truncation points
+ * of each layer.<BR>
+ * The layout only depends on the coding parameters of the main header: it is computed once by
+ * <code>Jp2Head</code> and shared by the tables of all its tiles.
+ */
+class CodeBlockTable
+{
+	/** Position of the subbands in the tables */
+	static class Layout
+	{
+		final int nComp, nRes, nLayers;
+		/** Ints per code-block */
+		final int stride;
+		final int numCodeBlocks;
+		/** First code-block of the subbands, by <code>((tile * nComp + comp) * nRes + res) * 4 + subband</code> */
+		private final int[] subbandStart;
+		/** Code-blocks per row and per column of the subbands, by <code>(comp * nRes + res) * 4 + subband</code> */
+		private final int[] numX, numY;
+
+		/**
+		 * @param sbx code-blocks per row: component | resolution | subband
+		 * @param sby code-blocks per column: component | resolution | subband
+		 * @param subRange first and last subband of the resolutions
+		 */
+		Layout(int nTiles, int nComp, int nRes, int nLayers, int[][][] sbx, int[][][] sby, int[][] subRange)
+		{
+			this.nComp = nComp;
+			this.nRes = nRes;
+			this.nLayers = nLayers;
+			this.stride = LAYERS + nLayers * LAYER_STRIDE;
+
+			numX = new int[nComp * nRes * 4];
+			numY = new int[nComp * nRes * 4];
+			for (int c = 0; c < nComp; c++) {
+				for (int r = 0; r < nRes; r++) {
+					for (int s = subRange[r][0]; s <= subRange[r][1]; s++) {
+						numX[(c * nRes + r) * 4 + s] = sbx[c][r][s];
+						numY[(c * nRes + r) * 4 + s] = sby[c][r][s];
+					}
+				}
+			}
+
+			subbandStart = new int[nTiles * numX.length];
+			int start = 0;
+			for (int t = 0, i = 0; t < nTiles; t++) {
+				for (int j = 0; j < numX.length; j++, i++) {
+					subbandStart[i] = start;
+					start += numX[j] * numY[j];
+				}
+			}
+			numCodeBlocks = start;
+		}
+
+		/** @return code-blocks per row of a subband */
+		final int getNumX(int c, int r, int s)
+		{
+			return numX[(c * nRes + r) * 4 + s];
+		}
+		/** @return code-blocks per column of a subband */
+		final int getNumY(int c, int r, int s)
+		{
+			return numY[(c * nRes + r) * 4 + s];
+		}
+		/** @return index in the table data of the code-block of row <code>m</code>, column <code>n</code> */
+		final int getCodeBlock(int t, int c, int r, int s, int m, int n)
+		{
+			final int sb = (c * nRes + r) * 4 + s;
+			return (subbandStart[t * numX.length + sb] + m * numX[sb] + n) * stride;
+		}
+	}
+
+	private final static int INC = 0, MSBSK = 1, LAYERS = 2;
+	private final static int OFF = 0, LEN = 1, TP = 2, LAYER_STRIDE = 3;
+
+	final Layout layout;
+	private final int[] data;
+
+	CodeBlockTable(Layout layout)
+	{
+		this.layout = layout;
+		this.data = new int[layout.numCodeBlocks * layout.stride];
+	}
+
+	/** Reset all the code-blocks, before parsing a tile header. */
+	final void clear()
+	{
+		Arrays.fill(data, 0);
+	}
+
+	/* Accessors, cb is the index given by Layout.getCodeBlock */
+
+	final boolean isIncluded(int cb)
+	{
+		return data[cb + INC] != 0;
+	}
+	final void setIncluded(int cb)
+	{
+		data[cb + INC] = 1;
+	}
+	final int getMsbSkipped(int cb)
+	{
+		return data[cb + MSBSK];
+	}
+	final void setMsbSkipped(int cb, int msbSk)
+	{
+		data[cb + MSBSK] = msbSk;
+	}
+	/** @return offset of the layer data in the stream */
+	final int getOffset(int cb, int ly)
+	{
+		return data[cb + LAYERS + ly * LAYER_STRIDE + OFF];
+	}
+	final void setOffset(int cb, int ly, int off)
+	{
+		data[cb + LAYERS + ly * LAYER_STRIDE + OFF] = off;
+	}
+	/** @return length of the layer data */
+	final int getLength(int cb, int ly)
+	{
+		return data[cb + LAYERS + ly * LAYER_STRIDE + LEN];
+	}
+	final void setLength(int cb, int ly, int len)
+	{
+		data[cb + LAYERS + ly * LAYER_STRIDE + LEN] = len;
+	}
+	/** @return new truncation points (coding passes) of the layer */
+	final int getTruncationPoints(int cb, int ly)
+	{
+		return data[cb + LAYERS + ly * LAYER_STRIDE + TP];
+	}
+	final void setTruncationPoints(int cb, int ly, int tp)
+	{
+		data[cb + LAYERS + ly * LAYER_STRIDE + TP] = tp;
+	}
+	/** @return truncation points (coding passes) of all the layers */
+	final int getTotalTruncationPoints(int cb)
+	{
+		int sum = 0;
+		for (int ly = 0, i = cb + LAYERS + TP; ly < layout.nLayers; ly++, i += LAYER_STRIDE) {
+			sum += data[i];
+		}
+		return sum;
+	}
+}
@@ -19,6 +19,11 @@ package org.ptolemy3d.tile.jp2;
 
 import java.util.Arrays;
 
+/**
+ * Tier 1 (code-block) decoder.<BR>
+ * An instance holds all its coder state, it must not be shared between threads:
+ * use one instance per decoding thread.
+ */
 //FIXME 85% of the download thread time is here
 class EntropyDecoder
 {
@@ -50,14 +55,15 @@ class EntropyDecoder
 		0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0
 	};
 
+	/* MQ decoder state: kept per instance so several decoders can run concurrently */
 	private byte[] buffer;
-	private static int[] mPS;
-	private static int[] I;
-	private static int c;
-	private static int cT;
-	private static int a;
-	private static int b;
-	private static boolean markerFound;
+	private int[] mPS;
+	private int[] I;
+	private int c;
+	private int cT;
+	private int a;
+	private int b;
+	private boolean markerFound;
 	private static final int initStates[] =
 	{
 		46, 3, 4, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0
@@ -379,13 +385,24 @@ class EntropyDecoder
 	 *
 	 *  entry point for running tier 1 decoding on code block
 	 */
-	static private int[] out_data = null;
+	private int[] out_data = null;
 
 	public int[] decode(int sbot, byte[] block, int sb_start, int sb_len, int[] trunc, int msbSk, int blkw, int blkh)
+	{
+		int npasses = 0;
+		for (int k = 0; k < trunc.length; k++)
+		{
+			npasses += trunc[k];
+		}
+		return decode(sbot, block, sb_start, sb_len, npasses, msbSk, blkw, blkh);
+	}
+	/**
+	 * @param npasses number of coding passes, the truncation points of all the layers
+	 */
+	public int[] decode(int sbot, byte[] block, int sb_start, int sb_len, int npasses, int msbSk, int blkw, int blkh)
 	{
 
 		int zc_lut[];     // The ZC lookup table to use
-		int npasses = 0;      // The number of coding passes to perform
 		int curbp;        // The current magnitude bit-plane (starts at 30)
 		int tsidx;        // Index of current terminated segment
 		boolean error = false;    // Error indicator
@@ -404,7 +421,7 @@ class EntropyDecoder
 			}
 			else
 			{
-				Arrays.fill(out_data, 0);
+				Arrays.fill(out_data, 0, blkw * blkh, 0);
 			}
 		}
 		//int[] out_data = new int[blkw*blkh];   // data to be output from decoding.
@@ -418,14 +435,7 @@ class EntropyDecoder
 
 		tsidx = 0;
 
-		for (int k = 0; k < trunc.length; k++)
-		{
-			npasses += trunc[k];        //if (mq == null) {
-			//    mq = new MQDecoder(block ,NUM_CTXTS,MQ_INIT);
-			//}
-			//else{
-			// We always start by an MQ segment
-		}
+		// We always start by an MQ segment
 		nextSegment(block, sb_start, sb_len);
 		resetCtxts();
 		//}
@@ -1792,13 +1802,13 @@ class EntropyDecoder
 		}
 	}
 
-	public static final void resetCtxt(int c)
+	public final void resetCtxt(int c)
 	{
 		I[c] = initStates[c];
 		mPS[c] = 0;
 	}
 
-	public static final void resetCtxts()
+	public final void resetCtxts()
 	{
 		System.arraycopy(initStates, 0, I, 0, I.length);
 		Arrays.fill(mPS, 0);
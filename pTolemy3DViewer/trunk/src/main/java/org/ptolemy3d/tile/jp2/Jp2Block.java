@@ -34,13 +34,9 @@ public class Jp2Block
 
     /*
      * CODEBLOCK INFO:: tile | component | resolution | orientation(subband) | y | x | layer
-     * length of each code block
+     * inclusion, msb skipped, offset, length and trunc points of each code block
      */
-    protected short[][][][][][][] CB_len;	// val cannot exceed 4096, short will do
-    protected int[][][][][][][] CB_off;	// offset to each codeblock in stream
-    protected boolean[][][][][][] cbInc;	// for tag tree inclusion
-    protected int[][][][][][][] cbTpLyr; 	// trunc points per layer
-    protected int[][][][][][] msbSk;		// trunc points per layer
+    protected CodeBlockTable codeBlocks;
 
     //starting point in stream from this progression level
     protected int[][] progPackStart;
@@ -61,4 +57,47 @@ public class Jp2Block
 		int end = progPackEnd[0][res];
 		return JC.getData(end - start + 1);
 	}
+
+	/**
+	 * Plan the reads of resolutions <code>firstRes</code> to <code>lastRes</code>:
+	 * contiguous or overlapping ranges are merged in a single read.
+	 * @return byte ranges {start, end}, end included
+	 */
+	public int[][] planRanges(int firstRes, int lastRes)
+	{
+		final int[][] ranges = new int[lastRes - firstRes + 1][];
+		int numRanges = 0;
+		for (int res = firstRes; res <= lastRes; res++) {
+			final int start = progPackStart[0][res];
+			final int end = progPackEnd[0][res];
+			if ((numRanges > 0) && (start <= ranges[numRanges - 1][1] + 1) && (start >= ranges[numRanges - 1][0])) {
+				if (end > ranges[numRanges - 1][1]) {
+					ranges[numRanges - 1][1] = end;
+				}
+			}
+			else {
+				ranges[numRanges++] = new int[] { start, end };
+			}
+		}
+		final int[][] planned = new int[numRanges][];
+		System.arraycopy(ranges, 0, planned, 0, numRanges);
+		return planned;
+	}
+
+	/**
+	 * Cut the data of a resolution from a read.
+	 * @param data data read, starting at position <code>pos</code> of the file
+	 * @return the data of resolution <code>res</code>, null if the read does not cover it
+	 */
+	public byte[] cutResolution(byte[] data, int pos, int res)
+	{
+		final int start = progPackStart[0][res] - pos;
+		final int end = progPackEnd[0][res] - pos;
+		if ((start < 0) || (end >= data.length) || (end < start - 1)) {
+			return null;
+		}
+		final byte[] resData = new byte[end - start + 1];
+		System.arraycopy(data, start, resData, 0, resData.length);
+		return resData;
+	}
 }
\ No newline at end of file
@@ -18,6 +18,10 @@
 package org.ptolemy3d.tile.jp2;
 
 import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * JP2 Decoder
@@ -30,6 +34,13 @@ public class Jp2Decoder
 	private Subband treeRoot;
 	private byte[] streambuff = null; // to hold raw data from the stream
 	private int NomWidth;
+	/* Parallel code-block decoding: one entropy decoder per worker */
+	private ExecutorService workerPool = null;
+	private EntropyDecoder[] workerDecs = null;
+	private Future<?>[] workerTasks = null;
+	/* Scratch buffers of the wavelet reconstruction, kept between calls */
+	private short[] lineBuf = null;
+	private short[] planeBuf = null;
 
 	public Jp2Decoder(Jp2Head h)
 	{
@@ -38,6 +49,28 @@ public class Jp2Decoder
 		treeRoot = header.treeRoot;
 	}
 
+	/**
+	 * Decode the code-blocks of the LH, HL and HH subbands with <code>numWorkers</code> tasks
+	 * submitted to <code>pool</code>.<BR>
+	 * A null pool or less than 2 workers decode everything on the calling thread.
+	 */
+	public void setWorkerPool(ExecutorService pool, int numWorkers)
+	{
+		if ((pool == null) || (numWorkers < 2)) {
+			workerPool = null;
+			workerDecs = null;
+			workerTasks = null;
+			return;
+		}
+		workerPool = pool;
+		workerDecs = new EntropyDecoder[numWorkers];
+		for (int i = 0; i < numWorkers; i++) {
+			workerDecs[i] = new EntropyDecoder();
+			workerDecs[i].init(header);
+		}
+		workerTasks = new Future<?>[numWorkers];
+	}
+
 	/**
 	 * Gets next data for next resolution.
 	 */
@@ -64,43 +97,104 @@ public class Jp2Decoder
 	 */
 	void getDataAtRes(int reslvl, int t, int c, short[] data)
 	{
-		if (reslvl == 0) {
-			Arrays.fill(data, (short) 0);
-			//traverse
-		}
 		Subband node = treeRoot;
 		while (node.resLvl != reslvl) {
 			node = node.subb_LL;
 		}
 		NomWidth = node.w;
+		if (reslvl == 0) {
+			// only the area of the resolution is used
+			Arrays.fill(data, 0, node.w * node.h, (short) 0);
+		}
 
 		if (reslvl == 0) {
 			getSubbandData(node, t, c, data);
 		}
 		else {
-			getSubbandData(node.subb_LH, t, c, data);
-			getSubbandData(node.subb_HL, t, c, data);
-			getSubbandData(node.subb_HH, t, c, data);
+			if (workerPool != null) {
+				getSubbandsDataParallel(node, t, c, data);
+			}
+			else {
+				getSubbandData(node.subb_LH, t, c, data);
+				getSubbandData(node.subb_HL, t, c, data);
+				getSubbandData(node.subb_HH, t, c, data);
+			}
 
 			wavelet2Dreconstruction(node, c, t, data);
 		}
 	}
+
+	/**
+	 * Decode the LH, HL and HH subbands of <code>node</code> with the worker pool.<BR>
+	 * Worker k decodes the code-block rows k, k+n, k+2n... of each subband. Code-blocks cover
+	 * disjoint areas of <code>data</code>, all workers are joined before returning.<BR>
+	 * A worker failure is thrown again once all workers are joined, as the serial path would throw it.
+	 */
+	private void getSubbandsDataParallel(Subband node, final int t, final int c, final short[] data)
+	{
+		final Subband lh = node.subb_LH, hl = node.subb_HL, hh = node.subb_HH;
+		final int lhMagBits = getMagBits(lh, t, c);
+		final int hlMagBits = getMagBits(hl, t, c);
+		final int hhMagBits = getMagBits(hh, t, c);
+
+		final int numWorkers = workerDecs.length;
+		for (int k = 0; k < numWorkers; k++) {
+			final EntropyDecoder dec = workerDecs[k];
+			final int firstRow = k;
+			workerTasks[k] = workerPool.submit(new Callable<Object>() {
+				public Object call()
+				{
+					decodeCodeBlocks(dec, lh, lhMagBits, t, c, data, firstRow, numWorkers);
+					decodeCodeBlocks(dec, hl, hlMagBits, t, c, data, firstRow, numWorkers);
+					decodeCodeBlocks(dec, hh, hhMagBits, t, c, data, firstRow, numWorkers);
+					return null;
+				}
+			});
+		}
+
+		Throwable failure = null;
+		for (int k = 0; k < numWorkers; k++) {
+			boolean interrupted = false;
+			while (true) {
+				try {
+					workerTasks[k].get();
+					break;
+				}
+				catch (InterruptedException e) {
+					interrupted = true;
+				}
+				catch (ExecutionException e) {
+					if (failure == null) {
+						failure = e.getCause();
+					}
+					break;
+				}
+			}
+			workerTasks[k] = null;
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		}
+		else if (failure instanceof Error) {
+			throw (Error) failure;
+		}
+		else if (failure != null) {
+			throw new RuntimeException(failure);
+		}
+	}
 	// get all code block data for this subband and store it in imgData
 	protected void getSubbandData(Subband sb, int t, int c, short[] data)
 	{
-		int s = sb.sbandIdx;
-		int r = sb.resLvl;
-		int blkw, blkh, bulx, buly;
-		// data arrays are set up
-		// tile | component | resolution | (subband index) | y | x | layer
-		int[][][] off = tileHead.CB_off[t][c][r][s];
-		short[][][] len = tileHead.CB_len[t][c][r][s];
-		boolean[][] inc = tileHead.cbInc[t][c][r][s];
-		//ByteArrayOutputStream codeblock = new ByteArrayOutputStream(100);
-		int[] out_data;
-		int cn = (sb.ulcx + sb.nomCBlkW) / sb.nomCBlkW - 1;
-		int cm = (sb.ulcy + sb.nomCBlkH) / sb.nomCBlkH - 1;
+		decodeCodeBlocks(entropyDec, sb, getMagBits(sb, t, c), t, c, data, 0, 1);
+	}
 
+	/** @return magnitude bits of the subband, for this tile and component */
+	private int getMagBits(Subband sb, int t, int c)
+	{
 		// set magBits
 		// mag bits for this tile and comp?
 		int gb = 0, exp = 0;
@@ -119,26 +213,47 @@ public class Jp2Decoder
 			gb = header.QCD_guardBits;
 			exp = header.QCD_exp[sb.resLvl][sb.sbandIdx];
 		}
-		sb.magbits = gb + exp - 1;
+		return gb + exp - 1;
+	}
+
+	/**
+	 * Decode the code-block rows <code>firstRow</code>, <code>firstRow+rowStep</code>... of the subband
+	 * with <code>entropyDec</code>.
+	 */
+	private void decodeCodeBlocks(EntropyDecoder entropyDec, Subband sb, int magBits, int t, int c, short[] data, int firstRow, int rowStep)
+	{
+		int s = sb.sbandIdx;
+		int r = sb.resLvl;
+		int blkw, blkh, bulx, buly;
+		// data arrays are set up
+		// tile | component | resolution | (subband index) | y | x | layer
+		final CodeBlockTable codeBlocks = tileHead.codeBlocks;
+		final CodeBlockTable.Layout layout = codeBlocks.layout;
+		final int numY = layout.getNumY(c, r, s);
+		final int numX = layout.getNumX(c, r, s);
+		//ByteArrayOutputStream codeblock = new ByteArrayOutputStream(100);
+		int[] out_data;
+		int cn = (sb.ulcx + sb.nomCBlkW) / sb.nomCBlkW - 1;
+		int cm = (sb.ulcy + sb.nomCBlkH) / sb.nomCBlkH - 1;
+
 		int sb_start, sb_len;
 		//loop through the t,c,r,s and get all of the code blocks
-		for (int m = 0; m < inc.length; m++)
+		for (int m = firstRow; m < numY; m += rowStep)
 		{ // vertical loop
 			buly = getBlockUly(sb, m, cm);
-			blkh = getBlockHt(sb, m, cm, buly, inc.length);
-			for (int n = 0; n < inc[0].length; n++)
+			blkh = getBlockHt(sb, m, cm, buly, numY);
+			int cb = layout.getCodeBlock(t, c, r, s, m, 0);
+			for (int n = 0; n < numX; n++, cb += layout.stride)
 			{ // horizontal loop
-				if (inc[m][n])
+				if (codeBlocks.isIncluded(cb))
 				{
-					//getCodeBlock(t,off[m][n],len[m][n],TileHead.progPackStart[t][sb.resLvl], codeblock);
 					bulx = getBlockUlx(sb, n, cn);
-					blkw = getBlockWt(sb, n, cn, bulx, inc[0].length);
-					//out_data = entropyDec.decode(sb.gOrient,codeblock.toByteArray(), TileHead.cbTpLyr[t][c][r][s][m][n],TileHead.msbSk[t][c][r][s][m][n],blkw, blkh);
-					sb_start = off[m][n][t] - tileHead.progPackStart[t][sb.resLvl];
-					sb_len = len[m][n][t];
-					out_data = entropyDec.decode(sb.gOrient, streambuff, sb_start, sb_len, tileHead.cbTpLyr[t][c][r][s][m][n], tileHead.msbSk[t][c][r][s][m][n], blkw, blkh);
+					blkw = getBlockWt(sb, n, cn, bulx, numX);
+					sb_start = codeBlocks.getOffset(cb, t) - tileHead.progPackStart[t][sb.resLvl];
+					sb_len = codeBlocks.getLength(cb, t);
+					out_data = entropyDec.decode(sb.gOrient, streambuff, sb_start, sb_len, codeBlocks.getTotalTruncationPoints(cb), codeBlocks.getMsbSkipped(cb), blkw, blkh);
 
-					dequantize(t, c, out_data, sb, blkw, blkh, buly, bulx, data);
+					dequantize(t, c, out_data, magBits, blkw, blkh, buly, bulx, data);
 				}
 			}
 		}
@@ -154,12 +269,29 @@ public class Jp2Decoder
 //		}
 //	}
 
+	/** @return the line scratch buffer, at least <code>len</code> long */
+	private short[] getLineBuffer(int len)
+	{
+		if ((lineBuf == null) || (lineBuf.length < len)) {
+			lineBuf = new short[len];
+		}
+		return lineBuf;
+	}
+
+	/** @return the plane scratch buffer, at least <code>len</code> long */
+	private short[] getPlaneBuffer(int len)
+	{
+		if ((planeBuf == null) || (planeBuf.length < len)) {
+			planeBuf = new short[len];
+		}
+		return planeBuf;
+	}
+
 	private void wavelet2Dreconstruction(Subband sb, int c, int t, short[] data)
 	{
 		int ulx, uly, w, h, imgw;
-		int i, j, k;
+		int i;
 		int offset;
-		short[] buf = new short[sb.w];
 		ulx = sb.ulx;
 		uly = sb.uly;
 		w = sb.w;
@@ -167,6 +299,7 @@ public class Jp2Decoder
 		imgw = w;
 
 		//Perform the horizontal reconstruction
+		final short[] buf = getLineBuffer(w);
 		offset = uly * imgw + ulx;
 		if (sb.ulcx % 2 == 0)
 		{ // start index is even => use LPF
@@ -190,33 +323,161 @@ public class Jp2Decoder
 			}
 		}
 
-		//Perform the vertical reconstruction
+		//Perform the vertical reconstruction, on whole rows so the inner loops run along memory
+		final short[] plane = getPlaneBuffer(w * h);
 		offset = uly * imgw + ulx;
+		for (i = 0; i < h; i++)
+		{
+			System.arraycopy(data, offset + i * imgw, plane, i * w, w);
+		}
 		if (sb.ulcy % 2 == 0)
 		{ // start index is even => use LPF
-			for (j = 0; j < w; j++, offset++)
-			{
-				for (i = h - 1                           , k=offset+i*imgw; i>=0; i--, k -= imgw)
-				{
-					buf[i] = data[k];
-				}
-				synthetize_lpf(buf, 0, (h + 1) / 2, 1,
-						buf, (h + 1) / 2, h / 2, 1,
-						data, offset, imgw);
+			synthetizeRows_lpf(plane, w, (h + 1) / 2, h / 2, data, offset, imgw);
+		}
+		else
+		{ // start index is odd => use HPF
+			synthetizeRows_hpf(plane, w, h / 2, (h + 1) / 2, data, offset, imgw);
+		}
+	}
+
+	/**
+	 * <code>synthetize_lpf</code> of all the columns at once.<BR>
+	 * Low-pass rows are the <code>lowLen</code> first rows of <code>src</code>, followed by the
+	 * high-pass rows. Rows of <code>src</code> are <code>w</code> long.
+	 */
+	private static void synthetizeRows_lpf(short[] src, int w, int lowLen, int highLen,
+			short[] out, int outOff, int outStride)
+	{
+		final int outLen = lowLen + highLen;
+		final int iStep = 2 * outStride;
+		int i, x;
+		int lk = 0; //Indexing low rows
+		int hk = lowLen * w; //Indexing high rows
+		int ik = outOff; //Indexing out rows
+
+		// Generate even rows (inverse low-pass filter)
+		if (outLen > 1)
+		{
+			for (x = 0; x < w; x++) {
+				out[ik + x] = (short) (src[lk + x] - ((src[hk + x] + 1) >> 1));
+			}
+		}
+		else
+		{
+			System.arraycopy(src, lk, out, ik, w);
+		}
+		lk += w;
+		hk += w;
+		ik += iStep;
+
+		for (i = 2; i < outLen - 1; i += 2)
+		{
+			final int hp = hk - w;
+			for (x = 0; x < w; x++) {
+				out[ik + x] = (short) (src[lk + x] - ((src[hp + x] + src[hk + x] + 2) >> 2));
+			}
+			lk += w;
+			hk += w;
+			ik += iStep;
+		}
+
+		if ((outLen % 2 == 1) && (outLen > 2))
+		{
+			final int hp = hk - w;
+			for (x = 0; x < w; x++) {
+				out[ik + x] = (short) (src[lk + x] - ((2 * src[hp + x] + 2) >> 2));
+			}
+		}
+
+		// Generate odd rows (inverse high-pass filter)
+		hk = lowLen * w;
+		ik = outOff + outStride;
+		for (i = 1; i < outLen - 1; i += 2)
+		{
+			final int prev = ik - outStride, next = ik + outStride;
+			for (x = 0; x < w; x++) {
+				out[ik + x] = (short) (src[hk + x] + ((out[prev + x] + out[next + x]) >> 1));
+			}
+			hk += w;
+			ik += iStep;
+		}
+
+		if ((outLen % 2 == 0) && (outLen > 1))
+		{
+			final int prev = ik - outStride;
+			for (x = 0; x < w; x++) {
+				out[ik + x] = (short) (src[hk + x] + out[prev + x]);
+			}
+		}
+	}
+
+	/**
+	 * <code>synthetize_hpf</code> of all the columns at once.
+	 * @see #synthetizeRows_lpf(short[], int, int, int, short[], int, int)
+	 */
+	private static void synthetizeRows_hpf(short[] src, int w, int lowLen, int highLen,
+			short[] out, int outOff, int outStride)
+	{
+		final int outLen = lowLen + highLen;
+		final int iStep = 2 * outStride;
+		int i, x;
+		int lk = 0; //Indexing low rows
+		int hk = lowLen * w; //Indexing high rows
+		int ik = outOff + outStride; //Indexing out rows
+
+		// Generate even rows (inverse low-pass filter)
+		for (i = 1; i < outLen - 1; i += 2)
+		{
+			final int hn = hk + w;
+			for (x = 0; x < w; x++) {
+				out[ik + x] = (short) (src[lk + x] - ((src[hk + x] + src[hn + x] + 2) >> 2));
+			}
+			lk += w;
+			hk += w;
+			ik += iStep;
+		}
+
+		if ((outLen > 1) && (outLen % 2 == 0))
+		{
+			for (x = 0; x < w; x++) {
+				out[ik + x] = (short) (src[lk + x] - ((2 * src[hk + x] + 2) >> 2));
 			}
+		}
 
+		// Generate odd rows (inverse high-pass filter)
+		hk = lowLen * w;
+		ik = outOff;
+		if (outLen > 1)
+		{
+			final int next = ik + outStride;
+			for (x = 0; x < w; x++) {
+				out[ik + x] = (short) (src[hk + x] + out[next + x]);
+			}
 		}
 		else
-		{ // start index is odd => use HPF
-			for (j = 0; j < w; j++, offset++)
-			{
-				for (i = h - 1                           , k=offset+i*imgw; i>=0; i--, k -= imgw)
-				{
-					buf[i] = data[k];
-				}
-				synthetize_hpf(buf, 0, h / 2, 1,
-						buf, h / 2, (h + 1) / 2, 1,
-						data, offset, imgw);
+		{
+			for (x = 0; x < w; x++) {
+				out[ik + x] = (short) (src[hk + x] >> 1);
+			}
+		}
+		hk += w;
+		ik += iStep;
+
+		for (i = 2; i < outLen - 1; i += 2)
+		{
+			final int prev = ik - outStride, next = ik + outStride;
+			for (x = 0; x < w; x++) {
+				out[ik + x] = (short) (src[hk + x] + ((out[prev + x] + out[next + x]) >> 1));
+			}
+			hk += w;
+			ik += iStep;
+		}
+
+		if ((outLen % 2 == 1) && (outLen > 1))
+		{
+			final int prev = ik - outStride;
+			for (x = 0; x < w; x++) {
+				out[ik + x] = (short) (src[hk + x] + out[prev + x]);
 			}
 		}
 	}
@@ -432,20 +693,21 @@ public class Jp2Decoder
 	 * this f8unction performs reversible quant as well as copys our data from the out data array to
 	 * our main arrray
 	 */
-	 private void dequantize(int t, int c, int[] out_data, Subband sb, int blkw, int blkh, int buly, int bulx, short[] data)
+	 private void dequantize(int t, int c, int[] out_data, int magBits, int blkw, int blkh, int buly, int bulx, short[] data)
 	 {
-		 int magBits, shiftBits, of1 = 0, of2 = 0, j;
-		 magBits = sb.magbits;
 		 // will always be reversible
-		 shiftBits = 31 - magBits;
-		 for (int z = blkh - 1; z >= 0; z--)
+		 final int shiftBits = 31 - magBits;
+		 for (int z = 0; z < blkh; z++)
 		 {
-			 for (j = 0                                                 , of1= (
-
-					 z            * blkw) , of2=((buly+z)*NomWidth+bulx); j<blkw; j++,of1++,of2++) {
-				 data[of2]=  (short)((out_data[of1] >= 0) ? (out_data[of1] >> shiftBits) : -((out_data[of1] & 0x7FFFFFFF) >> shiftBits));
+			 final int of1 = z * blkw;
+			 final int of2 = (buly + z) * NomWidth + bulx;
+			 for (int j = 0; j < blkw; j++)
+			 {
+				 // sign-magnitude to two's complement, without branch
+				 final int v = out_data[of1 + j];
+				 final int sign = v >> 31;
+				 data[of2 + j] = (short) ((((v & 0x7FFFFFFF) >> shiftBits) ^ sign) - sign);
 			 }
-
 		 }
 	 }
 
@@ -19,6 +19,7 @@
 package org.ptolemy3d.tile.jp2;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import org.ptolemy3d.Ptolemy3D;
@@ -62,8 +63,10 @@ public class Jp2Head
 	protected final static int INIT_LBLOCK = 3;
 	////////////////////////////////////// end Markers //////////////////////////////////
 
+	/** Tile header being parsed */
+	protected Jp2Block jp2Header = null;
+
 	//FIXME static fields
-	protected static Jp2Block jp2Header = null;
 
 	protected static int res; // use this as abbr because res level is needed so often
 	protected int imgW, imgH;
@@ -116,11 +119,16 @@ public class Jp2Head
 
 	private int tileBoxLen;
 	private int[][] subRange;
+	/** Main header of default.jp2, up to the first SOT marker: the template of the tile files */
+	private byte[] mainHeader;
+	/** Tag trees of all the precincts, built with the main header and reset for each packet */
 	protected TagTreeDecoder[][][][] tdInclA;
 	protected TagTreeDecoder[][][][] tdBDA;
 	protected int[][][][][] lblock;
 	protected int sbx[][][];
 	protected int sby[][][];
+	/** Code-block layout of the tile headers, shared by their tables */
+	protected final CodeBlockTable.Layout codeBlockLayout;
 	protected PktHeaderBitReader pkthdrbitrdr = new PktHeaderBitReader();
 
 	public Jp2Head(byte[] hdat)
@@ -128,6 +136,8 @@ public class Jp2Head
 		jpst.setByteArray(hdat);
 		// read Main header and extract tile sizes and other parameters.
 		parseHeader();
+		mainHeader = new byte[jpst.getPos() - 4];
+		System.arraycopy(hdat, 0, mainHeader, 0, mainHeader.length);
 
 		// do some calcs at the end.
 		ntX = (imgOrigX + imgW - tilingOrigX + tileW - 1) / tileW;
@@ -169,12 +179,18 @@ public class Jp2Head
 					sbx[st1][st2][s] = getSBNumCodeBlocksXY(st2, s, true);
 					sby[st1][st2][s] = getSBNumCodeBlocksXY(st2, s, false);
 					lblock[st1][st2][s] = new int[sbx[st1][st2][s]][sby[st1][st2][s]];
+					for (int p = 0; p < ct4; p++)
+					{
+						tdInclA[st1][st2][s][p] = new TagTreeDecoder(sby[st1][st2][s], sbx[st1][st2][s]);
+						tdBDA[st1][st2][s][p] = new TagTreeDecoder(sby[st1][st2][s], sbx[st1][st2][s]);
+					}
 				}
 
 			}
 		}
 
 		pkdPktHeaders = new byte[nTiles][];
+		codeBlockLayout = new CodeBlockTable.Layout(nTiles, nComp, res + 1, COD_nlayers, sbx, sby, subRange);
 	}
 
 	/**
@@ -289,6 +305,26 @@ public class Jp2Head
 		return true;
 	}
 
+	/**
+	 * Pass the main header of a tile file matching the template: jump to the first SOT marker.
+	 * @return false if the main header differs from the template
+	 */
+	private boolean passMainHeaderTemplate(byte[] data)
+	{
+		final int len = mainHeader.length;
+		if ((data.length < (len + 4)) || (data[len] != (byte) (SOT >> 8)) || (data[len + 1] != (byte) SOT)) {
+			return false;
+		}
+		for (int i = len - 1; i >= 0; i--) {
+			if (data[i] != mainHeader[i]) {
+				return false;
+			}
+		}
+		jpst.skipBytes(len + 2);
+		tileBoxLen = jpst.readUnsignedShort();
+		return true;
+	}
+
 	private boolean passMainHeader()
 	{
 		jpst.readShort();
@@ -672,90 +708,21 @@ public class Jp2Head
 
 			//TileHeader.progPackStart[theTile] = new int[ct1];
 			//TileHeader.progPackEnd[theTile] = new int[ct1];
-			boolean initTH;
 			for (st1 = 0; st1 < nComp; st1++)
 			{
 				for (st2 = 0; st2 <= res; st2++)
 				{
-					initTH = false;
-
-					if (jp2Header.CB_len[theTile][st1][st2] == null) {
-						initTH = true;
-					}
-					else {
-						try {
-							if (jp2Header.CB_len[theTile][st1][st2][0].length != subRange[st2][1] + 1) {
-								initTH = true;
-							}
-						}
-						catch (Exception e) {
-							initTH = true;
-						}
-					}
-
-					if (initTH) {
-						jp2Header.CB_len[theTile][st1][st2] = new short[subRange[st2][1] + 1][][][];
-						jp2Header.CB_off[theTile][st1][st2] = new int[subRange[st2][1] + 1][][][];
-						jp2Header.cbInc[theTile][st1][st2] = new boolean[subRange[st2][1] + 1][][];
-						jp2Header.cbTpLyr[theTile][st1][st2] = new int[subRange[st2][1] + 1][][][];
-						jp2Header.msbSk[theTile][st1][st2] = new int[subRange[st2][1] + 1][][];
-					}
-
 					for (int s = subRange[st2][0]; s <= subRange[st2][1]; s++)
 					{
-						initTH = false;
-
-						if (jp2Header.CB_len[theTile][st1][st2][s] == null)
-						{
-							initTH = true;
-						}
-						else
-						{
-							try
-							{
-								if ((jp2Header.CB_len[theTile][st1][st2][s].length != sbx[st1][st2][s]) || (jp2Header.CB_len[theTile][st1][st2][s][0].length != sby[st1][st2][s]) || (jp2Header.CB_len[theTile][st1][st2][s][0][0].length != COD_nlayers))
-								{
-									initTH = true;
-								}
-							}
-							catch (Exception e)
-							{
-								initTH = true;
-							}
-						}
-
-
-						if (initTH)
-						{
-							try {
-								jp2Header.CB_len[theTile][st1][st2][s] = new short[sbx[st1][st2][s]][sby[st1][st2][s]][COD_nlayers];
-								jp2Header.CB_off[theTile][st1][st2][s] = new int[sbx[st1][st2][s]][sby[st1][st2][s]][COD_nlayers];
-								jp2Header.cbInc[theTile][st1][st2][s] = new boolean[sbx[st1][st2][s]][sby[st1][st2][s]];
-								jp2Header.cbTpLyr[theTile][st1][st2][s] = new int[sbx[st1][st2][s]][sby[st1][st2][s]][COD_nlayers];
-								jp2Header.msbSk[theTile][st1][st2][s] = new int[sbx[st1][st2][s]][sby[st1][st2][s]];
-							}
-							catch(OutOfMemoryError e) {
-								IO.printError("OutOfMemoryError allocating memory for ["+theTile+"]["+st1+"]["+st2+"]["+s+"]");
-								throw e;
-							}
-						}
-
 						for (int k = sby[st1][st2][s] - 1; k >= 0; k--)
 						{
 							Arrays.fill(lblock[st1][st2][s][k], INIT_LBLOCK);
-							Arrays.fill(jp2Header.cbInc[theTile][st1][st2][s][k], false);
-							Arrays.fill(jp2Header.msbSk[theTile][st1][st2][s][k], 0);
-
-							for (int jj = 0; jj < sby[st1][st2][s]; jj++)
-							{
-								Arrays.fill(jp2Header.CB_len[theTile][st1][st2][s][k][jj], (short) 0);
-								Arrays.fill(jp2Header.CB_off[theTile][st1][st2][s][k][jj], 0);
-								Arrays.fill(jp2Header.cbTpLyr[theTile][st1][st2][s][k][jj], 0);
-							}
 						}
 					}
 				}
 			}
+			final CodeBlockTable codeBlocks = jp2Header.codeBlocks;
+			int cb;
 			int ct4;
 			for (st1 = 0; st1 < ct1; st1++)
 			{
@@ -783,16 +750,8 @@ public class Jp2Head
 							// loop on subbands
 							for (int s = subRange[rl][0]; s <= subRange[rl][1]; s++)
 							{
-								if (tdInclA[st3][rl][s][st4] == null)
-								{
-									tdInclA[st3][rl][s][st4] = new TagTreeDecoder(sby[st3][rl][s], sbx[st3][rl][s]);
-									tdBDA[st3][rl][s][st4] = new TagTreeDecoder(sby[st3][rl][s], sbx[st3][rl][s]);
-								}
-								else
-								{
-									tdInclA[st3][rl][s][st4].set(sby[st3][rl][s], sbx[st3][rl][s]);
-									tdBDA[st3][rl][s][st4].set(sby[st3][rl][s], sbx[st3][rl][s]);
-								}
+								tdInclA[st3][rl][s][st4].reset();
+								tdBDA[st3][rl][s][st4].reset();
 
 
 								// loop on x,y code blocks
@@ -800,10 +759,11 @@ public class Jp2Head
 								{
 									for (n = 0; n < sbx[st3][rl][s]; n++)
 									{
+										cb = codeBlockLayout.getCodeBlock(theTile, st3, rl, s, m, n);
 										// inclusion not set yet ?
-												ctp = arraySum(jp2Header.cbTpLyr[theTile][st3][rl][s][m][n]);
+												ctp = codeBlocks.getTotalTruncationPoints(cb);
 
-										if ((!jp2Header.cbInc[theTile][st3][rl][s][m][n]) || (ctp == 0))
+										if ((!codeBlocks.isIncluded(cb)) || (ctp == 0))
 										{
 
 											// Read inclusion using tag-tree
@@ -819,14 +779,14 @@ public class Jp2Head
 											{
 												tmp = tdBDA[st3][rl][s][st4].update(m, n, tmp2, pkthdrbitrdr);
 											}
-											jp2Header.msbSk[theTile][st3][rl][s][m][n] = tmp2 - 2;
+											codeBlocks.setMsbSkipped(cb, tmp2 - 2);
 
 
 											totnewtp = 1;
 											// set trunc points to 0 for this layer
-											jp2Header.cbTpLyr[theTile][st3][rl][s][m][n][ly] = 0;
+											codeBlocks.setTruncationPoints(cb, ly, 0);
 											// set inclusion
-											jp2Header.cbInc[theTile][st3][rl][s][m][n] = true;
+											codeBlocks.setIncluded(cb);
 										}
 										else
 										{
@@ -866,7 +826,7 @@ public class Jp2Head
 												}
 											}
 										}
-										jp2Header.cbTpLyr[theTile][st3][rl][s][m][n][ly] = totnewtp;
+										codeBlocks.setTruncationPoints(cb, ly, totnewtp);
 
 										// Code-block length
 
@@ -874,9 +834,10 @@ public class Jp2Head
 										{
 											lblock[st3][rl][s][m][n]++;
 										}
-										jp2Header.CB_len[theTile][st3][rl][s][m][n][ly] = (short) pkthdrbitrdr.readBits(lblock[st3][rl][s][m][n] + log2(totnewtp));
-										jp2Header.CB_off[theTile][st3][rl][s][m][n][ly] = curPos;
-										curPos += jp2Header.CB_len[theTile][st3][rl][s][m][n][ly];
+										tmp = pkthdrbitrdr.readBits(lblock[st3][rl][s][m][n] + log2(totnewtp));
+										codeBlocks.setLength(cb, ly, tmp);
+										codeBlocks.setOffset(cb, ly, curPos);
+										curPos += tmp;
 
 									}
 								} // end on code block loops
@@ -1040,15 +1001,6 @@ public class Jp2Head
 		}
 	}
 
-	static int arraySum(int[] a)
-	{
-		int sum = 0;
-		for (int i = 0; i < a.length; i++)
-		{
-			sum += a[i];
-		}
-		return sum;
-	}
 	/*
 	 *  we will only be performing rct transformations
 	 *
@@ -1073,42 +1025,31 @@ public class Jp2Head
 		return tdepth;
 	}
 
-	public boolean setTileHeader(Jp2Block jp2Header, byte[] data)
+	/**
+	 * Parse a tile header.<BR>
+	 * Parsing uses the header state: calls from different threads are serialized.
+	 */
+	public synchronized boolean setTileHeader(Jp2Block jp2Header, byte[] data)
 	{
 		this.jp2Header = jp2Header;
 
 		jpst.setByteArray(data);
 
-		// pass over main header
-		passMainHeader();
-		readTileHeaders();
-
-		boolean initTH = false;
-		if (jp2Header.CB_len == null) {
-			initTH = true;
-		}
-		else  {
-			try {
-				if ((jp2Header.CB_len.length != nTiles) ||
-						(jp2Header.CB_len[0].length != nComp) ||
-						(jp2Header.CB_len[0][0].length != (res + 1))) {
-					initTH = true;
-				}
-			}
-			catch (Exception e) {
-				initTH = true;
-			}
+		// pass over main header, parsing it only if it is not the one of default.jp2
+		if (!passMainHeaderTemplate(data)) {
+			passMainHeader();
 		}
+		readTileHeaders();
 
-		if (initTH) {
-			jp2Header.CB_len = new short[nTiles][nComp][res + 1][][][][];
-			jp2Header.CB_off = new int[nTiles][nComp][res + 1][][][][];
-			jp2Header.cbInc = new boolean[nTiles][nComp][res + 1][][][]; // for tag tree inclusion
-			jp2Header.cbTpLyr = new int[nTiles][nComp][res + 1][][][][]; // trunc points per layer
-			jp2Header.msbSk = new int[nTiles][nComp][res + 1][][][];
+		// code-block table of the header layout, reused if the block is parsed again
+		if ((jp2Header.codeBlocks == null) || (jp2Header.codeBlocks.layout != codeBlockLayout)) {
+			jp2Header.codeBlocks = new CodeBlockTable(codeBlockLayout);
 			jp2Header.progPackStart = new int[nTiles][res + 1];
 			jp2Header.progPackEnd = new int[nTiles][res + 1];
 		}
+		else {
+			jp2Header.codeBlocks.clear();
+		}
 
 		// read in the packed packet headers
 		for (int k = 0; k < nTiles; k++) {
@@ -1118,6 +1059,26 @@ public class Jp2Head
 		return true;
 	}
 
+	/**
+	 * Walk the boxes of the main and tile headers, without parsing them.<BR>
+	 * Used to fetch a long header (big packed packet headers) completely before parsing it.
+	 * @return length of the headers up to the first packet data, or a lower bound greater than
+	 *         <code>data.length</code> if the data ends before
+	 */
+	public static int getHeaderLength(byte[] data)
+	{
+		int pos = 2;	// SOC
+		while ((pos + 4) <= data.length) {
+			final short marker = (short) ((data[pos] & 0xff) << 8 | (data[pos + 1] & 0xff));
+			if (marker == SOD) {
+				// the parser reads the two bytes after SOD as a box length
+				return pos + 4;
+			}
+			pos += 2 + ((data[pos + 2] & 0xff) << 8 | (data[pos + 3] & 0xff));
+		}
+		return pos + 4;
+	}
+
 	private void skipBytes(int len)
 	{
 		int bytesread;
@@ -1135,23 +1096,40 @@ public class Jp2Head
 	 */
 	public void prepareImageData(short[][] dst, byte[] src, int size, int prevSize)
 	{
-		int m = 0;
 		for (int k = 0; k < prevSize; k++)
 		{
-			int dix = k * size;
-			for (int j = 0; j < prevSize; j++)
-			{
-				int u0, u1, u2;
+			prepareImageRow(dst, k * size, src, k * prevSize * 3, prevSize);
+		}
+	}
+	/**
+	 * Prepare image data from a direct buffer, read from index 0.
+	 * @see #prepareImageData(short[][], byte[], int, int)
+	 */
+	public void prepareImageData(short[][] dst, ByteBuffer src, int size, int prevSize)
+	{
+		final ByteBuffer in = src.duplicate();
+		in.clear();
+		final byte[] row = new byte[prevSize * 3];
+		for (int k = 0; k < prevSize; k++)
+		{
+			in.get(row);
+			prepareImageRow(dst, k * size, row, 0, prevSize);
+		}
+	}
+	private final void prepareImageRow(short[][] dst, int dix, byte[] src, int m, int prevSize)
+	{
+		for (int j = 0; j < prevSize; j++)
+		{
+			int u0, u1, u2;
 
-				u0 = (src[m++] & 0xFF) - ls1;
-				u1 = (src[m++] & 0xFF) - ls2;
-				u2 = (src[m++] & 0xFF) - ls3;
+			u0 = (src[m++] & 0xFF) - ls1;
+			u1 = (src[m++] & 0xFF) - ls2;
+			u2 = (src[m++] & 0xFF) - ls3;
 
-				// RCT
-				dst[1][dix + j] = (short) (u2 - u1);
-				dst[2][dix + j] = (short) (u0 - u1);
-				dst[0][dix + j] = (short) (((dst[1][dix + j] + dst[2][dix + j]) >> 2) + u1);
-			}
+			// RCT
+			dst[1][dix + j] = (short) (u2 - u1);
+			dst[2][dix + j] = (short) (u0 - u1);
+			dst[0][dix + j] = (short) (((dst[1][dix + j] + dst[2][dix + j]) >> 2) + u1);
 		}
 	}
 	/**
@@ -1159,30 +1137,48 @@ public class Jp2Head
 	 */
 	public void setImageData(byte[] dst, short[][] src, int size)
 	{
-		int offset = 0;
 		for (int i = 0; i < size; i++)
 		{
-			for (int j = 0; j < size; j++)
-			{
-				int tmp0, tmp1, tmp2, tmp3, k1;
+			setImageRow(dst, i * size * 3, src, i * size, size);
+		}
+	}
+	/**
+	 * Set image data in a direct buffer, from index 0.
+	 * @see #setImageData(byte[], short[][], int)
+	 */
+	public void setImageData(ByteBuffer dst, short[][] src, int size)
+	{
+		final ByteBuffer out = dst.duplicate();
+		out.clear();
+		final byte[] row = new byte[size * 3];
+		for (int i = 0; i < size; i++)
+		{
+			setImageRow(row, 0, src, i * size, size);
+			out.put(row);
+		}
+	}
+	private final void setImageRow(byte[] dst, int offset, short[][] src, int k0, int size)
+	{
+		for (int j = 0; j < size; j++)
+		{
+			int tmp0, tmp1, tmp2, tmp3, k1;
 
-				k1 = (i * size) + j;
+			k1 = k0 + j;
 
-				// RCT
-				tmp0 = (src[0][k1] - ((src[1][k1] + src[2][k1]) >> 2));
+			// RCT
+			tmp0 = (src[0][k1] - ((src[1][k1] + src[2][k1]) >> 2));
 
-				tmp1 = (src[2][k1] + tmp0) + ls1;
-				tmp2 = (tmp0) + ls2;
-				tmp3 = (src[1][k1] + tmp0) + ls3;
+			tmp1 = (src[2][k1] + tmp0) + ls1;
+			tmp2 = (tmp0) + ls2;
+			tmp3 = (src[1][k1] + tmp0) + ls3;
 
-				tmp1 = (tmp1 < 0) ? 0 : ((tmp1 > mv1) ? mv1 : tmp1);
-				tmp2 = (tmp2 < 0) ? 0 : ((tmp2 > mv2) ? mv2 : tmp2);
-				tmp3 = (tmp3 < 0) ? 0 : ((tmp3 > mv3) ? mv3 : tmp3);
+			tmp1 = (tmp1 < 0) ? 0 : ((tmp1 > mv1) ? mv1 : tmp1);
+			tmp2 = (tmp2 < 0) ? 0 : ((tmp2 > mv2) ? mv2 : tmp2);
+			tmp3 = (tmp3 < 0) ? 0 : ((tmp3 > mv3) ? mv3 : tmp3);
 
-				dst[offset++] = (byte) tmp1;
-				dst[offset++] = (byte) tmp2;
-				dst[offset++] = (byte) tmp3;
-			}
+			dst[offset++] = (byte) tmp1;
+			dst[offset++] = (byte) tmp2;
+			dst[offset++] = (byte) tmp3;
 		}
 	}
 }
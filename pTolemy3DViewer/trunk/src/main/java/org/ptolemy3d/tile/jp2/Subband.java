@@ -40,7 +40,6 @@ class Subband
 	public int nomCBlkW;
 	public int nomCBlkH;
 	public int tilex;  // tile index that this subband belongs to.
-	public int magbits = 0;
 	public Subband parent;
 	public Subband subb_LL;
 	public Subband subb_LH;
@@ -130,6 +130,19 @@ class TagTreeDecoder
 
     }
 
+    /**
+     * Resets all the values to Integer.MAX_VALUE and the states to 0,
+     * keeping the dimensions set at the construction.
+     * */
+    public void reset()
+    {
+        for (int i = 0; i < lvls; i++)
+        {
+            Arrays.fill(treeV[i], Integer.MAX_VALUE);
+            Arrays.fill(treeS[i], 0);
+        }
+    }
+
     /**
      * Decodes information for the specified element of the tree,
      * given the threshold, and updates its value. The information
@@ -0,0 +1,150 @@
+/**
+ * Ptolemy3D - a Java-based 3D Viewer for GeoWeb applications.
+ * Copyright (C) 2008 Mark W. Korver
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ptolemy3d.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Real-time DXT1 (S3TC) compression of RGB images, for
+ * <code>GL_COMPRESSED_RGB_S3TC_DXT1_EXT</code> textures.<BR>
+ * Each 4x4 block is coded with the two end colors of its bounding box diagonal closest to the
+ * colors distribution, inset to reduce the error, and the nearest of the 4 interpolated colors
+ * for each pixel: 8 bytes per block, 6 times smaller than RGB.<BR>
+ * Blocks over the image border repeat the border pixels.
+ */
+public class DxtCompressor
+{
+	/** @return size of the DXT1 data of a <code>width</code> x <code>height</code> image */
+	public final static int getCompressedSize(int width, int height)
+	{
+		return ((width + 3) / 4) * ((height + 3) / 4) * 8;
+	}
+
+	/**
+	 * Compress an RGB image.
+	 * @param rgb pixels, 3 bytes per pixel, rows from the top, from index 0
+	 * @param dst DXT1 data from index 0, at least <code>getCompressedSize(width, height)</code> bytes
+	 */
+	public final static void compress(ByteBuffer rgb, int width, int height, ByteBuffer dst)
+	{
+		final int[] block = new int[16 * 3];
+		final int[] palette = new int[4 * 3];
+		int out = 0;
+		for (int by = 0; by < height; by += 4) {
+			for (int bx = 0; bx < width; bx += 4) {
+				// Read the block
+				for (int y = 0, b = 0; y < 4; y++) {
+					final int row = Math.min(by + y, height - 1) * width;
+					for (int x = 0; x < 4; x++, b += 3) {
+						final int pix = (row + Math.min(bx + x, width - 1)) * 3;
+						block[b    ] = rgb.get(pix    ) & 0xFF;
+						block[b + 1] = rgb.get(pix + 1) & 0xFF;
+						block[b + 2] = rgb.get(pix + 2) & 0xFF;
+					}
+				}
+				compressBlock(block, palette, dst, out);
+				out += 8;
+			}
+		}
+	}
+
+	/** @param palette work array of the 4 colors of the block */
+	private final static void compressBlock(int[] block, int[] palette, ByteBuffer dst, int out)
+	{
+		// Bounding box and mean
+		int minR = 255, minG = 255, minB = 255;
+		int maxR = 0, maxG = 0, maxB = 0;
+		int sumR = 0, sumG = 0, sumB = 0;
+		for (int b = 0; b < 48; b += 3) {
+			final int r = block[b], g = block[b + 1], bl = block[b + 2];
+			if (r < minR) { minR = r; } if (r > maxR) { maxR = r; }
+			if (g < minG) { minG = g; } if (g > maxG) { maxG = g; }
+			if (bl < minB) { minB = bl; } if (bl > maxB) { maxB = bl; }
+			sumR += r; sumG += g; sumB += bl;
+		}
+
+		// Diagonal of the box: swap the red and blue ends if they vary against green
+		int covRG = 0, covBG = 0;
+		for (int b = 0; b < 48; b += 3) {
+			final int dg = (block[b + 1] << 4) - sumG;
+			covRG += ((block[b    ] << 4) - sumR) * dg;
+			covBG += ((block[b + 2] << 4) - sumB) * dg;
+		}
+		if (covRG < 0) {
+			final int t = minR; minR = maxR; maxR = t;
+		}
+		if (covBG < 0) {
+			final int t = minB; minB = maxB; maxB = t;
+		}
+
+		// Inset the ends by 1/16 of the range
+		final int insetR = (maxR - minR) >> 4, insetG = (maxG - minG) >> 4, insetB = (maxB - minB) >> 4;
+		int c0 = to565(maxR - insetR, maxG - insetG, maxB - insetB);
+		int c1 = to565(minR + insetR, minG + insetG, minB + insetB);
+		if (c0 < c1) {
+			final int t = c0; c0 = c1; c1 = t;
+		}
+
+		int indices = 0;
+		if (c0 != c1) {
+			// 4 colors mode (c0 > c1)
+			from565(c0, palette, 0);
+			from565(c1, palette, 3);
+			for (int c = 0; c < 3; c++) {
+				palette[6 + c] = (2 * palette[c] + palette[3 + c]) / 3;
+				palette[9 + c] = (palette[c] + 2 * palette[3 + c]) / 3;
+			}
+			for (int i = 15, b = 45; i >= 0; i--, b -= 3) {
+				int best = 0, bestDist = Integer.MAX_VALUE;
+				for (int p = 0; p < 4; p++) {
+					final int dr = block[b    ] - palette[p * 3    ];
+					final int dg = block[b + 1] - palette[p * 3 + 1];
+					final int db = block[b + 2] - palette[p * 3 + 2];
+					final int dist = dr * dr + dg * dg + db * db;
+					if (dist < bestDist) {
+						bestDist = dist;
+						best = p;
+					}
+				}
+				indices = (indices << 2) | best;
+			}
+		}
+
+		dst.put(out    , (byte) c0);
+		dst.put(out + 1, (byte) (c0 >> 8));
+		dst.put(out + 2, (byte) c1);
+		dst.put(out + 3, (byte) (c1 >> 8));
+		dst.put(out + 4, (byte) indices);
+		dst.put(out + 5, (byte) (indices >> 8));
+		dst.put(out + 6, (byte) (indices >> 16));
+		dst.put(out + 7, (byte) (indices >> 24));
+	}
+
+	private final static int to565(int r, int g, int b)
+	{
+		return ((r >> 3) << 11) | ((g >> 2) << 5) | (b >> 3);
+	}
+
+	private final static void from565(int c, int[] dst, int off)
+	{
+		final int r = (c >> 11) & 0x1F, g = (c >> 5) & 0x3F, b = c & 0x1F;
+		dst[off    ] = (r << 3) | (r >> 2);
+		dst[off + 1] = (g << 2) | (g >> 4);
+		dst[off + 2] = (b << 3) | (b >> 2);
+	}
+}
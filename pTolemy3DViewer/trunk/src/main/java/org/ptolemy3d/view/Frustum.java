@@ -0,0 +1,134 @@
+/**
+ * Ptolemy3D - a Java-based 3D Viewer for GeoWeb applications.
+ * Copyright (C) 2008 Mark W. Korver
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ptolemy3d.view;
+
+import org.ptolemy3d.math.Matrix16d;
+
+/**
+ * View volume of a frame, in world coordinates.<BR>
+ * Holds the 6 clip planes of the perspective and modelview matrices, and the horizon of the
+ * globe seen from the camera. A new instance is made at each frame, so the tile loader thread
+ * always reads the planes of a single frame.
+ */
+public class Frustum
+{
+	/** Planes (a, b, c, d), normals inward: left, right, bottom, top, near, far */
+	private final double[] planes = new double[6 * 4];
+	/** Camera position */
+	private final double camX, camY, camZ;
+	/** Square radius of the globe hiding the points behind it */
+	private final double occluderRadius2;
+	/** Distance of the camera to the horizon of the occluder, -1 if the camera is below it */
+	private final double horizonDistance;
+	/** Pixels per world unit at distance 1 */
+	private final double pixelScale;
+
+	/**
+	 * @param fovy vertical field of view, in degrees
+	 * @param screenHeight viewport height, in pixels
+	 * @param occluderRadius radius of the globe hiding what is behind the horizon
+	 */
+	public Frustum(Matrix16d perspective, Matrix16d modelview, double fovy, int screenHeight, double occluderRadius)
+	{
+		final Matrix16d clip = new Matrix16d();
+		System.arraycopy(perspective.m, 0, clip.m, 0, 16);
+		clip.multiply(modelview);
+
+		// Rows of the clip matrix (column-major)
+		final double[] m = clip.m;
+		for (int i = 0; i < 3; i++) {
+			for (int k = 0; k < 4; k++) {
+				planes[(i * 2    ) * 4 + k] = m[k * 4 + 3] + m[k * 4 + i];
+				planes[(i * 2 + 1) * 4 + k] = m[k * 4 + 3] - m[k * 4 + i];
+			}
+		}
+		for (int p = 0; p < 6; p++) {
+			final int i = p * 4;
+			final double len = Math.sqrt(planes[i] * planes[i] + planes[i + 1] * planes[i + 1] + planes[i + 2] * planes[i + 2]);
+			if (len > 0) {
+				for (int k = 0; k < 4; k++) {
+					planes[i + k] /= len;
+				}
+			}
+		}
+
+		// Camera position: the modelview is a rotation followed by a translation
+		final double[] mv = modelview.m;
+		camX = -(mv[0] * mv[12] + mv[1] * mv[13] + mv[ 2] * mv[14]);
+		camY = -(mv[4] * mv[12] + mv[5] * mv[13] + mv[ 6] * mv[14]);
+		camZ = -(mv[8] * mv[12] + mv[9] * mv[13] + mv[10] * mv[14]);
+
+		occluderRadius2 = occluderRadius * occluderRadius;
+		final double h2 = camX * camX + camY * camY + camZ * camZ - occluderRadius2;
+		horizonDistance = (h2 > 0) ? Math.sqrt(h2) : -1;
+
+		pixelScale = screenHeight / (2 * Math.tan(Math.toRadians(fovy) / 2));
+	}
+
+	/** @return false if the box is entirely outside one of the clip planes */
+	public final boolean isBoxVisible(double minX, double minY, double minZ, double maxX, double maxY, double maxZ)
+	{
+		for (int i = 0; i < planes.length; i += 4) {
+			final double a = planes[i], b = planes[i + 1], c = planes[i + 2];
+			// corner of the box the furthest along the plane normal
+			final double x = (a >= 0) ? maxX : minX;
+			final double y = (b >= 0) ? maxY : minY;
+			final double z = (c >= 0) ? maxZ : minZ;
+			if ((a * x + b * y + c * z + planes[i + 3]) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Horizon test of a bounding sphere: a point at <code>maxRadius</code> from the globe center
+	 * can only be seen up to the horizon distance plus its own horizon distance above the globe.
+	 * @param maxRadius largest distance of the bounded points to the globe center
+	 * @return true if the sphere is entirely hidden by the globe
+	 */
+	public final boolean isBehindHorizon(double x, double y, double z, double radius, double maxRadius)
+	{
+		if (horizonDistance < 0) {
+			return false;
+		}
+		final double h2 = maxRadius * maxRadius - occluderRadius2;
+		final double maxDistance = horizonDistance + ((h2 > 0) ? Math.sqrt(h2) : 0);
+
+		final double dx = x - camX, dy = y - camY, dz = z - camZ;
+		return (Math.sqrt(dx * dx + dy * dy + dz * dz) - radius) > maxDistance;
+	}
+
+	/** @return distance of the camera to the box, 0 if inside */
+	public final double getDistance(double minX, double minY, double minZ, double maxX, double maxY, double maxZ)
+	{
+		final double dx = (camX < minX) ? (minX - camX) : (camX > maxX) ? (camX - maxX) : 0;
+		final double dy = (camY < minY) ? (minY - camY) : (camY > maxY) ? (camY - maxY) : 0;
+		final double dz = (camZ < minZ) ? (minZ - camZ) : (camZ > maxZ) ? (camZ - maxZ) : 0;
+		return Math.sqrt(dx * dx + dy * dy + dz * dz);
+	}
+
+	/** @return projected size on screen, in pixels, of a length facing the camera at <code>distance</code> */
+	public final double getScreenSize(double size, double distance)
+	{
+		if (distance <= 0) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return size * pixelScale / distance;
+	}
+}
@@ -17,6 +17,8 @@
  */
 package org.ptolemy3d.view;
 
+import static org.ptolemy3d.Ptolemy3DConfiguration.EARTH_RADIUS;
+
 import javax.media.opengl.GL;
 
 import org.ptolemy3d.Ptolemy3D;
@@ -41,6 +43,11 @@ public class View
 	public Matrix16d perspective = new Matrix16d();
 	/** Modelview matrix */
 	public Matrix16d modelview = new Matrix16d();
+	/** View volume of the last frame, for the tile culling (null before the first frame) */
+	public volatile Frustum frustum = null;
+
+	/** Depth of the lowest ground below the globe surface, in meters: the horizon is taken there */
+	private final static int HORIZON_DEPTH = 500;
 
 	public View(Ptolemy3D ptolemy)
 	{
@@ -61,6 +68,9 @@ public class View
 			cameraController.stopMovement();
 			modelview.identityMatrix();
 		}
+
+		frustum = new Frustum(perspective, modelview, fov, ptolemy.events.drawHeight,
+				EARTH_RADIUS - HORIZON_DEPTH * ptolemy.unit.coordSystemRatio);
 	}
 
 	private final void updatePerspective(GL gl)
@@ -478,7 +478,7 @@ public class Ptolemy3DApplet extends Applet implements Ptolemy3DJavascript,
 	public final void setTerrainScale(double terrainScaler)
 	{
 		try {
-			ptolemy.scene.landscape.terrainScaler = terrainScaler;
+			ptolemy.scene.landscape.setTerrainScaler(terrainScaler);
 		} catch (Exception e) { IO.printStackJavascript(e); }
 	}
 	/** @return the current terrain elevation scaler. */
@@ -0,0 +1,312 @@
+package org.ptolemy3d.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Vector;
+
+import junit.framework.TestCase;
+
+/**
+ * DiskTileCache eviction, checksums and index, and the reads CachingCommunicator keeps.
+ */
+public class DiskTileCacheTest
+    extends TestCase
+{
+    private File directory;
+
+    protected void setUp() throws IOException
+    {
+        directory = File.createTempFile("tilecache", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    protected void tearDown()
+    {
+        delete(directory);
+    }
+
+    private static void delete(File file)
+    {
+        final File[] files = file.listFiles();
+        if (files != null) {
+            for (int i = 0; i < files.length; i++) {
+                delete(files[i]);
+            }
+        }
+        file.delete();
+    }
+
+    private static byte[] data(int length, int seed)
+    {
+        final byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31 + seed);
+        }
+        return data;
+    }
+
+    private static void assertData(byte[] expected, byte[] data)
+    {
+        assertNotNull(data);
+        assertEquals(expected.length, data.length);
+        for (int i = 0; i < data.length; i++) {
+            assertEquals(expected[i], data[i]);
+        }
+    }
+
+    /** @return the entry files of the cache */
+    private Vector<File> entries()
+    {
+        final Vector<File> entries = new Vector<File>();
+        final File[] dirs = directory.listFiles();
+        for (int i = 0; i < dirs.length; i++) {
+            final File[] files = dirs[i].listFiles();
+            for (int j = 0; (files != null) && (j < files.length); j++) {
+                entries.add(files[j]);
+            }
+        }
+        return entries;
+    }
+
+    public void testPutGet()
+    {
+        final DiskTileCache cache = new DiskTileCache(directory, 1000);
+        assertNull(cache.get("a"));
+        cache.put("a", data(100, 1));
+        cache.put("b", data(200, 2));
+        assertData(data(100, 1), cache.get("a"));
+        assertData(data(200, 2), cache.get("b"));
+        assertEquals(300, cache.getSize());
+
+        // replaced
+        cache.put("a", data(50, 3));
+        assertData(data(50, 3), cache.get("a"));
+        assertEquals(250, cache.getSize());
+
+        // larger than the cache
+        cache.put("c", data(2000, 4));
+        assertNull(cache.get("c"));
+    }
+
+    public void testEvictionOrder()
+    {
+        final DiskTileCache cache = new DiskTileCache(directory, 300);
+        cache.put("a", data(100, 1));
+        cache.put("b", data(100, 2));
+        cache.put("c", data(100, 3));
+
+        // a is used again: b is now the least recently used
+        assertNotNull(cache.get("a"));
+        cache.put("d", data(100, 4));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertNotNull(cache.get("d"));
+        assertEquals(300, cache.getSize());
+        assertEquals(3, entries().size());
+
+        // then c, used before a and d
+        cache.put("e", data(150, 5));
+        assertNull(cache.get("c"));
+        assertNull(cache.get("a"));
+        assertNotNull(cache.get("d"));
+        assertNotNull(cache.get("e"));
+        assertEquals(250, cache.getSize());
+    }
+
+    public void testCorruptedEntry() throws IOException
+    {
+        final DiskTileCache cache = new DiskTileCache(directory, 1000);
+        cache.put("a", data(100, 1));
+        assertEquals(1, entries().size());
+
+        // flip the last byte of the data
+        final RandomAccessFile file = new RandomAccessFile(entries().get(0), "rw");
+        try {
+            file.seek(file.length() - 1);
+            final int b = file.read();
+            file.seek(file.length() - 1);
+            file.write(b ^ 0xFF);
+        }
+        finally {
+            file.close();
+        }
+
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getSize());
+        assertEquals(0, entries().size());
+    }
+
+    public void testTruncatedEntry() throws IOException
+    {
+        final DiskTileCache cache = new DiskTileCache(directory, 1000);
+        cache.put("a", data(100, 1));
+        final RandomAccessFile file = new RandomAccessFile(entries().get(0), "rw");
+        try {
+            file.setLength(file.length() - 10);
+        }
+        finally {
+            file.close();
+        }
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getSize());
+    }
+
+    public void testReopen()
+    {
+        final DiskTileCache cache = new DiskTileCache(directory, 1000);
+        cache.put("a", data(100, 1));
+        cache.put("b", data(200, 2));
+        cache.close();
+        // written after the index was saved, as if the viewer had crashed
+        cache.put("c", data(300, 3));
+        assertEquals(3, entries().size());
+
+        final DiskTileCache reopened = new DiskTileCache(directory, 1000);
+        assertEquals(300, reopened.getSize());
+        assertEquals(2, entries().size());
+        assertData(data(100, 1), reopened.get("a"));
+        assertData(data(200, 2), reopened.get("b"));
+        assertNull(reopened.get("c"));
+    }
+
+    public void testReopenKeepsOrder()
+    {
+        final DiskTileCache cache = new DiskTileCache(directory, 300);
+        cache.put("a", data(100, 1));
+        cache.put("b", data(100, 2));
+        cache.put("c", data(100, 3));
+        assertNotNull(cache.get("a"));
+        cache.close();
+
+        final DiskTileCache reopened = new DiskTileCache(directory, 300);
+        reopened.put("d", data(100, 4));
+        assertNull(reopened.get("b"));
+        assertNotNull(reopened.get("a"));
+    }
+
+    public void testCompleteRangeCached() throws IOException
+    {
+        final FakeCommunicator fake = new FakeCommunicator(data(100, 1), -1);
+        final CachingCommunicator JC = new CachingCommunicator(fake, new DiskTileCache(directory, 10000));
+
+        JC.requestMapData("/a.jp2", 0, 99);
+        assertData(data(100, 1), JC.getData(100));
+        JC.requestMapData("/a.jp2", 0, 99);
+        assertEquals(206, JC.getHeaderReturnCode());
+        assertData(data(100, 1), JC.getData(100));
+        assertEquals(1, fake.requests);
+    }
+
+    public void testShortReadNotCached() throws IOException
+    {
+        // connection closed early, file length unknown or longer than the read
+        final int[] fileLengths = { -1, 1000 };
+        for (int i = 0; i < fileLengths.length; i++) {
+            final FakeCommunicator fake = new FakeCommunicator(data(40, 1), fileLengths[i]);
+            final CachingCommunicator JC = new CachingCommunicator(fake, new DiskTileCache(directory, 10000));
+
+            JC.requestMapData("/a.jp2", 0, 99);
+            assertEquals(40, JC.getData(100).length);
+            JC.requestMapData("/a.jp2", 0, 99);
+            assertEquals(40, JC.getData(100).length);
+            assertEquals(2, fake.requests);
+        }
+    }
+
+    public void testEndOfFileCached() throws IOException
+    {
+        // last range of a 1000 bytes file
+        final FakeCommunicator fake = new FakeCommunicator(data(40, 1), 1000);
+        final CachingCommunicator JC = new CachingCommunicator(fake, new DiskTileCache(directory, 10000));
+
+        JC.requestMapData("/a.jp2", 960, 1059);
+        assertEquals(40, JC.getData(100).length);
+        JC.requestMapData("/a.jp2", 960, 1059);
+        assertData(data(40, 1), JC.getData(100));
+        assertEquals(1, fake.requests);
+    }
+
+    public void testWholeFile() throws IOException
+    {
+        final FakeCommunicator unknown = new FakeCommunicator(data(500, 1), -1);
+        CachingCommunicator JC = new CachingCommunicator(unknown, new DiskTileCache(directory, 10000));
+        JC.requestMapData("/a.jp2");
+        assertEquals(500, JC.getData().length);
+        JC.requestMapData("/a.jp2");
+        assertEquals(500, JC.getData().length);
+        assertEquals(2, unknown.requests);
+
+        final FakeCommunicator known = new FakeCommunicator(data(500, 1), 500);
+        JC = new CachingCommunicator(known, new DiskTileCache(directory, 10000));
+        JC.requestMapData("/a.jp2");
+        assertEquals(500, JC.getData().length);
+        JC.requestMapData("/a.jp2");
+        assertEquals(200, JC.getHeaderReturnCode());
+        assertData(data(500, 1), JC.getData());
+        assertEquals(1, known.requests);
+    }
+
+    /** Communicator answering every map data request with the same data */
+    private static class FakeCommunicator implements Communicator
+    {
+        private final byte[] data;
+        private final int fileLength;
+        int requests = 0;
+
+        FakeCommunicator(byte[] data, int fileLength)
+        {
+            this.data = data;
+            this.fileLength = fileLength;
+        }
+
+        public void requestMapData(String file, int start, int end)
+        {
+            requests++;
+        }
+
+        public void requestMapData(String file)
+        {
+            requestMapData(file, 0, -1);
+        }
+
+        public byte[] getData(int len)
+        {
+            final byte[] read = new byte[Math.min(len, data.length)];
+            System.arraycopy(data, 0, read, 0, read.length);
+            return read;
+        }
+
+        public byte[] getData()
+        {
+            return getData(Integer.MAX_VALUE);
+        }
+
+        public int getFileLength()
+        {
+            return fileLength;
+        }
+
+        public int getHeaderReturnCode()
+        {
+            return 200;
+        }
+
+        public void setServer(String server) {}
+        public void endSocket() {}
+        public void verify() {}
+        public void requestData(String file, int start, int end) {}
+        public void requestData(String file) {}
+        public void readOutStream(int pos) {}
+        public void flushNotFound() {}
+        public boolean test(String file) { return true; }
+        public void setHeaderKey(String key) {}
+        public void setUrlAppend(String qrystr) {}
+        public double getBytesRead() { return 0; }
+        public void clearBytesRead() {}
+        public InputStream getInputStream() { return null; }
+    }
+}
@@ -0,0 +1,327 @@
+package org.ptolemy3d.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.HashSet;
+import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * PooledCommunicator against an in-process HTTP server.
+ */
+public class PooledCommunicatorTest
+    extends TestCase
+{
+    private static final byte[] FILE = new byte[5000];
+    static {
+        for (int i = 0; i < FILE.length; i++) {
+            FILE[i] = (byte) (i * 31);
+        }
+    }
+
+    private HttpServer server;
+    private String address;
+    /** Range headers received, null for requests without range */
+    private final Vector<String> ranges = new Vector<String>();
+    /** Client ports seen by the server, one per connection */
+    private final HashSet<Integer> ports = new HashSet<Integer>();
+    /** Released when the slow server has sent half of its body */
+    private final CountDownLatch slowStarted = new CountDownLatch(1);
+    /** Released to let the slow server end its body */
+    private final CountDownLatch slowEnd = new CountDownLatch(1);
+
+    protected void setUp() throws Exception
+    {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/tiles/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                record(exchange);
+                if (!exchange.getRequestURI().getPath().equals("/tiles/a.jp2")) {
+                    final byte[] msg = "Not Found".getBytes();
+                    exchange.sendResponseHeaders(404, msg.length);
+                    exchange.getResponseBody().write(msg);
+                    exchange.close();
+                    return;
+                }
+                final String range = exchange.getRequestHeaders().getFirst("Range");
+                if (range == null) {
+                    send(exchange, 200, 0, FILE.length - 1);
+                }
+                else {
+                    final String[] bounds = range.substring("bytes=".length()).split("-");
+                    final int start = Integer.parseInt(bounds[0]);
+                    int end = (bounds.length > 1) ? Integer.parseInt(bounds[1]) : FILE.length - 1;
+                    if (end >= FILE.length) {
+                        end = FILE.length - 1;
+                    }
+                    exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + FILE.length);
+                    send(exchange, 206, start, end);
+                }
+            }
+        });
+        server.createContext("/norange/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                record(exchange);
+                send(exchange, 200, 0, FILE.length - 1);
+            }
+        });
+        server.createContext("/close/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                record(exchange);
+                exchange.getResponseHeaders().add("Connection", "close");
+                send(exchange, 200, 0, FILE.length - 1);
+            }
+        });
+        server.createContext("/slow/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                record(exchange);
+                exchange.sendResponseHeaders(200, 100);
+                final OutputStream out = exchange.getResponseBody();
+                out.write(FILE, 0, 50);
+                out.flush();
+                slowStarted.countDown();
+                try {
+                    slowEnd.await(10, TimeUnit.SECONDS);
+                    out.write(FILE, 50, 50);
+                    out.close();
+                }
+                catch (InterruptedException e) {
+                }
+                catch (IOException e) {
+                    // client went away
+                }
+            }
+        });
+        server.start();
+        address = "127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    protected void tearDown() throws Exception
+    {
+        slowEnd.countDown();
+        HttpConnectionPool.getPool(address).closeIdle();
+        server.stop(0);
+    }
+
+    private synchronized void record(HttpExchange exchange)
+    {
+        ranges.add(exchange.getRequestHeaders().getFirst("Range"));
+        ports.add(exchange.getRemoteAddress().getPort());
+    }
+
+    private static void send(HttpExchange exchange, int code, int start, int end) throws IOException
+    {
+        exchange.sendResponseHeaders(code, end - start + 1);
+        final OutputStream out = exchange.getResponseBody();
+        out.write(FILE, start, end - start + 1);
+        out.close();
+    }
+
+    private static void assertSlice(int start, byte[] data)
+    {
+        for (int i = 0; i < data.length; i++) {
+            assertEquals(FILE[start + i], data[i]);
+        }
+    }
+
+    public void testRangeRequest() throws IOException
+    {
+        final PooledCommunicator JC = new PooledCommunicator(address);
+        JC.requestMapData("/tiles/a.jp2", 1000, 1999);
+        assertEquals(206, JC.getHeaderReturnCode());
+        final byte[] data = JC.getData(1000);
+        assertEquals(1000, data.length);
+        assertSlice(1000, data);
+        assertEquals(FILE.length, JC.getFileLength());
+        assertEquals("bytes=1000-1999", ranges.get(0));
+        assertEquals(1000.0, JC.getBytesRead(), 0);
+    }
+
+    public void testKeepAlive() throws IOException
+    {
+        final PooledCommunicator JC = new PooledCommunicator(address);
+        for (int i = 0; i < 5; i++) {
+            JC.requestMapData("/tiles/a.jp2", i * 100, i * 100 + 49);
+            assertEquals(206, JC.getHeaderReturnCode());
+            assertSlice(i * 100, JC.getData(50));
+        }
+        assertEquals(5, ranges.size());
+        assertEquals(1, ports.size());
+    }
+
+    public void testAdjacentRangesCoalesced() throws IOException
+    {
+        final PooledCommunicator JC = new PooledCommunicator(address);
+        JC.requestMapData("/tiles/a.jp2", 0, Communicator.HEADERMAXLEN);
+        JC.requestMapData("/tiles/a.jp2", Communicator.HEADERMAXLEN + 1, 2999);
+        JC.requestMapData("/tiles/a.jp2", 2500, 3499);
+
+        assertEquals(206, JC.getHeaderReturnCode());
+        final byte[] header = JC.getData(Communicator.HEADERMAXLEN + 1);
+        assertEquals(Communicator.HEADERMAXLEN + 1, header.length);
+        assertSlice(0, header);
+
+        assertEquals(206, JC.getHeaderReturnCode());
+        final byte[] data = JC.getData();
+        assertEquals(2999 - Communicator.HEADERMAXLEN, data.length);
+        assertSlice(Communicator.HEADERMAXLEN + 1, data);
+
+        final byte[] overlap = JC.getData();
+        assertEquals(1000, overlap.length);
+        assertSlice(2500, overlap);
+
+        assertEquals(1, ranges.size());
+        assertEquals("bytes=0-3499", ranges.get(0));
+    }
+
+    public void testPipelinedRequests() throws IOException
+    {
+        final PooledCommunicator JC = new PooledCommunicator(address);
+        JC.requestMapData("/tiles/a.jp2", 0, 99);
+        JC.requestMapData("/tiles/missing.jp2", 0, 99);
+        JC.requestMapData("/tiles/a.jp2", 4000, 4099);
+
+        assertEquals(206, JC.getHeaderReturnCode());
+        assertSlice(0, JC.getData(100));
+        assertEquals(404, JC.getHeaderReturnCode());
+        JC.flushNotFound();
+        assertEquals(206, JC.getHeaderReturnCode());
+        assertSlice(4000, JC.getData(100));
+
+        assertEquals(3, ranges.size());
+        assertEquals(1, ports.size());
+    }
+
+    public void testServerIgnoringRange() throws IOException
+    {
+        final PooledCommunicator JC = new PooledCommunicator(address);
+        JC.requestMapData("/norange/a.jp2", 300, 399);
+        assertEquals(200, JC.getHeaderReturnCode());
+        final byte[] data = JC.getData(100);
+        assertEquals(100, data.length);
+        assertSlice(300, data);
+        assertEquals(FILE.length, JC.getFileLength());
+    }
+
+    /** Read non adjacent ranges of a.jp2, all queued before the first read. */
+    private Thread readRanges(final int numRanges, final Throwable[] failure)
+    {
+        return new Thread() {
+            public void run()
+            {
+                try {
+                    final PooledCommunicator JC = new PooledCommunicator(address);
+                    for (int i = 0; i < numRanges; i++) {
+                        JC.requestMapData("/tiles/a.jp2", i * 100, i * 100 + 49);
+                    }
+                    for (int i = 0; i < numRanges; i++) {
+                        assertSlice(i * 100, JC.getData(50));
+                    }
+                }
+                catch (Throwable t) {
+                    failure[0] = t;
+                }
+            }
+        };
+    }
+
+    public void testMoreBatchesThanConnections() throws Exception
+    {
+        final int numRanges = HttpConnectionPool.MAX_CONNECTIONS * PooledCommunicator.PIPELINE_DEPTH + 10;
+        final Throwable[] failure = new Throwable[1];
+        final Thread reader = readRanges(numRanges, failure);
+        reader.start();
+        reader.join(10000);
+        assertFalse("blocked on its own connections", reader.isAlive());
+        assertNull(failure[0]);
+        assertEquals(numRanges, ranges.size());
+        assertEquals(1, ports.size());
+    }
+
+    public void testConcurrentCommunicators() throws Exception
+    {
+        // each one needs more connections than the pool has for half of them
+        final Thread[] readers = new Thread[HttpConnectionPool.MAX_CONNECTIONS];
+        final Throwable[][] failures = new Throwable[readers.length][1];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = readRanges(3 * PooledCommunicator.PIPELINE_DEPTH, failures[i]);
+        }
+        for (int i = 0; i < readers.length; i++) {
+            readers[i].start();
+        }
+        for (int i = 0; i < readers.length; i++) {
+            readers[i].join(10000);
+            assertFalse("deadlock", readers[i].isAlive());
+            assertNull(failures[i][0]);
+        }
+        assertEquals(readers.length * 3 * PooledCommunicator.PIPELINE_DEPTH, ranges.size());
+    }
+
+    public void testConnectionsShared() throws IOException
+    {
+        final PooledCommunicator JC1 = new PooledCommunicator(address);
+        final PooledCommunicator JC2 = new PooledCommunicator(address);
+        JC1.requestMapData("/tiles/a.jp2", 0, 9);
+        assertSlice(0, JC1.getData(10));
+        JC2.requestMapData("/tiles/a.jp2", 10, 19);
+        assertSlice(10, JC2.getData(10));
+        assertEquals(1, ports.size());
+    }
+
+    /** Ending the communicator from another thread, as Jp2TilePipeline.stop does, while a response is read. */
+    public void testEndSocketDuringRead() throws Exception
+    {
+        final PooledCommunicator JC = new PooledCommunicator(address);
+        final Throwable[] failure = new Throwable[1];
+        final Thread reader = new Thread() {
+            public void run()
+            {
+                try {
+                    JC.requestMapData("/slow/a.jp2");
+                    JC.getData(100);
+                }
+                catch (Throwable t) {
+                    failure[0] = t;
+                }
+            }
+        };
+        reader.start();
+        assertTrue(slowStarted.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+
+        JC.endSocket();
+        reader.join(5000);
+        assertFalse("read still blocked", reader.isAlive());
+        assertTrue("unexpected " + failure[0], failure[0] instanceof IOException);
+
+        // The connection went back to the pool: the communicator serves new requests
+        for (int i = 0; i < HttpConnectionPool.MAX_CONNECTIONS + 1; i++) {
+            JC.requestMapData("/tiles/a.jp2", 0, 9);
+            assertSlice(0, JC.getData(10));
+            JC.endSocket();
+        }
+    }
+
+    public void testServerClosingConnection() throws IOException
+    {
+        final PooledCommunicator JC = new PooledCommunicator(address);
+        JC.requestMapData("/close/a.jp2", 0, 9);
+        JC.requestMapData("/close/b.jp2", 20, 29);
+        assertSlice(0, JC.getData(10));
+        assertSlice(20, JC.getData(10));
+        assertEquals(2, ranges.size());
+        assertEquals(2, ports.size());
+    }
+}
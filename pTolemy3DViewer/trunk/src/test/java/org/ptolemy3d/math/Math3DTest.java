@@ -0,0 +1,60 @@
+package org.ptolemy3d.math;
+
+import junit.framework.TestCase;
+
+/**
+ * Closest hit selection of the ray/triangle intersection.
+ */
+public class Math3DTest
+    extends TestCase
+{
+    /** Vertical ray going down from y = 100 */
+    private static final double[][] RAY = { { 0.2, 100, 0.2 }, { 0.2, 99, 0.2 } };
+
+    public void testFirstHit()
+    {
+        final double[] dest = { -999, -999, -999 };
+        assertEquals(1, intersect(dest, 10));
+        assertEquals(0.2, dest[0], 1e-9);
+        assertEquals(10, dest[1], 1e-9);
+        assertEquals(0.2, dest[2], 1e-9);
+    }
+
+    public void testCloserHitReplaces()
+    {
+        final double[] dest = { -999, -999, -999 };
+        assertEquals(1, intersect(dest, 10));
+        assertEquals(1, intersect(dest, 50));
+        assertEquals(50, dest[1], 1e-9);
+    }
+
+    public void testFurtherHitIgnored()
+    {
+        final double[] dest = { -999, -999, -999 };
+        assertEquals(1, intersect(dest, 50));
+        assertEquals(0, intersect(dest, 10));
+        assertEquals(50, dest[1], 1e-9);
+    }
+
+    public void testBehindAndOutside()
+    {
+        final double[] dest = { -999, -999, -999 };
+        // triangle above the ray origin
+        assertEquals(0, intersect(dest, 150));
+        // triangle beside the ray
+        Math3D.setTriVert(0, 5, 10, 5);
+        Math3D.setTriVert(1, 6, 10, 5);
+        Math3D.setTriVert(2, 5, 10, 6);
+        assertEquals(0, Math3D.rayIntersectTri(dest, RAY));
+        assertEquals(-999.0, dest[1], 0);
+    }
+
+    /** Intersect the ray with a horizontal triangle at height <code>y</code> */
+    private static int intersect(double[] dest, double y)
+    {
+        Math3D.setTriVert(0, 0, y, 0);
+        Math3D.setTriVert(1, 1, y, 0);
+        Math3D.setTriVert(2, 0, y, 1);
+        return Math3D.rayIntersectTri(dest, RAY);
+    }
+}
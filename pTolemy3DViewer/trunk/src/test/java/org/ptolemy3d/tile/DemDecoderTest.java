@@ -0,0 +1,183 @@
+package org.ptolemy3d.tile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Round trip of compressed DEM tiles (.cdm), encoded as the DemCutter tool does.
+ */
+public class DemDecoderTest
+    extends TestCase
+{
+    private static final int ROWS = 65;
+
+    public void testLossless() throws IOException
+    {
+        final short[] heights = terrain(ROWS, 1);
+        final byte[] cdm = encode(heights, 1);
+        assertTrue(DemDecoder.isCompressed(cdm));
+        assertTrue(cdm.length < heights.length * 2);
+
+        final short[] decoded = DemDecoder.decode(cdm);
+        assertEquals(heights.length, decoded.length);
+        for (int i = 0; i < heights.length; i++) {
+            assertEquals("height " + i, heights[i], decoded[i]);
+        }
+    }
+
+    public void testQuantized() throws IOException
+    {
+        final short[] heights = terrain(ROWS, 2);
+        for (int step = 2; step <= 16; step *= 2) {
+            final short[] decoded = DemDecoder.decode(encode(heights, step));
+            assertEquals(heights.length, decoded.length);
+            for (int i = 0; i < heights.length; i++) {
+                assertTrue("step " + step + ", height " + i, Math.abs(heights[i] - decoded[i]) <= step / 2);
+            }
+        }
+    }
+
+    public void testExtremeValues() throws IOException
+    {
+        final short[] heights = new short[ROWS * ROWS];
+        for (int i = 0; i < heights.length; i++) {
+            switch (i % 4) {
+                case 0: heights[i] = Short.MIN_VALUE; break;
+                case 1: heights[i] = Short.MAX_VALUE; break;
+                case 2: heights[i] = 0; break;
+                default: heights[i] = (short) (Short.MAX_VALUE - 3); break;
+            }
+        }
+
+        final short[] lossless = DemDecoder.decode(encode(heights, 1));
+        for (int i = 0; i < heights.length; i++) {
+            assertEquals("height " + i, heights[i], lossless[i]);
+        }
+
+        // 65535 / 10 rounds up over the maximum: the top heights are rounded down, never wrapped
+        final short[] quantized = DemDecoder.decode(encode(heights, 10));
+        for (int i = 0; i < heights.length; i++) {
+            assertTrue("height " + i + ": " + quantized[i], Math.abs(heights[i] - quantized[i]) <= 5);
+        }
+    }
+
+    public void testOverflowIsClamped() throws IOException
+    {
+        // value 1 decodes to 32000 + 1000, over the header maximum
+        final byte[] cdm = payload(2, (short) 32000, Short.MAX_VALUE, (short) 1000, new int[] { 0, 1, 1, 1 });
+        final short[] decoded = DemDecoder.decode(cdm);
+        assertEquals(32000, decoded[0]);
+        for (int i = 1; i < decoded.length; i++) {
+            assertEquals(Short.MAX_VALUE, decoded[i]);
+        }
+    }
+
+    public void testTruncated() throws IOException
+    {
+        final byte[] cdm = encode(terrain(ROWS, 3), 1);
+        for (int len = 0; len < cdm.length; len += Math.max(1, cdm.length / 50)) {
+            final byte[] truncated = new byte[len];
+            System.arraycopy(cdm, 0, truncated, 0, len);
+            try {
+                DemDecoder.decode(truncated);
+                fail("Decoded " + len + " of " + cdm.length + " bytes");
+            }
+            catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    public void testBadHeader()
+    {
+        assertFalse(DemDecoder.isCompressed(new byte[] { 'C', 'D', 'M' }));
+        assertFalse(DemDecoder.isCompressed(new byte[20]));
+        try {
+            // negative step
+            DemDecoder.decode(payload(2, (short) 0, (short) 10, (short) -1, new int[4]));
+            fail("Decoded a negative step");
+        }
+        catch (IOException e) {
+            // expected
+        }
+    }
+
+    /** @return a smooth random square grid, with some cliffs */
+    private static short[] terrain(int rows, long seed)
+    {
+        final Random random = new Random(seed);
+        final short[] heights = new short[rows * rows];
+        for (int i = 0, v = 0; i < rows; i++) {
+            for (int j = 0; j < rows; j++, v++) {
+                double h = 800 + 300 * Math.sin(i * 0.1) * Math.cos(j * 0.07) + random.nextInt(5);
+                if ((i > rows / 2) && (j > rows / 2)) {
+                    h += 2000;
+                }
+                heights[v] = (short) h;
+            }
+        }
+        return heights;
+    }
+
+    /** Same encoding as the DemCutter tool */
+    private static byte[] encode(short[] dem, int step) throws IOException
+    {
+        int min = Short.MAX_VALUE;
+        for (int i = 0; i < dem.length; i++) {
+            min = Math.min(min, dem[i]);
+        }
+        final int maxValue = (Short.MAX_VALUE - min) / step;
+        final int[] values = new int[dem.length];
+        int maxQuantized = 0;
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Math.min(Math.round((float) (dem[i] - min) / step), maxValue);
+            maxQuantized = Math.max(maxQuantized, values[i]);
+        }
+        return payload((int) Math.sqrt(dem.length), (short) min, (short) (min + maxQuantized * step), (short) step, values);
+    }
+
+    private static byte[] payload(int numRows, short min, short max, short step, int[] values) throws IOException
+    {
+        final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        final DataOutputStream header = new DataOutputStream(bout);
+        header.writeInt(DemDecoder.MAGIC);
+        header.writeInt(numRows);
+        header.writeShort(min);
+        header.writeShort(max);
+        header.writeShort(step);
+        header.flush();
+
+        final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        final DeflaterOutputStream out = new DeflaterOutputStream(bout, deflater);
+        for (int i = 0, v = 0; i < numRows; i++) {
+            for (int j = 0; j < numRows; j++, v++) {
+                final int prediction;
+                if (i == 0) {
+                    prediction = (j == 0) ? 0 : values[v - 1];
+                }
+                else if (j == 0) {
+                    prediction = values[v - numRows];
+                }
+                else {
+                    prediction = values[v - 1] + values[v - numRows] - values[v - numRows - 1];
+                }
+                final int residual = values[v] - prediction;
+                int zigzag = (residual << 1) ^ (residual >> 31);
+                while ((zigzag & ~0x7F) != 0) {
+                    out.write((zigzag & 0x7F) | 0x80);
+                    zigzag >>>= 7;
+                }
+                out.write(zigzag);
+            }
+        }
+        out.finish();
+        deflater.end();
+        return bout.toByteArray();
+    }
+}
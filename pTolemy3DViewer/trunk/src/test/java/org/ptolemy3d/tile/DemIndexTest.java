@@ -0,0 +1,131 @@
+package org.ptolemy3d.tile;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.ptolemy3d.math.Math3D;
+
+/**
+ * DEM picking through the index against a scan of all the cells.
+ */
+public class DemIndexTest
+    extends TestCase
+{
+    private static final int ROWS = 33;
+    private static final double DEG = Math.PI / 180;
+
+    private ElevationDem dem;
+    private TerrainIndex.Frame frame;
+
+    protected void setUp()
+    {
+        final Random random = new Random(5);
+        final byte[] bdm = new byte[2 * ROWS * ROWS];
+        for (int i = 0, v = 0; i < ROWS; i++) {
+            for (int j = 0; j < ROWS; j++, v++) {
+                final int h = (int) (2000 * Math.sin(i * 0.3) * Math.cos(j * 0.2)) + random.nextInt(300);
+                bdm[2 * v] = (byte) (h >> 8);
+                bdm[2 * v + 1] = (byte) h;
+            }
+        }
+        dem = new ElevationDem(bdm);
+        frame = new TerrainIndex.Frame(10 * DEG, 20 * DEG, 0.1 * DEG / (ROWS - 1), 0.1 * DEG / (ROWS - 1), 10.0);
+    }
+
+    public void testSteepRays()
+    {
+        final Random random = new Random(7);
+        int hits = 0;
+        for (int q = 0; q < 300; q++) {
+            final double[][] ray = ray(random, 60000 + random.nextDouble() * 50000);
+            if (check(ray)) {
+                hits++;
+            }
+        }
+        assertTrue("hits " + hits, hits > 200);
+    }
+
+    public void testGrazingRays()
+    {
+        // low rays cross several ridges: the closest hit must be kept
+        final Random random = new Random(8);
+        int hits = 0;
+        for (int q = 0; q < 300; q++) {
+            if (check(ray(random, 2500))) {
+                hits++;
+            }
+        }
+        assertTrue("hits " + hits, hits > 50);
+    }
+
+    public void testMiss()
+    {
+        // ray going up, away from the tile
+        final double[] o = new double[3], p = new double[3];
+        frame.toWorld(ROWS / 2, 5000, ROWS / 2, o);
+        frame.toWorld(ROWS / 2, 6000, ROWS / 2, p);
+        final double[] dest = { -999, -999, -999 };
+        assertFalse(dem.index.pick(frame, new double[][] { o, p }, dest));
+        assertEquals(-999.0, dest[0], 0);
+    }
+
+    /** @return true if the ray hits the DEM, the index and both scans agreeing */
+    private boolean check(double[][] ray)
+    {
+        final double[] indexed = { -999, -999, -999 };
+        dem.index.pick(frame, ray, indexed);
+        final double[] forward = scan(ray, false);
+        final double[] backward = scan(ray, true);
+
+        assertEquals(distance(ray, forward), distance(ray, backward), 1e-6);
+        assertEquals(distance(ray, forward), distance(ray, indexed), 1e-6);
+        return distance(ray, forward) >= 0;
+    }
+
+    /** Ray from a random point above the tile, at <code>height</code>, to a random ground point */
+    private double[][] ray(Random random, double height)
+    {
+        final double[] target = new double[3], origin = new double[3];
+        frame.toWorld(random.nextDouble() * (ROWS - 1), 0, random.nextDouble() * (ROWS - 1), target);
+        frame.toWorld(random.nextDouble() * (ROWS - 1), height, random.nextDouble() * (ROWS - 1), origin);
+        return new double[][] { origin, target };
+    }
+
+    /** Closest hit of the ray with all the triangles, as the renderers split the cells */
+    private double[] scan(double[][] ray, boolean backward)
+    {
+        final double[] dest = { -999, -999, -999 };
+        final double[][] c = new double[4][3];
+        final int numCells = ROWS - 1;
+        for (int n = 0; n < numCells * numCells; n++) {
+            final int cell = backward ? (numCells * numCells - 1 - n) : n;
+            final int i = cell / numCells, j = cell % numCells, v = i * ROWS + j;
+            frame.toWorld(j, dem.heights[v], i, c[0]);
+            frame.toWorld(j + 1, dem.heights[v + 1], i, c[1]);
+            frame.toWorld(j, dem.heights[v + ROWS], i + 1, c[2]);
+            frame.toWorld(j + 1, dem.heights[v + ROWS + 1], i + 1, c[3]);
+            triangle(ray, dest, c[0], c[2], c[1]);
+            triangle(ray, dest, c[2], c[1], c[3]);
+        }
+        return dest;
+    }
+
+    private static void triangle(double[][] ray, double[] dest, double[] a, double[] b, double[] c)
+    {
+        Math3D.setTriVert(0, a[0], a[1], a[2]);
+        Math3D.setTriVert(1, b[0], b[1], b[2]);
+        Math3D.setTriVert(2, c[0], c[1], c[2]);
+        Math3D.rayIntersectTri(dest, ray);
+    }
+
+    /** @return distance of the ray origin to the hit, -1 if none */
+    private static double distance(double[][] ray, double[] dest)
+    {
+        if ((dest[0] == -999) && (dest[1] == -999) && (dest[2] == -999)) {
+            return -1;
+        }
+        final double dx = dest[0] - ray[0][0], dy = dest[1] - ray[0][1], dz = dest[2] - ray[0][2];
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+}
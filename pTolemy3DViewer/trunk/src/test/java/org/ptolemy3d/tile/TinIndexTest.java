@@ -0,0 +1,135 @@
+package org.ptolemy3d.tile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.ptolemy3d.math.Math3D;
+
+/**
+ * TIN ground height and picking through the index against a scan of all the triangles.
+ */
+public class TinIndexTest
+    extends TestCase
+{
+    private static final int GRID = 20;
+    private static final float WIDTH = 64;
+    private static final double DEG = Math.PI / 180;
+
+    private ElevationTin tin;
+    private TerrainIndex.Frame frame;
+
+    /** A jittered grid, one triangle strip per row */
+    protected void setUp() throws IOException
+    {
+        final Random random = new Random(5);
+        final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bout);
+        out.writeDouble(0);
+        out.writeDouble(0);
+        out.writeInt((int) WIDTH);
+        out.writeInt((GRID + 1) * (GRID + 1));
+        for (int i = 0; i <= GRID; i++) {
+            for (int j = 0; j <= GRID; j++) {
+                final boolean inside = (i > 0) && (i < GRID) && (j > 0) && (j < GRID);
+                out.writeFloat(j * WIDTH / GRID + (inside ? random.nextFloat() - 0.5f : 0));
+                out.writeFloat(random.nextFloat() * 500);
+                out.writeFloat(i * WIDTH / GRID + (inside ? random.nextFloat() - 0.5f : 0));
+            }
+        }
+        out.writeInt(GRID);
+        for (int i = 0; i < GRID; i++) {
+            out.writeInt(2 * (GRID + 1));
+            for (int j = 0; j <= GRID; j++) {
+                out.writeInt(i * (GRID + 1) + j);
+                out.writeInt((i + 1) * (GRID + 1) + j);
+            }
+        }
+        out.flush();
+        tin = new ElevationTin(bout.toByteArray());
+        frame = new TerrainIndex.Frame(10 * DEG, 20 * DEG, 0.1 * DEG / WIDTH, 0.1 * DEG / WIDTH, 10.0);
+    }
+
+    public void testHeight()
+    {
+        final Random random = new Random(6);
+        for (int q = 0; q < 1000; q++) {
+            final float x = random.nextFloat() * WIDTH, z = random.nextFloat() * WIDTH;
+
+            // vertical ray on the triangles in tile units
+            final double[][] ray = { { x, 1e6, z }, { x, 1e6 - 1, z } };
+            final double[] dest = { -999, -999, -999 };
+            for (int s = 0; s < tin.getNumStrips(); s++) {
+                for (int j = tin.stripStart[s] + 2; j < tin.stripStart[s + 1]; j++) {
+                    for (int k = 0; k < 3; k++) {
+                        final int v = tin.strips[j - 2 + k] * 3;
+                        Math3D.setTriVert(k, tin.positions[v], tin.positions[v + 1], tin.positions[v + 2]);
+                    }
+                    Math3D.rayIntersectTri(dest, ray);
+                }
+            }
+            assertTrue("no triangle at " + x + "," + z, dest[1] != -999);
+            assertEquals(dest[1], tin.index.getHeight(x, z), 1e-2);
+        }
+        assertTrue(Float.isNaN(tin.index.getHeight(-1, WIDTH / 2)));
+        assertTrue(Float.isNaN(tin.index.getHeight(WIDTH / 2, WIDTH + 1)));
+    }
+
+    public void testPick()
+    {
+        final Random random = new Random(7);
+        int hits = 0;
+        for (int q = 0; q < 300; q++) {
+            // steep and grazing rays
+            final double height = ((q & 1) == 0) ? 20000 : 600;
+            final double[] target = new double[3], origin = new double[3];
+            frame.toWorld(random.nextDouble() * WIDTH, 0, random.nextDouble() * WIDTH, target);
+            frame.toWorld(random.nextDouble() * WIDTH, height, random.nextDouble() * WIDTH, origin);
+            final double[][] ray = { origin, target };
+
+            final double[] indexed = { -999, -999, -999 };
+            tin.index.pick(frame, ray, indexed);
+            final double[] forward = scan(ray, false);
+            final double[] backward = scan(ray, true);
+            assertEquals(distance(ray, forward), distance(ray, backward), 1e-6);
+            assertEquals(distance(ray, forward), distance(ray, indexed), 1e-6);
+            if (distance(ray, forward) >= 0) {
+                hits++;
+            }
+        }
+        assertTrue("hits " + hits, hits > 150);
+    }
+
+    /** Closest hit of the ray with all the triangles */
+    private double[] scan(double[][] ray, boolean backward)
+    {
+        final double[] dest = { -999, -999, -999 };
+        final double[] p = new double[3];
+        final int numStrips = tin.getNumStrips();
+        for (int n = 0; n < numStrips; n++) {
+            final int s = backward ? (numStrips - 1 - n) : n;
+            for (int j = tin.stripStart[s] + 2; j < tin.stripStart[s + 1]; j++) {
+                for (int k = 0; k < 3; k++) {
+                    final int v = tin.strips[j - 2 + k] * 3;
+                    frame.toWorld(tin.positions[v], tin.positions[v + 1], tin.positions[v + 2], p);
+                    Math3D.setTriVert(k, p[0], p[1], p[2]);
+                }
+                Math3D.rayIntersectTri(dest, ray);
+            }
+        }
+        return dest;
+    }
+
+    /** @return distance of the ray origin to the hit, -1 if none */
+    private static double distance(double[][] ray, double[] dest)
+    {
+        if ((dest[0] == -999) && (dest[1] == -999) && (dest[2] == -999)) {
+            return -1;
+        }
+        final double dx = dest[0] - ray[0][0], dy = dest[1] - ray[0][1], dz = dest[2] - ray[0][2];
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+}
@@ -0,0 +1,111 @@
+package org.ptolemy3d.tile.jp2;
+
+import junit.framework.TestCase;
+
+/**
+ * Layout and accessors of the flat code-block table.
+ */
+public class CodeBlockTableTest
+    extends TestCase
+{
+    private static final int TILES = 2, COMPS = 3, RES = 3, LAYERS = 2;
+
+    private CodeBlockTable.Layout layout;
+
+    protected void setUp()
+    {
+        // resolution 0 has the LL subband only, the others the 3 detail subbands
+        final int[][] subRange = { { 0, 0 }, { 1, 3 }, { 1, 3 } };
+        final int[][][] sbx = new int[COMPS][RES][4];
+        final int[][][] sby = new int[COMPS][RES][4];
+        for (int c = 0; c < COMPS; c++) {
+            for (int r = 0; r < RES; r++) {
+                for (int s = subRange[r][0]; s <= subRange[r][1]; s++) {
+                    sbx[c][r][s] = 1 + r + s;
+                    sby[c][r][s] = 1 + r + c;
+                }
+            }
+        }
+        layout = new CodeBlockTable.Layout(TILES, COMPS, RES, LAYERS, sbx, sby, subRange);
+    }
+
+    public void testLayoutOrder()
+    {
+        assertEquals(2 + LAYERS * 3, layout.stride);
+
+        // code-blocks follow each other in tile | component | resolution | subband | y | x order
+        int expected = 0;
+        for (int t = 0; t < TILES; t++) {
+            for (int c = 0; c < COMPS; c++) {
+                for (int r = 0; r < RES; r++) {
+                    for (int s = (r == 0) ? 0 : 1; s <= ((r == 0) ? 0 : 3); s++) {
+                        assertEquals(1 + r + s, layout.getNumX(c, r, s));
+                        assertEquals(1 + r + c, layout.getNumY(c, r, s));
+                        for (int m = 0; m < layout.getNumY(c, r, s); m++) {
+                            for (int n = 0; n < layout.getNumX(c, r, s); n++) {
+                                assertEquals(expected * layout.stride, layout.getCodeBlock(t, c, r, s, m, n));
+                                expected++;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        assertEquals(expected, layout.numCodeBlocks);
+    }
+
+    public void testAccessors()
+    {
+        final CodeBlockTable table = new CodeBlockTable(layout);
+        assertSame(layout, table.layout);
+
+        // write every field of every code-block with distinct values
+        for (int i = 0; i < layout.numCodeBlocks; i++) {
+            final int cb = i * layout.stride;
+            if ((i % 3) == 0) {
+                table.setIncluded(cb);
+            }
+            table.setMsbSkipped(cb, i + 1);
+            for (int ly = 0; ly < LAYERS; ly++) {
+                table.setOffset(cb, ly, 1000 * i + ly);
+                table.setLength(cb, ly, 2000 * i + ly);
+                table.setTruncationPoints(cb, ly, i + ly + 1);
+            }
+        }
+
+        // and read them back: no field overlaps another one
+        for (int i = 0; i < layout.numCodeBlocks; i++) {
+            final int cb = i * layout.stride;
+            assertEquals((i % 3) == 0, table.isIncluded(cb));
+            assertEquals(i + 1, table.getMsbSkipped(cb));
+            int total = 0;
+            for (int ly = 0; ly < LAYERS; ly++) {
+                assertEquals(1000 * i + ly, table.getOffset(cb, ly));
+                assertEquals(2000 * i + ly, table.getLength(cb, ly));
+                assertEquals(i + ly + 1, table.getTruncationPoints(cb, ly));
+                total += i + ly + 1;
+            }
+            assertEquals(total, table.getTotalTruncationPoints(cb));
+        }
+    }
+
+    public void testClear()
+    {
+        final CodeBlockTable table = new CodeBlockTable(layout);
+        final int cb = layout.getCodeBlock(1, 2, 2, 3, 1, 2);
+        table.setIncluded(cb);
+        table.setMsbSkipped(cb, 4);
+        table.setOffset(cb, 1, 50);
+        table.setLength(cb, 1, 60);
+        table.setTruncationPoints(cb, 0, 7);
+        table.setTruncationPoints(cb, 1, 5);
+        assertEquals(12, table.getTotalTruncationPoints(cb));
+
+        table.clear();
+        assertFalse(table.isIncluded(cb));
+        assertEquals(0, table.getMsbSkipped(cb));
+        assertEquals(0, table.getOffset(cb, 1));
+        assertEquals(0, table.getLength(cb, 1));
+        assertEquals(0, table.getTotalTruncationPoints(cb));
+    }
+}
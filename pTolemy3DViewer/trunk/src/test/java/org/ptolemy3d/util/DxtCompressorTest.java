@@ -0,0 +1,161 @@
+package org.ptolemy3d.util;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * DXT1 compression of known blocks, and quality on a larger image.
+ */
+public class DxtCompressorTest
+    extends TestCase
+{
+    public void testUniformBlock()
+    {
+        final byte[] dxt = compress(fill(4, 4, 255, 0, 0), 4, 4);
+        assertEquals(8, dxt.length);
+        // both ends are pure red in 565, all indices 0
+        assertEquals(0xF800, color0(dxt));
+        assertEquals(0xF800, color1(dxt));
+        assertEquals(0, indices(dxt));
+    }
+
+    public void testTwoColorBlock()
+    {
+        // two white rows above two black rows
+        final byte[] rgb = new byte[4 * 4 * 3];
+        for (int i = 0; i < 8 * 3; i++) {
+            rgb[i] = (byte) 255;
+        }
+        final byte[] dxt = compress(rgb, 4, 4);
+
+        // ends inset by 1/16 of the range: 240 and 15
+        assertEquals(to565(240, 240, 240), color0(dxt));
+        assertEquals(to565(15, 15, 15), color1(dxt));
+        assertTrue(color0(dxt) > color1(dxt));
+        // white pixels on color 0, black pixels on color 1
+        assertEquals(0x55550000, indices(dxt));
+    }
+
+    public void testBorderBlocks()
+    {
+        // 5x3: the second column of blocks and the last row repeat the border pixels
+        final byte[] rgb = fill(5, 3, 10, 200, 30);
+        final byte[] dxt = compress(rgb, 5, 3);
+        assertEquals(DxtCompressor.getCompressedSize(5, 3), dxt.length);
+        assertEquals(16, dxt.length);
+        assertEquals(to565(10, 200, 30), color0(dxt));
+        final byte[] second = new byte[8];
+        System.arraycopy(dxt, 8, second, 0, 8);
+        assertEquals(to565(10, 200, 30), color0(second));
+        assertEquals(0, indices(second));
+    }
+
+    public void testQuality()
+    {
+        final int width = 64, height = 64;
+        final Random random = new Random(15);
+        final byte[] rgb = new byte[width * height * 3];
+        for (int y = 0, i = 0; y < height; y++) {
+            for (int x = 0; x < width; x++, i += 3) {
+                rgb[i    ] = (byte) clamp(x * 4 + random.nextInt(9) - 4);
+                rgb[i + 1] = (byte) clamp(y * 4 + random.nextInt(9) - 4);
+                rgb[i + 2] = (byte) clamp(128 + (int) (60 * Math.sin((x + y) * 0.2)));
+            }
+        }
+        final byte[] decoded = decode(compress(rgb, width, height), width, height);
+
+        double error = 0;
+        for (int i = 0; i < rgb.length; i++) {
+            final int d = (rgb[i] & 0xFF) - (decoded[i] & 0xFF);
+            error += d * d;
+        }
+        final double psnr = 10 * Math.log10(255.0 * 255.0 / (error / rgb.length));
+        assertTrue("PSNR " + psnr, psnr > 32);
+    }
+
+    private static byte[] compress(byte[] rgb, int width, int height)
+    {
+        final ByteBuffer dst = ByteBuffer.allocate(DxtCompressor.getCompressedSize(width, height));
+        DxtCompressor.compress(ByteBuffer.wrap(rgb), width, height, dst);
+        return dst.array();
+    }
+
+    /** Reference DXT1 decoder, 4 colors mode only */
+    private static byte[] decode(byte[] dxt, int width, int height)
+    {
+        final byte[] rgb = new byte[width * height * 3];
+        final int[] palette = new int[12];
+        final byte[] block = new byte[8];
+        for (int by = 0, out = 0; by < height; by += 4) {
+            for (int bx = 0; bx < width; bx += 4, out += 8) {
+                System.arraycopy(dxt, out, block, 0, 8);
+                from565(color0(block), palette, 0);
+                from565(color1(block), palette, 3);
+                for (int c = 0; c < 3; c++) {
+                    palette[6 + c] = (2 * palette[c] + palette[3 + c]) / 3;
+                    palette[9 + c] = (palette[c] + 2 * palette[3 + c]) / 3;
+                }
+                final int indices = indices(block);
+                for (int y = 0; y < 4; y++) {
+                    for (int x = 0; x < 4; x++) {
+                        if ((by + y >= height) || (bx + x >= width)) {
+                            continue;
+                        }
+                        final int p = (indices >>> (2 * (y * 4 + x))) & 3;
+                        final int pix = ((by + y) * width + bx + x) * 3;
+                        rgb[pix    ] = (byte) palette[p * 3    ];
+                        rgb[pix + 1] = (byte) palette[p * 3 + 1];
+                        rgb[pix + 2] = (byte) palette[p * 3 + 2];
+                    }
+                }
+            }
+        }
+        return rgb;
+    }
+
+    private static byte[] fill(int width, int height, int r, int g, int b)
+    {
+        final byte[] rgb = new byte[width * height * 3];
+        for (int i = 0; i < rgb.length; i += 3) {
+            rgb[i] = (byte) r;
+            rgb[i + 1] = (byte) g;
+            rgb[i + 2] = (byte) b;
+        }
+        return rgb;
+    }
+
+    private static int color0(byte[] dxt)
+    {
+        return (dxt[0] & 0xFF) | ((dxt[1] & 0xFF) << 8);
+    }
+
+    private static int color1(byte[] dxt)
+    {
+        return (dxt[2] & 0xFF) | ((dxt[3] & 0xFF) << 8);
+    }
+
+    private static int indices(byte[] dxt)
+    {
+        return (dxt[4] & 0xFF) | ((dxt[5] & 0xFF) << 8) | ((dxt[6] & 0xFF) << 16) | ((dxt[7] & 0xFF) << 24);
+    }
+
+    private static int to565(int r, int g, int b)
+    {
+        return ((r >> 3) << 11) | ((g >> 2) << 5) | (b >> 3);
+    }
+
+    private static void from565(int c, int[] dst, int off)
+    {
+        final int r = (c >> 11) & 0x1F, g = (c >> 5) & 0x3F, b = c & 0x1F;
+        dst[off] = (r << 3) | (r >> 2);
+        dst[off + 1] = (g << 2) | (g >> 4);
+        dst[off + 2] = (b << 3) | (b >> 2);
+    }
+
+    private static int clamp(int v)
+    {
+        return Math.max(0, Math.min(255, v));
+    }
+}